@@ -19,9 +19,11 @@ package com.example.appengine.firetactoe;
 import com.google.api.client.extensions.appengine.http.UrlFetchTransport;
 import com.google.api.client.http.ByteArrayContent;
 import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpTransport;
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.appidentity.AppIdentityService;
 import com.google.appengine.api.appidentity.AppIdentityServiceFactory;
 import com.google.auth.http.HttpCredentialsAdapter;
@@ -38,11 +40,16 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Utility functions for communicating with the realtime communication channel using Firebase. In
  * this app, we use Firebase as a communication bus to push the state of the board to all clients -
  * that is, players of the game. This class contains the methods used to communicate with Firebase.
+ *
+ * <p>The credentials, the request factory and the JSON serializer are created once and shared by
+ * all the requests, so that a move only pays for the request itself.
  */
 public final class FirebaseChannel {
 
@@ -54,12 +61,23 @@ public final class FirebaseChannel {
           "https://www.googleapis.com/auth/userinfo.email");
   private static final String IDENTITY_ENDPOINT =
       "https://identitytoolkit.googleapis.com/google.identity.identitytoolkit.v1.IdentityToolkit";
+  // Gson instances are thread-safe.
+  private static final Gson GSON = new Gson();
 
-  private String firebaseDbUrl;
-  private GoogleCredentials credential;
-  // Keep this a package-private member variable, so that it can be mocked for unit tests
+  // Keep these package-private member variables, so that they can be mocked for unit tests
+  String firebaseDbUrl;
+  GoogleCredentials credential;
   HttpTransport httpTransport;
 
+  // The request factory of the current transport.
+  private HttpTransport requestFactoryTransport;
+  private HttpRequestFactory requestFactory;
+
+  // The messages of sendFirebaseMessageAsync being sent, and the ones waiting for them, by channel
+  // key. Both are guarded by the lock of pendingMessages.
+  private final Map<String, CompletableFuture<Void>> sendingMessages = new HashMap<>();
+  private final Map<String, PendingMessage> pendingMessages = new HashMap<>();
+
   private static FirebaseChannel instance;
 
   /**
@@ -74,11 +92,9 @@ public final class FirebaseChannel {
   }
 
   /**
-   * Construct the singleton, with derived auth information. The Firebase database url is derived
-   * from the snippet that we provide to the client code, to guarantee that the client and the
-   * server are communicating with the same Firebase database. The auth credentials we'll use to
-   * communicate with Firebase is derived from App Engine's default credentials, and given
-   * Firebase's OAuth scopes.
+   * Construct the singleton. The Firebase database url is derived from the snippet that we provide
+   * to the client code, to guarantee that the client and the server are communicating with the
+   * same Firebase database.
    */
   private FirebaseChannel() {
     try {
@@ -91,7 +107,6 @@ public final class FirebaseChannel {
           CharStreams.toString(new InputStreamReader(firebaseConfigStream, StandardCharsets.UTF_8));
       firebaseDbUrl = parseFirebaseUrl(firebaseSnippet);
 
-      credential = GoogleCredentials.getApplicationDefault().createScoped(FIREBASE_SCOPES);
       httpTransport = UrlFetchTransport.getDefaultInstance();
     } catch (IOException e) {
       throw new RuntimeException(e);
@@ -115,6 +130,27 @@ public final class FirebaseChannel {
     return firebaseSnippet.substring(openQuote + 1, closeQuote);
   }
 
+  /**
+   * Returns the request factory of the current transport, which authenticates requests with the
+   * App Engine default credentials, given Firebase's OAuth scopes. The credentials are looked up
+   * once, and refresh their access token when it expires.
+   */
+  private synchronized HttpRequestFactory getRequestFactory() throws IOException {
+    if (credential == null) {
+      credential = GoogleCredentials.getApplicationDefault().createScoped(FIREBASE_SCOPES);
+    }
+    if (requestFactory == null || requestFactoryTransport != httpTransport) {
+      requestFactory = httpTransport.createRequestFactory(new HttpCredentialsAdapter(credential));
+      requestFactoryTransport = httpTransport;
+    }
+    return requestFactory;
+  }
+
+  private static ByteArrayContent json(Object object) {
+    return new ByteArrayContent(
+        "application/json", GSON.toJson(object).getBytes(StandardCharsets.UTF_8));
+  }
+
   /**
    * sendFirebaseMessage.
    *
@@ -123,34 +159,124 @@ public final class FirebaseChannel {
    * @throws IOException .
    */
   public void sendFirebaseMessage(String channelKey, Game game) throws IOException {
-    // Make requests auth'ed using Application Default Credentials
-    HttpRequestFactory requestFactory =
-        httpTransport.createRequestFactory(new HttpCredentialsAdapter(credential));
+    send(channelKey, game == null, game == null ? null : json(game));
+  }
+
+  // Deletes the channel if delete is set, then patches it with the game if there is one.
+  private void send(String channelKey, boolean delete, ByteArrayContent game) throws IOException {
+    HttpRequestFactory requestFactory = getRequestFactory();
     GenericUrl url =
         new GenericUrl(String.format("%s/channels/%s.json", firebaseDbUrl, channelKey));
-    HttpResponse response = null;
+    if (delete) {
+      execute(requestFactory.buildDeleteRequest(url));
+    }
+    if (game != null) {
+      execute(requestFactory.buildPatchRequest(url, game));
+    }
+  }
 
+  private static void execute(HttpRequest request) throws IOException {
+    HttpResponse response = request.execute();
     try {
-      if (null == game) {
-        response = requestFactory.buildDeleteRequest(url).execute();
-      } else {
-        String gameJson = new Gson().toJson(game);
-        response =
-            requestFactory
-                .buildPatchRequest(
-                    url, new ByteArrayContent("application/json", gameJson.getBytes()))
-                .execute();
-      }
-
       if (response.getStatusCode() != 200) {
         throw new RuntimeException(
             "Error code while updating Firebase: " + response.getStatusCode());
       }
+    } finally {
+      // Read the rest of the response, so that the connection can be reused.
+      response.ignore();
+    }
+  }
 
+  /**
+   * Sends the game to a channel, or deletes the channel if the game is null, without waiting for
+   * the request. {@link Game} sends its updates with {@link #sendFirebaseMessage}; this method is
+   * for callers that update several channels at once, or the same channel many times.
+   *
+   * <p>A message is sent right away unless another message to the same channel is being sent. The
+   * messages that arrive behind a message being sent are gathered and sent together when it
+   * completes: as the game holds the whole state of the board, only the last one is sent, after a
+   * delete if there was one. The game is serialized when this method is called.
+   *
+   * <p>The message is sent from a thread of the current request: App Engine only allows API calls,
+   * such as the URL Fetch calls of {@link UrlFetchTransport}, from request threads, which cannot
+   * outlive their request. So wait for the returned future before the end of the request. A
+   * message merged into the one of another request is sent by the thread of that request, which
+   * waits for the same future.
+   *
+   * @return a future that completes once the message, or a newer one, is sent
+   */
+  public CompletableFuture<Void> sendFirebaseMessageAsync(String channelKey, Game game) {
+    ByteArrayContent content = game == null ? null : json(game);
+    synchronized (pendingMessages) {
+      PendingMessage message = pendingMessages.get(channelKey);
+      if (message != null) {
+        message.add(content);
+        return message.future;
+      }
+      PendingMessage next = new PendingMessage();
+      next.add(content);
+      CompletableFuture<Void> previous = sendingMessages.get(channelKey);
+      if (previous == null) {
+        sendingMessages.put(channelKey, next.future);
+      } else {
+        pendingMessages.put(channelKey, next);
+      }
+      try {
+        ThreadManager.currentRequestThreadFactory()
+            .newThread(() -> sendAfter(previous, channelKey, next))
+            .start();
+      } catch (RuntimeException e) {
+        // Not called from a request, or the request cannot start threads.
+        pendingMessages.remove(channelKey, next);
+        sendingMessages.remove(channelKey, next.future);
+        next.future.completeExceptionally(e);
+      }
+      return next.future;
+    }
+  }
+
+  // Sends the message once the previous message to the channel, if there is one, is sent.
+  private void sendAfter(
+      CompletableFuture<Void> previous, String channelKey, PendingMessage message) {
+    if (previous != null) {
+      try {
+        previous.get();
+      } catch (ExecutionException e) {
+        // The previous request failed, which its own caller is told about.
+      } catch (InterruptedException e) {
+        // The request is ending: send what was gathered so far.
+        Thread.currentThread().interrupt();
+      }
+      synchronized (pendingMessages) {
+        pendingMessages.remove(channelKey, message);
+        sendingMessages.put(channelKey, message.future);
+      }
+    }
+    try {
+      send(channelKey, message.delete, message.game);
+      message.future.complete(null);
+    } catch (IOException | RuntimeException e) {
+      message.future.completeExceptionally(e);
     } finally {
-      if (null != response) {
-        response.disconnect();
+      synchronized (pendingMessages) {
+        sendingMessages.remove(channelKey, message.future);
+      }
+    }
+  }
+
+  // The messages gathered for a channel. Only used with the lock of pendingMessages held, until
+  // the message is sent.
+  private static class PendingMessage {
+    private boolean delete;
+    private ByteArrayContent game;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    private void add(ByteArrayContent content) {
+      if (content == null) {
+        delete = true;
       }
+      game = content;
     }
   }
 
@@ -175,7 +301,7 @@ public final class FirebaseChannel {
     claims.put("iat", epochTime);
     claims.put("exp", expire);
 
-    String payload = base64.encode(new Gson().toJson(claims).getBytes());
+    String payload = base64.encode(GSON.toJson(claims).getBytes());
     String toSign = String.format("%s.%s", header, payload);
     AppIdentityService.SigningResult result = appIdentity.signForApp(toSign.getBytes());
     return String.format("%s.%s", toSign, base64.encode(result.getSignature()));
@@ -194,17 +320,9 @@ public final class FirebaseChannel {
    */
   public HttpResponse firebasePut(String path, Object object) throws IOException {
     // Make requests auth'ed using Application Default Credentials
-    GoogleCredentials credential =
-        GoogleCredentials.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory =
-        httpTransport.createRequestFactory(new HttpCredentialsAdapter(credential));
-
-    String json = new Gson().toJson(object);
     GenericUrl url = new GenericUrl(path);
 
-    return requestFactory
-        .buildPutRequest(url, new ByteArrayContent("application/json", json.getBytes()))
-        .execute();
+    return getRequestFactory().buildPutRequest(url, json(object)).execute();
   }
 
   /**
@@ -217,17 +335,9 @@ public final class FirebaseChannel {
    */
   public HttpResponse firebasePatch(String path, Object object) throws IOException {
     // Make requests auth'ed using Application Default Credentials
-    GoogleCredentials credential =
-        GoogleCredentials.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory =
-        httpTransport.createRequestFactory(new HttpCredentialsAdapter(credential));
-
-    String json = new Gson().toJson(object);
     GenericUrl url = new GenericUrl(path);
 
-    return requestFactory
-        .buildPatchRequest(url, new ByteArrayContent("application/json", json.getBytes()))
-        .execute();
+    return getRequestFactory().buildPatchRequest(url, json(object)).execute();
   }
 
   /**
@@ -240,17 +350,9 @@ public final class FirebaseChannel {
    */
   public HttpResponse firebasePost(String path, Object object) throws IOException {
     // Make requests auth'ed using Application Default Credentials
-    GoogleCredentials credential =
-        GoogleCredentials.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory =
-        httpTransport.createRequestFactory(new HttpCredentialsAdapter(credential));
-
-    String json = new Gson().toJson(object);
     GenericUrl url = new GenericUrl(path);
 
-    return requestFactory
-        .buildPostRequest(url, new ByteArrayContent("application/json", json.getBytes()))
-        .execute();
+    return getRequestFactory().buildPostRequest(url, json(object)).execute();
   }
 
   /**
@@ -262,14 +364,9 @@ public final class FirebaseChannel {
    */
   public HttpResponse firebaseGet(String path) throws IOException {
     // Make requests auth'ed using Application Default Credentials
-    GoogleCredentials credential =
-        GoogleCredentials.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory =
-        httpTransport.createRequestFactory(new HttpCredentialsAdapter(credential));
-
     GenericUrl url = new GenericUrl(path);
 
-    return requestFactory.buildGetRequest(url).execute();
+    return getRequestFactory().buildGetRequest(url).execute();
   }
 
   /**
@@ -281,13 +378,8 @@ public final class FirebaseChannel {
    */
   public HttpResponse firebaseDelete(String path) throws IOException {
     // Make requests auth'ed using Application Default Credentials
-    GoogleCredentials credential =
-        GoogleCredentials.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory =
-        httpTransport.createRequestFactory(new HttpCredentialsAdapter(credential));
-
     GenericUrl url = new GenericUrl(path);
 
-    return requestFactory.buildDeleteRequest(url).execute();
+    return getRequestFactory().buildDeleteRequest(url).execute();
   }
 }
@@ -28,8 +28,22 @@ import com.google.api.client.testing.http.MockLowLevelHttpRequest;
 import com.google.api.client.testing.http.MockLowLevelHttpResponse;
 import com.google.appengine.tools.development.testing.LocalAppIdentityServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalURLFetchServiceTestConfig;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.api.client.extensions.appengine.http.UrlFetchTransport;
+import com.google.api.client.http.HttpTransport;
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpServer;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -43,7 +57,8 @@ import org.mockito.MockitoAnnotations;
 public class FirebaseChannelTest {
   private static final String FIREBASE_DB_URL = "http://firebase.com/dburl";
   private final LocalServiceTestHelper helper =
-      new LocalServiceTestHelper(new LocalAppIdentityServiceTestConfig());
+      new LocalServiceTestHelper(
+          new LocalAppIdentityServiceTestConfig(), new LocalURLFetchServiceTestConfig());
 
   private static FirebaseChannel firebaseChannel;
 
@@ -54,6 +69,8 @@ public class FirebaseChannelTest {
         new ByteArrayInputStream(String.format("databaseURL: \"%s\"", FIREBASE_DB_URL).getBytes());
 
     firebaseChannel = FirebaseChannel.getInstance();
+    // Mock out the default credentials, which are only looked up on the first request
+    firebaseChannel.credential = GoogleCredentials.create(new AccessToken("token", null));
   }
 
   @Before
@@ -269,4 +286,122 @@ public class FirebaseChannelTest {
 
     verify(mockHttpTransport, times(1)).buildRequest("DELETE", FIREBASE_DB_URL + "/my/path");
   }
+
+  // Returns a transport that records the method, url and board of every request, once the
+  // requests are released.
+  private static MockHttpTransport recordingTransport(
+      List<String> requests, CountDownLatch release) {
+    return new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              throw new InterruptedIOException();
+            }
+            String content = getContentAsString();
+            String board =
+                content.isEmpty() ? "" : " " + new Gson().fromJson(content, Game.class).getBoard();
+            requests.add(method + " " + url + board);
+            MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+            response.setStatusCode(200);
+            return response;
+          }
+        };
+      }
+    };
+  }
+
+  private static Game game(String board) {
+    Game game = new Game();
+    game.setBoard(board);
+    return game;
+  }
+
+  @Test
+  public void sendFirebaseMessageAsync_sendsRightAwayWhenChannelIsIdle() throws Exception {
+    List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    firebaseChannel.httpTransport = recordingTransport(requests, new CountDownLatch(0));
+
+    firebaseChannel.sendFirebaseMessageAsync("my_key", game("X........")).get();
+    firebaseChannel.sendFirebaseMessageAsync("my_key", game("XO.......")).get();
+
+    assertThat(requests).containsExactly(
+        "PATCH " + FIREBASE_DB_URL + "/channels/my_key.json X........",
+        "PATCH " + FIREBASE_DB_URL + "/channels/my_key.json XO.......")
+        .inOrder();
+  }
+
+  @Test
+  public void sendFirebaseMessageAsync_coalescesMessagesBehindSendInFlight() throws Exception {
+    List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch release = new CountDownLatch(1);
+    firebaseChannel.httpTransport = recordingTransport(requests, release);
+
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    futures.add(firebaseChannel.sendFirebaseMessageAsync("my_key", game("X........")));
+    futures.add(firebaseChannel.sendFirebaseMessageAsync("other_key", game("X........")));
+    futures.add(firebaseChannel.sendFirebaseMessageAsync("my_key", game("XO.......")));
+    futures.add(firebaseChannel.sendFirebaseMessageAsync("my_key", game("XOX......")));
+    release.countDown();
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+
+    // The messages behind the first one of a channel are sent together, with the last game.
+    assertThat(requests).hasSize(3);
+    assertThat(requests).contains(
+        "PATCH " + FIREBASE_DB_URL + "/channels/other_key.json X........");
+    assertThat(requests.indexOf("PATCH " + FIREBASE_DB_URL + "/channels/my_key.json X........"))
+        .isLessThan(
+            requests.indexOf("PATCH " + FIREBASE_DB_URL + "/channels/my_key.json XOX......"));
+  }
+
+  @Test
+  public void sendFirebaseMessageAsync_deletesBeforeLastGame() throws Exception {
+    List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch release = new CountDownLatch(1);
+    firebaseChannel.httpTransport = recordingTransport(requests, release);
+
+    firebaseChannel.sendFirebaseMessageAsync("my_key", game("X........"));
+    firebaseChannel.sendFirebaseMessageAsync("my_key", null);
+    CompletableFuture<Void> last =
+        firebaseChannel.sendFirebaseMessageAsync("my_key", game("........."));
+    release.countDown();
+    last.get();
+
+    assertThat(requests).containsExactly(
+        "PATCH " + FIREBASE_DB_URL + "/channels/my_key.json X........",
+        "DELETE " + FIREBASE_DB_URL + "/channels/my_key.json",
+        "PATCH " + FIREBASE_DB_URL + "/channels/my_key.json .........")
+        .inOrder();
+  }
+
+  @Test
+  public void sendFirebaseMessageAsync_sendsThroughUrlFetch() throws Exception {
+    // URL Fetch calls only work from request threads, so send through the real transport.
+    List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", exchange -> {
+      requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+    });
+    server.start();
+    String firebaseDbUrl = firebaseChannel.firebaseDbUrl;
+    HttpTransport httpTransport = firebaseChannel.httpTransport;
+    try {
+      firebaseChannel.firebaseDbUrl = "http://localhost:" + server.getAddress().getPort();
+      firebaseChannel.httpTransport = UrlFetchTransport.getDefaultInstance();
+
+      firebaseChannel.sendFirebaseMessageAsync("my_key", game("X........")).get();
+
+      assertThat(requests).containsExactly("PATCH /channels/my_key.json");
+    } finally {
+      firebaseChannel.firebaseDbUrl = firebaseDbUrl;
+      firebaseChannel.httpTransport = httpTransport;
+      server.stop(0);
+    }
+  }
 }
@@ -19,7 +19,10 @@ import bigtable.fraud.beam.utils.AggregatedData;
 import bigtable.fraud.beam.utils.CustomerProfile;
 import bigtable.fraud.beam.utils.RowDetails;
 import bigtable.fraud.beam.utils.TransactionDetails;
+import bigtable.fraud.beam.utils.WindowAggregates;
 import bigtable.fraud.beam.utils.WriteCBTHelper;
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.core.NoCredentialsProvider;
 import com.google.cloud.aiplatform.v1.EndpointName;
 import com.google.cloud.aiplatform.v1.PredictRequest;
 import com.google.cloud.aiplatform.v1.PredictResponse;
@@ -30,22 +33,35 @@ import com.google.cloud.bigtable.beam.CloudBigtableConfiguration;
 import com.google.cloud.bigtable.beam.CloudBigtableIO;
 import com.google.cloud.bigtable.beam.CloudBigtableScanConfiguration;
 import com.google.common.base.Preconditions;
-import com.google.protobuf.ListValue;
-import com.google.protobuf.Value;
-import com.google.protobuf.util.JsonFormat;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.ManagedChannelBuilder;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.io.gcp.pubsub.PubsubIO;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.GroupIntoBatches;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -85,11 +101,36 @@ public final class FraudDetection {
       };
 
   // Reads the transaction history for that customer, and outputs an
-  // AggregatedData object.
+  // AggregatedData object. Reads are batched: the transactions of a bundle
+  // are buffered and looked up with multi-gets of up to readBatchSize
+  // customers, and the results are output when the bundle finishes.
   public static class ReadFromTableFn
       extends
       AbstractCloudBigtableTableDoFn<TransactionDetails, AggregatedData> {
 
+    /**
+     * Customer profiles shared by all the ReadFromTableFn instances of a
+     * worker, or null if profile caching is disabled.
+     */
+    private static Cache<String, CustomerProfile> profileCache;
+
+    /**
+     * The table to read from, opened on the first bundle.
+     */
+    private transient Table table;
+    /**
+     * The profile cache used by this instance, if any.
+     */
+    private transient Cache<String, CustomerProfile> cache;
+    /**
+     * The transactions that have not been looked up yet.
+     */
+    private transient List<PendingRead> pendingReads;
+    /**
+     * The transactions that have been looked up and are waiting to be output.
+     */
+    private transient List<PendingRead> completedReads;
+
     /**
      * @param config the CloudBigtableConfiguration used in reading from Cloud
      * Bigtable.
@@ -98,62 +139,273 @@ public final class FraudDetection {
       super(config);
     }
 
+    /**
+     * @param options the pipeline options.
+     * @return the worker's profile cache, or null if caching is disabled.
+     */
+    private static synchronized Cache<String, CustomerProfile> getProfileCache(
+        final FraudDetectionOptions options) {
+      if (profileCache == null && options.getProfileCacheSize() > 0) {
+        profileCache = CacheBuilder.newBuilder()
+            .maximumSize(options.getProfileCacheSize())
+            .expireAfterWrite(options.getProfileCacheTtlSeconds(),
+                TimeUnit.SECONDS)
+            .build();
+      }
+      return profileCache;
+    }
+
+    /**
+     * @param c the start bundle context.
+     */
+    @StartBundle
+    public void startBundle(
+        final DoFn<TransactionDetails, AggregatedData>.StartBundleContext c)
+        throws IOException {
+      FraudDetectionOptions options = c.getPipelineOptions()
+          .as(FraudDetectionOptions.class);
+      if (table == null) {
+        table = getConnection().getTable(
+            TableName.valueOf(options.getCBTTableId()));
+        cache = getProfileCache(options);
+      }
+      pendingReads = new ArrayList<>();
+      completedReads = new ArrayList<>();
+    }
+
     /**
      * @param c the process context that converts a TransactionDetails into an
      * AggregatedData object.
+     * @param window the window of the transaction.
      */
     @ProcessElement
     public void processElement(
-        final DoFn<TransactionDetails, AggregatedData>.ProcessContext c)
+        final DoFn<TransactionDetails, AggregatedData>.ProcessContext c,
+        final BoundedWindow window)
         throws IOException {
-      try {
-        FraudDetectionOptions options = c.getPipelineOptions()
-            .as(FraudDetectionOptions.class);
-        TransactionDetails transactionDetails = c.element();
-        LOGGER.info("Reading CBT for customerID = "
-            + transactionDetails.getCustomerID());
+      FraudDetectionOptions options = c.getPipelineOptions()
+          .as(FraudDetectionOptions.class);
+      pendingReads.add(new PendingRead(c.element(), c.timestamp(), window));
+      if (pendingReads.size() >= options.getReadBatchSize()) {
+        readPendingTransactions(options);
+      }
+    }
 
-        // Read the cells for that customer ID.
-        Table table = getConnection().getTable(
-            TableName.valueOf(options.getCBTTableId()));
-        Result row = table.get(
-            new Get(Bytes.toBytes(transactionDetails.getCustomerID())));
+    /**
+     * @param c the finish bundle context used to output the AggregatedData
+     * objects of the bundle.
+     */
+    @FinishBundle
+    public void finishBundle(
+        final DoFn<TransactionDetails, AggregatedData>.FinishBundleContext c)
+        throws IOException {
+      readPendingTransactions(
+          c.getPipelineOptions().as(FraudDetectionOptions.class));
+      for (PendingRead read : completedReads) {
+        c.output(read.aggregatedData, read.timestamp, read.window);
+      }
+      completedReads.clear();
+    }
 
-        Preconditions.checkArgument(new String(row.getRow()).equals(
-            transactionDetails.getCustomerID()));
+    /**
+     * Closes the table.
+     */
+    @Teardown
+    public void teardown() throws IOException {
+      if (table != null) {
+        table.close();
+        table = null;
+      }
+    }
 
-        CustomerProfile customerProfile = new CustomerProfile(row);
+    /**
+     * Looks up all the pending transactions with a single multi-get, reading
+     * each customer once.
+     *
+     * @param options the pipeline options.
+     */
+    private void readPendingTransactions(final FraudDetectionOptions options)
+        throws IOException {
+      if (pendingReads.isEmpty()) {
+        return;
+      }
 
-        // Generate an AggregatedData object.
-        AggregatedData aggregatedData =
-            new AggregatedData(customerProfile, transactionDetails, row);
+      // Build one Get per customer. Customers whose profile is cached only
+      // need their history.
+      Map<String, CustomerProfile> profiles = new HashMap<>();
+      List<String> customerIDs = new ArrayList<>();
+      List<Get> gets = new ArrayList<>();
+      for (PendingRead read : pendingReads) {
+        String customerID = read.transactionDetails.getCustomerID();
+        if (profiles.containsKey(customerID)) {
+          continue;
+        }
+        CustomerProfile profile =
+            cache == null ? null : cache.getIfPresent(customerID);
+        profiles.put(customerID, profile);
+        customerIDs.add(customerID);
+
+        Get get = new Get(Bytes.toBytes(customerID));
+        if (profile != null) {
+          get.addFamily(TransactionDetails.SCHEMA.getColFamilyBytes());
+          if (options.getIncrementalAggregates()) {
+            get.addFamily(Bytes.toBytes(WindowAggregates.FAMILY));
+          }
+        }
+        gets.add(get);
+      }
 
-        c.output(aggregatedData);
-      } catch (Exception e) {
-        LOGGER.error("Failed to read from Cloud Bigtable {}", c.element(), e);
-        throw e;
+      LOGGER.info("Reading CBT for {} customers", customerIDs.size());
+      Result[] results = table.get(gets);
+      Map<String, Result> rows = new HashMap<>();
+      for (int i = 0; i < results.length; i++) {
+        rows.put(customerIDs.get(i), results[i]);
+      }
+
+      for (PendingRead read : pendingReads) {
+        try {
+          String customerID = read.transactionDetails.getCustomerID();
+          Result row = rows.get(customerID);
+          Preconditions.checkArgument(!row.isEmpty()
+              && Bytes.toString(row.getRow()).equals(customerID));
+
+          CustomerProfile customerProfile = profiles.get(customerID);
+          if (customerProfile == null) {
+            customerProfile = new CustomerProfile(row);
+            profiles.put(customerID, customerProfile);
+            if (cache != null) {
+              cache.put(customerID, customerProfile);
+            }
+          }
+
+          // Generate an AggregatedData object.
+          read.aggregatedData =
+              new AggregatedData(customerProfile, read.transactionDetails,
+                  row, options.getIncrementalAggregates());
+          completedReads.add(read);
+        } catch (Exception e) {
+          LOGGER.error("Failed to read from Cloud Bigtable {}",
+              read.transactionDetails, e);
+          throw e;
+        }
+      }
+      pendingReads.clear();
+    }
+
+    // A transaction waiting to be looked up or output, with the timestamp and
+    // window it was received in.
+    private static final class PendingRead {
+
+      /**
+       * The incoming transaction.
+       */
+      private final TransactionDetails transactionDetails;
+      /**
+       * The timestamp of the incoming transaction.
+       */
+      private final Instant timestamp;
+      /**
+       * The window of the incoming transaction.
+       */
+      private final BoundedWindow window;
+      /**
+       * The result of the lookup.
+       */
+      private AggregatedData aggregatedData;
+
+      PendingRead(final TransactionDetails iTransactionDetails,
+          final Instant iTimestamp, final BoundedWindow iWindow) {
+        this.transactionDetails = iTransactionDetails;
+        this.timestamp = iTimestamp;
+        this.window = iWindow;
       }
     }
   }
 
+  // Assigns each AggregatedData object to one of the shards that ML model
+  // requests are batched in.
+  static final class AssignBatchShardFn
+      extends DoFn<AggregatedData, KV<Integer, AggregatedData>> {
+
+    /**
+     * The number of shards.
+     */
+    private final int shards;
+
+    /**
+     * @param numShards the number of shards to spread the elements over.
+     */
+    AssignBatchShardFn(final int numShards) {
+      shards = numShards;
+    }
+
+    /**
+     * @param element the element to assign a shard to.
+     * @param out the receiver of the keyed element.
+     */
+    @ProcessElement
+    public void processElement(@Element final AggregatedData element,
+        final OutputReceiver<KV<Integer, AggregatedData>> out) {
+      out.output(KV.of(ThreadLocalRandom.current().nextInt(shards), element));
+    }
+  }
+
+  // Queries the ML model with batches of AggregatedData objects, one
+  // PredictRequest per batch. Requests are sent asynchronously, with at most
+  // maxInFlightRequests outstanding per DoFn instance, and their results are
+  // output when the bundle finishes.
   public static final class QueryMlModelFn
-      extends DoFn<AggregatedData, RowDetails> {
+      extends DoFn<KV<Integer, Iterable<AggregatedData>>, TransactionDetails> {
+
+    /**
+     * The host:port of the ML prediction service.
+     */
+    private final String serviceEndpoint;
 
     /**
-     * The region of the ML model.
+     * Whether to connect to the service without TLS and credentials, used
+     * with local fake services.
      */
-    private String mlRegion;
+    private final boolean usePlaintext;
+
+    /**
+     * The maximum number of requests in flight per DoFn instance.
+     */
+    private final int maxInFlightRequests;
 
     /**
      * The client that sends requests to the ML model, and receive responses.
      */
-    private PredictionServiceClient predictionServiceClient;
+    private transient PredictionServiceClient predictionServiceClient;
+
+    /**
+     * Limits the number of requests in flight.
+     */
+    private transient Semaphore inFlightRequests;
+
+    /**
+     * The requests sent during the current bundle.
+     */
+    private transient List<PendingPrediction> pendingPredictions;
 
     /**
      * @param region the MLRegion that will be used.
+     * @param maxInFlight the maximum number of requests in flight.
      */
-    public QueryMlModelFn(final String region) {
-      mlRegion = region;
+    public QueryMlModelFn(final String region, final int maxInFlight) {
+      this(region + "-aiplatform.googleapis.com:443", false, maxInFlight);
+    }
+
+    /**
+     * @param endpoint the host:port of the ML prediction service.
+     * @param plaintext whether to connect without TLS and credentials.
+     * @param maxInFlight the maximum number of requests in flight.
+     */
+    QueryMlModelFn(final String endpoint, final boolean plaintext,
+        final int maxInFlight) {
+      serviceEndpoint = endpoint;
+      usePlaintext = plaintext;
+      maxInFlightRequests = maxInFlight;
     }
 
     /**
@@ -161,71 +413,171 @@ public final class FraudDetection {
      */
     @DoFn.Setup
     public void setup() throws IOException {
-      PredictionServiceSettings predictionServiceSettings =
-          PredictionServiceSettings.newBuilder()
-              .setEndpoint(mlRegion + "-aiplatform.googleapis.com:443")
-              .build();
+      PredictionServiceSettings.Builder settings =
+          PredictionServiceSettings.newBuilder().setEndpoint(serviceEndpoint);
+      if (usePlaintext) {
+        settings
+            .setCredentialsProvider(NoCredentialsProvider.create())
+            .setTransportChannelProvider(
+                PredictionServiceSettings.defaultGrpcTransportProviderBuilder()
+                    .setChannelConfigurator(ManagedChannelBuilder::usePlaintext)
+                    .build());
+      }
       predictionServiceClient =
-          PredictionServiceClient.create(predictionServiceSettings);
+          PredictionServiceClient.create(settings.build());
+      inFlightRequests = new Semaphore(maxInFlightRequests);
     }
 
     /**
-     * @param c the process context that converts queries the ML Model.
+     * Starts collecting the requests of a bundle.
+     */
+    @StartBundle
+    public void startBundle() {
+      pendingPredictions = new ArrayList<>();
+    }
+
+    /**
+     * @param c the process context that sends a batch to the ML Model.
+     * @param window the window of the batch.
      */
     @ProcessElement
     public void processElement(
-        final DoFn<AggregatedData, RowDetails>.ProcessContext c) {
+        final DoFn<KV<Integer, Iterable<AggregatedData>>, TransactionDetails>
+            .ProcessContext c,
+        final BoundedWindow window) throws InterruptedException {
+      // Get pipeline options.
+      FraudDetectionOptions options = c.getPipelineOptions()
+          .as(FraudDetectionOptions.class);
+      EndpointName endpointName = EndpointName.of(options.getProjectID(),
+          options.getMLRegion(), options.getMLEndpoint());
+
+      // Build the instances directly as protobuf values.
+      List<AggregatedData> batch = new ArrayList<>();
+      PredictRequest.Builder predictRequest =
+          PredictRequest.newBuilder().setEndpoint(endpointName.toString());
+      for (AggregatedData aggregatedData : c.element().getValue()) {
+        batch.add(aggregatedData);
+        predictRequest.addInstances(aggregatedData.getMLInstance());
+      }
+      LOGGER.info("Querying the ML model for {} transactions", batch.size());
+
+      // Send the prediction request without waiting for the response.
+      inFlightRequests.acquire();
+      ApiFuture<PredictResponse> predictResponse;
       try {
-        // Get pipeline options.
-        FraudDetectionOptions options = c.getPipelineOptions()
-            .as(FraudDetectionOptions.class);
-        String payload = c.element().getMLFeatures();
-        String endpointID = options.getMLEndpoint();
-        String projectID = options.getProjectID();
-
-        LOGGER.info(
-            "Querying the ML model for these features: " + c.element()
-                .getMLFeatures());
-
-        EndpointName endpointName =
-            EndpointName.of(projectID, options.getMLRegion(), endpointID);
-
-        ListValue.Builder listValue = ListValue.newBuilder();
-        JsonFormat.parser().merge(payload, listValue);
-        List<Value> instanceList = listValue.getValuesList();
-
-        // Send a prediction request and receive a response.
-        PredictRequest predictRequest =
-            PredictRequest.newBuilder()
-                .setEndpoint(endpointName.toString())
-                .addAllInstances(instanceList)
-                .build();
-
-        PredictResponse predictResponse = predictionServiceClient.predict(
-            predictRequest);
-        double fraudProbability =
-            predictResponse
-                .getPredictionsList()
-                .get(0)
-                .getListValue()
-                .getValues(0)
-                .getNumberValue();
-
-        LOGGER.info("fraudProbability = " + fraudProbability);
-
-        if (fraudProbability >= FRAUD_PROBABILITY_THRESHOLD) {
-          c.element().getTransactionDetails().setIsFraud("1");
-        } else {
-          c.element().getTransactionDetails().setIsFraud("0");
+        predictResponse = predictionServiceClient.predictCallable()
+            .futureCall(predictRequest.build());
+      } catch (RuntimeException e) {
+        inFlightRequests.release();
+        throw e;
+      }
+      predictResponse.addListener(inFlightRequests::release,
+          MoreExecutors.directExecutor());
+      pendingPredictions.add(new PendingPrediction(batch, predictResponse,
+          c.timestamp(), window));
+    }
+
+    /**
+     * @param c the finish bundle context used to output the classified
+     * transactions.
+     */
+    @FinishBundle
+    public void finishBundle(
+        final DoFn<KV<Integer, Iterable<AggregatedData>>, TransactionDetails>
+            .FinishBundleContext c) throws InterruptedException {
+      for (PendingPrediction pending : pendingPredictions) {
+        PredictResponse predictResponse;
+        try {
+          predictResponse = pending.response.get();
+        } catch (ExecutionException e) {
+          // Fail the bundle, so that the runner retries its transactions.
+          if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+          }
+          throw new RuntimeException("Failed to query the ML model",
+              e.getCause());
         }
+        for (int i = 0; i < pending.batch.size(); i++) {
+          double fraudProbability =
+              predictResponse
+                  .getPredictions(i)
+                  .getListValue()
+                  .getValues(0)
+                  .getNumberValue();
+
+          String isFraud =
+              fraudProbability >= FRAUD_PROBABILITY_THRESHOLD ? "1" : "0";
+          c.output(pending.batch.get(i).getTransactionDetails()
+              .withIsFraud(isFraud), pending.timestamp, pending.window);
+        }
+      }
+      pendingPredictions = new ArrayList<>();
+    }
+
+    /**
+     * Closes the ML model client.
+     */
+    @Teardown
+    public void teardown() {
+      if (predictionServiceClient != null) {
+        predictionServiceClient.close();
+      }
+    }
 
-        c.output(c.element().getTransactionDetails());
-      } catch (Exception e) {
-        LOGGER.error("Failed to query the ML model {}", c.element(), e);
+    // A request sent to the ML model, with the batch it was built from and
+    // the timestamp and window of that batch.
+    private static final class PendingPrediction {
+
+      /**
+       * The elements of the batch.
+       */
+      private final List<AggregatedData> batch;
+      /**
+       * The ML model response.
+       */
+      private final ApiFuture<PredictResponse> response;
+      /**
+       * The timestamp of the batch.
+       */
+      private final Instant timestamp;
+      /**
+       * The window of the batch.
+       */
+      private final BoundedWindow window;
+
+      PendingPrediction(final List<AggregatedData> iBatch,
+          final ApiFuture<PredictResponse> iResponse, final Instant iTimestamp,
+          final BoundedWindow iWindow) {
+        this.batch = iBatch;
+        this.response = iResponse;
+        this.timestamp = iTimestamp;
+        this.window = iWindow;
       }
     }
   }
 
+  /**
+   * Batches AggregatedData objects and queries the ML model with them.
+   *
+   * @param input the AggregatedData objects.
+   * @param options the pipeline options.
+   * @param queryFn the DoFn that queries the ML model.
+   * @return the transactions, with their isFraud field set.
+   */
+  static PCollection<TransactionDetails> queryMlModel(
+      final PCollection<AggregatedData> input,
+      final FraudDetectionOptions options, final QueryMlModelFn queryFn) {
+    return input
+        .apply("Assign ML Batch Shards",
+            ParDo.of(new AssignBatchShardFn(options.getMLBatchShards())))
+        .apply("Batch ML Requests",
+            GroupIntoBatches.<Integer, AggregatedData>ofSize(
+                    options.getMLBatchSize())
+                .withMaxBufferingDuration(
+                    Duration.millis(options.getMLBatchMaxWaitMillis())))
+        .apply("Query ML Model", ParDo.of(queryFn));
+  }
+
   /**
    * @param args the input arguments.
    */
@@ -246,16 +598,18 @@ public final class FraudDetection {
     // Create a fraud-detection Dataflow pipeline.
     Pipeline pipeline = Pipeline.create(options);
 
-    PCollection<RowDetails> modelOutput =
+    PCollection<AggregatedData> aggregatedData =
         pipeline
             .apply(
                 "Read PubSub Messages",
                 PubsubIO.readStrings().fromTopic(options.getInputTopic()))
             .apply("Preprocess Input", ParDo.of(PREPROCESS_INPUT))
             .apply("Read from Cloud Bigtable",
-                ParDo.of(new ReadFromTableFn(config)))
-            .apply("Query ML Model",
-                ParDo.of(new QueryMlModelFn(options.getMLRegion())));
+                ParDo.of(new ReadFromTableFn(config)));
+    PCollection<TransactionDetails> modelOutput = queryMlModel(
+        aggregatedData, options,
+        new QueryMlModelFn(options.getMLRegion(),
+            options.getMLMaxInFlightRequests()));
 
     modelOutput
         .apply(
@@ -265,6 +619,16 @@ public final class FraudDetection {
             "WriteToBigtable",
             CloudBigtableIO.writeToTable(config));
 
+    if (options.getIncrementalAggregates()) {
+      modelOutput
+          .apply(
+              "TransformAggregatesToBigtable",
+              ParDo.of(WriteCBTHelper.AGGREGATES_TRANSFORM))
+          .apply(
+              "WriteAggregatesToBigtable",
+              CloudBigtableIO.writeToTable(config));
+    }
+
     modelOutput
         .apply(
             "Preprocess Pub/Sub Output",
@@ -273,8 +637,7 @@ public final class FraudDetection {
                   @ProcessElement
                   public void processElement(
                       @Element final RowDetails modelOutput,
-                      final OutputReceiver<String> out)
-                      throws IllegalAccessException {
+                      final OutputReceiver<String> out) {
                     out.output(modelOutput.toCommaSeparatedString());
                   }
                 }))
@@ -16,6 +16,7 @@
 package bigtable.fraud.beam;
 
 import org.apache.beam.runners.dataflow.options.DataflowPipelineOptions;
+import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.Description;
 import org.apache.beam.sdk.options.Validation.Required;
 
@@ -114,5 +115,109 @@ public interface FraudDetectionOptions extends DataflowPipelineOptions {
    * @param randomUUID a random string to make the job name unique.
    */
   void setRandomUUID(String randomUUID);
-}
 
+  /**
+   * @return whether to read aggregates from the hourly counters.
+   */
+  @Description("Read the customer aggregates from the hourly counters in the "
+      + "aggregates column family, and keep them up to date, instead of "
+      + "scanning the transaction history.")
+  @Default.Boolean(false)
+  Boolean getIncrementalAggregates();
+
+  /**
+   * @param incrementalAggregates whether to use the hourly counters.
+   */
+  void setIncrementalAggregates(Boolean incrementalAggregates);
+
+  /**
+   * @return the maximum number of customers read per multi-get.
+   */
+  @Description("The maximum number of customers read from CBT in one "
+      + "multi-get.")
+  @Default.Integer(100)
+  Integer getReadBatchSize();
+
+  /**
+   * @param readBatchSize the maximum number of customers per multi-get.
+   */
+  void setReadBatchSize(Integer readBatchSize);
+
+  /**
+   * @return the number of customer profiles cached per worker.
+   */
+  @Description("The number of customer profiles cached on each worker, or 0 "
+      + "to read the profile for every transaction.")
+  @Default.Integer(0)
+  Integer getProfileCacheSize();
+
+  /**
+   * @param profileCacheSize the number of customer profiles to cache.
+   */
+  void setProfileCacheSize(Integer profileCacheSize);
+
+  /**
+   * @return how long a cached customer profile is used for.
+   */
+  @Description("How long, in seconds, a cached customer profile is used "
+      + "before it is read again.")
+  @Default.Integer(300)
+  Integer getProfileCacheTtlSeconds();
+
+  /**
+   * @param seconds how long a cached customer profile is used for.
+   */
+  void setProfileCacheTtlSeconds(Integer seconds);
+
+  /**
+   * @return the maximum number of transactions per ML model request.
+   */
+  @Description("The maximum number of transactions sent to the ML model in "
+      + "one prediction request.")
+  @Default.Integer(32)
+  Integer getMLBatchSize();
+
+  /**
+   * @param batchSize the maximum number of transactions per request.
+   */
+  void setMLBatchSize(Integer batchSize);
+
+  /**
+   * @return how long a transaction waits for its ML model batch to fill.
+   */
+  @Description("How long, in milliseconds, a transaction can wait for its "
+      + "ML model batch to fill before the batch is sent anyway.")
+  @Default.Long(100)
+  Long getMLBatchMaxWaitMillis();
+
+  /**
+   * @param millis how long a transaction waits for its batch to fill.
+   */
+  void setMLBatchMaxWaitMillis(Long millis);
+
+  /**
+   * @return the number of shards ML model batches are built in.
+   */
+  @Description("The number of shards that ML model batches are built in "
+      + "parallel.")
+  @Default.Integer(16)
+  Integer getMLBatchShards();
+
+  /**
+   * @param shards the number of shards batches are built in.
+   */
+  void setMLBatchShards(Integer shards);
+
+  /**
+   * @return the maximum number of ML model requests in flight.
+   */
+  @Description("The maximum number of ML model requests in flight per "
+      + "worker thread.")
+  @Default.Integer(8)
+  Integer getMLMaxInFlightRequests();
+
+  /**
+   * @param maxInFlight the maximum number of requests in flight.
+   */
+  void setMLMaxInFlightRequests(Integer maxInFlight);
+}
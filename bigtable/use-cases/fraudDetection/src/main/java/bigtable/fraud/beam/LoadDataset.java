@@ -27,6 +27,7 @@ import org.apache.beam.sdk.io.TextIO;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.transforms.MapElements;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.TypeDescriptor;
 
 // Load customer profiles and history into Cloud Bigtable.
@@ -76,17 +77,26 @@ public final class LoadDataset {
     options.setJobName("load-customer-historical-transactions-"
         + options.getRandomUUID());
     Pipeline pHistory = Pipeline.create(options);
-    pHistory
+    PCollection<TransactionDetails> history = pHistory
         .apply("ReadGCSFile",
             TextIO.read().from(options.getHistoryInputFile()))
         .apply(
-            MapElements.into(TypeDescriptor.of(RowDetails.class))
-                .via(TransactionDetails::new))
+            MapElements.into(TypeDescriptor.of(TransactionDetails.class))
+                .via(TransactionDetails::new));
+    history
         .apply("TransformParsingsToBigtable",
             ParDo.of(WriteCBTHelper.MUTATION_TRANSFORM))
         .apply(
             "WriteToBigtable",
             CloudBigtableIO.writeToTable(config));
+    if (options.getIncrementalAggregates()) {
+      history
+          .apply("TransformAggregatesToBigtable",
+              ParDo.of(WriteCBTHelper.AGGREGATES_TRANSFORM))
+          .apply(
+              "WriteAggregatesToBigtable",
+              CloudBigtableIO.writeToTable(config));
+    }
     PipelineResult pHistoryRun = pHistory.run();
 
     pProfilesRun.waitUntilFinish();
@@ -16,6 +16,7 @@
 package bigtable.fraud.beam;
 
 import org.apache.beam.runners.dataflow.options.DataflowPipelineOptions;
+import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.Description;
 
 /*
@@ -89,4 +90,17 @@ public interface LoadDatasetOptions extends DataflowPipelineOptions {
    * @param randomUUID a random string to make the job name unique.
    */
   void setRandomUUID(String randomUUID);
+
+  /**
+   * @return whether to also populate the hourly counters.
+   */
+  @Description("Also populate the hourly counters in the aggregates column "
+      + "family from the transactions history.")
+  @Default.Boolean(false)
+  Boolean getIncrementalAggregates();
+
+  /**
+   * @param incrementalAggregates whether to populate the hourly counters.
+   */
+  void setIncrementalAggregates(Boolean incrementalAggregates);
 }
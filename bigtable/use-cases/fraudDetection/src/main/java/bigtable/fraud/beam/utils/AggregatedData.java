@@ -15,12 +15,13 @@
  */
 package bigtable.fraud.beam.utils;
 
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Value;
 import java.util.ArrayList;
 import org.apache.beam.sdk.coders.DefaultCoder;
-import org.apache.beam.sdk.extensions.avro.coders.AvroCoder;
 import org.apache.hadoop.hbase.client.Result;
 
-@DefaultCoder(AvroCoder.class)
+@DefaultCoder(AggregatedDataCoder.class)
 public final class AggregatedData {
 
   /**
@@ -56,7 +57,7 @@ public final class AggregatedData {
   private double numOfTransactionLastDay;
 
   /**
-   * Construct an AggregatedData object.
+   * Construct an AggregatedData object by scanning the transaction history.
    *
    * @param iCustomerProfile the incoming customer profile object.
    * @param iTransactionDetails the incoming transaction details object.
@@ -65,48 +66,41 @@ public final class AggregatedData {
   public AggregatedData(
       final CustomerProfile iCustomerProfile,
       final TransactionDetails iTransactionDetails, final Result row) {
+    this(iCustomerProfile, iTransactionDetails, row, false);
+  }
+
+  /**
+   * Construct an AggregatedData object.
+   *
+   * @param iCustomerProfile the incoming customer profile object.
+   * @param iTransactionDetails the incoming transaction details object.
+   * @param row a result row read from Cloud Bigtable.
+   * @param fromCounters read the aggregates from the hourly counters rather
+   * than scanning the transaction history.
+   */
+  public AggregatedData(
+      final CustomerProfile iCustomerProfile,
+      final TransactionDetails iTransactionDetails, final Result row,
+      final boolean fromCounters) {
     this.customerProfile = iCustomerProfile;
     this.transactionDetails = iTransactionDetails;
 
     // Get last transaction.
     TransactionDetails lastTransaction = new TransactionDetails(row);
-    String lastTransactionLat = lastTransaction.getMerchantLat();
-    String lastTransactionLong = lastTransaction.getMerchantLong();
+    double lastTransactionLat = lastTransaction.getMerchantLat();
+    double lastTransactionLong = lastTransaction.getMerchantLong();
     long lastTransactionTime = lastTransaction.getTimestampMillisecond();
 
-    // Get all transactions made by this customer in the last month.
-    ArrayList<TransactionDetails> lastMonthTransactions =
-        iTransactionDetails.getLastTransactions(
-            row, lastTransactionTime
-                - UtilFunctions.MONTH_IN_MILLISECONDS);
-
-    // Generate the required aggregated data.
-    long lastDayTransactionsCount = 0;
-    long lastWeekTransactionsCount = 0;
-    long lastMonthTransactionsCount = 0;
-    long lastWeekTransactionsAmount = 0;
-    long lastMonthTransactionsAmount = 0;
-
-    for (TransactionDetails transaction : lastMonthTransactions) {
-      if (lastTransaction.getTimestampMillisecond()
-          - transaction.getTimestampMillisecond()
-          <= UtilFunctions.DAY_IN_MILLISECONDS) {
-        lastDayTransactionsCount++;
-      }
-      if (lastTransaction.getTimestampMillisecond()
-          - transaction.getTimestampMillisecond()
-          <= UtilFunctions.WEEK_IN_MILLISECONDS) {
-        lastWeekTransactionsCount++;
-        lastWeekTransactionsAmount += Double.parseDouble(
-            transaction.getTransactionAmount());
-      }
-      if (lastTransaction.getTimestampMillisecond()
-          - transaction.getTimestampMillisecond()
-          <= UtilFunctions.MONTH_IN_MILLISECONDS) {
-        lastMonthTransactionsCount++;
-        lastMonthTransactionsAmount += Double.parseDouble(
-            transaction.getTransactionAmount());
-      }
+    // Aggregate the transactions made by this customer in the last month.
+    WindowAggregates aggregates;
+    if (fromCounters) {
+      aggregates = WindowAggregates.fromCounters(row, lastTransactionTime);
+    } else {
+      aggregates = WindowAggregates.fromTransactions(
+          iTransactionDetails.getLastTransactions(
+              row, lastTransactionTime
+                  - UtilFunctions.MONTH_IN_MILLISECONDS),
+          lastTransactionTime);
     }
 
     // Calculate the time between this transaction and the last transaction
@@ -119,24 +113,42 @@ public final class AggregatedData {
     // made by the customer.
     this.lastTransactionKMsDiff =
         UtilFunctions.distanceKM(
-            Double.parseDouble(iTransactionDetails.getMerchantLat()),
-            Double.parseDouble(lastTransactionLat),
-            Double.parseDouble(iTransactionDetails.getMerchantLong()),
-            Double.parseDouble(lastTransactionLong));
+            iTransactionDetails.getMerchantLat(),
+            lastTransactionLat,
+            iTransactionDetails.getMerchantLong(),
+            lastTransactionLong);
 
     // Populate the number of transactions made by the same customer in the
     // last day.
-    this.numOfTransactionLastDay = lastDayTransactionsCount;
+    this.numOfTransactionLastDay = aggregates.getLastDayCount();
 
     // Calculate the average transaction amounts.
-    if (lastWeekTransactionsCount != 0) {
-      this.avgAmountSpentLastWeek =
-          lastWeekTransactionsAmount / lastWeekTransactionsCount;
-    }
-    if (lastMonthTransactionsCount != 0) {
-      this.avgAmountSpentLastMonth =
-          lastMonthTransactionsAmount / lastMonthTransactionsCount;
-    }
+    this.avgAmountSpentLastWeek = aggregates.getAvgAmountLastWeek();
+    this.avgAmountSpentLastMonth = aggregates.getAvgAmountLastMonth();
+  }
+
+  /**
+   * Construct an AggregatedData object from already computed features.
+   *
+   * @param iTransactionDetails the incoming transaction details object.
+   * @param iCustomerProfile the incoming customer profile object.
+   * @param minutesDiff minutes since the last transaction.
+   * @param kmsDiff kilometers from the last transaction.
+   * @param avgLastWeek average amount spent last week.
+   * @param avgLastMonth average amount spent last month.
+   * @param countLastDay number of transactions in the last day.
+   */
+  public AggregatedData(final TransactionDetails iTransactionDetails,
+      final CustomerProfile iCustomerProfile, final double minutesDiff,
+      final double kmsDiff, final double avgLastWeek,
+      final double avgLastMonth, final double countLastDay) {
+    this.transactionDetails = iTransactionDetails;
+    this.customerProfile = iCustomerProfile;
+    this.lastTransactionMinutesDiff = minutesDiff;
+    this.lastTransactionKMsDiff = kmsDiff;
+    this.avgAmountSpentLastWeek = avgLastWeek;
+    this.avgAmountSpentLastMonth = avgLastMonth;
+    this.numOfTransactionLastDay = countLastDay;
   }
 
   /**
@@ -148,6 +160,48 @@ public final class AggregatedData {
     return transactionDetails;
   }
 
+  /**
+   * @return the incoming transaction customer profile.
+   */
+  public CustomerProfile getCustomerProfile() {
+    return customerProfile;
+  }
+
+  /**
+   * @return minutes since the customer's last transaction.
+   */
+  public double getLastTransactionMinutesDiff() {
+    return lastTransactionMinutesDiff;
+  }
+
+  /**
+   * @return kilometers from the customer's last transaction.
+   */
+  public double getLastTransactionKMsDiff() {
+    return lastTransactionKMsDiff;
+  }
+
+  /**
+   * @return the average amount spent last week.
+   */
+  public double getAvgAmountSpentLastWeek() {
+    return avgAmountSpentLastWeek;
+  }
+
+  /**
+   * @return the average amount spent last month.
+   */
+  public double getAvgAmountSpentLastMonth() {
+    return avgAmountSpentLastMonth;
+  }
+
+  /**
+   * @return the number of transactions in the last 24 hours.
+   */
+  public double getNumOfTransactionLastDay() {
+    return numOfTransactionLastDay;
+  }
+
   /**
    * Generates the feature vector in the format that is accepted by the machine
    * learning model.
@@ -170,4 +224,34 @@ public final class AggregatedData {
     // Convert it to the format that the ML model accepts.
     return "[[" + UtilFunctions.arrayListToCommasString(mlFeatures) + "]]";
   }
+
+  /**
+   * Generates the feature vector as the instance accepted by the machine
+   * learning model, with the same values as getMLFeatures().
+   *
+   * @return a feature vector.
+   */
+  public Value getMLInstance() {
+    ListValue features = ListValue.newBuilder()
+        .addValues(number(lastTransactionMinutesDiff))
+        .addValues(number(lastTransactionKMsDiff))
+        .addValues(number(avgAmountSpentLastWeek))
+        .addValues(number(avgAmountSpentLastMonth))
+        .addValues(number(numOfTransactionLastDay))
+        .addValues(number(Double.parseDouble(customerProfile.getId())))
+        .addValues(number(Double.parseDouble(customerProfile.getCcNumber())))
+        .addValues(number(transactionDetails.getTransactionAmount()))
+        .addValues(number(Double.parseDouble(
+            transactionDetails.getMerchantID())))
+        .build();
+    return Value.newBuilder().setListValue(features).build();
+  }
+
+  /**
+   * @param value a number.
+   * @return the number as a protobuf Value.
+   */
+  private static Value number(final double value) {
+    return Value.newBuilder().setNumberValue(value).build();
+  }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.apache.beam.sdk.coders.AtomicCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderProvider;
+import org.apache.beam.sdk.coders.CoderProviders;
+import org.apache.beam.sdk.coders.DoubleCoder;
+import org.apache.beam.sdk.values.TypeDescriptor;
+
+/*
+ * Encodes an AggregatedData object as its transaction, its customer profile
+ * and its already computed features.
+ */
+public final class AggregatedDataCoder extends AtomicCoder<AggregatedData> {
+
+  /**
+   * The single instance of this coder.
+   */
+  private static final AggregatedDataCoder INSTANCE =
+      new AggregatedDataCoder();
+  /**
+   * Coder used for the aggregated features.
+   */
+  private static final Coder<Double> DOUBLE_CODER = DoubleCoder.of();
+
+  private AggregatedDataCoder() {
+  }
+
+  /**
+   * @return an AggregatedDataCoder.
+   */
+  public static AggregatedDataCoder of() {
+    return INSTANCE;
+  }
+
+  /**
+   * Used by the DefaultCoder annotation of AggregatedData.
+   *
+   * @return a CoderProvider that provides this coder.
+   */
+  public static CoderProvider getCoderProvider() {
+    return CoderProviders.forCoder(
+        TypeDescriptor.of(AggregatedData.class), INSTANCE);
+  }
+
+  @Override
+  public void encode(final AggregatedData value,
+      final OutputStream outStream) throws IOException {
+    TransactionDetailsCoder.of().encode(value.getTransactionDetails(),
+        outStream);
+    CustomerProfileCoder.of().encode(value.getCustomerProfile(), outStream);
+    DOUBLE_CODER.encode(value.getLastTransactionMinutesDiff(), outStream);
+    DOUBLE_CODER.encode(value.getLastTransactionKMsDiff(), outStream);
+    DOUBLE_CODER.encode(value.getAvgAmountSpentLastWeek(), outStream);
+    DOUBLE_CODER.encode(value.getAvgAmountSpentLastMonth(), outStream);
+    DOUBLE_CODER.encode(value.getNumOfTransactionLastDay(), outStream);
+  }
+
+  @Override
+  public AggregatedData decode(final InputStream inStream)
+      throws IOException {
+    return new AggregatedData(
+        TransactionDetailsCoder.of().decode(inStream),
+        CustomerProfileCoder.of().decode(inStream),
+        DOUBLE_CODER.decode(inStream),
+        DOUBLE_CODER.decode(inStream),
+        DOUBLE_CODER.decode(inStream),
+        DOUBLE_CODER.decode(inStream),
+        DOUBLE_CODER.decode(inStream));
+  }
+}
@@ -16,12 +16,41 @@
 package bigtable.fraud.beam.utils;
 
 import org.apache.beam.sdk.coders.DefaultCoder;
-import org.apache.beam.sdk.extensions.avro.coders.AvroCoder;
 import org.apache.hadoop.hbase.client.Result;
 
-@DefaultCoder(AvroCoder.class)
+@DefaultCoder(CustomerProfileCoder.class)
 public final class CustomerProfile extends RowDetails {
 
+  /**
+   * The columns of a customer profile, in their comma-separated order.
+   */
+  public static final RowSchema SCHEMA = new RowSchema("customer_profile",
+      "id", "ccNumber", "firstName", "lastName", "dob", "accountNumber");
+  /**
+   * Index of the id column.
+   */
+  private static final int ID = 0;
+  /**
+   * Index of the ccNumber column.
+   */
+  private static final int CC_NUMBER = 1;
+  /**
+   * Index of the firstName column.
+   */
+  private static final int FIRST_NAME = 2;
+  /**
+   * Index of the lastName column.
+   */
+  private static final int LAST_NAME = 3;
+  /**
+   * Index of the dob column.
+   */
+  private static final int DOB = 4;
+  /**
+   * Index of the accountNumber column.
+   */
+  private static final int ACCOUNT_NUMBER = 5;
+
   /**
    * The incoming request's customer id.
    */
@@ -47,6 +76,13 @@ public final class CustomerProfile extends RowDetails {
    */
   private String accountNumber;
 
+  /**
+   * Constructs an empty CustomerProfile object.
+   */
+  CustomerProfile() {
+    super();
+  }
+
   /**
    * Constructs CustomerProfile object.
    *
@@ -80,7 +116,53 @@ public final class CustomerProfile extends RowDetails {
   }
 
   @Override
-  public String getColFamily() {
-    return "customer_profile";
+  public RowSchema getSchema() {
+    return SCHEMA;
+  }
+
+  @Override
+  public String getValue(final int index) {
+    switch (index) {
+      case ID:
+        return id;
+      case CC_NUMBER:
+        return ccNumber;
+      case FIRST_NAME:
+        return firstName;
+      case LAST_NAME:
+        return lastName;
+      case DOB:
+        return dob;
+      case ACCOUNT_NUMBER:
+        return accountNumber;
+      default:
+        throw new IndexOutOfBoundsException("Unknown column " + index);
+    }
+  }
+
+  @Override
+  public void setValue(final int index, final String value) {
+    switch (index) {
+      case ID:
+        id = value;
+        break;
+      case CC_NUMBER:
+        ccNumber = value;
+        break;
+      case FIRST_NAME:
+        firstName = value;
+        break;
+      case LAST_NAME:
+        lastName = value;
+        break;
+      case DOB:
+        dob = value;
+        break;
+      case ACCOUNT_NUMBER:
+        accountNumber = value;
+        break;
+      default:
+        throw new IndexOutOfBoundsException("Unknown column " + index);
+    }
   }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.apache.beam.sdk.coders.AtomicCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderProvider;
+import org.apache.beam.sdk.coders.CoderProviders;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.values.TypeDescriptor;
+
+/*
+ * Encodes a CustomerProfile object as its column values followed by its
+ * timestamp.
+ */
+public final class CustomerProfileCoder extends AtomicCoder<CustomerProfile> {
+
+  /**
+   * The single instance of this coder.
+   */
+  private static final CustomerProfileCoder INSTANCE =
+      new CustomerProfileCoder();
+  /**
+   * Coder used for the timestamp.
+   */
+  private static final Coder<Long> LONG_CODER = VarLongCoder.of();
+
+  private CustomerProfileCoder() {
+  }
+
+  /**
+   * @return a CustomerProfileCoder.
+   */
+  public static CustomerProfileCoder of() {
+    return INSTANCE;
+  }
+
+  /**
+   * Used by the DefaultCoder annotation of CustomerProfile.
+   *
+   * @return a CoderProvider that provides this coder.
+   */
+  public static CoderProvider getCoderProvider() {
+    return CoderProviders.forCoder(
+        TypeDescriptor.of(CustomerProfile.class), INSTANCE);
+  }
+
+  @Override
+  public void encode(final CustomerProfile value,
+      final OutputStream outStream) throws IOException {
+    String[] values = new String[value.getSchema().size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = value.getValue(i);
+    }
+    NullableStrings.encode(values, outStream);
+    LONG_CODER.encode(value.getTimestampMillisecond(), outStream);
+  }
+
+  @Override
+  public CustomerProfile decode(final InputStream inStream)
+      throws IOException {
+    CustomerProfile value = new CustomerProfile();
+    String[] values =
+        NullableStrings.decode(value.getSchema().size(), inStream);
+    for (int i = 0; i < values.length; i++) {
+      value.setValue(i, values[i]);
+    }
+    value.setTimestampMillisecond(LONG_CODER.decode(inStream));
+    return value;
+  }
+}
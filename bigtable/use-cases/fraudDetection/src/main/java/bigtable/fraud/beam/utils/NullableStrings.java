@@ -0,0 +1,91 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+
+/*
+ * Encodes a fixed number of possibly null strings as a bitmask of the null
+ * positions followed by the non-null values.
+ */
+final class NullableStrings {
+
+  /**
+   * The maximum number of strings that fit in the bitmask.
+   */
+  static final int MAX_STRINGS = 31;
+  /**
+   * Coder used for the bitmask.
+   */
+  private static final Coder<Integer> MASK_CODER = VarIntCoder.of();
+  /**
+   * Coder used for the non-null values.
+   */
+  private static final Coder<String> STRING_CODER = StringUtf8Coder.of();
+
+  private NullableStrings() {
+  }
+
+  /**
+   * @param values the strings to encode, at most MAX_STRINGS.
+   * @param outStream the stream to write to.
+   */
+  static void encode(final String[] values, final OutputStream outStream)
+      throws IOException {
+    if (values.length > MAX_STRINGS) {
+      throw new IllegalArgumentException(
+          "Cannot encode more than " + MAX_STRINGS + " strings");
+    }
+    int nullMask = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] == null) {
+        nullMask |= 1 << i;
+      }
+    }
+    MASK_CODER.encode(nullMask, outStream);
+    for (String value : values) {
+      if (value != null) {
+        STRING_CODER.encode(value, outStream);
+      }
+    }
+  }
+
+  /**
+   * @param count the number of strings that were encoded.
+   * @param inStream the stream to read from.
+   * @return the decoded strings.
+   */
+  static String[] decode(final int count, final InputStream inStream)
+      throws IOException {
+    int nullMask = MASK_CODER.decode(inStream);
+    if (nullMask >>> count != 0) {
+      throw new CoderException("Invalid null mask " + nullMask);
+    }
+    String[] values = new String[count];
+    for (int i = 0; i < count; i++) {
+      if ((nullMask & (1 << i)) == 0) {
+        values[i] = STRING_CODER.decode(inStream);
+      }
+    }
+    return values;
+  }
+}
@@ -15,11 +15,7 @@
  */
 package bigtable.fraud.beam.utils;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.List;
 import org.apache.beam.sdk.coders.DefaultCoder;
 import org.apache.beam.sdk.extensions.avro.coders.AvroCoder;
 import org.apache.hadoop.hbase.Cell;
@@ -35,12 +31,17 @@ import org.apache.hadoop.hbase.util.Bytes;
  * Used to create an object with the following format:
  * rowKey, [TimestampMilliseconds=VALUE], column1, column2, ... etc
  * The TimestampMilliseconds field is optional.
- * In order to use this class, member variables needs to be the same name as
- * the columns read from Cloud Bigtable, and they should be in the same
- * sequence when read from Cloud Pubsub.
+ * In order to use this class, subclasses describe their columns once in a
+ * RowSchema, in the same sequence as they are read from Cloud Pubsub, and
+ * expose them through getValue/setValue.
  */
 public abstract class RowDetails {
 
+  /**
+   * Prefix of the optional custom timestamp field.
+   */
+  private static final String TIMESTAMP_PREFIX = "TimestampMilliseconds=";
+
   /**
    * The timestamp (millisecond) to use when writing to Cloud Bigtable.
    */
@@ -61,22 +62,33 @@ public abstract class RowDetails {
    */
   public RowDetails(final String line) {
     timestampMillisecond = Long.MAX_VALUE;
-    List<String> values = new LinkedList<>(Arrays.asList(line.split(", ")));
-
-    // If a custom timestamp is to be used, it should be the second field
-    // and in this format: TimestampMilliseconds=TIME
-    if (values.size() >= 2 && values.get(1)
-        .startsWith("TimestampMilliseconds=")) {
-      long timestampMilliseconds = Long.parseLong(
-          values.get(1).split("TimestampMilliseconds=")[1]);
-      values.remove(1);
-      setTimestampMillisecond(timestampMilliseconds);
-    }
+    String[] values = new String[getSchema().size()];
+    int count = 0;
+    int start = 0;
+    int end;
+    do {
+      end = line.indexOf(RowSchema.SEPARATOR, start);
+      String value = end < 0 ? line.substring(start)
+          : line.substring(start, end);
+
+      // If a custom timestamp is to be used, it should be the second field
+      // and in this format: TimestampMilliseconds=TIME
+      if (count == 1 && value.startsWith(TIMESTAMP_PREFIX)) {
+        setTimestampMillisecond(Long.parseLong(
+            value.substring(TIMESTAMP_PREFIX.length())));
+      } else {
+        if (count == values.length) {
+          throw new RuntimeException(
+              "Trying to set values that doesn't equal to the number of "
+                  + "fields");
+        }
+        values[count++] = value;
+      }
+      start = end + RowSchema.SEPARATOR.length();
+    } while (end >= 0);
 
-    // Convert the values to a string array and populate all the class fields.
-    String[] processedValues = new String[values.size()];
-    processedValues = values.toArray(processedValues);
-    setValues(processedValues);
+    // Populate all the class fields.
+    setValues(Arrays.copyOf(values, count));
   }
 
   /**
@@ -87,53 +99,48 @@ public abstract class RowDetails {
    */
   public RowDetails(final Result row) {
     // All the columns in this object need to belong to the same column family.
-    byte[] columnFamilyBytes = getColFamily().getBytes();
-
-    byte[] headerBytes;
-    // Get all the headers so that we can read them from CBT.
-    String[] headers = getHeaders();
-    String[] values = new String[headers.length];
-    for (int i = 0; i < headers.length; i++) {
-      // Adding the row key.
-      if (i == 0) {
-        values[i] = new String(row.getRow());
-      } else {
-        headerBytes = Bytes.toBytes(headers[i]);
-        Cell latestCell = row.getColumnLatestCell(columnFamilyBytes,
-            headerBytes);
-        if (latestCell == null) {
-          return;
-        }
-        values[i] = new String(latestCell.getValueArray());
-        setTimestampMillisecond(latestCell.getTimestamp());
+    RowSchema schema = getSchema();
+    byte[] columnFamilyBytes = schema.getColFamilyBytes();
+
+    String[] values = new String[schema.size()];
+    // Adding the row key.
+    values[0] = Bytes.toString(row.getRow());
+    for (int i = 1; i < values.length; i++) {
+      Cell latestCell = row.getColumnLatestCell(columnFamilyBytes,
+          schema.getHeaderBytes(i));
+      if (latestCell == null) {
+        return;
       }
+      values[i] = cellValue(latestCell);
+      setTimestampMillisecond(latestCell.getTimestamp());
     }
     // Populate all the class fields with the values we read.
     setValues(values);
   }
 
+  /**
+   * @param cell a cell read from Cloud Bigtable.
+   * @return the cell value as a string.
+   */
+  static String cellValue(final Cell cell) {
+    return Bytes.toString(cell.getValueArray(), cell.getValueOffset(),
+        cell.getValueLength());
+  }
+
   /**
    * @return the headers used in this class.
    */
   public String[] getHeaders() {
-    Field[] fields = getClass().getDeclaredFields();
-    String[] headers = new String[fields.length];
-    for (int i = 0; i < fields.length; i++) {
-      fields[i].setAccessible(true);
-      headers[i] = fields[i].getName();
-    }
-    return headers;
+    return getSchema().getHeaders();
   }
 
   /**
    * @return the values used in this class.
    */
-  public String[] getValues() throws IllegalAccessException {
-    Field[] fields = getClass().getDeclaredFields();
-    String[] values = new String[fields.length];
-    for (int i = 0; i < fields.length; i++) {
-      fields[i].setAccessible(true);
-      values[i] = String.valueOf(fields[i].get(this));
+  public String[] getValues() {
+    String[] values = new String[getSchema().size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = String.valueOf(getValue(i));
     }
     return values;
   }
@@ -143,18 +150,12 @@ public abstract class RowDetails {
    * @param values the values to use when initializing the member variables.
    */
   public void setValues(final String[] values) {
-    Field[] fields = getClass().getDeclaredFields();
-    if (fields.length != values.length) {
+    if (getSchema().size() != values.length) {
       throw new RuntimeException(
           "Trying to set values that doesn't equal to the number of fields");
     }
-    for (int i = 0; i < fields.length; i++) {
-      fields[i].setAccessible(true);
-      try {
-        fields[i].set(this, values[i]);
-      } catch (IllegalAccessException e) {
-        e.printStackTrace();
-      }
+    for (int i = 0; i < values.length; i++) {
+      setValue(i, values[i]);
     }
   }
 
@@ -175,14 +176,31 @@ public abstract class RowDetails {
   /**
    * @return a comma separated string.
    */
-  public String toCommaSeparatedString() throws IllegalAccessException {
-    ArrayList<String> values =
-        new ArrayList<>(Arrays.asList(getValues()));
-    return UtilFunctions.arrayListToCommasString(values);
+  public String toCommaSeparatedString() {
+    return String.join(RowSchema.SEPARATOR, getValues());
   }
 
   /**
    * @return the column family used in this class.
    */
-  public abstract String getColFamily();
+  public String getColFamily() {
+    return getSchema().getColFamily();
+  }
+
+  /**
+   * @return the column metadata of this class, shared by all its instances.
+   */
+  public abstract RowSchema getSchema();
+
+  /**
+   * @param index the column index in the schema.
+   * @return the value stored in that column.
+   */
+  public abstract String getValue(int index);
+
+  /**
+   * @param index the column index in the schema.
+   * @param value the value to store in that column.
+   */
+  public abstract void setValue(int index, String value);
 }
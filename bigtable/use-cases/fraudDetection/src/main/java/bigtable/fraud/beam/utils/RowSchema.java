@@ -0,0 +1,108 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/*
+ * Column metadata for a RowDetails subclass, computed once per class.
+ * The first header is always the row key, the remaining headers are the
+ * column qualifiers, in the same order as the comma-separated input.
+ */
+public final class RowSchema {
+
+  /**
+   * Separator used between values in a comma-separated line.
+   */
+  static final String SEPARATOR = ", ";
+
+  /**
+   * The column family all the columns belong to.
+   */
+  private final String colFamily;
+  /**
+   * The column family encoded as bytes.
+   */
+  private final byte[] colFamilyBytes;
+  /**
+   * The column names, starting with the row key.
+   */
+  private final String[] headers;
+  /**
+   * The column names encoded as bytes.
+   */
+  private final byte[][] headerBytes;
+
+  /**
+   * Constructs a RowSchema object.
+   *
+   * @param family the column family used by all the columns.
+   * @param columns the row key name followed by the column qualifiers.
+   */
+  public RowSchema(final String family, final String... columns) {
+    this.colFamily = family;
+    this.colFamilyBytes = Bytes.toBytes(family);
+    this.headers = columns.clone();
+    this.headerBytes = new byte[columns.length][];
+    for (int i = 0; i < columns.length; i++) {
+      headerBytes[i] = Bytes.toBytes(columns[i]);
+    }
+  }
+
+  /**
+   * @return the column family.
+   */
+  public String getColFamily() {
+    return colFamily;
+  }
+
+  /**
+   * @return the column family as bytes. Callers must not modify it.
+   */
+  public byte[] getColFamilyBytes() {
+    return colFamilyBytes;
+  }
+
+  /**
+   * @return the number of columns, including the row key.
+   */
+  public int size() {
+    return headers.length;
+  }
+
+  /**
+   * @param index the column index.
+   * @return the column name.
+   */
+  public String getHeader(final int index) {
+    return headers[index];
+  }
+
+  /**
+   * @param index the column index.
+   * @return the column name as bytes. Callers must not modify it.
+   */
+  public byte[] getHeaderBytes(final int index) {
+    return headerBytes[index];
+  }
+
+  /**
+   * @return a copy of all the column names.
+   */
+  public String[] getHeaders() {
+    return headers.clone();
+  }
+}
@@ -18,14 +18,47 @@ package bigtable.fraud.beam.utils;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.beam.sdk.coders.DefaultCoder;
-import org.apache.beam.sdk.extensions.avro.coders.AvroCoder;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.client.Result;
-import org.apache.hadoop.hbase.util.Bytes;
 
-@DefaultCoder(AvroCoder.class)
+@DefaultCoder(TransactionDetailsCoder.class)
 public final class TransactionDetails extends RowDetails {
 
+  /**
+   * The columns of a transaction, in their comma-separated order.
+   */
+  public static final RowSchema SCHEMA = new RowSchema("history",
+      "customerID", "transactionID", "transactionAmount", "merchantID",
+      "merchantLong", "merchantLat", "isFraud");
+  /**
+   * Index of the customerID column.
+   */
+  private static final int CUSTOMER_ID = 0;
+  /**
+   * Index of the transactionID column.
+   */
+  private static final int TRANSACTION_ID = 1;
+  /**
+   * Index of the transactionAmount column.
+   */
+  private static final int TRANSACTION_AMOUNT = 2;
+  /**
+   * Index of the merchantID column.
+   */
+  private static final int MERCHANT_ID = 3;
+  /**
+   * Index of the merchantLong column.
+   */
+  private static final int MERCHANT_LONG = 4;
+  /**
+   * Index of the merchantLat column.
+   */
+  private static final int MERCHANT_LAT = 5;
+  /**
+   * Index of the isFraud column.
+   */
+  private static final int IS_FRAUD = 6;
+
   /**
    * The incoming transaction customer id.
    */
@@ -35,9 +68,9 @@ public final class TransactionDetails extends RowDetails {
    */
   private String transactionID;
   /**
-   * The incoming transaction id.
+   * The incoming transaction amount in cents.
    */
-  private String transactionAmount;
+  private long transactionAmountCents;
   /**
    * The incoming transaction merchant id.
    */
@@ -45,16 +78,50 @@ public final class TransactionDetails extends RowDetails {
   /**
    * The incoming transaction merchant longitude.
    */
-  private String merchantLong;
+  private double merchantLong;
   /**
    * The incoming transaction merchant latitude.
    */
-  private String merchantLat;
+  private double merchantLat;
   /**
    * Is this transaction fraudulent?.
    */
   private String isFraud;
 
+  /**
+   * Construct an empty TransactionDetails object.
+   */
+  TransactionDetails() {
+    super();
+  }
+
+  /**
+   * Construct a TransactionDetails object from already typed values.
+   *
+   * @param iCustomerID the customer id.
+   * @param iTransactionID the transaction id.
+   * @param amountCents the transaction amount in cents.
+   * @param iMerchantID the merchant id.
+   * @param longitude the merchant longitude.
+   * @param latitude the merchant latitude.
+   * @param iIsFraud the isFraud value.
+   * @param timestamp the timestamp (millisecond) of the transaction.
+   */
+  TransactionDetails(final String iCustomerID, final String iTransactionID,
+      final long amountCents, final String iMerchantID,
+      final double longitude, final double latitude, final String iIsFraud,
+      final long timestamp) {
+    super();
+    this.customerID = iCustomerID;
+    this.transactionID = iTransactionID;
+    this.transactionAmountCents = amountCents;
+    this.merchantID = iMerchantID;
+    this.merchantLong = longitude;
+    this.merchantLat = latitude;
+    this.isFraud = iIsFraud;
+    setTimestampMillisecond(timestamp);
+  }
+
   /**
    * Construct a TransactionDetails object.
    *
@@ -80,11 +147,25 @@ public final class TransactionDetails extends RowDetails {
     return customerID;
   }
 
+  /**
+   * @return the transaction id.
+   */
+  public String getTransactionID() {
+    return transactionID;
+  }
+
+  /**
+   * @return the transaction amount in cents.
+   */
+  public long getTransactionAmountCents() {
+    return transactionAmountCents;
+  }
+
   /**
    * @return the transaction amount.
    */
-  public String getTransactionAmount() {
-    return transactionAmount;
+  public double getTransactionAmount() {
+    return transactionAmountCents / UtilFunctions.CENTS_IN_DOLLAR;
   }
 
   /**
@@ -97,17 +178,24 @@ public final class TransactionDetails extends RowDetails {
   /**
    * @return the merchant longitude.
    */
-  public String getMerchantLong() {
+  public double getMerchantLong() {
     return merchantLong;
   }
 
   /**
    * @return the merchant latitude.
    */
-  public String getMerchantLat() {
+  public double getMerchantLat() {
     return merchantLat;
   }
 
+  /**
+   * @return the isFraud value.
+   */
+  public String getIsFraud() {
+    return isFraud;
+  }
+
   /**
    * @param input the isFraud value to set.
    */
@@ -115,6 +203,16 @@ public final class TransactionDetails extends RowDetails {
     this.isFraud = input;
   }
 
+  /**
+   * @param input the isFraud value of the copy.
+   * @return a copy of this transaction with the given isFraud value.
+   */
+  public TransactionDetails withIsFraud(final String input) {
+    return new TransactionDetails(customerID, transactionID,
+        transactionAmountCents, merchantID, merchantLong, merchantLat, input,
+        getTimestampMillisecond());
+  }
+
   @Override
   public String toCommaSeparatedString() {
     return "Transaction id: " + transactionID + ", isFraud: " + isFraud;
@@ -129,19 +227,18 @@ public final class TransactionDetails extends RowDetails {
   public ArrayList<TransactionDetails> getLastTransactions(
       final Result row, final long duration) {
     ArrayList<TransactionDetails> lastTransactions = new ArrayList<>();
-    String[] headers = getHeaders();
+    byte[] family = SCHEMA.getColFamilyBytes();
 
     // Create ArrayList that will hold the cells when we read from CBT and
     // ignore the first element because it will hold the row key, and we
     // already know the row key (userID).
-    ArrayList<List<Cell>> cells = new ArrayList<>();
+    ArrayList<List<Cell>> cells = new ArrayList<>(SCHEMA.size());
     cells.add(null);
-    for (int i = 1; i < headers.length; i++) {
-        cells.add(row.getColumnCells(Bytes.toBytes(getColFamily()),
-            Bytes.toBytes(headers[i])));
-        if (cells.get(i).size() == 0) {
-          return lastTransactions;
-        }
+    for (int i = 1; i < SCHEMA.size(); i++) {
+      cells.add(row.getColumnCells(family, SCHEMA.getHeaderBytes(i)));
+      if (cells.get(i).isEmpty()) {
+        return lastTransactions;
+      }
     }
 
     // Iterate over all the transactions of that user that fit in the
@@ -152,28 +249,21 @@ public final class TransactionDetails extends RowDetails {
     boolean hasCells = true;
     while (hasCells) {
       // Build a historical transaction.
-      ArrayList<String> historicalTransactionBuilder = new ArrayList<>();
-      historicalTransactionBuilder.add(customerID);
+      TransactionDetails historicalTransaction = new TransactionDetails();
+      historicalTransaction.setValue(CUSTOMER_ID, customerID);
       long transactionTimeMillisecond = -1;
-      for (int header = 1; header < headers.length; header++) {
+      for (int header = 1; header < cells.size(); header++) {
         // Populate the historical transaction.
         List<Cell> currentCells = cells.get(header);
         // Stop if we iterated over all transactions for that customer.
         if (currentCells.size() == transactionIteration + 1) {
           hasCells = false;
         }
-        historicalTransactionBuilder.add(
-            new String(currentCells.get(transactionIteration).getValueArray()));
-        transactionTimeMillisecond = currentCells.get(transactionIteration)
-            .getTimestamp();
+        Cell cell = currentCells.get(transactionIteration);
+        historicalTransaction.setValue(header, cellValue(cell));
+        transactionTimeMillisecond = cell.getTimestamp();
       }
 
-      // Create the historical transaction.
-      TransactionDetails historicalTransaction =
-          new TransactionDetails(
-              UtilFunctions.arrayListToCommasString(
-                  historicalTransactionBuilder));
-
       // Populate the historical transaction timestamp.
       if (transactionTimeMillisecond != -1) {
         historicalTransaction.setTimestampMillisecond(
@@ -199,8 +289,59 @@ public final class TransactionDetails extends RowDetails {
   }
 
   @Override
-  public String getColFamily() {
-    return "history";
+  public RowSchema getSchema() {
+    return SCHEMA;
+  }
+
+  @Override
+  public String getValue(final int index) {
+    switch (index) {
+      case CUSTOMER_ID:
+        return customerID;
+      case TRANSACTION_ID:
+        return transactionID;
+      case TRANSACTION_AMOUNT:
+        return UtilFunctions.formatCents(transactionAmountCents);
+      case MERCHANT_ID:
+        return merchantID;
+      case MERCHANT_LONG:
+        return String.valueOf(merchantLong);
+      case MERCHANT_LAT:
+        return String.valueOf(merchantLat);
+      case IS_FRAUD:
+        return isFraud;
+      default:
+        throw new IndexOutOfBoundsException("Unknown column " + index);
+    }
+  }
+
+  @Override
+  public void setValue(final int index, final String value) {
+    switch (index) {
+      case CUSTOMER_ID:
+        customerID = value;
+        break;
+      case TRANSACTION_ID:
+        transactionID = value;
+        break;
+      case TRANSACTION_AMOUNT:
+        transactionAmountCents = UtilFunctions.parseCents(value);
+        break;
+      case MERCHANT_ID:
+        merchantID = value;
+        break;
+      case MERCHANT_LONG:
+        merchantLong = Double.parseDouble(value);
+        break;
+      case MERCHANT_LAT:
+        merchantLat = Double.parseDouble(value);
+        break;
+      case IS_FRAUD:
+        isFraud = value;
+        break;
+      default:
+        throw new IndexOutOfBoundsException("Unknown column " + index);
+    }
   }
 
   /**
@@ -23,6 +23,10 @@ public final class UtilFunctions {
    * number of milliseconds in a minute.
    */
   public static final long MINUTE_IN_MILLISECONDS = 60L * 1000;
+  /**
+   * number of milliseconds in an hour.
+   */
+  public static final long HOUR_IN_MILLISECONDS = 3600L * 1000;
   /**
    * number of milliseconds in a day.
    */
@@ -35,6 +39,10 @@ public final class UtilFunctions {
    * number of milliseconds in a month.
    */
   public static final long MONTH_IN_MILLISECONDS = 30L * 24 * 3600 * 1000;
+  /**
+   * number of cents in a dollar.
+   */
+  public static final double CENTS_IN_DOLLAR = 100d;
 
   private UtilFunctions() {
   }
@@ -77,4 +85,32 @@ public final class UtilFunctions {
     }
     return mlFeaturesStr.toString();
   }
+
+  /**
+   * @param amount a decimal amount, for example "131.41".
+   * @return the amount in cents.
+   */
+  public static long parseCents(final String amount) {
+    return Math.round(Double.parseDouble(amount) * CENTS_IN_DOLLAR);
+  }
+
+  /**
+   * @param cents an amount in cents.
+   * @return the amount as a decimal string with two fractional digits.
+   */
+  public static String formatCents(final long cents) {
+    final int centsInDollar = (int) CENTS_IN_DOLLAR;
+    final int singleDigitLimit = 10;
+    long absolute = Math.abs(cents);
+    long fraction = absolute % centsInDollar;
+    StringBuilder amount = new StringBuilder();
+    if (cents < 0) {
+      amount.append('-');
+    }
+    amount.append(absolute / centsInDollar).append('.');
+    if (fraction < singleDigitLimit) {
+      amount.append('0');
+    }
+    return amount.append(fraction).toString();
+  }
 }
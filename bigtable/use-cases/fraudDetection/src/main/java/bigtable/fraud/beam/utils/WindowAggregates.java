@@ -0,0 +1,206 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import java.util.List;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/*
+ * The number and amount of a customer's legitimate transactions in the last
+ * day, week and month before a reference time.
+ * They can be computed by scanning the customer's transaction history, or
+ * from hourly counters that are incremented every time a transaction is
+ * written. The counters live in the "aggregates" column family, one
+ * "count#HOUR" and one "cents#HOUR" column per hour since the epoch, so
+ * reading them costs at most two cells per hour of the month regardless of
+ * how many transactions the customer made. Windows computed from counters
+ * are rounded to whole hours.
+ */
+public final class WindowAggregates {
+
+  /**
+   * The column family holding the hourly counters.
+   */
+  public static final String FAMILY = "aggregates";
+  /**
+   * The width of a counter bucket.
+   */
+  public static final long BUCKET_IN_MILLISECONDS =
+      UtilFunctions.HOUR_IN_MILLISECONDS;
+  /**
+   * The column qualifier prefix of the transaction count counters.
+   */
+  static final String COUNT_PREFIX = "count#";
+  /**
+   * The column qualifier prefix of the transaction amount counters.
+   */
+  static final String CENTS_PREFIX = "cents#";
+  /**
+   * The column family as bytes.
+   */
+  private static final byte[] FAMILY_BYTES = Bytes.toBytes(FAMILY);
+
+  /**
+   * Number of transactions in the last day.
+   */
+  private long lastDayCount;
+  /**
+   * Number of transactions in the last week.
+   */
+  private long lastWeekCount;
+  /**
+   * Amount of the transactions in the last week, in cents.
+   */
+  private long lastWeekCents;
+  /**
+   * Number of transactions in the last month.
+   */
+  private long lastMonthCount;
+  /**
+   * Amount of the transactions in the last month, in cents.
+   */
+  private long lastMonthCents;
+
+  private WindowAggregates() {
+  }
+
+  /**
+   * @param transactions the customer's legitimate transactions.
+   * @param referenceTime the time (millisecond) windows are relative to.
+   * @return the aggregates of the given transactions.
+   */
+  public static WindowAggregates fromTransactions(
+      final List<TransactionDetails> transactions, final long referenceTime) {
+    WindowAggregates aggregates = new WindowAggregates();
+    for (TransactionDetails transaction : transactions) {
+      aggregates.add(referenceTime - transaction.getTimestampMillisecond(), 1,
+          transaction.getTransactionAmountCents());
+    }
+    return aggregates;
+  }
+
+  /**
+   * @param row a row read from Cloud Bigtable, including the aggregates
+   * column family.
+   * @param referenceTime the time (millisecond) windows are relative to.
+   * @return the aggregates read from the hourly counters.
+   */
+  public static WindowAggregates fromCounters(final Result row,
+      final long referenceTime) {
+    WindowAggregates aggregates = new WindowAggregates();
+    Cell[] cells = row.rawCells();
+    if (cells == null) {
+      return aggregates;
+    }
+    long referenceBucket = referenceTime / BUCKET_IN_MILLISECONDS;
+    for (Cell cell : cells) {
+      if (!CellUtil.matchingFamily(cell, FAMILY_BYTES)) {
+        continue;
+      }
+      String qualifier = Bytes.toString(cell.getQualifierArray(),
+          cell.getQualifierOffset(), cell.getQualifierLength());
+      boolean isCount = qualifier.startsWith(COUNT_PREFIX);
+      if (!isCount && !qualifier.startsWith(CENTS_PREFIX)) {
+        continue;
+      }
+      long bucket = Long.parseLong(qualifier.substring(
+          isCount ? COUNT_PREFIX.length() : CENTS_PREFIX.length()));
+      long age = (referenceBucket - bucket) * BUCKET_IN_MILLISECONDS;
+      long value = Bytes.toLong(cell.getValueArray(), cell.getValueOffset(),
+          cell.getValueLength());
+      if (isCount) {
+        aggregates.add(age, value, 0);
+      } else {
+        aggregates.add(age, 0, value);
+      }
+    }
+    return aggregates;
+  }
+
+  /**
+   * @param transaction a transaction that is written to Cloud Bigtable.
+   * @return an Increment that adds the transaction to the hourly counters,
+   * or null if the transaction is fraudulent and should not be counted.
+   */
+  public static Increment toIncrement(final TransactionDetails transaction) {
+    if (transaction.isFraud()) {
+      return null;
+    }
+    long bucket = transaction.getTimestampMillisecond()
+        / BUCKET_IN_MILLISECONDS;
+    Increment increment = new Increment(
+        Bytes.toBytes(transaction.getCustomerID()));
+    increment.addColumn(FAMILY_BYTES, Bytes.toBytes(COUNT_PREFIX + bucket), 1);
+    increment.addColumn(FAMILY_BYTES, Bytes.toBytes(CENTS_PREFIX + bucket),
+        transaction.getTransactionAmountCents());
+    return increment;
+  }
+
+  /**
+   * Adds transactions to every window they fall in.
+   *
+   * @param age the time (millisecond) between the transactions and the
+   * reference time.
+   * @param count the number of transactions.
+   * @param cents the amount of the transactions in cents.
+   */
+  private void add(final long age, final long count, final long cents) {
+    if (age <= UtilFunctions.DAY_IN_MILLISECONDS) {
+      lastDayCount += count;
+    }
+    if (age <= UtilFunctions.WEEK_IN_MILLISECONDS) {
+      lastWeekCount += count;
+      lastWeekCents += cents;
+    }
+    if (age <= UtilFunctions.MONTH_IN_MILLISECONDS) {
+      lastMonthCount += count;
+      lastMonthCents += cents;
+    }
+  }
+
+  /**
+   * @return the number of transactions in the last day.
+   */
+  public long getLastDayCount() {
+    return lastDayCount;
+  }
+
+  /**
+   * @return the average transaction amount in the last week, or 0 if there
+   * were no transactions.
+   */
+  public double getAvgAmountLastWeek() {
+    if (lastWeekCount == 0) {
+      return 0;
+    }
+    return lastWeekCents / UtilFunctions.CENTS_IN_DOLLAR / lastWeekCount;
+  }
+
+  /**
+   * @return the average transaction amount in the last month, or 0 if there
+   * were no transactions.
+   */
+  public double getAvgAmountLastMonth() {
+    if (lastMonthCount == 0) {
+      return 0;
+    }
+    return lastMonthCents / UtilFunctions.CENTS_IN_DOLLAR / lastMonthCount;
+  }
+}
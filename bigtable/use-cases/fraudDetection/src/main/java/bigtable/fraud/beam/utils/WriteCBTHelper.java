@@ -17,6 +17,7 @@ package bigtable.fraud.beam.utils;
 
 import com.google.common.base.Preconditions;
 import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.hadoop.hbase.client.Increment;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -46,13 +47,12 @@ public final class WriteCBTHelper {
             throws Exception {
           try {
             // Get the necessary data for writing to CBT.
-            byte[] family = Bytes.toBytes(c.element().getColFamily());
-            String[] writeHeaders = c.element().getHeaders();
+            RowSchema schema = c.element().getSchema();
+            byte[] family = schema.getColFamilyBytes();
             String[] values = c.element().getValues();
             byte[] rowkey = Bytes.toBytes(values[0]);
 
-            Preconditions.checkArgument(writeHeaders.length
-                == values.length);
+            Preconditions.checkArgument(schema.size() == values.length);
 
             // Support custom timestamp if 'timestampMillisecond' is set in
             // RowDetails.
@@ -65,7 +65,7 @@ public final class WriteCBTHelper {
             Put row = new Put(rowkey);
             for (int i = 1; i < values.length; i++) {
               row.addColumn(
-                  family, Bytes.toBytes(writeHeaders[i]), writeTimestamp,
+                  family, schema.getHeaderBytes(i), writeTimestamp,
                   Bytes.toBytes(values[i]));
             }
 
@@ -77,4 +77,21 @@ public final class WriteCBTHelper {
           }
         }
       };
+
+  /**
+   * Convert a legitimate TransactionDetails into an Increment of the
+   * customer's hourly counters in the aggregates column family.
+   * Fraudulent transactions are not counted.
+   */
+  public static final DoFn<TransactionDetails, Mutation> AGGREGATES_TRANSFORM =
+      new DoFn<TransactionDetails, Mutation>() {
+        @ProcessElement
+        public void processElement(
+            final DoFn<TransactionDetails, Mutation>.ProcessContext c) {
+          Increment increment = WindowAggregates.toIncrement(c.element());
+          if (increment != null) {
+            c.output(increment);
+          }
+        }
+      };
 }
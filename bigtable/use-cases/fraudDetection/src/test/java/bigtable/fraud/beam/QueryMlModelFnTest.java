@@ -0,0 +1,200 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import bigtable.fraud.beam.utils.AggregatedData;
+import bigtable.fraud.beam.utils.CustomerProfile;
+import bigtable.fraud.beam.utils.TransactionDetails;
+import com.google.cloud.aiplatform.v1.PredictRequest;
+import com.google.cloud.aiplatform.v1.PredictResponse;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Value;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.beam.runners.direct.DirectRunner;
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.values.PCollection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class QueryMlModelFnTest {
+
+  private static final int TRANSACTIONS = 2000;
+  private static final int BATCH_SIZE = 32;
+
+  // The feature the fake model looks at: the transaction amount.
+  private static final int AMOUNT_FEATURE = 7;
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger instances = new AtomicInteger();
+  private Server server;
+  // The status that the fake model fails requests with, if any.
+  private volatile Status failure;
+
+  // The Predict method of the Vertex AI PredictionService.
+  private static final MethodDescriptor<PredictRequest, PredictResponse>
+      PREDICT_METHOD =
+          MethodDescriptor.<PredictRequest, PredictResponse>newBuilder()
+              .setType(MethodDescriptor.MethodType.UNARY)
+              .setFullMethodName(MethodDescriptor.generateFullMethodName(
+                  "google.cloud.aiplatform.v1.PredictionService", "Predict"))
+              .setRequestMarshaller(
+                  ProtoUtils.marshaller(PredictRequest.getDefaultInstance()))
+              .setResponseMarshaller(
+                  ProtoUtils.marshaller(PredictResponse.getDefaultInstance()))
+              .build();
+
+  // Flags every transaction above 500 as fraudulent.
+  private void predict(PredictRequest request,
+      StreamObserver<PredictResponse> responseObserver) {
+    requests.incrementAndGet();
+    if (failure != null) {
+      responseObserver.onError(failure.asRuntimeException());
+      return;
+    }
+    instances.addAndGet(request.getInstancesCount());
+    PredictResponse.Builder response = PredictResponse.newBuilder();
+    for (Value instance : request.getInstancesList()) {
+      double amount =
+          instance.getListValue().getValues(AMOUNT_FEATURE).getNumberValue();
+      response.addPredictions(Value.newBuilder().setListValue(
+          ListValue.newBuilder().addValues(Value.newBuilder()
+              .setNumberValue(amount > 500 ? 0.9 : 0.01))));
+    }
+    responseObserver.onNext(response.build());
+    responseObserver.onCompleted();
+  }
+
+  @Before
+  public void startServer() throws Exception {
+    server = ServerBuilder.forPort(0)
+        .addService(ServerServiceDefinition
+            .builder("google.cloud.aiplatform.v1.PredictionService")
+            .addMethod(PREDICT_METHOD,
+                ServerCalls.asyncUnaryCall(this::predict))
+            .build())
+        .build()
+        .start();
+  }
+
+  @After
+  public void stopServer() {
+    server.shutdownNow();
+  }
+
+  private static FraudDetectionOptions options() {
+    FraudDetectionOptions options =
+        PipelineOptionsFactory.as(FraudDetectionOptions.class);
+    options.setRunner(DirectRunner.class);
+    options.setProjectID("test-project");
+    options.setMLRegion("test-region");
+    options.setMLEndpoint("test-endpoint");
+    options.setMLBatchSize(BATCH_SIZE);
+    options.setMLBatchShards(4);
+    return options;
+  }
+
+  // Transactions with amounts spread between 0 and 1000.
+  private static List<AggregatedData> transactions() {
+    CustomerProfile customer = new CustomerProfile("8011019710, "
+        + "346545733014127, Carla, Sheppard, 1990-02-10, 438882350784");
+    List<AggregatedData> input = new ArrayList<>();
+    for (int i = 0; i < TRANSACTIONS; i++) {
+      double amount = (i * 7919) % 1000;
+      TransactionDetails transaction = new TransactionDetails(String.format(
+          Locale.US,
+          "8011019710, TimestampMilliseconds=%d, tx%d, %.2f, 1, 1, 1, ?",
+          1646184535000L + i, i, amount));
+      input.add(new AggregatedData(transaction, customer, 1, 1, 1, 1, 1));
+    }
+    return input;
+  }
+
+  private PCollection<TransactionDetails> queryMlModel(Pipeline pipeline,
+      FraudDetectionOptions options) {
+    return FraudDetection.queryMlModel(
+        pipeline.apply(Create.of(transactions())), options,
+        new FraudDetection.QueryMlModelFn(
+            "localhost:" + server.getPort(), true, 4));
+  }
+
+  @Test
+  public void batchesTransactionsIntoPredictRequests() {
+    FraudDetectionOptions options = options();
+    int expectedFraud = 0;
+    for (AggregatedData transaction : transactions()) {
+      expectedFraud +=
+          transaction.getTransactionDetails().getTransactionAmount() > 500
+              ? 1 : 0;
+    }
+    final int fraudCount = expectedFraud;
+
+    Pipeline pipeline = Pipeline.create(options);
+    PCollection<TransactionDetails> output = queryMlModel(pipeline, options);
+    PAssert.that(output).satisfies(transactions -> {
+      int count = 0;
+      int fraud = 0;
+      for (TransactionDetails transaction : transactions) {
+        count++;
+        boolean expected = transaction.getTransactionAmount() > 500;
+        assertThat(transaction.isFraud()).isEqualTo(expected);
+        fraud += expected ? 1 : 0;
+      }
+      assertThat(count).isEqualTo(TRANSACTIONS);
+      assertThat(fraud).isEqualTo(fraudCount);
+      return null;
+    });
+
+    pipeline.run().waitUntilFinish();
+
+    assertThat(instances.get()).isEqualTo(TRANSACTIONS);
+    assertThat(requests.get()).isLessThan(TRANSACTIONS / 4);
+  }
+
+  @Test
+  public void failsBundleWhenPredictRequestFails() {
+    failure = Status.INTERNAL.withDescription("model unavailable");
+    FraudDetectionOptions options = options();
+    Pipeline pipeline = Pipeline.create(options);
+    queryMlModel(pipeline, options);
+
+    // The transactions are not dropped: the bundle fails, and is retried.
+    Pipeline.PipelineExecutionException e = assertThrows(
+        Pipeline.PipelineExecutionException.class,
+        () -> pipeline.run().waitUntilFinish());
+    assertThat(e).hasMessageThat().contains("model unavailable");
+  }
+}
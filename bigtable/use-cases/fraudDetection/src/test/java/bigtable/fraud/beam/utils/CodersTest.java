@@ -0,0 +1,89 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CodersTest {
+
+  private static final String TRANSACTION_LINE = "2319098576, "
+      + "TimestampMilliseconds=1646184535000, "
+      + "ae04c132cd53d4cd6d183782e69b10f2, "
+      + "131.41, 1811499431249, 45.898961, -87.747601, ?";
+
+  private static final String CUSTOMER_LINE =
+      "8011019710, 346545733014127, Carla, Sheppard, 1990-02-10, 438882350784";
+
+  @Test
+  public void parsesTypedTransactionFields() {
+    TransactionDetails transaction = new TransactionDetails(TRANSACTION_LINE);
+
+    assertThat(transaction.getTransactionAmountCents()).isEqualTo(13141L);
+    assertThat(transaction.getMerchantLong()).isEqualTo(45.898961);
+    assertThat(transaction.getValues()[2]).isEqualTo("131.41");
+  }
+
+  @Test
+  public void roundTripsTransactionDetails() throws Exception {
+    TransactionDetails transaction = new TransactionDetails(TRANSACTION_LINE);
+
+    TransactionDetails decoded =
+        CoderUtils.clone(TransactionDetailsCoder.of(), transaction);
+
+    assertThat(decoded.getValues()).isEqualTo(transaction.getValues());
+    assertThat(decoded.getTimestampMillisecond())
+        .isEqualTo(transaction.getTimestampMillisecond());
+  }
+
+  @Test
+  public void roundTripsAggregatedData() throws Exception {
+    AggregatedData data = new AggregatedData(
+        new TransactionDetails(TRANSACTION_LINE),
+        new CustomerProfile(CUSTOMER_LINE), 1.5, 2.5, 3.5, 4.5, 5);
+
+    AggregatedData decoded = CoderUtils.clone(AggregatedDataCoder.of(), data);
+
+    assertThat(decoded.getMLFeatures()).isEqualTo(data.getMLFeatures());
+    assertThat(decoded.getCustomerProfile().getValues())
+        .isEqualTo(data.getCustomerProfile().getValues());
+  }
+
+  @Test
+  public void defaultCodersAreInferred() throws Exception {
+    CoderRegistry registry = CoderRegistry.createDefault();
+
+    assertThat(registry.getCoder(TransactionDetails.class))
+        .isSameInstanceAs(TransactionDetailsCoder.of());
+    assertThat(registry.getCoder(CustomerProfile.class))
+        .isSameInstanceAs(CustomerProfileCoder.of());
+    assertThat(registry.getCoder(AggregatedData.class))
+        .isSameInstanceAs(AggregatedDataCoder.of());
+  }
+
+  @Test
+  public void formatsNegativeAndSmallAmounts() {
+    assertThat(UtilFunctions.formatCents(-5)).isEqualTo("-0.05");
+    assertThat(UtilFunctions.formatCents(100)).isEqualTo("1.00");
+    assertThat(UtilFunctions.parseCents("0.1")).isEqualTo(10L);
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the schema-based RowDetails codec with the reflection-based one it
+ * replaced, for both comma-separated lines and Cloud Bigtable results.
+ *
+ * <p>Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=bigtable.fraud.beam.utils.RowDetailsBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowDetailsBenchmark {
+
+  private static final String TRANSACTION_LINE = "2319098576, "
+      + "TimestampMilliseconds=1646184535000, "
+      + "ae04c132cd53d4cd6d183782e69b10f2, "
+      + "131.41, 1811499431249, 45.898961, -87.747601, 0";
+
+  private static final String CUSTOMER_LINE =
+      "8011019710, 346545733014127, Carla, Sheppard, 1990-02-10, 438882350784";
+
+  private Result customerRow;
+
+  @Setup
+  public void setup() {
+    byte[] rowKey = Bytes.toBytes("8011019710");
+    byte[] family = Bytes.toBytes("customer_profile");
+    String[] headers =
+        {"ccNumber", "firstName", "lastName", "dob", "accountNumber"};
+    String[] values =
+        {"346545733014127", "Carla", "Sheppard", "1990-02-10", "438882350784"};
+    List<Cell> cells = new ArrayList<>();
+    for (int i = 0; i < headers.length; i++) {
+      cells.add(new KeyValue(rowKey, family, Bytes.toBytes(headers[i]), 1L,
+          Bytes.toBytes(values[i])));
+    }
+    cells.sort(KeyValue.COMPARATOR);
+    customerRow = Result.create(cells);
+  }
+
+  @Benchmark
+  public TransactionDetails parseLineSchema() {
+    return new TransactionDetails(TRANSACTION_LINE);
+  }
+
+  @Benchmark
+  public ReflectiveTransaction parseLineReflective() {
+    ReflectiveTransaction transaction = new ReflectiveTransaction();
+    transaction.parse(TRANSACTION_LINE);
+    return transaction;
+  }
+
+  @Benchmark
+  public String[] getValuesSchema() {
+    return new CustomerProfile(CUSTOMER_LINE).getValues();
+  }
+
+  @Benchmark
+  public String[] getValuesReflective() throws IllegalAccessException {
+    ReflectiveCustomer customer = new ReflectiveCustomer();
+    customer.parse(CUSTOMER_LINE);
+    return customer.getValues();
+  }
+
+  @Benchmark
+  public CustomerProfile decodeResultSchema() {
+    return new CustomerProfile(customerRow);
+  }
+
+  @Benchmark
+  public ReflectiveCustomer decodeResultReflective() {
+    ReflectiveCustomer customer = new ReflectiveCustomer();
+    customer.decode(customerRow, "customer_profile");
+    return customer;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(RowDetailsBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+
+  /** The reflection-based codec that RowDetails used to implement. */
+  abstract static class ReflectiveRow {
+
+    long timestampMillisecond = Long.MAX_VALUE;
+
+    void parse(String line) {
+      List<String> values = new LinkedList<>(Arrays.asList(line.split(", ")));
+      if (values.size() >= 2
+          && values.get(1).startsWith("TimestampMilliseconds=")) {
+        timestampMillisecond = Long.parseLong(
+            values.get(1).split("TimestampMilliseconds=")[1]);
+        values.remove(1);
+      }
+      String[] processedValues = new String[values.size()];
+      setValues(values.toArray(processedValues));
+    }
+
+    void decode(Result row, String family) {
+      byte[] columnFamilyBytes = family.getBytes();
+      String[] headers = getHeaders();
+      String[] values = new String[headers.length];
+      for (int i = 0; i < headers.length; i++) {
+        if (i == 0) {
+          values[i] = new String(row.getRow());
+        } else {
+          Cell latestCell = row.getColumnLatestCell(columnFamilyBytes,
+              Bytes.toBytes(headers[i]));
+          if (latestCell == null) {
+            return;
+          }
+          values[i] = new String(latestCell.getValueArray());
+          timestampMillisecond = latestCell.getTimestamp();
+        }
+      }
+      setValues(values);
+    }
+
+    String[] getHeaders() {
+      Field[] fields = getClass().getDeclaredFields();
+      String[] headers = new String[fields.length];
+      for (int i = 0; i < fields.length; i++) {
+        fields[i].setAccessible(true);
+        headers[i] = fields[i].getName();
+      }
+      return headers;
+    }
+
+    String[] getValues() throws IllegalAccessException {
+      Field[] fields = getClass().getDeclaredFields();
+      String[] values = new String[fields.length];
+      for (int i = 0; i < fields.length; i++) {
+        fields[i].setAccessible(true);
+        values[i] = String.valueOf(fields[i].get(this));
+      }
+      return values;
+    }
+
+    void setValues(String[] values) {
+      Field[] fields = getClass().getDeclaredFields();
+      if (fields.length != values.length) {
+        throw new RuntimeException(
+            "Trying to set values that doesn't equal to the number of fields");
+      }
+      for (int i = 0; i < fields.length; i++) {
+        fields[i].setAccessible(true);
+        try {
+          fields[i].set(this, values[i]);
+        } catch (IllegalAccessException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+  }
+
+  static final class ReflectiveTransaction extends ReflectiveRow {
+    private String customerID;
+    private String transactionID;
+    private String transactionAmount;
+    private String merchantID;
+    private String merchantLong;
+    private String merchantLat;
+    private String isFraud;
+  }
+
+  static final class ReflectiveCustomer extends ReflectiveRow {
+    private String id;
+    private String ccNumber;
+    private String firstName;
+    private String lastName;
+    private String dob;
+    private String accountNumber;
+  }
+}
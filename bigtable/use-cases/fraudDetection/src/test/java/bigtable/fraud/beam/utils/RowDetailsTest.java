@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RowDetailsTest {
+
+  @Test
+  public void parsesLineWithCustomTimestamp() {
+    TransactionDetails transaction = new TransactionDetails(
+        "2319098576, TimestampMilliseconds=1646184535000, "
+            + "ae04c132cd53d4cd6d183782e69b10f2, 131.41, 1811499431249, "
+            + "45.898961, -87.747601, 0");
+
+    assertThat(transaction.getTimestampMillisecond()).isEqualTo(1646184535000L);
+    assertThat(transaction.getCustomerID()).isEqualTo("2319098576");
+    assertThat(transaction.getTransactionAmountCents()).isEqualTo(13141L);
+    assertThat(transaction.getMerchantLat()).isEqualTo(-87.747601);
+    assertThat(transaction.isFraud()).isFalse();
+  }
+
+  @Test
+  public void roundTripsValuesInSchemaOrder() {
+    String line = "8011019710, 346545733014127, Carla, Sheppard, 1990-02-10, "
+        + "438882350784";
+    CustomerProfile customer = new CustomerProfile(line);
+
+    assertThat(customer.getHeaders()).asList().containsExactly("id", "ccNumber",
+        "firstName", "lastName", "dob", "accountNumber").inOrder();
+    assertThat(customer.getTimestampMillisecond()).isEqualTo(Long.MAX_VALUE);
+    assertThat(customer.toCommaSeparatedString()).isEqualTo(line);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void rejectsWrongNumberOfValues() {
+    new CustomerProfile("8011019710, 346545733014127");
+  }
+
+  @Test
+  public void decodesLatestCellsFromResult() {
+    byte[] rowKey = Bytes.toBytes("8011019710");
+    byte[] family = Bytes.toBytes("customer_profile");
+    String[] headers = {"ccNumber", "firstName", "lastName", "dob",
+        "accountNumber"};
+    String[] values = {"346545733014127", "Carla", "Sheppard", "1990-02-10",
+        "438882350784"};
+    List<Cell> cells = new ArrayList<>();
+    for (int i = 0; i < values.length; i++) {
+      cells.add(new KeyValue(rowKey, family, Bytes.toBytes(headers[i]), 42L,
+          Bytes.toBytes(values[i])));
+    }
+    cells.sort(KeyValue.COMPARATOR);
+
+    CustomerProfile customer = new CustomerProfile(Result.create(cells));
+
+    assertThat(customer.getId()).isEqualTo("8011019710");
+    assertThat(customer.getCcNumber()).isEqualTo("346545733014127");
+    assertThat(customer.getTimestampMillisecond()).isEqualTo(42L);
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.extensions.avro.coders.AvroCoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures parse + encode + decode throughput of a synthetic transaction
+ * stream with TransactionDetailsCoder, with AvroCoder, and with AvroCoder over
+ * the string-typed fields TransactionDetails used to have, and prints the
+ * average encoded size of each.
+ *
+ * <p>Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=bigtable.fraud.beam.utils.TransactionCoderBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionCoderBenchmark {
+
+  private static final int STREAM_SIZE = 10_000;
+
+  @Param({"compact", "avro", "avro-strings"})
+  public String coderName;
+
+  private Coder<TransactionDetails> coder;
+  private Coder<StringTransaction> stringCoder;
+  private String[] stream;
+  private ByteArrayOutputStream buffer;
+
+  @Setup
+  public void setup() throws IOException {
+    coder = coderName.equals("compact")
+        ? TransactionDetailsCoder.of() : AvroCoder.of(TransactionDetails.class);
+    stringCoder = AvroCoder.of(StringTransaction.class);
+    stream = syntheticStream(STREAM_SIZE, 42L);
+    buffer = new ByteArrayOutputStream();
+
+    long bytes = 0;
+    for (String line : stream) {
+      buffer.reset();
+      if (coderName.equals("avro-strings")) {
+        stringCoder.encode(new StringTransaction(line), buffer);
+      } else {
+        coder.encode(new TransactionDetails(line), buffer);
+      }
+      bytes += buffer.size();
+    }
+    System.out.printf("%n%s coder: %.1f bytes per transaction%n", coderName,
+        (double) bytes / STREAM_SIZE);
+  }
+
+  /** Processes the whole synthetic stream; the score is streams per second. */
+  @Benchmark
+  public long parseEncodeDecode() throws IOException {
+    if (coderName.equals("avro-strings")) {
+      return parseEncodeDecodeStrings();
+    }
+    long checksum = 0;
+    for (String line : stream) {
+      buffer.reset();
+      coder.encode(new TransactionDetails(line), buffer);
+      TransactionDetails decoded =
+          coder.decode(new ByteArrayInputStream(buffer.toByteArray()));
+      checksum += decoded.getTransactionAmountCents();
+    }
+    return checksum;
+  }
+
+  /**
+   * The old path: string fields, with amounts parsed where they are used.
+   */
+  private long parseEncodeDecodeStrings() throws IOException {
+    long checksum = 0;
+    for (String line : stream) {
+      buffer.reset();
+      stringCoder.encode(new StringTransaction(line), buffer);
+      StringTransaction decoded =
+          stringCoder.decode(new ByteArrayInputStream(buffer.toByteArray()));
+      checksum += Math.round(
+          Double.parseDouble(decoded.transactionAmount) * 100);
+    }
+    return checksum;
+  }
+
+  /**
+   * @param size the number of transactions to generate.
+   * @param seed the random seed.
+   * @return comma-separated transactions in the Pub/Sub input format.
+   */
+  static String[] syntheticStream(int size, long seed) {
+    Random random = new Random(seed);
+    String[] lines = new String[size];
+    long timestamp = 1646184535000L;
+    for (int i = 0; i < size; i++) {
+      timestamp += random.nextInt(60_000);
+      lines[i] = String.format(Locale.US,
+          "%d, TimestampMilliseconds=%d, %032x, %.2f, %d, %.6f, %.6f, %d",
+          1_000_000_000L + random.nextInt(1000), timestamp, random.nextLong(),
+          random.nextDouble() * 1000,
+          1_000_000_000_000L + random.nextInt(100_000),
+          random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180,
+          random.nextInt(2));
+    }
+    return lines;
+  }
+
+  /** TransactionDetails as it was before its fields were typed. */
+  static final class StringTransaction {
+    String customerID;
+    String transactionID;
+    String transactionAmount;
+    String merchantID;
+    String merchantLong;
+    String merchantLat;
+    String isFraud;
+    long timestampMillisecond;
+
+    StringTransaction() {
+    }
+
+    StringTransaction(String line) {
+      String[] values = line.split(", ");
+      customerID = values[0];
+      timestampMillisecond = Long.parseLong(values[1].substring(
+          "TimestampMilliseconds=".length()));
+      transactionID = values[2];
+      transactionAmount = values[3];
+      merchantID = values[4];
+      merchantLong = values[5];
+      merchantLat = values[6];
+      isFraud = values[7];
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(TransactionCoderBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
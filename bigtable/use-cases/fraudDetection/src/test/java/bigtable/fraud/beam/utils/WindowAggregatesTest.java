@@ -0,0 +1,91 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package bigtable.fraud.beam.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class WindowAggregatesTest {
+
+  private static final long NOW = 1647487125000L;
+
+  private static TransactionDetails transaction(long ageMillis, String amount,
+      String isFraud) {
+    return new TransactionDetails("3563761482, TimestampMilliseconds="
+        + (NOW - ageMillis) + ", id, " + amount + ", 1, 38.8, -90.3, "
+        + isFraud);
+  }
+
+  @Test
+  public void countersMatchScannedHistory() {
+    List<TransactionDetails> history = Arrays.asList(
+        transaction(0, "10.00", "0"),
+        transaction(2 * UtilFunctions.HOUR_IN_MILLISECONDS, "20.00", "0"),
+        transaction(3 * UtilFunctions.DAY_IN_MILLISECONDS, "30.00", "0"),
+        transaction(20 * UtilFunctions.DAY_IN_MILLISECONDS, "40.00", "0"));
+
+    // Sum the increments the same way Cloud Bigtable would.
+    List<Cell> cells = new ArrayList<>();
+    for (TransactionDetails transaction : history) {
+      Increment increment = WindowAggregates.toIncrement(transaction);
+      increment.getFamilyMapOfLongs().values().forEach(columns ->
+          columns.forEach((qualifier, amount) -> cells.add(new KeyValue(
+              increment.getRow(), Bytes.toBytes(WindowAggregates.FAMILY),
+              qualifier, 1L, Bytes.toBytes(amount)))));
+    }
+    cells.sort(KeyValue.COMPARATOR);
+
+    WindowAggregates scanned = WindowAggregates.fromTransactions(history, NOW);
+    WindowAggregates counted =
+        WindowAggregates.fromCounters(Result.create(cells), NOW);
+
+    assertThat(scanned.getLastDayCount()).isEqualTo(2);
+    assertThat(scanned.getAvgAmountLastWeek()).isEqualTo(20.0);
+    assertThat(scanned.getAvgAmountLastMonth()).isEqualTo(25.0);
+    assertThat(counted.getLastDayCount()).isEqualTo(scanned.getLastDayCount());
+    assertThat(counted.getAvgAmountLastWeek())
+        .isEqualTo(scanned.getAvgAmountLastWeek());
+    assertThat(counted.getAvgAmountLastMonth())
+        .isEqualTo(scanned.getAvgAmountLastMonth());
+  }
+
+  @Test
+  public void fraudulentTransactionsAreNotCounted() {
+    assertThat(WindowAggregates.toIncrement(transaction(0, "10.00", "1")))
+        .isNull();
+  }
+
+  @Test
+  public void emptyRowHasNoAggregates() {
+    WindowAggregates aggregates =
+        WindowAggregates.fromCounters(Result.create(new Cell[0]), NOW);
+
+    assertThat(aggregates.getLastDayCount()).isEqualTo(0);
+    assertThat(aggregates.getAvgAmountLastMonth()).isEqualTo(0.0);
+  }
+}
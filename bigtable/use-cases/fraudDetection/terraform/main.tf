@@ -47,7 +47,7 @@ resource "google_bigtable_instance" "tf-fd-instance" {
   }
 }
 
-# Create a CBT table and create two column families.
+# Create a CBT table and create three column families.
 resource "google_bigtable_table" "tf-fd-table" {
   name          = "customer-information-${random_string.uuid.result}"
   instance_name = google_bigtable_instance.tf-fd-instance.name
@@ -57,6 +57,24 @@ resource "google_bigtable_table" "tf-fd-table" {
   column_family {
     family = "history"
   }
+  column_family {
+    family = "aggregates"
+  }
+}
+
+# Hourly counters older than the aggregation window are never read again.
+resource "google_bigtable_gc_policy" "tf-fd-aggregates-gc-policy" {
+  instance_name   = google_bigtable_instance.tf-fd-instance.name
+  table           = google_bigtable_table.tf-fd-table.name
+  column_family   = "aggregates"
+  deletion_policy = "ABANDON"
+  mode            = "UNION"
+  max_age {
+    duration = "744h"
+  }
+  max_version {
+    number = 1
+  }
 }
 
 # Create the pubsub input topic.
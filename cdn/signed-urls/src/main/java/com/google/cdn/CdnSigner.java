@@ -0,0 +1,267 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cdn;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs Cloud CDN URLs, URL prefixes and cookies with the keys of a keyring, for services that
+ * sign many URLs.
+ *
+ * <p>The samples in {@link SignedUrls}, {@link SignedUrlWithPrefix} and {@link SignedCookies}
+ * create and initialize a {@link Mac} for every signature. A CdnSigner initializes one Mac per key
+ * when the key is added, and gives every thread its own clone of it. The strings to sign are built
+ * in per-thread buffers. A CdnSigner is thread-safe and is meant to be shared.
+ *
+ * <p>The signatures are the same as the ones of the samples.
+ */
+public class CdnSigner {
+
+  private static final String ALGORITHM = "HmacSHA1";
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder();
+
+  private final ConcurrentMap<String, SigningKey> keyring = new ConcurrentHashMap<>();
+  private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+  /**
+   * Adds a key to the keyring, or replaces the key with the same name.
+   *
+   * @param keyName the name of the signing key added to the back end bucket or service
+   * @param key url signing key uploaded to the backend service/bucket, in raw form
+   * @throws InvalidKeyException when the key cannot be used with HmacSHA1
+   * @throws NoSuchAlgorithmException when HmacSHA1 algorithm is not available in the environment
+   */
+  public void addKey(String keyName, byte[] key)
+      throws InvalidKeyException, NoSuchAlgorithmException {
+    keyring.put(keyName, new SigningKey(key));
+  }
+
+  /** Removes a key from the keyring. URLs can no longer be signed with it. */
+  public void removeKey(String keyName) {
+    keyring.remove(keyName);
+  }
+
+  /**
+   * Creates a signed URL for a Cloud CDN endpoint, like {@link SignedUrls#signUrl}.
+   *
+   * @param url the Cloud CDN endpoint to sign
+   * @param keyName the name of a key of the keyring
+   * @param expirationTime the Unix timestamp that the signed URL expires
+   * @return a properly formatted signed URL
+   */
+  public String signUrl(String url, String keyName, long expirationTime) {
+    return signUrl(url, getKey(keyName), keyName, expirationTime, buffers.get());
+  }
+
+  /**
+   * Creates signed URLs for many Cloud CDN endpoints, all with the same key and expiration time.
+   *
+   * @return the signed URLs, in the order of the given URLs
+   */
+  public List<String> signAll(List<String> urls, String keyName, long expirationTime) {
+    SigningKey key = getKey(keyName);
+    Buffers buffers = this.buffers.get();
+    List<String> signedUrls = new ArrayList<>(urls.size());
+    for (String url : urls) {
+      signedUrls.add(signUrl(url, key, keyName, expirationTime, buffers));
+    }
+    return signedUrls;
+  }
+
+  /**
+   * Creates a signed URL with a URL prefix for a Cloud CDN endpoint, like
+   * {@link SignedUrlWithPrefix#signUrlWithPrefix}.
+   *
+   * @param requestUrl the URL of the request, which already has query parameters
+   * @param urlPrefix the URL prefix to sign, which starts with http:// or https:// and has no
+   *     query parameters
+   * @param keyName the name of a key of the keyring
+   * @param expirationTime the Unix timestamp that the signed URL expires
+   */
+  public String signUrlWithPrefix(String requestUrl, String urlPrefix, String keyName,
+      long expirationTime) {
+    SigningKey key = getKey(keyName);
+    StringBuilder builder = buffers.get().builder;
+    builder.setLength(0);
+    builder.append(requestUrl).append('&');
+    int policyStart = builder.length();
+    appendPolicy(builder, urlPrefix, '&', keyName, expirationTime);
+    return appendSignature(builder, policyStart, "&Signature=", key);
+  }
+
+  /**
+   * Creates a signed cookie for a URL prefix, like {@link SignedCookies#signCookie}.
+   *
+   * @param urlPrefix the URL prefix to sign, which starts with http:// or https:// and has no
+   *     query parameters
+   * @param keyName the name of a key of the keyring
+   * @param expirationTime the Unix timestamp that the signed cookie expires
+   */
+  public String signCookie(String urlPrefix, String keyName, long expirationTime) {
+    SigningKey key = getKey(keyName);
+    StringBuilder builder = buffers.get().builder;
+    builder.setLength(0);
+    builder.append("Cloud-CDN-Cookie=");
+    int policyStart = builder.length();
+    appendPolicy(builder, urlPrefix, ':', keyName, expirationTime);
+    return appendSignature(builder, policyStart, ":Signature=", key);
+  }
+
+  private SigningKey getKey(String keyName) {
+    SigningKey key = keyring.get(keyName);
+    if (key == null) {
+      throw new IllegalArgumentException("Unknown key name: " + keyName);
+    }
+    return key;
+  }
+
+  private String signUrl(String url, SigningKey key, String keyName, long expirationTime,
+      Buffers buffers) {
+    StringBuilder builder = buffers.builder;
+    builder.setLength(0);
+    builder.append(url)
+        .append(url.indexOf('?') >= 0 ? '&' : '?')
+        .append("Expires=").append(expirationTime)
+        .append("&KeyName=").append(keyName);
+    return appendSignature(builder, 0, "&Signature=", key);
+  }
+
+  private static void appendPolicy(StringBuilder builder, String urlPrefix, char separator,
+      String keyName, long expirationTime) {
+    validateUrlPrefix(urlPrefix);
+    builder.append("URLPrefix=")
+        .append(ENCODER.encodeToString(urlPrefix.getBytes(StandardCharsets.UTF_8)))
+        .append(separator).append("Expires=").append(expirationTime)
+        .append(separator).append("KeyName=").append(keyName);
+  }
+
+  private static void validateUrlPrefix(String urlPrefix) {
+    try {
+      URL validatedUrlPrefix = new URL(urlPrefix);
+      if (!validatedUrlPrefix.getProtocol().startsWith("http")) {
+        throw new IllegalArgumentException(
+            "urlPrefix must start with either http:// or https://: " + urlPrefix);
+      }
+      if (validatedUrlPrefix.getQuery() != null) {
+        throw new IllegalArgumentException("urlPrefix must not include query params: " + urlPrefix);
+      }
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException("urlPrefix malformed: " + urlPrefix);
+    }
+  }
+
+  // Signs the builder from start, then appends the label and the signature, and returns the
+  // whole builder.
+  private String appendSignature(StringBuilder builder, int start, String label, SigningKey key) {
+    Buffers buffers = this.buffers.get();
+    Mac mac = key.macs.get();
+    mac.update(buffers.encode(builder, start), 0, buffers.inputLength);
+    try {
+      mac.doFinal(buffers.signature, 0);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+    int length = ENCODER.encode(buffers.signature, buffers.encodedSignature);
+    builder.append(label);
+    for (int i = 0; i < length; i++) {
+      builder.append((char) buffers.encodedSignature[i]);
+    }
+    return builder.toString();
+  }
+
+  // An initialized Mac, and a clone of it per thread.
+  private static class SigningKey {
+    private final SecretKeySpec keySpec;
+    private final Mac prototype;
+    private final boolean cloneable;
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+    SigningKey(byte[] key) throws InvalidKeyException, NoSuchAlgorithmException {
+      this.keySpec = new SecretKeySpec(key, 0, key.length, ALGORITHM);
+      this.prototype = Mac.getInstance(ALGORITHM);
+      prototype.init(keySpec);
+      boolean cloneable;
+      try {
+        prototype.clone();
+        cloneable = true;
+      } catch (CloneNotSupportedException e) {
+        cloneable = false;
+      }
+      this.cloneable = cloneable;
+    }
+
+    // The prototype is never updated, so it can be cloned by many threads at once.
+    private Mac newMac() {
+      try {
+        if (cloneable) {
+          return (Mac) prototype.clone();
+        }
+        Mac mac = Mac.getInstance(ALGORITHM);
+        mac.init(keySpec);
+        return mac;
+      } catch (CloneNotSupportedException | GeneralSecurityException e) {
+        // The prototype was created and cloned with the same provider.
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  // The buffers of one thread.
+  private static class Buffers {
+    private final StringBuilder builder = new StringBuilder(256);
+    private final byte[] signature = new byte[20];
+    private final byte[] encodedSignature = new byte[28];
+    private byte[] input = new byte[256];
+    private int inputLength;
+
+    // Encodes the builder from start in UTF-8 into input, and returns input.
+    byte[] encode(StringBuilder builder, int start) {
+      int length = builder.length() - start;
+      if (input.length < length) {
+        input = new byte[Math.max(length, input.length * 2)];
+      }
+      for (int i = 0; i < length; i++) {
+        char c = builder.charAt(start + i);
+        if (c >= 0x80) {
+          // URLs are usually ASCII. Anything else is encoded by the String.
+          byte[] bytes = builder.substring(start).getBytes(StandardCharsets.UTF_8);
+          if (input.length < bytes.length) {
+            input = new byte[bytes.length];
+          }
+          System.arraycopy(bytes, 0, input, 0, bytes.length);
+          inputLength = bytes.length;
+          return input;
+        }
+        input[i] = (byte) c;
+      }
+      inputLength = length;
+      return input;
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cdn;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures signatures per second with a new Mac per signature, as in {@link SignedUrls}, and with
+ * a shared {@link CdnSigner}, one URL at a time and in batches, on 1, 2, 4 and 8 threads.
+ *
+ * <p>Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=com.google.cdn.CdnSignerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class CdnSignerBenchmark {
+
+  private static final int BATCH = 100;
+  private static final long EXPIRATION = 1518135754;
+  private static final byte[] KEY_BYTES =
+      Base64.getUrlDecoder().decode("aaaaaaaaaaaaaaaaaaaaaa==");
+  private static final String KEY_NAME = "my-key";
+
+  private final CdnSigner signer = new CdnSigner();
+  private final List<String> urls = new ArrayList<>();
+
+  @Setup
+  public void setup() throws Exception {
+    signer.addKey(KEY_NAME, KEY_BYTES);
+    for (int i = 0; i < BATCH; i++) {
+      urls.add("https://media.example.com/videos/" + i + "/main.m3u8?userID=user" + i);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public int newMacPerSignature() throws Exception {
+    int length = 0;
+    Date expiration = new Date(EXPIRATION * 1000);
+    for (String url : urls) {
+      length += SignedUrls.signUrl(url, KEY_BYTES, KEY_NAME, expiration).length();
+    }
+    return length;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public int cdnSigner() {
+    int length = 0;
+    for (String url : urls) {
+      length += signer.signUrl(url, KEY_NAME, EXPIRATION).length();
+    }
+    return length;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public List<String> cdnSignerSignAll() {
+    return signer.signAll(urls, KEY_NAME, EXPIRATION);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    for (int threads : new int[] {1, 2, 4, 8}) {
+      new Runner(new OptionsBuilder()
+          .include(CdnSignerBenchmark.class.getSimpleName())
+          .threads(threads)
+          .build())
+          .run();
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CdnSignerTest {
+
+  private static long EXPIRATION = 1518135754;
+  private static byte[] KEY_BYTES = Base64.getUrlDecoder().decode("aaaaaaaaaaaaaaaaaaaaaa==");
+  private static String KEY_NAME = "my-key";
+  private static String URL_PREFIX = "https://media.example.com/videos/";
+  private static String REQUEST_URL = "https://media.example.com/videos/id/main.m3u8?userID=abc123&starting_profile=1";
+
+  private CdnSigner signer;
+
+  @Before
+  public void setUp() throws Exception {
+    signer = new CdnSigner();
+    signer.addKey(KEY_NAME, KEY_BYTES);
+    signer.addKey("other-key", Base64.getUrlDecoder().decode("bbbbbbbbbbbbbbbbbbbbbb=="));
+  }
+
+  @Test
+  public void testSignUrl() throws Exception {
+    assertEquals(
+        "https://www.example.com/foo?Expires=1518135754&KeyName=my-key&Signature=vUfG4yv47dyns1j9e_OI6_5meuA=",
+        signer.signUrl("https://www.example.com/foo", KEY_NAME, EXPIRATION));
+    assertEquals(
+        "https://www.example.com/?param=true&Expires=1518135754&KeyName=my-key&Signature=6TijW8OMX3gcMI5Kqs8ESiPY97c=",
+        signer.signUrl("https://www.example.com/?param=true", KEY_NAME, EXPIRATION));
+  }
+
+  @Test
+  public void testSignUrlWithPrefix() throws Exception {
+    assertEquals(
+        SignedUrlWithPrefix.signUrlWithPrefix(
+            REQUEST_URL, URL_PREFIX, KEY_BYTES, KEY_NAME, EXPIRATION),
+        signer.signUrlWithPrefix(REQUEST_URL, URL_PREFIX, KEY_NAME, EXPIRATION));
+    assertThrows(IllegalArgumentException.class,
+        () -> signer.signUrlWithPrefix(
+            REQUEST_URL, "https://media.example.com/videos/?foo", KEY_NAME, EXPIRATION));
+  }
+
+  @Test
+  public void testSignCookie() throws Exception {
+    assertEquals(
+        SignedCookies.signCookie(URL_PREFIX, KEY_BYTES, KEY_NAME, EXPIRATION),
+        signer.signCookie(URL_PREFIX, KEY_NAME, EXPIRATION));
+    assertThrows(IllegalArgumentException.class,
+        () -> signer.signCookie("www.media.example.com/videos/", KEY_NAME, EXPIRATION));
+  }
+
+  @Test
+  public void testSignAll() throws Exception {
+    List<String> urls = Arrays.asList(
+        "https://www.example.com/", "https://www.example.com/?a=b", "https://www.example.com/a");
+    List<String> expected = new ArrayList<>();
+    for (String url : urls) {
+      expected.add(SignedUrls.signUrl(url, KEY_BYTES, KEY_NAME, new Date(EXPIRATION * 1000)));
+    }
+    assertEquals(expected, signer.signAll(urls, KEY_NAME, EXPIRATION));
+  }
+
+  @Test
+  public void testUnknownKey() throws Exception {
+    signer.removeKey("other-key");
+    assertThrows(IllegalArgumentException.class,
+        () -> signer.signUrl("https://www.example.com/", "other-key", EXPIRATION));
+  }
+
+  @Test
+  public void testConcurrentSignatures() throws Exception {
+    String expected = signer.signUrl("https://www.example.com/foo", KEY_NAME, EXPIRATION);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(executor.submit(() -> {
+          for (int j = 0; j < 10000; j++) {
+            signer.signUrl("https://www.example.com/other/" + j, "other-key", EXPIRATION);
+            assertEquals(expected,
+                signer.signUrl("https://www.example.com/foo", KEY_NAME, EXPIRATION));
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -34,6 +34,11 @@ public class ConnectionPoolContextListener implements ServletContextListener {
   @Override
   public void contextDestroyed(ServletContextEvent event) {
     // This function is called when the Servlet is destroyed.
+    // Write the queued votes before the pool is closed.
+    VoteStore voteStore = (VoteStore) event.getServletContext().getAttribute("vote-store");
+    if (voteStore != null) {
+      voteStore.close();
+    }
     HikariDataSource pool = (HikariDataSource) event.getServletContext().getAttribute("my-pool");
     if (pool != null) {
       pool.close();
@@ -64,5 +69,17 @@ public class ConnectionPoolContextListener implements ServletContextListener {
               + "in the README and try again.",
           ex);
     }
+    // Keep the counts in memory and write votes in batches, instead of querying and inserting for
+    // every request.
+    VoteStore voteStore = new VoteStore(pool, 500, 200, 10000, 60000);
+    try {
+      voteStore.start();
+    } catch (SQLException ex) {
+      throw new RuntimeException(
+          "Unable to read the votes. Please double check the steps"
+              + "in the README and try again.",
+          ex);
+    }
+    servletContext.setAttribute("vote-store", voteStore);
   }
 }
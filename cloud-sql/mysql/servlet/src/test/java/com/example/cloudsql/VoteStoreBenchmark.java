@@ -0,0 +1,114 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudsql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares a page view and a vote with a query and an INSERT per request, as in the servlet
+ * without a VoteStore, with the same requests served by a {@link VoteStore}, on an embedded H2
+ * database. A database on the network adds a round trip to every query of the first case.
+ *
+ * <p>Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.cloudsql.VoteStoreBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class VoteStoreBenchmark {
+
+  private Connection keepAlive;
+  private DataSource pool;
+  private VoteStore voteStore;
+
+  @Setup(Level.Trial)
+  public void setUp() throws SQLException {
+    JdbcDataSource h2 = new JdbcDataSource();
+    h2.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL");
+    pool = h2;
+    keepAlive = pool.getConnection();
+    try (PreparedStatement createTableStatement = keepAlive.prepareStatement(
+        "CREATE TABLE votes ( vote_id BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,"
+            + " time_cast timestamp NOT NULL, candidate CHAR(6) NOT NULL,"
+            + " PRIMARY KEY (vote_id) )")) {
+      createTableStatement.execute();
+    }
+    voteStore = new VoteStore(pool, 500, 200, 100000, 60000);
+    voteStore.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws SQLException {
+    voteStore.close();
+    keepAlive.close();
+  }
+
+  @Benchmark
+  public void voteAndViewWithQueries(Blackhole blackhole) throws SQLException {
+    try (Connection conn = pool.getConnection();
+        PreparedStatement voteStmt = conn.prepareStatement(
+            "INSERT INTO votes (time_cast, candidate) VALUES (?, ?);")) {
+      voteStmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+      voteStmt.setString(2, "TABS");
+      voteStmt.execute();
+    }
+    blackhole.consume(TemplateData.getTemplateData(pool));
+  }
+
+  @Benchmark
+  public void voteAndViewWithVoteStore(Blackhole blackhole) {
+    // Rejected votes are counted too: the queue only fills up if the writer falls behind.
+    blackhole.consume(voteStore.submit("TABS", new Timestamp(System.currentTimeMillis())));
+    blackhole.consume(voteStore.getTemplateData());
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder()
+        .include(VoteStoreBenchmark.class.getSimpleName())
+        .build();
+    new Runner(options).run();
+  }
+}
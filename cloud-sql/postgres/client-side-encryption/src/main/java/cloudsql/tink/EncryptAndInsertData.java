@@ -83,5 +83,67 @@ public class EncryptAndInsertData {
       }
     }
   }
+
+  // [END cloud_sql_postgres_cse_insert]
+
+  // Inserts many votes in JDBC batches. With an envelope AEAD that reuses its data keys, such as
+  // CloudKmsEnvelopeAead.getCaching, thousands of rows are encrypted per Cloud KMS call.
+  public static void encryptAndInsertBatch(
+      DataSource pool, Aead envAead, String tableName, java.util.List<Vote> votes, int batchSize)
+      throws GeneralSecurityException, SQLException {
+
+    try (Connection conn = pool.getConnection()) {
+      String stmt =
+          String.format(
+              "INSERT INTO %s (team, time_cast, voter_email) VALUES (?, ?, ?);", tableName);
+      conn.setAutoCommit(false);
+      try (PreparedStatement voteStmt = conn.prepareStatement(stmt); ) {
+        Timestamp timeCast = new Timestamp(new Date().getTime());
+        int batched = 0;
+        for (Vote vote : votes) {
+          voteStmt.setString(1, vote.getTeam());
+          voteStmt.setTimestamp(2, timeCast);
+          // The team name is the associated data of each row, as above.
+          byte[] encryptedEmail =
+              envAead.encrypt(vote.getEmail().getBytes(), vote.getTeam().getBytes());
+          voteStmt.setBytes(3, encryptedEmail);
+          voteStmt.addBatch();
+          if (++batched == batchSize) {
+            voteStmt.executeBatch();
+            batched = 0;
+          }
+        }
+        if (batched > 0) {
+          voteStmt.executeBatch();
+        }
+        conn.commit();
+        System.out.println(
+            String.format("Successfully inserted %d rows into table %s", votes.size(), tableName));
+      } catch (GeneralSecurityException | SQLException e) {
+        conn.rollback();
+        throw e;
+      } finally {
+        conn.setAutoCommit(true);
+      }
+    }
+  }
+
+  public static class Vote {
+
+    private final String team;
+    private final String email;
+
+    public Vote(String team, String email) {
+      this.team = team;
+      this.email = email;
+    }
+
+    public String getTeam() {
+      return team;
+    }
+
+    public String getEmail() {
+      return email;
+    }
+  }
 }
-// [END cloud_sql_postgres_cse_insert]
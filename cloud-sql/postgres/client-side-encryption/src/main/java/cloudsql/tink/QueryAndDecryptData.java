@@ -92,5 +92,30 @@ public class QueryAndDecryptData {
       }
     }
   }
+
+  // [END cloud_sql_postgres_cse_query]
+
+  // Decrypts the emails of all the rows of the table, fetching fetchSize rows at a time. With an
+  // envelope AEAD that caches its data keys, such as CloudKmsEnvelopeAead.getCaching, Cloud KMS is
+  // called once per data key instead of once per row.
+  public static java.util.List<String> queryAndDecryptAll(
+      DataSource pool, Aead envAead, String tableName, int fetchSize)
+      throws GeneralSecurityException, SQLException {
+
+    java.util.List<String> emails = new java.util.ArrayList<>();
+    try (Connection conn = pool.getConnection()) {
+      String stmt = String.format("SELECT team, voter_email FROM %s", tableName);
+      try (PreparedStatement voteStmt = conn.prepareStatement(stmt); ) {
+        voteStmt.setFetchSize(fetchSize);
+        ResultSet voteResults = voteStmt.executeQuery();
+        while (voteResults.next()) {
+          // Postgres pads CHAR fields with spaces, which are removed before decrypting.
+          String aad = voteResults.getString(1).trim();
+          emails.add(new String(envAead.decrypt(voteResults.getBytes(2), aad.getBytes())));
+        }
+      }
+    }
+    System.out.println(String.format("Decrypted %d rows from table %s", emails.size(), tableName));
+    return emails;
+  }
 }
-// [END cloud_sql_postgres_cse_query]
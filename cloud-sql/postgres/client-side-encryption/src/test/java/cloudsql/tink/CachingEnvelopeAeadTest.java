@@ -0,0 +1,181 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloudsql.tink;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.aead.AeadConfig;
+import com.google.crypto.tink.aead.AeadKeyTemplates;
+import com.google.crypto.tink.aead.KmsEnvelopeAead;
+import com.google.crypto.tink.subtle.AesGcmJce;
+import com.google.crypto.tink.subtle.Random;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CachingEnvelopeAeadTest {
+
+  private static final int ROWS = 5000;
+  private static final byte[] TEAM = "TABS".getBytes();
+
+  private FakeKmsAead kms;
+  private AtomicLong nanoTime;
+
+  // A local stand-in for a Cloud KMS key, which counts its calls.
+  private static class FakeKmsAead implements Aead {
+    private final Aead key;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    FakeKmsAead() throws GeneralSecurityException {
+      this.key = new AesGcmJce(Random.randBytes(16));
+    }
+
+    @Override
+    public byte[] encrypt(byte[] plaintext, byte[] associatedData)
+        throws GeneralSecurityException {
+      calls.incrementAndGet();
+      return key.encrypt(plaintext, associatedData);
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphertext, byte[] associatedData)
+        throws GeneralSecurityException {
+      calls.incrementAndGet();
+      return key.decrypt(ciphertext, associatedData);
+    }
+  }
+
+  @BeforeClass
+  public static void registerAead() throws GeneralSecurityException {
+    AeadConfig.register();
+  }
+
+  @Before
+  public void setUp() throws GeneralSecurityException {
+    kms = new FakeKmsAead();
+    nanoTime = new AtomicLong();
+  }
+
+  private CachingEnvelopeAead newAead(int maxCachedKeys, long maxEncryptionsPerKey) {
+    return new CachingEnvelopeAead(AeadKeyTemplates.AES128_GCM, kms, maxCachedKeys,
+        Duration.ofMinutes(10), maxEncryptionsPerKey, nanoTime::get);
+  }
+
+  private static String email(int row) {
+    return "voter" + row + "@example.com";
+  }
+
+  @Test
+  public void encryptAndDecrypt_shouldCallKmsOncePerDataKey() throws GeneralSecurityException {
+    List<byte[]> ciphertexts = new ArrayList<>();
+    Aead writer = newAead(1000, 10000);
+    for (int i = 0; i < ROWS; i++) {
+      ciphertexts.add(writer.encrypt(email(i).getBytes(), TEAM));
+    }
+    int encryptCalls = kms.calls.getAndSet(0);
+
+    // A new AEAD does not know the data key of the writer yet.
+    Aead reader = newAead(1000, 10000);
+    for (int i = 0; i < ROWS; i++) {
+      assertThat(new String(reader.decrypt(ciphertexts.get(i), TEAM))).isEqualTo(email(i));
+    }
+    int decryptCalls = kms.calls.get();
+
+    assertThat(encryptCalls).isEqualTo(1);
+    assertThat(decryptCalls).isEqualTo(1);
+  }
+
+  @Test
+  public void ciphertexts_shouldBeCompatibleWithKmsEnvelopeAead()
+      throws GeneralSecurityException {
+    Aead kmsEnvelopeAead = new KmsEnvelopeAead(AeadKeyTemplates.AES128_GCM, kms);
+    Aead cachingAead = newAead(1000, 10000);
+
+    assertThat(new String(cachingAead.decrypt(
+        kmsEnvelopeAead.encrypt("a@example.com".getBytes(), TEAM), TEAM)))
+        .isEqualTo("a@example.com");
+    assertThat(new String(kmsEnvelopeAead.decrypt(
+        cachingAead.encrypt("b@example.com".getBytes(), TEAM), TEAM)))
+        .isEqualTo("b@example.com");
+  }
+
+  @Test
+  public void encrypt_shouldRotateDataKeyAfterMaxUsesAndLifetime()
+      throws GeneralSecurityException {
+    Aead aead = newAead(1000, 100);
+    for (int i = 0; i < 1000; i++) {
+      aead.encrypt(email(i).getBytes(), TEAM);
+    }
+    assertThat(kms.calls.getAndSet(0)).isEqualTo(10);
+
+    // The last key is used up, so the next encryption wraps a new key, which expires.
+    aead.encrypt(email(0).getBytes(), TEAM);
+    aead.encrypt(email(1).getBytes(), TEAM);
+    assertThat(kms.calls.getAndSet(0)).isEqualTo(1);
+    nanoTime.addAndGet(Duration.ofMinutes(11).toNanos());
+    aead.encrypt(email(2).getBytes(), TEAM);
+    assertThat(kms.calls.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void decrypt_shouldEvictLeastRecentlyUsedAndExpiredKeys()
+      throws GeneralSecurityException {
+    Aead writer = newAead(1000, 1);
+    byte[] first = writer.encrypt(email(1).getBytes(), TEAM);
+    byte[] second = writer.encrypt(email(2).getBytes(), TEAM);
+    byte[] third = writer.encrypt(email(3).getBytes(), TEAM);
+    kms.calls.set(0);
+
+    Aead reader = newAead(2, 10000);
+    reader.decrypt(first, TEAM);
+    reader.decrypt(second, TEAM);
+    reader.decrypt(third, TEAM);
+    reader.decrypt(third, TEAM);
+    assertThat(kms.calls.getAndSet(0)).isEqualTo(3);
+
+    // The first key was evicted by the third one.
+    reader.decrypt(first, TEAM);
+    assertThat(kms.calls.getAndSet(0)).isEqualTo(1);
+
+    nanoTime.addAndGet(Duration.ofMinutes(11).toNanos());
+    reader.decrypt(first, TEAM);
+    assertThat(kms.calls.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void decrypt_shouldRejectInvalidCiphertexts() throws GeneralSecurityException {
+    Aead aead = newAead(1000, 10000);
+    byte[] ciphertext = aead.encrypt(email(0).getBytes(), TEAM);
+
+    assertThrows(GeneralSecurityException.class,
+        () -> aead.decrypt(ciphertext, "SPACES".getBytes()));
+    ciphertext[ciphertext.length - 1] ^= 1;
+    assertThrows(GeneralSecurityException.class, () -> aead.decrypt(ciphertext, TEAM));
+    assertThrows(GeneralSecurityException.class, () -> aead.decrypt(new byte[] {0, 0}, TEAM));
+  }
+}
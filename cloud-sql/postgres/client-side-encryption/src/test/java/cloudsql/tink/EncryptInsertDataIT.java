@@ -125,4 +125,19 @@ public class EncryptInsertDataIT {
     assertThat(decryptedEmails).contains("hello@example.com");
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testEncryptAndInsertBatch() throws GeneralSecurityException, SQLException {
+    Aead cachingAead = CloudKmsEnvelopeAead.getCaching(CLOUD_KMS_URI);
+    List<EncryptAndInsertData.Vote> votes = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      votes.add(new EncryptAndInsertData.Vote(i % 2 == 0 ? "TABS" : "SPACES",
+          String.format("voter%d@example.com", i)));
+    }
+    EncryptAndInsertData.encryptAndInsertBatch(pool, cachingAead, tableName, votes, 500);
+    assertThat(bout.toString()).contains("Successfully inserted 2000 rows into table");
+
+    List<String> decryptedEmails =
+        QueryAndDecryptData.queryAndDecryptAll(pool, cachingAead, tableName, 1000);
+    assertThat(decryptedEmails).containsAtLeast("voter0@example.com", "voter1999@example.com");
+  }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudsql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Keeps the vote counts and the most recent votes in memory, and writes votes to the database in
+ * batches.
+ *
+ * <p>Votes are queued and written by a background thread with multi-row INSERT statements, once
+ * {@code maxBatchSize} votes are queued or {@code flushIntervalMillis} after the first one. After
+ * every flush, and after a page is rendered from counts older than {@code flushIntervalMillis},
+ * the votes added since the last refresh, including the ones of other instances, are read by id
+ * and added to the counts, so that an idle store does not query the database. All the counts are
+ * read again at the first refresh after {@code fullRefreshMillis}, in case a vote with a lower id
+ * was committed after a refresh. Pages are rendered from memory, without a database connection.
+ */
+public class VoteStore implements AutoCloseable {
+
+  private static final Logger LOGGER = Logger.getLogger(VoteStore.class.getName());
+  private static final int RECENT_VOTES = 5;
+  // The longest the writer waits for votes before checking whether the store is closing.
+  private static final long CLOSE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final DataSource pool;
+  private final int maxBatchSize;
+  private final long flushIntervalMillis;
+  private final long flushIntervalNanos;
+  private final long fullRefreshMillis;
+  private final BlockingQueue<Vote> queue;
+  private final Thread writer;
+  private volatile boolean running = true;
+
+  // Only used by the writer thread, after start.
+  private long lastVoteId;
+  private int tabCount;
+  private int spaceCount;
+  private final Deque<Vote> recentVotes = new ArrayDeque<>(RECENT_VOTES);
+  private long nextFullRefresh;
+
+  private volatile TemplateData templateData;
+  private volatile long lastRefreshNanos;
+  private volatile boolean refreshRequested;
+
+  /**
+   * Creates a store.
+   *
+   * @param pool the pool of the votes table
+   * @param maxBatchSize the maximum number of votes per INSERT statement
+   * @param flushIntervalMillis the maximum time a vote is queued, and the refresh interval
+   * @param maxQueuedVotes the number of queued votes after which new votes are rejected
+   * @param fullRefreshMillis the interval between two reads of all the counts
+   */
+  public VoteStore(DataSource pool, int maxBatchSize, long flushIntervalMillis,
+      int maxQueuedVotes, long fullRefreshMillis) {
+    this.pool = pool;
+    this.maxBatchSize = maxBatchSize;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    this.fullRefreshMillis = fullRefreshMillis;
+    this.queue = new ArrayBlockingQueue<>(maxQueuedVotes);
+    this.writer = new Thread(this::writeVotes, "vote-writer");
+    writer.setDaemon(true);
+  }
+
+  /** Reads the counts and starts writing votes. */
+  public void start() throws SQLException {
+    fullRefresh();
+    writer.start();
+  }
+
+  /**
+   * Queues a vote.
+   *
+   * @return false if too many votes are queued, for example because the database is unavailable
+   */
+  public boolean submit(String team, Timestamp timeCast) {
+    return running && queue.offer(new Vote(team, timeCast));
+  }
+
+  /**
+   * Returns the counts and the most recent votes, as of the last refresh. If they are older than
+   * {@code flushIntervalMillis}, asks the writer thread to refresh them.
+   */
+  public TemplateData getTemplateData() {
+    if (System.nanoTime() - lastRefreshNanos >= flushIntervalNanos) {
+      refreshRequested = true;
+    }
+    return templateData;
+  }
+
+  /**
+   * Writes the queued votes and stops. The writer thread is not interrupted, which could abort a
+   * write in progress and lose its votes. It notices that the store is closing the next time it
+   * waits for votes.
+   */
+  @Override
+  public void close() {
+    running = false;
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(30));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void writeVotes() {
+    List<Vote> batch = new ArrayList<>(maxBatchSize);
+    while (running || !queue.isEmpty() || !batch.isEmpty()) {
+      try {
+        if (batch.isEmpty()) {
+          fillBatch(batch);
+        }
+        boolean inserted = !batch.isEmpty();
+        if (inserted) {
+          insert(batch);
+          batch.clear();
+        }
+        if (inserted || refreshRequested) {
+          refreshRequested = false;
+          refresh();
+        }
+      } catch (InterruptedException e) {
+        // Stop waiting, and write what is left.
+        running = false;
+      } catch (SQLException ex) {
+        // Keep the batch and try again later. New votes are rejected once the queue is full.
+        LOGGER.log(Level.WARNING, "Error while attempting to write votes.", ex);
+        if (!running) {
+          LOGGER.log(Level.WARNING, "Dropping " + (batch.size() + queue.size()) + " votes.");
+          return;
+        }
+        try {
+          Thread.sleep(flushIntervalMillis);
+        } catch (InterruptedException e) {
+          // Stop waiting, and try once more.
+          running = false;
+        }
+      }
+    }
+  }
+
+  // Waits for a first vote, then for up to flushIntervalMillis or maxBatchSize votes. Waits for at
+  // most CLOSE_CHECK_NANOS at a time, so that closing does not wait for a whole interval.
+  private void fillBatch(List<Vote> batch) throws InterruptedException {
+    Vote first = running
+        ? queue.poll(Math.min(flushIntervalNanos, CLOSE_CHECK_NANOS), TimeUnit.NANOSECONDS)
+        : queue.poll();
+    if (first == null) {
+      return;
+    }
+    batch.add(first);
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    while (batch.size() < maxBatchSize) {
+      queue.drainTo(batch, maxBatchSize - batch.size());
+      long remaining = deadline - System.nanoTime();
+      if (batch.size() == maxBatchSize || remaining <= 0 || !running) {
+        break;
+      }
+      Vote next = queue.poll(Math.min(remaining, CLOSE_CHECK_NANOS), TimeUnit.NANOSECONDS);
+      if (next != null) {
+        batch.add(next);
+      }
+    }
+  }
+
+  private void insert(List<Vote> batch) throws SQLException {
+    StringBuilder stmt = new StringBuilder("INSERT INTO votes (time_cast, candidate) VALUES ");
+    for (int i = 0; i < batch.size(); i++) {
+      stmt.append(i == 0 ? "(?, ?)" : ", (?, ?)");
+    }
+    try (Connection conn = pool.getConnection();
+        PreparedStatement voteStmt = conn.prepareStatement(stmt.toString())) {
+      int param = 1;
+      for (Vote vote : batch) {
+        voteStmt.setTimestamp(param++, vote.getTimeCast());
+        voteStmt.setString(param++, vote.getCandidate());
+      }
+      voteStmt.execute();
+    }
+  }
+
+  private void refresh() throws SQLException {
+    if (System.nanoTime() - nextFullRefresh >= 0) {
+      fullRefresh();
+      return;
+    }
+    try (Connection conn = pool.getConnection();
+        PreparedStatement voteStmt = conn.prepareStatement(
+            "SELECT vote_id, candidate, time_cast FROM votes WHERE vote_id > ? ORDER BY vote_id")) {
+      lastRefreshNanos = System.nanoTime();
+      voteStmt.setLong(1, lastVoteId);
+      ResultSet voteResults = voteStmt.executeQuery();
+      boolean changed = false;
+      while (voteResults.next()) {
+        lastVoteId = voteResults.getLong(1);
+        addVote(new Vote(voteResults.getString(2).trim(), voteResults.getTimestamp(3)));
+        changed = true;
+      }
+      if (changed) {
+        publish();
+      }
+    }
+  }
+
+  // Reads all the counts and the most recent votes up to the current last vote.
+  private void fullRefresh() throws SQLException {
+    try (Connection conn = pool.getConnection()) {
+      lastRefreshNanos = System.nanoTime();
+      long maxVoteId = 0;
+      try (PreparedStatement maxStmt = conn.prepareStatement("SELECT MAX(vote_id) FROM votes")) {
+        ResultSet maxResult = maxStmt.executeQuery();
+        if (maxResult.next()) {
+          maxVoteId = maxResult.getLong(1);
+        }
+      }
+      int tabs = 0;
+      int spaces = 0;
+      try (PreparedStatement countStmt = conn.prepareStatement(
+          "SELECT candidate, COUNT(vote_id) FROM votes WHERE vote_id <= ? GROUP BY candidate")) {
+        countStmt.setLong(1, maxVoteId);
+        ResultSet countResults = countStmt.executeQuery();
+        while (countResults.next()) {
+          String candidate = countResults.getString(1).trim();
+          if ("TABS".equals(candidate)) {
+            tabs = countResults.getInt(2);
+          } else if ("SPACES".equals(candidate)) {
+            spaces = countResults.getInt(2);
+          }
+        }
+      }
+      List<Vote> recent = new ArrayList<>(RECENT_VOTES);
+      try (PreparedStatement recentStmt = conn.prepareStatement(
+          "SELECT candidate, time_cast FROM votes WHERE vote_id <= ? "
+              + "ORDER BY vote_id DESC LIMIT " + RECENT_VOTES)) {
+        recentStmt.setLong(1, maxVoteId);
+        ResultSet recentResults = recentStmt.executeQuery();
+        while (recentResults.next()) {
+          recent.add(new Vote(recentResults.getString(1).trim(), recentResults.getTimestamp(2)));
+        }
+      }
+      lastVoteId = maxVoteId;
+      tabCount = tabs;
+      spaceCount = spaces;
+      recentVotes.clear();
+      for (int i = recent.size() - 1; i >= 0; i--) {
+        recentVotes.addFirst(recent.get(i));
+      }
+      nextFullRefresh = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fullRefreshMillis);
+      publish();
+    }
+  }
+
+  private void addVote(Vote vote) {
+    if ("TABS".equals(vote.getCandidate())) {
+      tabCount++;
+    } else if ("SPACES".equals(vote.getCandidate())) {
+      spaceCount++;
+    }
+    if (recentVotes.size() == RECENT_VOTES) {
+      recentVotes.removeLast();
+    }
+    recentVotes.addFirst(vote);
+  }
+
+  private void publish() {
+    templateData = new TemplateData(tabCount, spaceCount, new ArrayList<>(recentVotes));
+  }
+}
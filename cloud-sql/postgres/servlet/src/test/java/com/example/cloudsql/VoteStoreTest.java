@@ -0,0 +1,194 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudsql;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import javax.sql.DataSource;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Runs the VoteStore against an in-memory H2 database in PostgreSQL mode.
+public class VoteStoreTest {
+
+  private DataSource pool;
+  private Connection keepAlive;
+  private VoteStore voteStore;
+
+  @Before
+  public void setUp() throws SQLException {
+    JdbcDataSource h2 = new JdbcDataSource();
+    h2.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL");
+    pool = h2;
+    // The in-memory database is dropped when its last connection is closed.
+    keepAlive = pool.getConnection();
+    // The schema of Utils.createTable, with an H2 identity column instead of SERIAL.
+    try (PreparedStatement createTableStatement = keepAlive.prepareStatement(
+        "CREATE TABLE votes ( vote_id BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,"
+            + " time_cast timestamp NOT NULL, candidate CHAR(6) NOT NULL,"
+            + " PRIMARY KEY (vote_id) )")) {
+      createTableStatement.execute();
+    }
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    if (voteStore != null) {
+      voteStore.close();
+    }
+    keepAlive.close();
+  }
+
+  private static Timestamp time(int second) {
+    return new Timestamp(1700000000000L + second * 1000L);
+  }
+
+  private void insert(String team, Timestamp timeCast) throws SQLException {
+    try (PreparedStatement voteStmt = keepAlive.prepareStatement(
+        "INSERT INTO votes (time_cast, candidate) VALUES (?, ?)")) {
+      voteStmt.setTimestamp(1, timeCast);
+      voteStmt.setString(2, team);
+      voteStmt.execute();
+    }
+  }
+
+  private int countRows() throws SQLException {
+    try (PreparedStatement countStmt = keepAlive.prepareStatement("SELECT COUNT(*) FROM votes")) {
+      ResultSet result = countStmt.executeQuery();
+      result.next();
+      return result.getInt(1);
+    }
+  }
+
+  private TemplateData waitFor(Predicate<TemplateData> condition) throws InterruptedException {
+    long deadline = System.nanoTime() + 10_000_000_000L;
+    TemplateData templateData = voteStore.getTemplateData();
+    while (!condition.test(templateData) && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+      templateData = voteStore.getTemplateData();
+    }
+    return templateData;
+  }
+
+  @Test
+  public void start_shouldReadExistingVotes() throws SQLException {
+    for (int i = 0; i < 7; i++) {
+      insert(i % 2 == 0 ? "TABS" : "SPACES", time(i));
+    }
+    voteStore = new VoteStore(pool, 100, 50, 1000, 60000);
+    voteStore.start();
+
+    TemplateData templateData = voteStore.getTemplateData();
+    assertThat(templateData.tabCount).isEqualTo(4);
+    assertThat(templateData.spaceCount).isEqualTo(3);
+    assertThat(templateData.recentVotes).hasSize(5);
+    assertThat(templateData.recentVotes.get(0).getTimeCast()).isEqualTo(time(6));
+    assertThat(templateData.recentVotes.get(4).getTimeCast()).isEqualTo(time(2));
+  }
+
+  @Test
+  public void submit_shouldWriteVotesInBatchesAndUpdateCounts() throws Exception {
+    // A long flush interval, so that only a full batch is written.
+    voteStore = new VoteStore(pool, 100, 60000, 1000, 60000);
+    voteStore.start();
+    for (int i = 0; i < 100; i++) {
+      assertThat(voteStore.submit(i < 60 ? "TABS" : "SPACES", time(i))).isTrue();
+    }
+
+    TemplateData templateData = waitFor(data -> data.tabCount + data.spaceCount == 100);
+    assertThat(templateData.tabCount).isEqualTo(60);
+    assertThat(templateData.spaceCount).isEqualTo(40);
+    assertThat(templateData.recentVotes).hasSize(5);
+    assertThat(templateData.recentVotes.get(0).getTimeCast()).isEqualTo(time(99));
+    assertThat(countRows()).isEqualTo(100);
+  }
+
+  @Test
+  public void refresh_shouldReadVotesOfOtherInstances() throws Exception {
+    voteStore = new VoteStore(pool, 100, 20, 1000, 60000);
+    voteStore.start();
+    voteStore.submit("TABS", time(1));
+    insert("SPACES", time(2));
+
+    TemplateData templateData = waitFor(data -> data.tabCount + data.spaceCount == 2);
+    assertThat(templateData.tabCount).isEqualTo(1);
+    assertThat(templateData.spaceCount).isEqualTo(1);
+    assertThat(templateData.recentVotes).hasSize(2);
+  }
+
+  @Test
+  public void refresh_shouldNotQueryDatabaseWhenIdle() throws Exception {
+    AtomicInteger connections = new AtomicInteger();
+    DataSource countingPool = (DataSource) Proxy.newProxyInstance(
+        DataSource.class.getClassLoader(), new Class<?>[] {DataSource.class},
+        (proxy, method, args) -> {
+          if (method.getName().equals("getConnection")) {
+            connections.incrementAndGet();
+          }
+          try {
+            return method.invoke(pool, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+    voteStore = new VoteStore(countingPool, 100, 20, 1000, 60000);
+    voteStore.start();
+    int startConnections = connections.get();
+
+    Thread.sleep(200);
+    assertThat(connections.get()).isEqualTo(startConnections);
+
+    // Rendering a page from old counts refreshes them.
+    insert("SPACES", time(1));
+    TemplateData templateData = waitFor(data -> data.spaceCount == 1);
+    assertThat(templateData.spaceCount).isEqualTo(1);
+  }
+
+  @Test
+  public void close_shouldWriteQueuedVotes() throws Exception {
+    voteStore = new VoteStore(pool, 100, 60000, 1000, 60000);
+    voteStore.start();
+    voteStore.submit("TABS", time(1));
+    voteStore.submit("SPACES", time(2));
+    voteStore.submit("TABS", time(3));
+    voteStore.close();
+
+    assertThat(countRows()).isEqualTo(3);
+    assertThat(voteStore.submit("TABS", time(4))).isFalse();
+  }
+
+  @Test
+  public void submit_shouldRejectVotesWhenQueueIsFull() throws SQLException {
+    // Not started, so nothing is written.
+    voteStore = new VoteStore(pool, 100, 50, 2, 60000);
+    assertThat(voteStore.submit("TABS", time(1))).isTrue();
+    assertThat(voteStore.submit("TABS", time(2))).isTrue();
+    assertThat(voteStore.submit("TABS", time(3))).isFalse();
+  }
+}
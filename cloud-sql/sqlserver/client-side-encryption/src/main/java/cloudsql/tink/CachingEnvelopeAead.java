@@ -0,0 +1,195 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloudsql.tink;
+
+import com.google.crypto.tink.Aead;
+import com.google.crypto.tink.Registry;
+import com.google.crypto.tink.proto.KeyTemplate;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * An envelope AEAD that calls the remote key, such as a Cloud KMS key, once per data key instead
+ * of once per encryption or decryption.
+ *
+ * <p>The ciphertexts have the same format as the ones of {@link
+ * com.google.crypto.tink.aead.KmsEnvelopeAead}, so either one can decrypt the rows written by the
+ * other: the length of the wrapped data key, the wrapped data key, then the data encrypted with the
+ * data key.
+ *
+ * <p>Encryptions reuse one data key until it was used {@code maxEncryptionsPerKey} times or is
+ * older than {@code keyLifetime}, and only then wrap a new one with the remote key. Decryptions
+ * keep up to {@code maxCachedKeys} unwrapped data keys for {@code keyLifetime}, keyed by the
+ * wrapped data key, so that all the rows encrypted with one data key are decrypted with a single
+ * remote call. Unwrapped data keys stay in memory while they are cached.
+ */
+public class CachingEnvelopeAead implements Aead {
+
+  private static final byte[] EMPTY_AAD = new byte[0];
+  private static final int LENGTH_ENCRYPTED_DEK = 4;
+
+  private final KeyTemplate dekTemplate;
+  private final Aead remote;
+  private final int maxCachedKeys;
+  private final long keyLifetimeNanos;
+  private final long maxEncryptionsPerKey;
+  private final LongSupplier nanoTime;
+
+  private final Object encryptionLock = new Object();
+  private volatile EncryptionKey encryptionKey;
+  // The unwrapped data keys by wrapped data key, least recently used first.
+  private final Map<ByteBuffer, CachedKey> decryptionKeys;
+
+  /**
+   * Creates an envelope AEAD.
+   *
+   * @param dekTemplate the template of the data keys, such as AeadKeyTemplates.AES128_GCM
+   * @param remote the key that wraps the data keys
+   * @param maxCachedKeys the maximum number of unwrapped data keys kept to decrypt
+   * @param keyLifetime how long a data key is used to encrypt, and kept to decrypt
+   * @param maxEncryptionsPerKey the maximum number of encryptions with one data key
+   */
+  public CachingEnvelopeAead(KeyTemplate dekTemplate, Aead remote, int maxCachedKeys,
+      Duration keyLifetime, long maxEncryptionsPerKey) {
+    this(dekTemplate, remote, maxCachedKeys, keyLifetime, maxEncryptionsPerKey, System::nanoTime);
+  }
+
+  CachingEnvelopeAead(KeyTemplate dekTemplate, Aead remote, int maxCachedKeys,
+      Duration keyLifetime, long maxEncryptionsPerKey, LongSupplier nanoTime) {
+    this.dekTemplate = dekTemplate;
+    this.remote = remote;
+    this.maxCachedKeys = maxCachedKeys;
+    this.keyLifetimeNanos = keyLifetime.toNanos();
+    this.maxEncryptionsPerKey = maxEncryptionsPerKey;
+    this.nanoTime = nanoTime;
+    this.decryptionKeys = new LinkedHashMap<ByteBuffer, CachedKey>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CachedKey> eldest) {
+        return size() > CachingEnvelopeAead.this.maxCachedKeys;
+      }
+    };
+  }
+
+  @Override
+  public byte[] encrypt(byte[] plaintext, byte[] associatedData) throws GeneralSecurityException {
+    EncryptionKey key = encryptionKey;
+    if (key == null || !key.tryUse(nanoTime.getAsLong())) {
+      synchronized (encryptionLock) {
+        key = encryptionKey;
+        if (key == null || !key.tryUse(nanoTime.getAsLong())) {
+          key = newEncryptionKey();
+          key.tryUse(nanoTime.getAsLong());
+          encryptionKey = key;
+        }
+      }
+    }
+    byte[] payload = key.aead.encrypt(plaintext, associatedData);
+    return ByteBuffer.allocate(LENGTH_ENCRYPTED_DEK + key.wrappedKey.length + payload.length)
+        .putInt(key.wrappedKey.length)
+        .put(key.wrappedKey)
+        .put(payload)
+        .array();
+  }
+
+  @Override
+  public byte[] decrypt(byte[] ciphertext, byte[] associatedData)
+      throws GeneralSecurityException {
+    ByteBuffer buffer = ByteBuffer.wrap(ciphertext);
+    if (buffer.remaining() < LENGTH_ENCRYPTED_DEK) {
+      throw new GeneralSecurityException("invalid ciphertext");
+    }
+    int wrappedKeySize = buffer.getInt();
+    if (wrappedKeySize <= 0 || wrappedKeySize > buffer.remaining()) {
+      throw new GeneralSecurityException("invalid ciphertext");
+    }
+    ByteBuffer wrappedKey = ByteBuffer.wrap(ciphertext, LENGTH_ENCRYPTED_DEK, wrappedKeySize);
+    Aead aead = getDecryptionKey(wrappedKey);
+    return aead.decrypt(
+        Arrays.copyOfRange(ciphertext, LENGTH_ENCRYPTED_DEK + wrappedKeySize, ciphertext.length),
+        associatedData);
+  }
+
+  private EncryptionKey newEncryptionKey() throws GeneralSecurityException {
+    byte[] dek = Registry.newKeyData(dekTemplate).getValue().toByteArray();
+    byte[] wrappedKey = remote.encrypt(dek, EMPTY_AAD);
+    Aead aead = Registry.getPrimitive(dekTemplate.getTypeUrl(), dek, Aead.class);
+    long expiresAt = nanoTime.getAsLong() + keyLifetimeNanos;
+    // Rows encrypted with this key are usually read back soon, so cache it for decryption too.
+    synchronized (decryptionKeys) {
+      decryptionKeys.put(ByteBuffer.wrap(wrappedKey), new CachedKey(aead, expiresAt));
+    }
+    return new EncryptionKey(wrappedKey, aead, expiresAt);
+  }
+
+  private Aead getDecryptionKey(ByteBuffer wrappedKey) throws GeneralSecurityException {
+    long now = nanoTime.getAsLong();
+    synchronized (decryptionKeys) {
+      CachedKey cached = decryptionKeys.get(wrappedKey);
+      if (cached != null) {
+        if (now - cached.expiresAt < 0) {
+          return cached.aead;
+        }
+        decryptionKeys.remove(wrappedKey);
+      }
+    }
+    // Unwrap outside of the lock, so that a slow remote call does not hold up cached keys.
+    byte[] wrappedKeyBytes = new byte[wrappedKey.remaining()];
+    wrappedKey.duplicate().get(wrappedKeyBytes);
+    byte[] dek = remote.decrypt(wrappedKeyBytes, EMPTY_AAD);
+    Aead aead = Registry.getPrimitive(dekTemplate.getTypeUrl(), dek, Aead.class);
+    synchronized (decryptionKeys) {
+      decryptionKeys.put(
+          ByteBuffer.wrap(wrappedKeyBytes), new CachedKey(aead, now + keyLifetimeNanos));
+    }
+    return aead;
+  }
+
+  // A data key used to encrypt, with its number of uses.
+  private class EncryptionKey {
+    private final byte[] wrappedKey;
+    private final Aead aead;
+    private final long expiresAt;
+    private final AtomicLong uses = new AtomicLong();
+
+    EncryptionKey(byte[] wrappedKey, Aead aead, long expiresAt) {
+      this.wrappedKey = wrappedKey;
+      this.aead = aead;
+      this.expiresAt = expiresAt;
+    }
+
+    // Counts one use, unless the key expired or was used up.
+    boolean tryUse(long now) {
+      return now - expiresAt < 0 && uses.incrementAndGet() <= maxEncryptionsPerKey;
+    }
+  }
+
+  private static class CachedKey {
+    private final Aead aead;
+    private final long expiresAt;
+
+    CachedKey(Aead aead, long expiresAt) {
+      this.aead = aead;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
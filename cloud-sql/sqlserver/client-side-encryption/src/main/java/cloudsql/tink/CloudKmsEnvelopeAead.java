@@ -42,5 +42,22 @@ public class CloudKmsEnvelopeAead {
     // of data.
     return new KmsEnvelopeAead(AeadKeyTemplates.AES128_GCM, gcpAead);
   }
-}
-// [END cloud_sql_sqlserver_cse_key]
\ No newline at end of file
+
+  // [END cloud_sql_sqlserver_cse_key]
+
+  public static Aead getCaching(String kmsUri) throws GeneralSecurityException {
+    AeadConfig.register();
+
+    // Create a new KMS Client
+    KmsClient client = new GcpKmsClient().withDefaultCredentials();
+
+    // Create an AEAD primitive using the Cloud KMS key
+    Aead gcpAead = client.getAead(kmsUri);
+
+    // Create an envelope AEAD primitive that calls Cloud KMS once per data key. Each data key
+    // encrypts up to 10000 rows within 10 minutes, and up to 1000 unwrapped data keys are kept to
+    // decrypt rows. Its ciphertexts are compatible with the envelope AEAD above.
+    return new CachingEnvelopeAead(
+        AeadKeyTemplates.AES128_GCM, gcpAead, 1000, java.time.Duration.ofMinutes(10), 10000);
+  }
+}
\ No newline at end of file
@@ -50,9 +50,15 @@ public class IndexServlet extends HttpServlet {
       throws IOException, ServletException {
     // Extract the pool from the Servlet Context, reusing the one that was created
     // in the ContextListener when the application was started
-    DataSource pool = (DataSource) req.getServletContext().getAttribute("my-pool");
-
-    TemplateData templateData = getTemplateData(pool);
+    // Use the counts kept in memory by the VoteStore when there is one.
+    VoteStore voteStore = (VoteStore) req.getServletContext().getAttribute("vote-store");
+    TemplateData templateData;
+    if (voteStore != null) {
+      templateData = voteStore.getTemplateData();
+    } else {
+      DataSource pool = (DataSource) req.getServletContext().getAttribute("my-pool");
+      templateData = getTemplateData(pool);
+    }
 
     // Add variables and render the page
     req.setAttribute("tabCount", templateData.tabCount);
@@ -73,6 +79,19 @@ public class IndexServlet extends HttpServlet {
       return;
     }
 
+    // Queue the vote to be written in a batch when there is a VoteStore.
+    VoteStore voteStore = (VoteStore) req.getServletContext().getAttribute("vote-store");
+    if (voteStore != null) {
+      if (!voteStore.submit(team, now)) {
+        resp.setStatus(503);
+        resp.getWriter().write("Too many votes are waiting to be saved. Please try again later.");
+        return;
+      }
+      resp.setStatus(200);
+      resp.getWriter().printf("Vote successfully cast for '%s' at time %s!\n", team, now);
+      return;
+    }
+
     // Reuse the pool that was created in the ContextListener when the Servlet started.
     DataSource pool = (DataSource) req.getServletContext().getAttribute("my-pool");
     // [START cloud_sql_sqlserver_servlet_connection]
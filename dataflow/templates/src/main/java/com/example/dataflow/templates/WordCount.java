@@ -14,7 +14,8 @@
 
 package com.example.dataflow.templates;
 
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.io.TextIO;
 import org.apache.beam.sdk.options.Default;
@@ -26,11 +27,13 @@ import org.apache.beam.sdk.options.ValueProvider.NestedValueProvider;
 import org.apache.beam.sdk.options.ValueProvider.StaticValueProvider;
 import org.apache.beam.sdk.transforms.Count;
 import org.apache.beam.sdk.transforms.DoFn;
-import org.apache.beam.sdk.transforms.Filter;
-import org.apache.beam.sdk.transforms.FlatMapElements;
 import org.apache.beam.sdk.transforms.MapElements;
+import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.Sum;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.TypeDescriptors;
 
 
@@ -62,11 +65,45 @@ public class WordCount {
     Boolean getIsCaseSensitive();
 
     void setIsCaseSensitive(Boolean value);
+
+    // Template option available only at template creation.
+    @Description("Whether to count the words of each bundle before shuffling them")
+    @Default.Boolean(false)
+    Boolean getPreAggregate();
+
+    void setPreAggregate(Boolean value);
+  }
+
+  // Splits lines into words, the runs of letters between other characters. This scans each line
+  // once, and gives the same words as splitting it on the regular expression "[^\p{L}]+" and
+  // dropping the empty strings, without compiling a regular expression for every line.
+  static class ExtractWordsFn extends DoFn<String, String> {
+    @ProcessElement
+    public void processElement(@Element String line, OutputReceiver<String> words) {
+      int start = -1;
+      for (int i = 0; i < line.length(); ) {
+        int codePoint = line.codePointAt(i);
+        if (Character.isLetter(codePoint)) {
+          if (start < 0) {
+            start = i;
+          }
+        } else if (start >= 0) {
+          words.output(line.substring(start, i));
+          start = -1;
+        }
+        i += Character.charCount(codePoint);
+      }
+      if (start >= 0) {
+        words.output(line.substring(start));
+      }
+    }
   }
 
   static class FilterWithSubstring extends DoFn<String, String> {
     ValueProvider<String> substring;
     Boolean isCaseSensitive;
+    // The substring, lowercased once per DoFn instance instead of once per word.
+    private transient String normalizedSubstring;
 
     FilterWithSubstring(ValueProvider<String> substring, Boolean isCaseSensitive) {
       this.substring = substring;
@@ -79,20 +116,97 @@ public class WordCount {
       this(StaticValueProvider.of(substring), isCaseSensitive);
     }
 
+    @Setup
+    public void setup() {
+      // The value of a runtime parameter is only available when the pipeline runs.
+      String substring = this.substring.get();
+      normalizedSubstring = isCaseSensitive ? substring.toLowerCase() : substring;
+    }
+
     @ProcessElement
     public void processElement(ProcessContext c) {
       String word = c.element();
-      String substring = this.substring.get();
       if (isCaseSensitive) {
         word = word.toLowerCase();
-        substring = substring.toLowerCase();
       }
-      if (word.contains(substring)) {
+      if (normalizedSubstring.isEmpty() || word.contains(normalizedSubstring)) {
         c.output(word);
       }
     }
   }
 
+  // Counts the words of each bundle in memory, and outputs each word once per bundle with its
+  // count, so that fewer elements are shuffled. The counts are output early when a window has
+  // maxWords distinct words, to bound the memory they use.
+  static class CountWordsInBundleFn extends DoFn<String, KV<String, Long>> {
+    private final int maxWords;
+    private transient Map<BoundedWindow, Map<String, long[]>> counts;
+
+    CountWordsInBundleFn(int maxWords) {
+      this.maxWords = maxWords;
+    }
+
+    @StartBundle
+    public void startBundle() {
+      counts = new HashMap<>();
+    }
+
+    @ProcessElement
+    public void processElement(
+        @Element String word, BoundedWindow window, OutputReceiver<KV<String, Long>> out) {
+      Map<String, long[]> windowCounts = counts.computeIfAbsent(window, w -> new HashMap<>());
+      windowCounts.computeIfAbsent(word, w -> new long[1])[0]++;
+      if (windowCounts.size() >= maxWords) {
+        for (Map.Entry<String, long[]> count : windowCounts.entrySet()) {
+          out.output(KV.of(count.getKey(), count.getValue()[0]));
+        }
+        windowCounts.clear();
+      }
+    }
+
+    @FinishBundle
+    public void finishBundle(FinishBundleContext c) {
+      for (Map.Entry<BoundedWindow, Map<String, long[]>> windowCounts : counts.entrySet()) {
+        BoundedWindow window = windowCounts.getKey();
+        for (Map.Entry<String, long[]> count : windowCounts.getValue().entrySet()) {
+          c.output(KV.of(count.getKey(), count.getValue()[0]), window.maxTimestamp(), window);
+        }
+      }
+      counts = null;
+    }
+  }
+
+  // Counts the words that contain the substring.
+  static class CountWords extends PTransform<PCollection<String>, PCollection<KV<String, Long>>> {
+    // The most distinct words that a bundle counts before it outputs its counts.
+    static final int MAX_WORDS_PER_BUNDLE = 100_000;
+
+    private final ValueProvider<String> substring;
+    private final Boolean isCaseSensitive;
+    private final Boolean preAggregate;
+
+    CountWords(ValueProvider<String> substring, Boolean isCaseSensitive, Boolean preAggregate) {
+      this.substring = substring;
+      this.isCaseSensitive = isCaseSensitive;
+      this.preAggregate = preAggregate;
+    }
+
+    @Override
+    public PCollection<KV<String, Long>> expand(PCollection<String> lines) {
+      PCollection<String> words = lines
+          .apply("Find words", ParDo.of(new ExtractWordsFn()))
+          .apply("Filter with substring", ParDo.of(new FilterWithSubstring(
+              substring, isCaseSensitive)));
+      if (preAggregate) {
+        return words
+            .apply("Count words in bundles",
+                ParDo.of(new CountWordsInBundleFn(MAX_WORDS_PER_BUNDLE)))
+            .apply("Count words", Sum.longsPerKey());
+      }
+      return words.apply("Count words", Count.perElement());
+    }
+  }
+
   public static void main(String[] args) {
     WordCountOptions options = PipelineOptionsFactory.fromArgs(args)
         .withValidation().as(WordCountOptions.class);
@@ -100,12 +214,8 @@ public class WordCount {
     Pipeline pipeline = Pipeline.create(options);
     pipeline
         .apply("Read lines", TextIO.read().from(options.getInputFile()))
-        .apply("Find words", FlatMapElements.into(TypeDescriptors.strings())
-            .via((String line) -> Arrays.asList(line.split("[^\\p{L}]+"))))
-        .apply("Filter empty words", Filter.by((String word) -> !word.isEmpty()))
-        .apply("Filter with substring", ParDo.of(new FilterWithSubstring(
-            options.getWithSubstring(), options.getIsCaseSensitive())))
-        .apply("Count words", Count.perElement())
+        .apply("Count words", new CountWords(options.getWithSubstring(),
+            options.getIsCaseSensitive(), options.getPreAggregate()))
         .apply("Format results", MapElements.into(TypeDescriptors.strings())
             .via((KV<String, Long> wordCount) -> wordCount.getKey() + ": " + wordCount.getValue()))
         .apply("Write results", TextIO.write().to(NestedValueProvider.of(
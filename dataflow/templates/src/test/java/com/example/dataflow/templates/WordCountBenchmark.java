@@ -0,0 +1,245 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.dataflow.templates;
+
+import com.example.dataflow.templates.WordCount.CountWordsInBundleFn;
+import com.example.dataflow.templates.WordCount.ExtractWordsFn;
+import com.example.dataflow.templates.WordCount.FilterWithSubstring;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.PipelineResult;
+import org.apache.beam.sdk.io.TextIO;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.MetricNameFilter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.metrics.MetricsFilter;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.Filter;
+import org.apache.beam.sdk.transforms.FlatMapElements;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.TypeDescriptors;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the steps of {@link WordCount} before the shuffle, on generated text with a
+ * Zipf-distributed vocabulary of 50,000 words.
+ *
+ * <p>The tokenizer benchmarks split the lines in memory, with the regular expression that
+ * WordCount used before and with {@link ExtractWordsFn}, and lowercase the words as
+ * {@link FilterWithSubstring} does. The pipeline benchmarks run the steps before the shuffle on
+ * the DirectRunner and return the number of elements that would be shuffled: with the regular
+ * expression, with {@link ExtractWordsFn}, and with {@link CountWordsInBundleFn} added. The
+ * DirectRunner's immutability and encodability checks are off, so that the steps themselves are
+ * measured.
+ *
+ * <p>Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=com.example.dataflow.templates.WordCountBenchmark
+ *
+ * <p>The text has 1M lines, about 64 MB, by default. Pass a smaller line count to the JMH main
+ * class for a quick run, e.g. {@code -p lines=100000}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class WordCountBenchmark {
+
+  private static final String[] SEPARATORS = {" ", " ", " ", ", ", ". ", "; ", "! ", " -- ", "'"};
+
+  @Param({"1000000"})
+  public int lines;
+
+  private List<String> text;
+  private Path file;
+
+  @Setup
+  public void setup() throws IOException {
+    Random random = new Random(1L);
+    String[] vocabulary = new String[50_000];
+    for (int i = 0; i < vocabulary.length; i++) {
+      StringBuilder word = new StringBuilder();
+      int length = 2 + random.nextInt(9);
+      for (int j = 0; j < length; j++) {
+        word.append((char) ('a' + random.nextInt(26)));
+      }
+      if (random.nextInt(10) == 0) {
+        word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+      }
+      vocabulary[i] = word.toString();
+    }
+
+    text = new ArrayList<>(lines);
+    file = Files.createTempFile("words", ".txt");
+    try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      StringBuilder line = new StringBuilder();
+      for (int i = 0; i < lines; i++) {
+        line.setLength(0);
+        int words = 5 + random.nextInt(10);
+        for (int j = 0; j < words; j++) {
+          // Word i is drawn with a probability of about 1 / (i + 1).
+          int index = (int) Math.min(
+              vocabulary.length - 1, Math.pow(vocabulary.length, random.nextDouble()) - 1);
+          line.append(vocabulary[index]).append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        }
+        text.add(line.toString());
+        out.write(line.toString());
+        out.write('\n');
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public void splitRegex(Blackhole blackhole) {
+    for (String line : text) {
+      for (String word : line.split("[^\\p{L}]+")) {
+        if (!word.isEmpty()) {
+          blackhole.consume(word.toLowerCase());
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public void scanLetters(Blackhole blackhole) {
+    ExtractWordsFn extractWords = new ExtractWordsFn();
+    DoFn.OutputReceiver<String> words = new DoFn.OutputReceiver<String>() {
+      @Override
+      public void output(String word) {
+        blackhole.consume(word.toLowerCase());
+      }
+
+      @Override
+      public void outputWithTimestamp(String word, Instant timestamp) {
+        output(word);
+      }
+    };
+    for (String line : text) {
+      extractWords.processElement(line, words);
+    }
+  }
+
+  @Benchmark
+  public long stagesBeforeShuffleSplitRegex() {
+    Pipeline pipeline = pipeline();
+    pipeline
+        .apply("Read lines", TextIO.read().from(file.toString()))
+        .apply("Find words", FlatMapElements.into(TypeDescriptors.strings())
+            .via((String line) -> Arrays.asList(line.split("[^\\p{L}]+"))))
+        .apply("Drop empty words", Filter.by((String word) -> !word.isEmpty()))
+        .apply("Filter with substring", ParDo.of(new FilterWithSubstring("", true)))
+        .apply("Count shuffled", ParDo.of(new CountElementsFn<>()));
+    return run(pipeline);
+  }
+
+  @Benchmark
+  public long stagesBeforeShuffle() {
+    Pipeline pipeline = pipeline();
+    words(pipeline)
+        .apply("Count shuffled", ParDo.of(new CountElementsFn<>()));
+    return run(pipeline);
+  }
+
+  @Benchmark
+  public long stagesBeforeShufflePreAggregated() {
+    Pipeline pipeline = pipeline();
+    words(pipeline)
+        .apply("Count words in bundles",
+            ParDo.of(new CountWordsInBundleFn(WordCount.CountWords.MAX_WORDS_PER_BUNDLE)))
+        .apply("Count shuffled", ParDo.of(new CountElementsFn<>()));
+    return run(pipeline);
+  }
+
+  private static Pipeline pipeline() {
+    return Pipeline.create(PipelineOptionsFactory.fromArgs(
+        "--runner=DirectRunner",
+        "--targetParallelism=1",
+        "--enforceImmutability=false",
+        "--enforceEncodability=false").create());
+  }
+
+  // The steps of WordCount.CountWords before the shuffle.
+  private PCollection<String> words(Pipeline pipeline) {
+    return pipeline
+        .apply("Read lines", TextIO.read().from(file.toString()))
+        .apply("Find words", ParDo.of(new ExtractWordsFn()))
+        .apply("Filter with substring", ParDo.of(new FilterWithSubstring("", true)));
+  }
+
+  // Runs the pipeline, and returns the number of elements that reached the shuffle.
+  private static long run(Pipeline pipeline) {
+    PipelineResult result = pipeline.run();
+    result.waitUntilFinish();
+    return result.metrics()
+        .queryMetrics(MetricsFilter.builder()
+            .addNameFilter(MetricNameFilter.named(CountElementsFn.class, "elements"))
+            .build())
+        .getCounters()
+        .iterator()
+        .next()
+        .getCommitted();
+  }
+
+  static class CountElementsFn<T> extends DoFn<T, Void> {
+    private final Counter elements = Metrics.counter(CountElementsFn.class, "elements");
+
+    @ProcessElement
+    public void processElement() {
+      elements.inc();
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(WordCountBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.dataflow.templates;
+
+import com.example.dataflow.templates.WordCount.CountWords;
+import com.example.dataflow.templates.WordCount.CountWordsInBundleFn;
+import com.example.dataflow.templates.WordCount.ExtractWordsFn;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.beam.sdk.options.ValueProvider.StaticValueProvider;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.Sum;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class WordCountTest {
+
+  private static final List<String> LINES = Arrays.asList(
+      "Blow, winds, and crack your cheeks! rage! blow!",
+      "  You cataracts and hurricanoes, spout",
+      "",
+      "Till you have drench'd our steeples, drown'd the cocks!",
+      "Ünïcode wörds, 日本語 text, and 𝐀𝐁 letters outside the BMP",
+      "digits 42 and_underscores-and--dashes 3rd",
+      "!!!");
+
+  @Rule
+  public final transient TestPipeline pipeline = TestPipeline.create();
+
+  // The words the sample found before, by splitting on a regular expression.
+  private static List<String> regexWords(List<String> lines) {
+    List<String> words = new ArrayList<>();
+    for (String line : lines) {
+      for (String word : line.split("[^\\p{L}]+")) {
+        if (!word.isEmpty()) {
+          words.add(word);
+        }
+      }
+    }
+    return words;
+  }
+
+  private static List<KV<String, Long>> regexCounts(List<String> lines, String substring) {
+    Map<String, Long> counts = new HashMap<>();
+    for (String word : regexWords(lines)) {
+      String lowercase = word.toLowerCase();
+      if (lowercase.contains(substring)) {
+        counts.merge(lowercase, 1L, Long::sum);
+      }
+    }
+    List<KV<String, Long>> result = new ArrayList<>();
+    counts.forEach((word, count) -> result.add(KV.of(word, count)));
+    return result;
+  }
+
+  @Test
+  public void extractsSameWordsAsRegularExpression() {
+    PCollection<String> words =
+        pipeline.apply(Create.of(LINES)).apply(ParDo.of(new ExtractWordsFn()));
+
+    PAssert.that(words).containsInAnyOrder(regexWords(LINES));
+    pipeline.run().waitUntilFinish();
+  }
+
+  @Test
+  public void countsWords() {
+    PCollection<KV<String, Long>> counts = pipeline
+        .apply(Create.of(LINES))
+        .apply(new CountWords(StaticValueProvider.of("AN"), true, false));
+
+    PAssert.that(counts).containsInAnyOrder(regexCounts(LINES, "an"));
+    pipeline.run().waitUntilFinish();
+  }
+
+  @Test
+  public void countsWordsWithPreAggregation() {
+    PCollection<KV<String, Long>> counts = pipeline
+        .apply(Create.of(LINES))
+        .apply(new CountWords(StaticValueProvider.of(""), true, true));
+
+    PAssert.that(counts).containsInAnyOrder(regexCounts(LINES, ""));
+    pipeline.run().waitUntilFinish();
+  }
+
+  @Test
+  public void outputsCountsWhenBundleHasTooManyWords() {
+    PCollection<KV<String, Long>> counts = pipeline
+        .apply(Create.of(LINES))
+        .apply(ParDo.of(new ExtractWordsFn()))
+        .apply(ParDo.of(new CountWordsInBundleFn(2)))
+        .apply(Sum.longsPerKey());
+
+    Map<String, Long> expected = new HashMap<>();
+    for (String word : regexWords(LINES)) {
+      expected.merge(word, 1L, Long::sum);
+    }
+    List<KV<String, Long>> expectedCounts = new ArrayList<>();
+    expected.forEach((word, count) -> expectedCounts.add(KV.of(word, count)));
+    PAssert.that(counts).containsInAnyOrder(expectedCounts);
+    pipeline.run().waitUntilFinish();
+  }
+}
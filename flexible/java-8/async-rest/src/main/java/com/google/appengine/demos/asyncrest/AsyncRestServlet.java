@@ -18,7 +18,7 @@ package com.google.appengine.demos.asyncrest;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -29,12 +29,6 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jetty.client.HttpClient;
-import org.eclipse.jetty.client.api.Response;
-import org.eclipse.jetty.client.api.Result;
-import org.eclipse.jetty.http.HttpMethod;
-import org.eclipse.jetty.util.BufferUtil;
-import org.eclipse.jetty.util.Utf8StringBuilder;
-import org.eclipse.jetty.util.ajax.JSON;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 
 /**
@@ -44,8 +38,15 @@ import org.eclipse.jetty.util.ssl.SslContextFactory;
  * <dl>
  * <dt>appid</dt>
  * <dd>The Google app key to use</dd>
+ * <dt>maxRequestsPerQuery</dt>
+ * <dd>The maximum number of keywords of a query searched at once, 4 by default</dd>
+ * <dt>maxInFlight</dt>
+ * <dd>The maximum number of searches in flight at once across all queries, 64 by default</dd>
+ * <dt>maxConnectionsPerHost</dt>
+ * <dd>The maximum number of connections to the Places API, 16 by default</dd>
  * </dl>
  *
+ * <p>Concurrent queries for the same keyword and location share a single search.
  */
 public class AsyncRestServlet extends AbstractRestServlet {
 
@@ -53,13 +54,24 @@ public class AsyncRestServlet extends AbstractRestServlet {
   static final String DURATION_ATTR = "com.google.appengine.demos.asyncrest.duration";
   static final String START_ATTR = "com.google.appengine.demos.asyncrest.start";
 
+  static final String MAX_REQUESTS_PER_QUERY_PARAM = "maxRequestsPerQuery";
+  static final String MAX_IN_FLIGHT_PARAM = "maxInFlight";
+  static final String MAX_CONNECTIONS_PER_HOST_PARAM = "maxConnectionsPerHost";
+
   HttpClient client;
+  PlaceSearchClient searches;
+  int maxRequestsPerQuery;
 
   @Override
   public void init(ServletConfig servletConfig) throws ServletException {
     super.init(servletConfig);
+    maxRequestsPerQuery = intParameter(servletConfig, MAX_REQUESTS_PER_QUERY_PARAM, 4);
     SslContextFactory sslContextFactory = new SslContextFactory();
     client = new HttpClient(sslContextFactory);
+    client.setMaxConnectionsPerDestination(
+        intParameter(servletConfig, MAX_CONNECTIONS_PER_HOST_PARAM, 16));
+    searches = new PlaceSearchClient(client,
+        intParameter(servletConfig, MAX_IN_FLIGHT_PARAM, 64));
 
     try {
       client.start();
@@ -68,6 +80,19 @@ public class AsyncRestServlet extends AbstractRestServlet {
     }
   }
 
+  private static int intParameter(ServletConfig servletConfig, String name, int defaultValue)
+      throws ServletException {
+    String value = servletConfig.getInitParameter(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new ServletException("Invalid " + name + ": " + value, e);
+    }
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   protected void doGet(HttpServletRequest request, HttpServletResponse response)
@@ -103,25 +128,30 @@ public class AsyncRestServlet extends AbstractRestServlet {
       String[] keywords = sanitize(request.getParameter(ITEMS_PARAM)).split(",");
 
       final AtomicInteger outstanding = new AtomicInteger(keywords.length);
-
-      // Send request each keyword.
-      for (final String item : keywords) {
-        client.newRequest(restQuery(lat + "," + longitude, radius, item))
-            .method(HttpMethod.GET)
-            .send(
-                new AsyncRestRequest() {
-                  @Override
-                  void onLocationFound(Map<String, Object> result) {
-                    resultsQueue.add(result);
-                  }
-
-                  @Override
-                  void doComplete() {
-                    if (outstanding.decrementAndGet() <= 0) {
-                      async.dispatch();
-                    }
-                  }
-                });
+      final AtomicInteger next = new AtomicInteger();
+
+      // Search each keyword, at most maxRequestsPerQuery at once: each search that completes
+      // starts the next one.
+      final Runnable searchNext = new Runnable() {
+        @Override
+        public void run() {
+          int i = next.getAndIncrement();
+          if (i >= keywords.length) {
+            return;
+          }
+          searches.search(restQuery(lat + "," + longitude, radius, keywords[i]),
+              (List<Map<String, Object>> found) -> {
+                resultsQueue.addAll(found);
+                if (outstanding.decrementAndGet() <= 0) {
+                  async.dispatch();
+                } else {
+                  run();
+                }
+              });
+        }
+      };
+      for (int i = 0; i < Math.min(maxRequestsPerQuery, keywords.length); i++) {
+        searchNext.run();
       }
 
       // save timing info and return
@@ -186,42 +216,6 @@ public class AsyncRestServlet extends AbstractRestServlet {
     out.close();
   }
 
-  private abstract class AsyncRestRequest extends Response.Listener.Adapter {
-
-    final Utf8StringBuilder utf8Content = new Utf8StringBuilder();
-
-    AsyncRestRequest() {
-    }
-
-    @Override
-    public void onContent(Response response, ByteBuffer content) {
-      byte[] bytes = BufferUtil.toArray(content);
-      utf8Content.append(bytes, 0, bytes.length);
-    }
-
-    @SuppressWarnings("unchecked")
-    @Override
-    public void onComplete(Result result) {
-      // Extract results.
-      Map<String, Object> data = (Map<String, Object>) JSON.parse(utf8Content.toString());
-      if (data != null) {
-        Object[] results = (Object[]) data.get("results");
-        if (results != null) {
-          for (Object o : results) {
-            onLocationFound((Map<String, Object>) o);
-          }
-        }
-      }
-      doComplete();
-
-    }
-
-    abstract void onLocationFound(Map<String, Object> details);
-
-    abstract void doComplete();
-
-  }
-
   @Override
   protected void doPost(HttpServletRequest request, HttpServletResponse response)
           throws ServletException, IOException {
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.asyncrest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Parses a Places nearby search response as its bytes arrive, and only keeps the fields used by
+ * {@link AbstractRestServlet#generateResults}: the {@code name} of each result and the
+ * {@code photo_reference} of its first photo.
+ *
+ * <p>Each result is passed on as soon as it is parsed, as a map with the same shape as the one
+ * {@code JSON.parse} returns for it, without the other fields. Strings of the other fields are
+ * skipped without being decoded.
+ */
+class PlaceResultsParser {
+
+  private final Consumer<Map<String, Object>> onResult;
+
+  // The open objects and arrays, with the current key of each object and index of each array.
+  private boolean[] isObject = new boolean[16];
+  private String[] keys = new String[16];
+  private int[] index = new int[16];
+  private int depth;
+  // Whether the next string of the current object is a key.
+  private boolean expectingKey;
+
+  private boolean inString;
+  private boolean escaped;
+  private boolean stringIsKey;
+  private boolean capturing;
+  private byte[] string = new byte[64];
+  private int stringLength;
+
+  private String name;
+  private String photoReference;
+
+  PlaceResultsParser(Consumer<Map<String, Object>> onResult) {
+    this.onResult = onResult;
+  }
+
+  /** Parses the next bytes of the response. */
+  void parse(ByteBuffer content) {
+    while (content.hasRemaining()) {
+      byte b = content.get();
+      if (inString) {
+        stringByte(b);
+        continue;
+      }
+      switch (b) {
+        case '"':
+          startString();
+          break;
+        case '{':
+          push(true);
+          break;
+        case '[':
+          push(false);
+          break;
+        case '}':
+        case ']':
+          pop();
+          break;
+        case ',':
+          if (depth > 0) {
+            if (isObject[depth - 1]) {
+              expectingKey = true;
+            } else {
+              index[depth - 1]++;
+            }
+          }
+          break;
+        default:
+          // Whitespace, colons, numbers and literals, none of which are kept.
+          break;
+      }
+    }
+  }
+
+  private void push(boolean object) {
+    if (depth == isObject.length) {
+      isObject = Arrays.copyOf(isObject, depth * 2);
+      keys = Arrays.copyOf(keys, depth * 2);
+      index = Arrays.copyOf(index, depth * 2);
+    }
+    isObject[depth] = object;
+    keys[depth] = null;
+    index[depth] = 0;
+    depth++;
+    expectingKey = object;
+  }
+
+  private void pop() {
+    if (depth == 0) {
+      return;
+    }
+    if (depth == 3 && inResult()) {
+      Map<String, Object> result = new HashMap<>();
+      if (name != null) {
+        result.put("name", name);
+      }
+      if (photoReference != null) {
+        result.put("photos",
+            new Object[] {Collections.singletonMap("photo_reference", photoReference)});
+      }
+      name = null;
+      photoReference = null;
+      onResult.accept(result);
+    }
+    depth--;
+    expectingKey = false;
+  }
+
+  // Whether the third open container is a result: {"results": [{...}]}.
+  private boolean inResult() {
+    return isObject[0] && "results".equals(keys[0]) && !isObject[1] && isObject[2];
+  }
+
+  private void startString() {
+    inString = true;
+    escaped = false;
+    stringLength = 0;
+    stringIsKey = depth > 0 && isObject[depth - 1] && expectingKey;
+    if (stringIsKey) {
+      // Only the keys of the first five levels are needed to find the kept fields.
+      capturing = depth <= 5;
+    } else {
+      capturing = (depth == 3 && inResult() && "name".equals(keys[2]))
+          || (depth == 5 && inResult() && "photos".equals(keys[2]) && !isObject[3]
+              && index[3] == 0 && isObject[4] && "photo_reference".equals(keys[4]));
+    }
+  }
+
+  private void stringByte(byte b) {
+    if (escaped) {
+      escaped = false;
+    } else if (b == '\\') {
+      escaped = true;
+    } else if (b == '"') {
+      endString();
+      return;
+    }
+    if (capturing) {
+      if (stringLength == string.length) {
+        string = Arrays.copyOf(string, stringLength * 2);
+      }
+      string[stringLength++] = b;
+    }
+  }
+
+  private void endString() {
+    inString = false;
+    String value =
+        capturing ? unescape(new String(string, 0, stringLength, StandardCharsets.UTF_8)) : null;
+    if (stringIsKey) {
+      keys[depth - 1] = value;
+    } else if (capturing) {
+      if (depth == 3) {
+        name = value;
+      } else {
+        photoReference = value;
+      }
+    }
+    expectingKey = false;
+  }
+
+  private static String unescape(String value) {
+    if (value.indexOf('\\') < 0) {
+      return value;
+    }
+    StringBuilder builder = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c != '\\' || i + 1 == value.length()) {
+        builder.append(c);
+        continue;
+      }
+      c = value.charAt(++i);
+      switch (c) {
+        case 'b':
+          builder.append('\b');
+          break;
+        case 'f':
+          builder.append('\f');
+          break;
+        case 'n':
+          builder.append('\n');
+          break;
+        case 'r':
+          builder.append('\r');
+          break;
+        case 't':
+          builder.append('\t');
+          break;
+        case 'u':
+          if (i + 4 < value.length()) {
+            builder.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+            i += 4;
+          }
+          break;
+        default:
+          // \" \\ and \/
+          builder.append(c);
+          break;
+      }
+    }
+    return builder.toString();
+  }
+}
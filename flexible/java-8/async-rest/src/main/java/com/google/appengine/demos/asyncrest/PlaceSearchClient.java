@@ -0,0 +1,164 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.asyncrest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http.HttpMethod;
+
+/**
+ * Sends Places searches without blocking, with at most {@code maxInFlight} of them in flight at
+ * once across all users. Searches over the limit wait in a queue.
+ *
+ * <p>Identical searches share a single request: a search for a URL that is already in flight
+ * waits for its results instead of sending another request.
+ */
+class PlaceSearchClient {
+
+  private static final long TIMEOUT_SECONDS = 20;
+
+  private final HttpClient client;
+  private final int maxInFlight;
+  private final Map<String, Search> searches = new ConcurrentHashMap<>();
+  private final Queue<Search> queued = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger sent = new AtomicInteger();
+
+  PlaceSearchClient(HttpClient client, int maxInFlight) {
+    this.client = client;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Searches a URL and calls back with its results, which are empty if the search failed. The
+   * results may be shared with other callers, and must not be modified.
+   */
+  void search(String url, Consumer<List<Map<String, Object>>> callback) {
+    while (true) {
+      Search search = searches.computeIfAbsent(url, Search::new);
+      if (search.addCallback(callback)) {
+        if (search.queue()) {
+          queued.add(search);
+          sendQueued();
+        }
+        return;
+      }
+      // The search completed meanwhile and is being removed: start another one.
+      searches.remove(url, search);
+    }
+  }
+
+  /** Returns the number of requests sent so far. */
+  int getRequestsSent() {
+    return sent.get();
+  }
+
+  private void sendQueued() {
+    while (!queued.isEmpty()) {
+      int current = inFlight.get();
+      if (current >= maxInFlight) {
+        // A search that completes sends the next one.
+        return;
+      }
+      if (!inFlight.compareAndSet(current, current + 1)) {
+        continue;
+      }
+      Search search = queued.poll();
+      if (search == null) {
+        inFlight.decrementAndGet();
+        continue;
+      }
+      sent.incrementAndGet();
+      client.newRequest(search.url)
+          .method(HttpMethod.GET)
+          .timeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+          .send(search);
+    }
+  }
+
+  // One request, and the callbacks waiting for its results.
+  private class Search extends Response.Listener.Adapter {
+    private final String url;
+    private final List<Map<String, Object>> results = new ArrayList<>();
+    private final PlaceResultsParser parser = new PlaceResultsParser(results::add);
+    private List<Consumer<List<Map<String, Object>>>> callbacks = new ArrayList<>();
+    private boolean queued;
+    private boolean failed;
+
+    Search(String url) {
+      this.url = url;
+    }
+
+    // Returns false if the search already completed.
+    synchronized boolean addCallback(Consumer<List<Map<String, Object>>> callback) {
+      if (callbacks == null) {
+        return false;
+      }
+      callbacks.add(callback);
+      return true;
+    }
+
+    // Returns true the first time only.
+    synchronized boolean queue() {
+      boolean first = !queued;
+      queued = true;
+      return first;
+    }
+
+    @Override
+    public void onContent(Response response, ByteBuffer content) {
+      if (failed) {
+        return;
+      }
+      try {
+        parser.parse(content);
+      } catch (RuntimeException e) {
+        failed = true;
+      }
+    }
+
+    @Override
+    public void onComplete(Result result) {
+      List<Consumer<List<Map<String, Object>>>> waiting;
+      synchronized (this) {
+        waiting = callbacks;
+        callbacks = null;
+      }
+      searches.remove(url, this);
+      inFlight.decrementAndGet();
+      sendQueued();
+
+      List<Map<String, Object>> found = result.isFailed() || failed
+          ? Collections.emptyList() : Collections.unmodifiableList(results);
+      for (Consumer<List<Map<String, Object>>> callback : waiting) {
+        callback.accept(found);
+      }
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.asyncrest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jetty.util.ajax.JSON;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PlaceResultsParser}. */
+@RunWith(JUnit4.class)
+public class PlaceResultsParserTest {
+
+  static final String RESPONSE = "{\n"
+      + "  \"html_attributions\": [],\n"
+      + "  \"next_page_token\": \"CpQCAgEAAFxg8o\",\n"
+      + "  \"results\": [\n"
+      + "    {\n"
+      + "      \"geometry\": {\"location\": {\"lat\": -33.867, \"lng\": 151.195}},\n"
+      + "      \"name\": \"Caf\\u00e9 \\\"Sydney\\\"\",\n"
+      + "      \"photos\": [\n"
+      + "        {\"height\": 1200, \"html_attributions\": [\"<a href=\\\"x\\\">A</a>\"],\n"
+      + "         \"photo_reference\": \"ref-1\", \"width\": 1600},\n"
+      + "        {\"photo_reference\": \"ref-2\"}\n"
+      + "      ],\n"
+      + "      \"types\": [\"cafe\", \"food\"],\n"
+      + "      \"open_now\": true, \"rating\": 4.5, \"permanently_closed\": null\n"
+      + "    },\n"
+      + "    {\"name\": \"Mörk Café\", \"reference\": {\"name\": \"not this one\"}},\n"
+      + "    {\"photos\": [], \"name\": \"No photos\"}\n"
+      + "  ],\n"
+      + "  \"status\": \"OK\",\n"
+      + "  \"name\": \"not a result\"\n"
+      + "}";
+
+  static List<Map<String, Object>> parse(String json, int chunkSize) {
+    List<Map<String, Object>> results = new ArrayList<>();
+    PlaceResultsParser parser = new PlaceResultsParser(results::add);
+    byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i < bytes.length; i += chunkSize) {
+      parser.parse(ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i)));
+    }
+    return results;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static String photoReference(Map<String, Object> result) {
+    Object[] photos = (Object[]) result.get("photos");
+    if (photos == null) {
+      return null;
+    }
+    return (String) ((Map<String, Object>) photos[0]).get("photo_reference");
+  }
+
+  @Test
+  public void parse_keepsNameAndFirstPhotoOfEachResult() {
+    List<Map<String, Object>> results = parse(RESPONSE, RESPONSE.length() * 2);
+
+    assertEquals(3, results.size());
+    assertEquals("Café \"Sydney\"", results.get(0).get("name"));
+    assertEquals("ref-1", photoReference(results.get(0)));
+    assertFalse(results.get(0).containsKey("geometry"));
+    assertEquals("Mörk Café", results.get(1).get("name"));
+    assertNull(photoReference(results.get(1)));
+    assertEquals("No photos", results.get(2).get("name"));
+    assertNull(photoReference(results.get(2)));
+  }
+
+  @Test
+  public void parse_handlesContentSplitAnywhere() {
+    List<Map<String, Object>> whole = parse(RESPONSE, RESPONSE.length() * 2);
+    for (int chunkSize = 1; chunkSize < 16; chunkSize++) {
+      List<Map<String, Object>> results = parse(RESPONSE, chunkSize);
+      assertEquals(whole.size(), results.size());
+      for (int i = 0; i < whole.size(); i++) {
+        assertEquals(whole.get(i).get("name"), results.get(i).get("name"));
+        assertEquals(photoReference(whole.get(i)), photoReference(results.get(i)));
+      }
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void parse_findsWhatGenerateResultsFindsInFullParse() {
+    Map<String, Object> data = (Map<String, Object>) JSON.parse(RESPONSE);
+    LinkedList<Map<String, Object>> full = new LinkedList<>();
+    for (Object result : (Object[]) data.get("results")) {
+      full.add((Map<String, Object>) result);
+    }
+    AbstractRestServlet servlet = new AbstractRestServlet();
+
+    assertEquals(servlet.generateResults(full),
+        servlet.generateResults(new LinkedList<>(parse(RESPONSE, 7))));
+  }
+
+  @Test
+  public void parse_ignoresResponsesWithoutResults() {
+    assertEquals(0, parse("{\"error_message\": \"The provided API key is invalid.\", "
+        + "\"results\": [], \"status\": \"REQUEST_DENIED\"}", 5).size());
+    assertEquals(0, parse("<html>Not Found</html>", 5).size());
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.asyncrest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests {@link PlaceSearchClient} against a local stub of the Places API. */
+@RunWith(JUnit4.class)
+public class PlaceSearchClientTest {
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger concurrent = new AtomicInteger();
+  private final AtomicInteger maxConcurrent = new AtomicInteger();
+  private Server server;
+  private HttpClient client;
+  private String baseUrl;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new Server(0);
+    server.setHandler(new AbstractHandler() {
+      @Override
+      public void handle(String target, Request baseRequest, HttpServletRequest request,
+          HttpServletResponse response) throws IOException {
+        requests.incrementAndGet();
+        int now = concurrent.incrementAndGet();
+        maxConcurrent.accumulateAndGet(now, Math::max);
+        try {
+          // A slow backend, so that searches overlap.
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        concurrent.decrementAndGet();
+        response.setContentType("application/json");
+        response.getOutputStream()
+            .write(PlaceResultsParserTest.RESPONSE.getBytes(StandardCharsets.UTF_8));
+        baseRequest.setHandled(true);
+      }
+    });
+    server.start();
+    baseUrl = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    client = new HttpClient();
+    client.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.stop();
+    server.stop();
+  }
+
+  // Runs the searches and waits for all their callbacks, then returns the results of the first.
+  private List<Map<String, Object>> searchAll(PlaceSearchClient searches, String... urls)
+      throws InterruptedException {
+    CountDownLatch done = new CountDownLatch(urls.length);
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>>[] first = new List[1];
+    for (int i = 0; i < urls.length; i++) {
+      boolean isFirst = i == 0;
+      searches.search(urls[i], found -> {
+        if (isFirst) {
+          first[0] = found;
+        }
+        done.countDown();
+      });
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    return first[0];
+  }
+
+  @Test
+  public void search_sharesRequestsForIdenticalSearches() throws Exception {
+    PlaceSearchClient searches = new PlaceSearchClient(client, 64);
+    String[] urls = new String[20];
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = baseUrl + "/search?types=" + (i % 2 == 0 ? "cafe" : "bar");
+    }
+
+    List<Map<String, Object>> found = searchAll(searches, urls);
+
+    assertEquals(3, found.size());
+    assertEquals(2, requests.get());
+    assertEquals(2, searches.getRequestsSent());
+
+    // Searches that are not in flight are sent again.
+    searchAll(searches, baseUrl + "/search?types=cafe");
+    assertEquals(3, requests.get());
+  }
+
+  @Test
+  public void search_limitsSearchesInFlight() throws Exception {
+    PlaceSearchClient searches = new PlaceSearchClient(client, 2);
+    String[] urls = new String[8];
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = baseUrl + "/search?types=type" + i;
+    }
+
+    searchAll(searches, urls);
+
+    assertEquals(8, requests.get());
+    assertEquals(2, maxConcurrent.get());
+  }
+
+  @Test
+  public void search_returnsNoResultsWhenTheSearchFails() throws Exception {
+    server.stop();
+    PlaceSearchClient searches = new PlaceSearchClient(client, 2);
+
+    assertEquals(0, searchAll(searches, baseUrl + "/search?types=cafe").size());
+  }
+}
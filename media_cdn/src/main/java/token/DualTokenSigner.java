@@ -0,0 +1,337 @@
+/*
+ *  Copyright 2024 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package token;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
+import org.bouncycastle.crypto.signers.Ed25519Signer;
+
+/**
+ * Creates Media CDN dual tokens with one key, like {@link DualToken#signToken}, for services that
+ * create many tokens.
+ *
+ * <p>The key is decoded and prepared once, when the signer is created. Tokens are created by a
+ * {@link Builder}, which keeps its fields between tokens. The fields shared by many tokens, such as
+ * the expiration time, are set and encoded once, and only the fields that change, such as the full
+ * path of each segment, are set for every token. A signer is thread-safe. A builder is not, and is
+ * meant to be reused by one thread.
+ */
+public class DualTokenSigner {
+
+  private static final Base64.Encoder BASE64 = Base64.getUrlEncoder().withoutPadding();
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private enum Algorithm {
+    ED25519(null),
+    SHA1("HmacSHA1"),
+    SHA256("HmacSHA256");
+
+    private final String macAlgorithm;
+
+    Algorithm(String macAlgorithm) {
+      this.macAlgorithm = macAlgorithm;
+    }
+  }
+
+  private final Algorithm algorithm;
+  private final Ed25519PrivateKeyParameters privateKey;
+  private final SecretKeySpec macKey;
+  private final Mac prototypeMac;
+
+  /**
+   * Creates a signer.
+   *
+   * @param base64Key the secret key as a base64 encoded string
+   * @param signatureAlgorithm one of sha1, sha256 or ed25519
+   * @throws InvalidKeyException when the key cannot be used with the algorithm
+   * @throws NoSuchAlgorithmException when the HMAC algorithm is not available in the environment
+   */
+  public DualTokenSigner(byte[] base64Key, String signatureAlgorithm)
+      throws InvalidKeyException, NoSuchAlgorithmException {
+    byte[] decodedKey = Base64.getUrlDecoder().decode(base64Key);
+    switch (signatureAlgorithm.toLowerCase()) {
+      case "ed25519":
+        this.algorithm = Algorithm.ED25519;
+        break;
+      case "sha1":
+        this.algorithm = Algorithm.SHA1;
+        break;
+      case "sha256":
+        this.algorithm = Algorithm.SHA256;
+        break;
+      default:
+        throw new IllegalArgumentException(
+            "`signatureAlgorithm` can only be one of `sha1`, `sha256` or `ed25519`");
+    }
+    if (algorithm == Algorithm.ED25519) {
+      this.privateKey = new Ed25519PrivateKeyParameters(decodedKey, 0);
+      this.macKey = null;
+      this.prototypeMac = null;
+    } else {
+      this.privateKey = null;
+      this.macKey = new SecretKeySpec(decodedKey, algorithm.macAlgorithm);
+      this.prototypeMac = Mac.getInstance(algorithm.macAlgorithm);
+      prototypeMac.init(macKey);
+    }
+  }
+
+  /** Returns a new builder of tokens signed by this signer. */
+  public Builder newBuilder() {
+    return new Builder();
+  }
+
+  // Creates a Mac for a builder. The prototype is never updated, so it can be cloned by many
+  // threads at once.
+  private Mac newMac() {
+    try {
+      return (Mac) prototypeMac.clone();
+    } catch (CloneNotSupportedException e) {
+      try {
+        Mac mac = Mac.getInstance(algorithm.macAlgorithm);
+        mac.init(macKey);
+        return mac;
+      } catch (GeneralSecurityException unexpected) {
+        // The prototype was created and initialized with the same key.
+        throw new IllegalStateException(unexpected);
+      }
+    }
+  }
+
+  /**
+   * Builds the tokens of a {@link DualTokenSigner}. Exactly one of the URL prefix, the full path or
+   * the path globs is set. The other fields are optional. Fields keep their value after a token is
+   * signed, until they are set again or cleared with null.
+   */
+  public class Builder {
+    // For most fields, the value in the token and the value to sign are the same. The FullPath
+    // and Headers fields have a different value to sign.
+    private String pathToken;
+    private byte[] pathToSign;
+    private String starts;
+    private String expires;
+    private String sessionId;
+    private String data;
+    private String headersToken;
+    private String headersToSign;
+    private String ipRanges;
+
+    // The fields after the path, encoded once for all the tokens that share them.
+    private String commonToken;
+    private byte[] commonToSign;
+
+    private final Mac mac;
+    private final Ed25519Signer ed25519Signer;
+    private final StringBuilder token = new StringBuilder(256);
+    private byte[] toSign = new byte[256];
+    private byte[] signature;
+
+    private Builder() {
+      if (algorithm == Algorithm.ED25519) {
+        this.ed25519Signer = new Ed25519Signer();
+        ed25519Signer.init(true, privateKey);
+        this.mac = null;
+      } else {
+        this.mac = newMac();
+        this.ed25519Signer = null;
+        this.signature = new byte[mac.getMacLength()];
+      }
+    }
+
+    /** Signs URLs that start with the URL prefix and protocol, such as http://example.com/path/. */
+    public Builder urlPrefix(String urlPrefix) {
+      return path(urlPrefix == null ? null
+          : "URLPrefix=" + BASE64.encodeToString(urlPrefix.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** Signs the full path, starting with the first '/', such as /path/to/content.mp4. */
+    public Builder fullPath(String fullPath) {
+      if (fullPath == null) {
+        return path(null);
+      }
+      pathToken = "FullPath";
+      pathToSign = ("FullPath=" + fullPath).getBytes(StandardCharsets.UTF_8);
+      return this;
+    }
+
+    /** Signs the paths that match a set of globs delimited by ',' or '!', such as /tv/*!/film/*. */
+    public Builder pathGlobs(String pathGlobs) {
+      return path(pathGlobs == null ? null : "PathGlobs=" + pathGlobs.trim());
+    }
+
+    private Builder path(String field) {
+      pathToken = field;
+      pathToSign = field == null ? null : field.getBytes(StandardCharsets.UTF_8);
+      return this;
+    }
+
+    /** Sets the start time of the token, or no start time with null. */
+    public Builder startTime(Instant startTime) {
+      starts = startTime == null ? null : "Starts=" + startTime.getEpochSecond();
+      return changed();
+    }
+
+    /** Sets the expiration time, or an hour after each token is signed with null. */
+    public Builder expirationTime(Instant expirationTime) {
+      expires = expirationTime == null ? null : "Expires=" + expirationTime.getEpochSecond();
+      return changed();
+    }
+
+    /** Sets a unique identifier for the session. */
+    public Builder sessionId(String sessionId) {
+      this.sessionId = sessionId == null ? null : "SessionID=" + sessionId;
+      return changed();
+    }
+
+    /** Sets a data payload to include in the token. */
+    public Builder data(String data) {
+      this.data = data == null ? null : "Data=" + data;
+      return changed();
+    }
+
+    /** Sets the headers to include in the signed token. */
+    public Builder headers(List<DualToken.Header> headers) {
+      if (headers == null) {
+        headersToken = null;
+        headersToSign = null;
+        return changed();
+      }
+      StringBuilder names = new StringBuilder("Headers=");
+      StringBuilder pairs = new StringBuilder("Headers=");
+      for (int i = 0; i < headers.size(); i++) {
+        DualToken.Header header = headers.get(i);
+        if (i > 0) {
+          names.append(',');
+          pairs.append(',');
+        }
+        names.append(header.getName());
+        pairs.append(header.getName()).append('=').append(header.getValue());
+      }
+      headersToken = names.toString();
+      headersToSign = pairs.toString();
+      return changed();
+    }
+
+    /** Sets a list of comma-separated IPv4 or IPv6 ranges. */
+    public Builder ipRanges(String ipRanges) {
+      this.ipRanges = ipRanges == null ? null
+          : "IPRanges=" + BASE64.encodeToString(ipRanges.getBytes(StandardCharsets.US_ASCII));
+      return changed();
+    }
+
+    private Builder changed() {
+      commonToken = null;
+      commonToSign = null;
+      return this;
+    }
+
+    /** Signs a token with the current fields. */
+    public String sign() {
+      if (pathToken == null) {
+        throw new IllegalArgumentException(
+            "User Input Missing: One of `urlPrefix`, `fullPath` or `pathGlobs` must be specified");
+      }
+      String common;
+      byte[] commonSigned;
+      if (expires == null) {
+        Instant expirationTime = Instant.now().plus(1, ChronoUnit.HOURS);
+        StringBuilder fields = new StringBuilder();
+        StringBuilder fieldsToSign = new StringBuilder();
+        appendCommon(fields, fieldsToSign, "Expires=" + expirationTime.getEpochSecond());
+        common = fields.toString();
+        commonSigned = fieldsToSign.toString().getBytes(StandardCharsets.UTF_8);
+      } else {
+        if (commonToken == null) {
+          StringBuilder fields = new StringBuilder();
+          StringBuilder fieldsToSign = new StringBuilder();
+          appendCommon(fields, fieldsToSign, expires);
+          commonToken = fields.toString();
+          commonToSign = fieldsToSign.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        common = commonToken;
+        commonSigned = commonToSign;
+      }
+
+      int length = pathToSign.length + commonSigned.length;
+      if (toSign.length < length) {
+        toSign = Arrays.copyOf(toSign, Math.max(length, toSign.length * 2));
+      }
+      System.arraycopy(pathToSign, 0, toSign, 0, pathToSign.length);
+      System.arraycopy(commonSigned, 0, toSign, pathToSign.length, commonSigned.length);
+
+      token.setLength(0);
+      token.append(pathToken).append(common);
+      if (ed25519Signer != null) {
+        ed25519Signer.update(toSign, 0, length);
+        token.append("~Signature=").append(BASE64.encodeToString(
+            ed25519Signer.generateSignature()));
+      } else {
+        mac.update(toSign, 0, length);
+        try {
+          mac.doFinal(signature, 0);
+        } catch (GeneralSecurityException e) {
+          throw new IllegalStateException(e);
+        }
+        token.append("~hmac=");
+        for (byte b : signature) {
+          token.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+        }
+      }
+      return token.toString();
+    }
+
+    /**
+     * Signs one token per full path, such as the segments of a stream, all with the other current
+     * fields.
+     */
+    public List<String> signFullPaths(List<String> fullPaths) {
+      List<String> tokens = new ArrayList<>(fullPaths.size());
+      for (String fullPath : fullPaths) {
+        tokens.add(fullPath(fullPath).sign());
+      }
+      return tokens;
+    }
+
+    // Appends the fields after the path, each starting with '~', in the order of the token.
+    private void appendCommon(StringBuilder fields, StringBuilder fieldsToSign, String expires) {
+      append(fields, fieldsToSign, starts, starts);
+      append(fields, fieldsToSign, expires, expires);
+      append(fields, fieldsToSign, sessionId, sessionId);
+      append(fields, fieldsToSign, data, data);
+      append(fields, fieldsToSign, headersToken, headersToSign);
+      append(fields, fieldsToSign, ipRanges, ipRanges);
+    }
+
+    private void append(StringBuilder fields, StringBuilder fieldsToSign, String field,
+        String fieldToSign) {
+      if (field != null) {
+        fields.append('~').append(field);
+        fieldsToSign.append('~').append(fieldToSign);
+      }
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2024 Google LLC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package token;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import token.DualToken.Header;
+
+@RunWith(JUnit4.class)
+public class DualTokenSignerTest {
+
+  private static final byte[] ED25519_KEY =
+      "DJUcnLguVFKmVCFnWGubG1MZg7fWAnxacMjKDhVZMGI=".getBytes();
+  private static final byte[] HMAC_KEY = "g_SlMILiIWKqsC6Z2L7gy0sReDOqtSrJrE7CXNr5Nl8=".getBytes();
+  private static final Instant START_TIME = Instant.parse("2022-09-13T00:00:00Z");
+  private static final Instant EXPIRES_TIME = Instant.parse("2022-09-13T12:00:00Z");
+  private static final List<Header> HEADERS =
+      Arrays.asList(new Header("Foo", "bar"), new Header("BAZ", "quux"));
+
+  @Test
+  public void sign_shouldMatchDualTokenForEd25519() throws Exception {
+    DualTokenSigner.Builder builder =
+        new DualTokenSigner(ED25519_KEY, "ed25519").newBuilder().expirationTime(EXPIRES_TIME);
+
+    assertThat(builder.urlPrefix("http://10.20.30.40/").sign()).isEqualTo(
+        "URLPrefix=aHR0cDovLzEwLjIwLjMwLjQwLw~Expires=1663070400~Signature"
+            + "=OQLXEjnApFGJaGZ_jvp2R7VY5q3ic-HT3igFpi9iPsJRXtQuvPF4cxZUT-rtCqzteXx3vSRhk09FxgDQauO_DA");
+    assertThat(builder.fullPath("/example.m3u8").sign()).isEqualTo(
+        "FullPath~Expires=1663070400~Signature=X74OTNjtseIUmsab-YiOTZ8jy"
+            + "X_KG7v4YQWwcFpfFmjhzaX8NdweMc9Wglj8wxEsEW85g3_MBG3T9jzLZFQDCw");
+    assertThat(builder
+        .pathGlobs("/*")
+        .startTime(START_TIME)
+        .sessionId("test-id")
+        .data("test-data")
+        .headers(HEADERS)
+        .ipRanges("203.0.113.0/24,2001:db8:4a7f:a732/64")
+        .sign()).isEqualTo(
+        "PathGlobs=/*~Starts=1663027200~Expires=1663070400~SessionID=test-id"
+            + "~Data=test-data~Headers=Foo,BAZ~IPRanges=MjAzLjAuMTEzLjAvMjQsMjAwMTpkYjg6NGE3Zj"
+            + "phNzMyLzY0~Signature=A7u67hveGxGvP8KBWZlUuH0IsqhS4a2lcsXwy3uc4X3zaVuw7LY-2FQT1Z"
+            + "F8UxkSFAsDS3_0LYnXwXB2XdepDg");
+  }
+
+  @Test
+  public void sign_shouldMatchDualTokenForHmac() throws Exception {
+    DualTokenSigner.Builder sha1 =
+        new DualTokenSigner(HMAC_KEY, "sha1").newBuilder().expirationTime(EXPIRES_TIME);
+    DualTokenSigner.Builder sha256 =
+        new DualTokenSigner(HMAC_KEY, "SHA256").newBuilder().expirationTime(EXPIRES_TIME);
+
+    assertThat(sha1.pathGlobs("/*").sign()).isEqualTo(
+        "PathGlobs=/*~Expires=1663070400~hmac=c1c446eea24faa31392519f975fea7eefb945625");
+    assertThat(sha256.fullPath("/example.m3u8").sign()).isEqualTo(
+        "FullPath~Expires=1663070400~hmac=365b41fd77297371d890fc9a56e4e3d3b"
+            + "aa4c7afbd230a0e9a81c8e1bcab9420");
+    assertThat(sha256
+        .pathGlobs("/*")
+        .startTime(START_TIME)
+        .sessionId("test-id")
+        .data("test-data")
+        .headers(HEADERS)
+        .ipRanges("203.0.113.0/24,2001:db8:4a7f:a732/64")
+        .sign()).isEqualTo(
+        "PathGlobs=/*~Starts=1663027200~Expires=1663070400~SessionID=test-id"
+            + "~Data=test-data~Headers=Foo,BAZ~IPRanges=MjAzLjAuMTEzLjAvMjQsMjAwMTpkYjg6NGE3Zj"
+            + "phNzMyLzY0~hmac=dda9c3d6f3b2e867a09fbb76209ea138dd81f8512210f970d1e92f90927bef4b");
+  }
+
+  @Test
+  public void signFullPaths_shouldMatchOneTokenPerPath() throws Exception {
+    DualTokenSigner signer = new DualTokenSigner(HMAC_KEY, "sha256");
+    List<String> paths = Arrays.asList("/seg-1.ts", "/seg-2.ts", "/seg-3.ts");
+
+    List<String> tokens = signer.newBuilder()
+        .expirationTime(EXPIRES_TIME)
+        .sessionId("test-id")
+        .signFullPaths(paths);
+
+    assertThat(tokens).hasSize(3);
+    for (int i = 0; i < paths.size(); i++) {
+      assertThat(tokens.get(i)).isEqualTo(signer.newBuilder()
+          .fullPath(paths.get(i))
+          .expirationTime(EXPIRES_TIME)
+          .sessionId("test-id")
+          .sign());
+    }
+  }
+
+  @Test
+  public void sign_shouldRequireOnePath() throws Exception {
+    DualTokenSigner.Builder builder = new DualTokenSigner(HMAC_KEY, "sha1").newBuilder();
+    assertThrows(IllegalArgumentException.class, builder::sign);
+    assertThrows(IllegalArgumentException.class, () -> new DualTokenSigner(HMAC_KEY, "md5"));
+  }
+}
@@ -16,8 +16,9 @@ package com.examples.pubsub.streaming;
 
 // [START pubsub_to_gcs]
 
+import com.examples.pubsub.streaming.WriteWindowedFiles.FileCompression;
+import com.examples.pubsub.streaming.WriteWindowedFiles.Format;
 import java.io.IOException;
-import org.apache.beam.examples.common.WriteOneFilePerWindow;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.io.gcp.pubsub.PubsubIO;
 import org.apache.beam.sdk.options.Default;
@@ -52,12 +53,34 @@ public class PubSubToGcs {
     String getOutput();
 
     void setOutput(String value);
+
+    @Description("Number of keys to spread the messages of a window over. Each key is also split"
+        + " by worker, so the files written in parallel grow with the workers.")
+    @Default.Integer(1)
+    Integer getNumShards();
+
+    void setNumShards(Integer value);
+
+    @Description("Output file format: TEXT, AVRO or PARQUET.")
+    @Default.Enum("TEXT")
+    Format getOutputFormat();
+
+    void setOutputFormat(Format value);
+
+    @Description("Output file compression: UNCOMPRESSED, GZIP or SNAPPY.")
+    @Default.Enum("UNCOMPRESSED")
+    FileCompression getCompression();
+
+    void setCompression(FileCompression value);
+
+    @Description("Size in megabytes of the messages after which a new output file is started.")
+    @Default.Integer(64)
+    Integer getMaxFileSizeMb();
+
+    void setMaxFileSizeMb(Integer value);
   }
 
   public static void main(String[] args) throws IOException {
-    // The maximum number of shards when writing output.
-    int numShards = 1;
-
     PubSubToGcsOptions options =
         PipelineOptionsFactory.fromArgs(args).withValidation().as(PubSubToGcsOptions.class);
 
@@ -70,8 +93,13 @@ public class PubSubToGcs {
         .apply("Read PubSub Messages", PubsubIO.readStrings().fromTopic(options.getInputTopic()))
         // 2) Group the messages into fixed-sized minute intervals.
         .apply(Window.into(FixedWindows.of(Duration.standardMinutes(options.getWindowSize()))))
-        // 3) Write one file to GCS for every window of messages.
-        .apply("Write Files to GCS", new WriteOneFilePerWindow(options.getOutput(), numShards));
+        // 3) Write the messages of every window to GCS, in files of at most maxFileSizeMb.
+        .apply("Write Files to GCS", new WriteWindowedFiles(
+            options.getOutput(),
+            options.getOutputFormat(),
+            options.getCompression(),
+            options.getNumShards(),
+            options.getMaxFileSizeMb() * 1024L * 1024L));
 
     // Execute the pipeline and wait until it finishes running.
     pipeline.run().waitUntilFinish();
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.examples.pubsub.streaming;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.beam.sdk.extensions.avro.io.AvroIO;
+import org.apache.beam.sdk.io.Compression;
+import org.apache.beam.sdk.io.FileIO;
+import org.apache.beam.sdk.io.FileSystems;
+import org.apache.beam.sdk.io.TextIO;
+import org.apache.beam.sdk.io.fs.ResolveOptions.StandardResolveOptions;
+import org.apache.beam.sdk.io.fs.ResourceId;
+import org.apache.beam.sdk.io.parquet.ParquetIO;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.GroupIntoBatches;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.SerializableFunction;
+import org.apache.beam.sdk.transforms.WithKeys;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.util.MimeTypes;
+import org.apache.beam.sdk.util.ShardedKey;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.TypeDescriptors;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Writes the messages of each window to files of at most about {@code maxFileBytes} bytes, and
+ * outputs the names of the files.
+ *
+ * <p>The messages of a window are spread over {@code numShards} keys. {@link
+ * GroupIntoBatches#withShardedKey()} further splits each key by worker, so the number of files
+ * written in parallel grows with the workers, and collects the messages of each shard into batches
+ * of at most {@code maxFileBytes} bytes, which are written to one file each. A window has about
+ * one file per shard and worker, plus one for every {@code maxFileBytes} bytes of messages.
+ *
+ * <p>Each batch is written to a temporary file that is renamed when it is complete, so readers
+ * never see partial files. The name of the file is derived from the window, the shard, the pane
+ * and the first message of the batch, and the batches are stable across retries, so when the
+ * runner retries a failed bundle, the batch overwrites the file of the failed attempt.
+ */
+public class WriteWindowedFiles extends PTransform<PCollection<String>, PCollection<String>> {
+
+  /** The format of the output files. */
+  public enum Format {
+    TEXT,
+    AVRO,
+    PARQUET
+  }
+
+  /** How the output files are compressed. */
+  public enum FileCompression {
+    UNCOMPRESSED,
+    GZIP,
+    SNAPPY
+  }
+
+  // The Avro and Parquet files have one record per message, with the message as a string.
+  static final Schema SCHEMA =
+      SchemaBuilder.record("Message")
+          .namespace("com.examples.pubsub.streaming")
+          .fields()
+          .requiredString("message")
+          .endRecord();
+
+  private static final DateTimeFormatter FORMATTER = ISODateTimeFormat.hourMinute();
+
+  private final String filenamePrefix;
+  private final Format format;
+  private final FileCompression compression;
+  private final int numShards;
+  private final long maxFileBytes;
+
+  public WriteWindowedFiles(
+      String filenamePrefix,
+      Format format,
+      FileCompression compression,
+      int numShards,
+      long maxFileBytes) {
+    this.filenamePrefix = filenamePrefix;
+    this.format = format;
+    this.compression = compression;
+    this.numShards = numShards;
+    this.maxFileBytes = maxFileBytes;
+  }
+
+  @Override
+  public PCollection<String> expand(PCollection<String> messages) {
+    int shards = numShards;
+    return messages
+        .apply(
+            "Assign shards",
+            WithKeys.of((String message) -> ThreadLocalRandom.current().nextInt(shards))
+                .withKeyType(TypeDescriptors.integers()))
+        .apply("Batch by size", GroupIntoBatches.<Integer, String>ofByteSize(maxFileBytes)
+            .withShardedKey())
+        .apply(
+            "Write batches",
+            ParDo.of(new WriteBatchFn(filenamePrefix, format, compression)));
+  }
+
+  // Writes each batch of messages to a file of its own.
+  static class WriteBatchFn extends DoFn<KV<ShardedKey<Integer>, Iterable<String>>, String> {
+    private final String filenamePrefix;
+    private final Format format;
+    private final FileCompression compression;
+
+    WriteBatchFn(String filenamePrefix, Format format, FileCompression compression) {
+      this.filenamePrefix = filenamePrefix;
+      this.format = format;
+      this.compression = compression;
+    }
+
+    // The file name depends on the contents of the batch, so a retry must see the same batch.
+    @RequiresStableInput
+    @ProcessElement
+    public void processElement(
+        @Element KV<ShardedKey<Integer>, Iterable<String>> batch,
+        BoundedWindow window,
+        PaneInfo pane,
+        OutputReceiver<String> filenames)
+        throws IOException {
+      IntervalWindow intervalWindow = (IntervalWindow) window;
+      ShardedKey<Integer> key = batch.getKey();
+      String firstMessage = batch.getValue().iterator().next();
+      String filename =
+          String.format(
+              "%s-%s-%s-%d-%08x-%d-%08x%s",
+              filenamePrefix,
+              FORMATTER.print(intervalWindow.start()),
+              FORMATTER.print(intervalWindow.end()),
+              key.getKey(),
+              // The hash code of the key covers its shard, which is otherwise not exposed.
+              key.hashCode(),
+              pane.getIndex(),
+              firstMessage.hashCode(),
+              suffix());
+      ResourceId file = FileSystems.matchNewResource(filename, false);
+      // The temporary file is hidden, so that readers of the output files do not match it.
+      ResourceId tempFile =
+          file.getCurrentDirectory()
+              .resolve("." + file.getFilename() + ".temp", StandardResolveOptions.RESOLVE_FILE);
+
+      if (format == Format.TEXT) {
+        write(tempFile, TextIO.sink(), batch.getValue(), message -> message);
+      } else {
+        write(tempFile, recordSink(), batch.getValue(), WriteBatchFn::toRecord);
+      }
+      FileSystems.rename(
+          Collections.singletonList(tempFile), Collections.singletonList(file));
+      filenames.output(file.toString());
+    }
+
+    private <T> void write(
+        ResourceId file,
+        FileIO.Sink<T> sink,
+        Iterable<String> messages,
+        SerializableFunction<String, T> toElement)
+        throws IOException {
+      try (WritableByteChannel channel =
+          textCompression().writeCompressed(FileSystems.create(file, MimeTypes.BINARY))) {
+        sink.open(channel);
+        for (String message : messages) {
+          sink.write(toElement.apply(message));
+        }
+        sink.flush();
+      }
+    }
+
+    private static GenericRecord toRecord(String message) {
+      GenericRecord record = new GenericData.Record(SCHEMA);
+      record.put("message", message);
+      return record;
+    }
+
+    // Avro and Parquet files compress their blocks themselves.
+    private FileIO.Sink<GenericRecord> recordSink() {
+      if (format == Format.AVRO) {
+        switch (compression) {
+          case GZIP:
+            return AvroIO.<GenericRecord>sink(SCHEMA)
+                .withCodec(CodecFactory.deflateCodec(CodecFactory.DEFAULT_DEFLATE_LEVEL));
+          case SNAPPY:
+            return AvroIO.<GenericRecord>sink(SCHEMA).withCodec(CodecFactory.snappyCodec());
+          default:
+            return AvroIO.<GenericRecord>sink(SCHEMA).withCodec(CodecFactory.nullCodec());
+        }
+      }
+      return ParquetIO.sink(SCHEMA)
+          .withCompressionCodec(CompressionCodecName.valueOf(compression.name()));
+    }
+
+    private Compression textCompression() {
+      return format == Format.TEXT
+          ? Compression.valueOf(compression.name())
+          : Compression.UNCOMPRESSED;
+    }
+
+    private String suffix() {
+      switch (format) {
+        case AVRO:
+          return ".avro";
+        case PARQUET:
+          return ".parquet";
+        default:
+          return ".txt" + textCompression().getSuggestedSuffix();
+      }
+    }
+  }
+}
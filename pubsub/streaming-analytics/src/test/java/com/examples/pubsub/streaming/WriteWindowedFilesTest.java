@@ -0,0 +1,187 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.examples.pubsub.streaming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.examples.pubsub.streaming.WriteWindowedFiles.FileCompression;
+import com.examples.pubsub.streaming.WriteWindowedFiles.Format;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.extensions.avro.io.AvroIO;
+import org.apache.beam.sdk.io.parquet.ParquetIO;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.testing.TestStream;
+import org.apache.beam.sdk.transforms.MapElements;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.TimestampedValue;
+import org.apache.beam.sdk.values.TypeDescriptors;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class WriteWindowedFilesTest {
+
+  private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+  private static final String PADDING = new String(new char[86]).replace('\0', 'x');
+
+  @Rule public final transient TemporaryFolder folder = new TemporaryFolder();
+  @Rule public final transient TestPipeline writePipeline = TestPipeline.create();
+  @Rule public final transient TestPipeline readPipeline = TestPipeline.create();
+
+  // Messages of about 100 bytes, in two one-minute windows.
+  private static List<TimestampedValue<String>> messages(int firstWindow, int secondWindow) {
+    List<TimestampedValue<String>> messages = new ArrayList<>();
+    for (int i = 0; i < firstWindow + secondWindow; i++) {
+      Instant timestamp = START.plus(Duration.standardSeconds(i < firstWindow ? 1 : 61));
+      messages.add(TimestampedValue.of(String.format("message %05d %s", i, PADDING),
+          timestamp));
+    }
+    return messages;
+  }
+
+  private static List<String> values(List<TimestampedValue<String>> messages) {
+    List<String> values = new ArrayList<>();
+    for (TimestampedValue<String> message : messages) {
+      values.add(message.getValue());
+    }
+    return values;
+  }
+
+  private void write(List<TimestampedValue<String>> messages, String output, Format format,
+      FileCompression compression, int numShards, long maxFileBytes) {
+    TestStream.Builder<String> stream = TestStream.create(StringUtf8Coder.of());
+    for (TimestampedValue<String> message : messages) {
+      stream = stream.addElements(message);
+    }
+    writePipeline
+        .apply(stream.advanceWatermarkToInfinity())
+        .apply(Window.into(FixedWindows.of(Duration.standardMinutes(1))))
+        .apply(new WriteWindowedFiles(output, format, compression, numShards, maxFileBytes));
+    writePipeline.run().waitUntilFinish();
+  }
+
+  private List<File> outputFiles() {
+    List<File> files = new ArrayList<>();
+    for (File file : folder.getRoot().listFiles()) {
+      // No temporary files are left behind.
+      assertFalse(file.getName(), file.getName().startsWith("."));
+      files.add(file);
+    }
+    return files;
+  }
+
+  private static String readGzip(File file) throws IOException {
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+      byte[] buffer = new byte[8192];
+      for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+        text.write(buffer, 0, n);
+      }
+    }
+    return new String(text.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void rollsTextFilesBySize() throws IOException {
+    List<TimestampedValue<String>> messages = messages(1000, 10);
+    String output = folder.getRoot() + "/output";
+
+    write(messages, output, Format.TEXT, FileCompression.GZIP, 2, 16 * 1024);
+
+    List<String> lines = new ArrayList<>();
+    int firstWindowFiles = 0;
+    int secondWindowFiles = 0;
+    for (File file : outputFiles()) {
+      assertTrue(file.getName(), file.getName().endsWith(".txt.gz"));
+      String text = readGzip(file);
+      // A file holds at most one message more than the size limit.
+      assertTrue(file.getName() + " " + text.length(), text.length() <= 16 * 1024 + 100);
+      for (String line : text.split("\n")) {
+        lines.add(line);
+      }
+      if (file.getName().startsWith("output-00:00-00:01-")) {
+        firstWindowFiles++;
+      } else if (file.getName().startsWith("output-00:01-00:02-")) {
+        secondWindowFiles++;
+      }
+    }
+
+    lines.sort(null);
+    assertEquals(values(messages), lines);
+    // Each of the 2 keys is split by worker thread, and the DirectRunner runs at least 3 of them.
+    int shards = 2 * Math.max(3, Runtime.getRuntime().availableProcessors());
+    // About 100 KB of messages are rolled into files of at most 16 KB: 7 full files, and at most
+    // one partial file per shard.
+    assertTrue("first window files " + firstWindowFiles,
+        firstWindowFiles >= 7 && firstWindowFiles <= 7 + shards);
+    assertTrue("second window files " + secondWindowFiles,
+        secondWindowFiles >= 1 && secondWindowFiles <= shards);
+    assertEquals(firstWindowFiles + secondWindowFiles, outputFiles().size());
+  }
+
+  @Test
+  public void writesAvroFiles() {
+    List<TimestampedValue<String>> messages = messages(200, 50);
+    String output = folder.getRoot() + "/output";
+
+    write(messages, output, Format.AVRO, FileCompression.SNAPPY, 1, 8 * 1024);
+
+    PCollection<String> read = readPipeline
+        .apply(AvroIO.readGenericRecords(WriteWindowedFiles.SCHEMA).from(output + "*.avro"))
+        .apply(MapElements.into(TypeDescriptors.strings())
+            .via((GenericRecord record) -> record.get("message").toString()));
+    PAssert.that(read).containsInAnyOrder(values(messages));
+    readPipeline.run().waitUntilFinish();
+    assertTrue(outputFiles().size() > 2);
+  }
+
+  @Test
+  public void writesParquetFiles() {
+    List<TimestampedValue<String>> messages = messages(200, 50);
+    String output = folder.getRoot() + "/output";
+
+    write(messages, output, Format.PARQUET, FileCompression.SNAPPY, 1, 8 * 1024);
+
+    PCollection<String> read = readPipeline
+        .apply(ParquetIO.read(WriteWindowedFiles.SCHEMA).from(output + "*.parquet"))
+        .apply(MapElements.into(TypeDescriptors.strings())
+            .via((GenericRecord record) -> record.get("message").toString()));
+    PAssert.that(read).containsInAnyOrder(values(messages));
+    readPipeline.run().waitUntilFinish();
+    assertTrue(outputFiles().size() > 2);
+  }
+}
@@ -24,7 +24,6 @@ import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
 import com.google.cloud.vision.v1.AnnotateImageRequest;
 import com.google.cloud.vision.v1.AnnotateImageResponse;
-import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
 import com.google.cloud.vision.v1.Feature;
 import com.google.cloud.vision.v1.Feature.Type;
 import com.google.cloud.vision.v1.Image;
@@ -38,11 +37,29 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 public class ImageMagick {
 
   private static final String BLURRED_BUCKET_NAME = System.getenv("BLURRED_BUCKET_NAME");
   private static Storage storage = StorageOptions.getDefaultInstance().getService();
+  // With BLUR_MODE=streaming, images are blurred in the Java process instead of by ImageMagick.
+  private static final boolean STREAMING = "streaming".equals(System.getenv("BLUR_MODE"));
+  // The Vision client is created with the first image and shared by all requests.
+  private static ImageAnnotatorClient visionClient;
+  // Concurrent requests wait up to VISION_BATCH_DELAY_MS to be sent to the Vision API together.
+  private static final VisionBatcher visionBatcher =
+      new VisionBatcher(
+          requests -> getVisionClient().batchAnnotateImages(requests).getResponsesList(),
+          VisionBatcher.MAX_BATCH_SIZE,
+          Long.parseLong(System.getenv().getOrDefault("VISION_BATCH_DELAY_MS", "20")));
+
+  private static synchronized ImageAnnotatorClient getVisionClient() throws IOException {
+    if (visionClient == null) {
+      visionClient = ImageAnnotatorClient.create();
+    }
+    return visionClient;
+  }
   // [END cloudrun_imageproc_handler_setup]
 
   // [START cloudrun_imageproc_handler_analyze]
@@ -56,34 +73,39 @@ public class ImageMagick {
     System.out.println(String.format("Analyzing %s", fileName));
 
     // Construct request.
-    List<AnnotateImageRequest> requests = new ArrayList<>();
     ImageSource imgSource = ImageSource.newBuilder().setImageUri(gcsPath).build();
     Image img = Image.newBuilder().setSource(imgSource).build();
     Feature feature = Feature.newBuilder().setType(Type.SAFE_SEARCH_DETECTION).build();
     AnnotateImageRequest request =
         AnnotateImageRequest.newBuilder().addFeatures(feature).setImage(img).build();
-    requests.add(request);
 
-    // Send request to the Vision API.
-    try (ImageAnnotatorClient client = ImageAnnotatorClient.create()) {
-      BatchAnnotateImagesResponse response = client.batchAnnotateImages(requests);
-      List<AnnotateImageResponse> responses = response.getResponsesList();
-      for (AnnotateImageResponse res : responses) {
-        if (res.hasError()) {
-          System.out.println(String.format("Error: %s\n", res.getError().getMessage()));
-          return;
-        }
-        // Get Safe Search Annotations
-        SafeSearchAnnotation annotation = res.getSafeSearchAnnotation();
-        if (annotation.getAdultValue() == 5 || annotation.getViolenceValue() == 5) {
-          System.out.println(String.format("Detected %s as inappropriate.", fileName));
-          blur(blobInfo);
-        } else {
-          System.out.println(String.format("Detected %s as OK.", fileName));
-        }
-      }
-    } catch (Exception e) {
+    // Send request to the Vision API, in a batch with the requests of concurrent messages.
+    AnnotateImageResponse res;
+    try {
+      res = visionBatcher.annotate(request).get();
+    } catch (ExecutionException e) {
+      System.out.println(String.format("Error with Vision API: %s", e.getCause().getMessage()));
+      return;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
       System.out.println(String.format("Error with Vision API: %s", e.getMessage()));
+      return;
+    }
+    if (res.hasError()) {
+      System.out.println(String.format("Error: %s\n", res.getError().getMessage()));
+      return;
+    }
+    // Get Safe Search Annotations
+    SafeSearchAnnotation annotation = res.getSafeSearchAnnotation();
+    if (annotation.getAdultValue() == 5 || annotation.getViolenceValue() == 5) {
+      System.out.println(String.format("Detected %s as inappropriate.", fileName));
+      try {
+        blur(blobInfo);
+      } catch (Exception e) {
+        System.out.println(String.format("Error blurring %s: %s", fileName, e.getMessage()));
+      }
+    } else {
+      System.out.println(String.format("Detected %s as OK.", fileName));
     }
   }
   // [END cloudrun_imageproc_handler_analyze]
@@ -94,6 +116,13 @@ public class ImageMagick {
   public static void blur(BlobInfo blobInfo) throws IOException {
     String bucketName = blobInfo.getBucket();
     String fileName = blobInfo.getName();
+    if (STREAMING) {
+      new StreamingBlur(storage)
+          .blur(BlobId.of(bucketName, fileName), BlobId.of(BLURRED_BUCKET_NAME, fileName));
+      System.out.println(
+          String.format("Blurred image uploaded to: gs://%s/%s", BLURRED_BUCKET_NAME, fileName));
+      return;
+    }
     // Download image
     Blob blob = storage.get(BlobId.of(bucketName, fileName));
     Path download = Paths.get("/tmp/", fileName);
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudrun;
+
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the annotate requests of concurrent Pub/Sub pushes to the Vision API together.
+ *
+ * <p>The first request of a batch waits up to {@code maxDelayMillis} for other requests. The batch
+ * is sent in a single {@code batchAnnotateImages} call when the delay ends or when it holds {@code
+ * maxBatchSize} requests, and each request's future is completed with its own response. When a
+ * call fails, the futures of all the requests in its batch fail.
+ */
+class VisionBatcher {
+
+  // The most images that the Vision API accepts in a batchAnnotateImages call.
+  static final int MAX_BATCH_SIZE = 16;
+
+  /** Sends a batch of requests to the Vision API, and returns the responses in the same order. */
+  interface Annotator {
+    List<AnnotateImageResponse> annotate(List<AnnotateImageRequest> requests) throws Exception;
+  }
+
+  private static class Pending {
+    final AnnotateImageRequest request;
+    final CompletableFuture<AnnotateImageResponse> response = new CompletableFuture<>();
+
+    Pending(AnnotateImageRequest request) {
+      this.request = request;
+    }
+  }
+
+  private final Annotator annotator;
+  private final int maxBatchSize;
+  private final long maxDelayMillis;
+  private final ScheduledExecutorService timer;
+  private final ExecutorService senders;
+  private List<Pending> batch = new ArrayList<>();
+
+  VisionBatcher(Annotator annotator, int maxBatchSize, long maxDelayMillis) {
+    this.annotator = annotator;
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayMillis = maxDelayMillis;
+    this.timer =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "vision-batch-timer");
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.senders =
+        Executors.newCachedThreadPool(
+            runnable -> {
+              Thread thread = new Thread(runnable, "vision-batch");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /** Adds a request to the current batch, and returns a future of its response. */
+  CompletableFuture<AnnotateImageResponse> annotate(AnnotateImageRequest request) {
+    Pending pending = new Pending(request);
+    List<Pending> full = null;
+    synchronized (this) {
+      batch.add(pending);
+      if (batch.size() >= maxBatchSize) {
+        full = batch;
+        batch = new ArrayList<>();
+      } else if (batch.size() == 1) {
+        List<Pending> first = batch;
+        timer.schedule(() -> sendIfCurrent(first), maxDelayMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+    if (full != null) {
+      // The request that fills a batch sends it, so full batches do not wait for the timer thread.
+      send(full);
+    }
+    return pending.response;
+  }
+
+  private void sendIfCurrent(List<Pending> scheduled) {
+    synchronized (this) {
+      // The batch was already sent when it filled up.
+      if (batch != scheduled) {
+        return;
+      }
+      batch = new ArrayList<>();
+    }
+    // Send on another thread, so that a slow call does not delay the timers of later batches.
+    senders.execute(() -> send(scheduled));
+  }
+
+  private void send(List<Pending> sending) {
+    List<AnnotateImageRequest> requests = new ArrayList<>(sending.size());
+    for (Pending pending : sending) {
+      requests.add(pending.request);
+    }
+    try {
+      List<AnnotateImageResponse> responses = annotator.annotate(requests);
+      if (responses.size() != sending.size()) {
+        throw new IllegalStateException(
+            String.format(
+                "Expected %d Vision API responses, got %d", sending.size(), responses.size()));
+      }
+      for (int i = 0; i < sending.size(); i++) {
+        sending.get(i).response.complete(responses.get(i));
+      }
+    } catch (Exception e) {
+      for (Pending pending : sending) {
+        pending.response.completeExceptionally(e);
+      }
+    }
+  }
+}
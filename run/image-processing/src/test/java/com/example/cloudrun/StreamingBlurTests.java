@@ -0,0 +1,180 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudrun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests {@link StreamingBlur} with a fake Cloud Storage. */
+@RunWith(JUnit4.class)
+public class StreamingBlurTests {
+
+  private final Storage storage = LocalStorageHelper.getOptions().getService();
+
+  // An image with a black left half and a white right half.
+  private static BufferedImage halves(int width, int height) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, x < width / 2 ? 0x000000 : 0xffffff);
+      }
+    }
+    return image;
+  }
+
+  private void upload(String name, BufferedImage image, String format, String contentType)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ImageIO.write(image, format, bytes);
+    storage.create(
+        BlobInfo.newBuilder("uploads", name).setContentType(contentType).build(),
+        bytes.toByteArray());
+  }
+
+  private static String formatName(byte[] bytes) throws IOException {
+    try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+      return readers.next().getFormatName();
+    }
+  }
+
+  @Test
+  public void blursImageFromStorageToStorage() throws Exception {
+    upload("halves.png", halves(100, 40), "png", "image/png");
+
+    new StreamingBlur(storage).blur(BlobId.of("uploads", "halves.png"),
+        BlobId.of("blurred", "halves.png"));
+
+    Blob blob = storage.get(BlobId.of("blurred", "halves.png"));
+    assertEquals("image/png", blob.getContentType());
+    byte[] bytes = blob.getContent();
+    assertEquals("png", formatName(bytes).toLowerCase());
+    BufferedImage blurred = ImageIO.read(new ByteArrayInputStream(bytes));
+    assertEquals(100, blurred.getWidth());
+    assertEquals(40, blurred.getHeight());
+    // The edge in the middle is gray, and the pixels far from it keep their color.
+    int middle = blurred.getRGB(50, 20) & 0xff;
+    assertTrue("middle " + middle, middle > 64 && middle < 192);
+    assertEquals(0x000000, blurred.getRGB(0, 0) & 0xffffff);
+    assertEquals(0xffffff, blurred.getRGB(99, 39) & 0xffffff);
+  }
+
+  @Test
+  public void keepsFormatOfJpegImages() throws Exception {
+    upload("halves.jpg", halves(64, 64), "jpeg", "image/jpeg");
+
+    new StreamingBlur(storage).blur(BlobId.of("uploads", "halves.jpg"),
+        BlobId.of("blurred", "halves.jpg"));
+
+    Blob blob = storage.get(BlobId.of("blurred", "halves.jpg"));
+    assertEquals("image/jpeg", blob.getContentType());
+    assertEquals("jpeg", formatName(blob.getContent()).toLowerCase());
+  }
+
+  @Test
+  public void gaussianBlurKeepsUniformImages() {
+    BufferedImage image = new BufferedImage(30, 30, BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < 30; y++) {
+      for (int x = 0; x < 30; x++) {
+        image.setRGB(x, y, 0x80336699);
+      }
+    }
+
+    BufferedImage blurred = StreamingBlur.gaussianBlur(image, StreamingBlur.SIGMA);
+
+    for (int y = 0; y < 30; y += 7) {
+      for (int x = 0; x < 30; x += 7) {
+        assertEquals(0x80336699, blurred.getRGB(x, y));
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void failsForFilesThatAreNotImages() throws Exception {
+    storage.create(BlobInfo.newBuilder("uploads", "notes.txt").build(),
+        "not an image".getBytes(StandardCharsets.UTF_8));
+
+    new StreamingBlur(storage).blur(BlobId.of("uploads", "notes.txt"),
+        BlobId.of("blurred", "notes.txt"));
+  }
+
+  @Test
+  public void doesNotCreateBlobForFormatsThatCannotBeWritten() throws Exception {
+    // WBMP images can be read, but only black and white images can be written as WBMP.
+    BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_BINARY);
+    upload("image.wbmp", image, "wbmp", "image/vnd.wap.wbmp");
+
+    BlobId target = BlobId.of("blurred", "image.wbmp");
+    IOException e = assertThrows(IOException.class,
+        () -> new StreamingBlur(storage).blur(BlobId.of("uploads", "image.wbmp"), target));
+    assertEquals("Unsupported image format for writing: wbmp", e.getMessage());
+
+    assertNull(storage.get(target));
+  }
+
+  @Test
+  public void blursConcurrentImages() throws Exception {
+    int images = 24;
+    for (int i = 0; i < images; i++) {
+      upload("image" + i + ".jpg", halves(640, 480), "jpeg", "image/jpeg");
+    }
+    StreamingBlur blur = new StreamingBlur(storage);
+    // More requests than workers, as when Cloud Run sends requests concurrently.
+    ExecutorService requests = Executors.newFixedThreadPool(8);
+    List<Future<?>> done = new ArrayList<>();
+    for (int i = 0; i < images; i++) {
+      String name = "image" + i + ".jpg";
+      done.add(requests.submit(() -> {
+        blur.blur(BlobId.of("uploads", name), BlobId.of("blurred", name));
+        return null;
+      }));
+    }
+    for (Future<?> future : done) {
+      future.get();
+    }
+    requests.shutdown();
+
+    for (int i = 0; i < images; i++) {
+      assertTrue(storage.get(BlobId.of("blurred", "image" + i + ".jpg")).getSize() > 0);
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudrun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.Image;
+import com.google.cloud.vision.v1.ImageSource;
+import com.google.cloud.vision.v1.SafeSearchAnnotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests {@link VisionBatcher} with a fake Vision API. */
+@RunWith(JUnit4.class)
+public class VisionBatcherTests {
+
+  private final AtomicInteger calls = new AtomicInteger();
+  private final List<Integer> batchSizes = new ArrayList<>();
+
+  // Answers each request with an annotation whose adult value is the index in the image URI.
+  private List<AnnotateImageResponse> annotate(List<AnnotateImageRequest> requests)
+      throws InterruptedException {
+    calls.incrementAndGet();
+    synchronized (batchSizes) {
+      batchSizes.add(requests.size());
+    }
+    // The time the Vision API takes to answer.
+    Thread.sleep(50);
+    List<AnnotateImageResponse> responses = new ArrayList<>();
+    for (AnnotateImageRequest request : requests) {
+      String uri = request.getImage().getSource().getImageUri();
+      int index = Integer.parseInt(uri.substring(uri.lastIndexOf('/') + 1));
+      responses.add(
+          AnnotateImageResponse.newBuilder()
+              .setSafeSearchAnnotation(
+                  SafeSearchAnnotation.newBuilder().setAdultValue(index % 6).build())
+              .build());
+    }
+    return responses;
+  }
+
+  private static AnnotateImageRequest request(int index) {
+    ImageSource source = ImageSource.newBuilder().setImageUri("gs://uploads/" + index).build();
+    return AnnotateImageRequest.newBuilder()
+        .setImage(Image.newBuilder().setSource(source))
+        .build();
+  }
+
+  @Test
+  public void sendsSingleRequestAfterDelay() throws Exception {
+    VisionBatcher batcher = new VisionBatcher(this::annotate, 16, 10);
+
+    AnnotateImageResponse response = batcher.annotate(request(5)).get(5, TimeUnit.SECONDS);
+
+    assertEquals(5, response.getSafeSearchAnnotation().getAdultValue());
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void sendsFullBatchWithoutWaiting() throws Exception {
+    // A delay that the test would time out waiting for.
+    VisionBatcher batcher = new VisionBatcher(this::annotate, 4, 60_000);
+
+    List<CompletableFuture<AnnotateImageResponse>> responses = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      responses.add(batcher.annotate(request(i)));
+    }
+
+    for (int i = 0; i < 4; i++) {
+      assertEquals(
+          i, responses.get(i).get(5, TimeUnit.SECONDS).getSafeSearchAnnotation().getAdultValue());
+    }
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void failsEveryRequestOfFailedBatch() throws Exception {
+    VisionBatcher batcher =
+        new VisionBatcher(
+            requests -> {
+              throw new IllegalStateException("quota exceeded");
+            },
+            16,
+            10);
+
+    List<CompletableFuture<AnnotateImageResponse>> responses = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      responses.add(batcher.annotate(request(i)));
+    }
+
+    for (CompletableFuture<AnnotateImageResponse> response : responses) {
+      try {
+        response.get(5, TimeUnit.SECONDS);
+        fail("Expected the request to fail");
+      } catch (ExecutionException e) {
+        assertEquals("quota exceeded", e.getCause().getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void failsWhenResponsesAreMissing() throws Exception {
+    VisionBatcher batcher =
+        new VisionBatcher(requests -> new ArrayList<>(), VisionBatcher.MAX_BATCH_SIZE, 10);
+
+    try {
+      batcher.annotate(request(1)).get(5, TimeUnit.SECONDS);
+      fail("Expected the request to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  public void batchesUploadBurst() throws Exception {
+    VisionBatcher batcher = new VisionBatcher(this::annotate, VisionBatcher.MAX_BATCH_SIZE, 20);
+    // Pub/Sub pushes the notifications of a burst of uploads concurrently.
+    int uploads = 160;
+    ExecutorService pushes = Executors.newFixedThreadPool(80);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < uploads; i++) {
+      int index = i;
+      results.add(
+          pushes.submit(
+              () -> {
+                start.await();
+                return batcher
+                    .annotate(request(index))
+                    .get(5, TimeUnit.SECONDS)
+                    .getSafeSearchAnnotation()
+                    .getAdultValue();
+              }));
+    }
+    start.countDown();
+    for (int i = 0; i < uploads; i++) {
+      assertEquals(i % 6, (int) results.get(i).get());
+    }
+    pushes.shutdown();
+
+    assertTrue("calls " + calls.get(), calls.get() <= uploads / 4);
+    for (int batchSize : batchSizes) {
+      assertTrue("batch size " + batchSize, batchSize <= VisionBatcher.MAX_BATCH_SIZE);
+    }
+  }
+}
@@ -16,11 +16,20 @@
 
 package com.example.cloudrun;
 
+import com.google.auth.RequestMetadataCallback;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.auth.oauth2.IdTokenCredentials;
 import com.google.auth.oauth2.IdTokenProvider;
 import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -37,10 +46,13 @@ public class RenderController {
   private static final Logger logger = LoggerFactory.getLogger(RenderController.class);
 
   // [START cloudrun_secure_request_do]
+  // The renders in flight, so that identical concurrent requests share one upstream call.
+  private final SingleFlight<List<String>, String> renders = new SingleFlight<>();
+
   // '/render' expects a JSON body payload with a 'data' property holding plain text
   // for rendering.
   @PostMapping(value = "/render", consumes = "application/json")
-  public String render(@RequestBody Data data) {
+  public CompletableFuture<String> render(@RequestBody Data data) {
     String markdown = data.getData();
 
     String url = System.getenv("EDITOR_UPSTREAM_RENDER_URL");
@@ -52,50 +64,126 @@ public class RenderController {
       throw new IllegalStateException(msg);
     }
 
-    String html = makeAuthenticatedRequest(url, markdown);
-    return html;
+    // The request thread is released while the upstream call is in flight.
+    return renders.call(List.of(url, markdown), () -> makeAuthenticatedRequest(url, markdown));
   }
   // [END cloudrun_secure_request_do]
 
-  // Instantiate OkHttpClient
-  private static final OkHttpClient ok =
-      new OkHttpClient.Builder()
-          .readTimeout(500, TimeUnit.MILLISECONDS)
-          .writeTimeout(500, TimeUnit.MILLISECONDS)
-          .build();
+  // Instantiate OkHttpClient. Calls are asynchronous, so allow more than the default of 5
+  // concurrent calls to the renderer.
+  private static final OkHttpClient ok = newClient();
+
+  private static OkHttpClient newClient() {
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(256);
+    dispatcher.setMaxRequestsPerHost(64);
+    return new OkHttpClient.Builder()
+        .dispatcher(dispatcher)
+        .readTimeout(500, TimeUnit.MILLISECONDS)
+        .writeTimeout(500, TimeUnit.MILLISECONDS)
+        .build();
+  }
 
   // [START cloudrun_secure_request]
+  /** Returns the provider of the ID tokens used to call the renderer. */
+  interface IdTokenProviderFactory {
+    IdTokenProvider create() throws IOException;
+  }
+
+  private final IdTokenProviderFactory idTokenProviderFactory;
+  // The credentials of each upstream URL, which cache their ID token and refresh it before it
+  // expires.
+  private final Map<String, IdTokenCredentials> tokenCredentials = new ConcurrentHashMap<>();
+
+  public RenderController() {
+    // Retrieve Application Default Credentials
+    this(() -> (IdTokenProvider) GoogleCredentials.getApplicationDefault());
+  }
+
+  RenderController(IdTokenProviderFactory idTokenProviderFactory) {
+    this.idTokenProviderFactory = idTokenProviderFactory;
+  }
+
   // makeAuthenticatedRequest creates a new HTTP request authenticated by a JSON Web Tokens (JWT)
   // retrievd from Application Default Credentials.
-  public String makeAuthenticatedRequest(String url, String markdown) {
-    String html = "";
+  public CompletableFuture<String> makeAuthenticatedRequest(String url, String markdown) {
+    CompletableFuture<String> html = new CompletableFuture<>();
     try {
-      // Retrieve Application Default Credentials
-      GoogleCredentials credentials = GoogleCredentials.getApplicationDefault();
-      IdTokenCredentials tokenCredentials =
-          IdTokenCredentials.newBuilder()
-              .setIdTokenProvider((IdTokenProvider) credentials)
-              .setTargetAudience(url)
-              .build();
+      // The cached ID token is returned right away. It is refreshed in the background shortly
+      // before it expires, and fetched before the call only if it has expired.
+      getTokenCredentials(url)
+          .getRequestMetadata(
+              URI.create(url),
+              ok.dispatcher().executorService(),
+              new RequestMetadataCallback() {
+                @Override
+                public void onSuccess(Map<String, List<String>> metadata) {
+                  call(url, markdown, metadata, html);
+                }
 
-      // Create an ID token
-      String token = tokenCredentials.refreshAccessToken().getTokenValue();
-      // Instantiate HTTP request
-      MediaType contentType = MediaType.get("text/plain; charset=utf-8");
-      okhttp3.RequestBody body = okhttp3.RequestBody.create(markdown, contentType);
-      Request request =
-          new Request.Builder()
-              .url(url)
-              .addHeader("Authorization", "Bearer " + token)
-              .post(body)
-              .build();
-
-      Response response = ok.newCall(request).execute();
-      html = response.body().string();
+                @Override
+                public void onFailure(Throwable e) {
+                  logger.error("Unable to get rendered data", e);
+                  html.complete("");
+                }
+              });
     } catch (IOException e) {
       logger.error("Unable to get rendered data", e);
+      html.complete("");
     }
     return html;
   }
+
+  private IdTokenCredentials getTokenCredentials(String url) throws IOException {
+    IdTokenCredentials credentials = tokenCredentials.get(url);
+    if (credentials == null) {
+      credentials =
+          IdTokenCredentials.newBuilder()
+              .setIdTokenProvider(idTokenProviderFactory.create())
+              .setTargetAudience(url)
+              .build();
+      IdTokenCredentials previous = tokenCredentials.putIfAbsent(url, credentials);
+      if (previous != null) {
+        credentials = previous;
+      }
+    }
+    return credentials;
+  }
+
+  private void call(
+      String url,
+      String markdown,
+      Map<String, List<String>> metadata,
+      CompletableFuture<String> html) {
+    // Instantiate HTTP request
+    MediaType contentType = MediaType.get("text/plain; charset=utf-8");
+    okhttp3.RequestBody body = okhttp3.RequestBody.create(markdown, contentType);
+    Request.Builder request = new Request.Builder().url(url).post(body);
+    // Adds the "Authorization: Bearer" header with the ID token.
+    for (Map.Entry<String, List<String>> header : metadata.entrySet()) {
+      for (String value : header.getValue()) {
+        request.addHeader(header.getKey(), value);
+      }
+    }
+
+    ok.newCall(request.build())
+        .enqueue(
+            new Callback() {
+              @Override
+              public void onResponse(Call call, Response response) {
+                try (response) {
+                  html.complete(response.body().string());
+                } catch (IOException e) {
+                  onFailure(call, e);
+                }
+              }
+
+              @Override
+              public void onFailure(Call call, IOException e) {
+                logger.error("Unable to get rendered data", e);
+                html.complete("");
+              }
+            });
+  }
   // [END cloudrun_secure_request]
 }
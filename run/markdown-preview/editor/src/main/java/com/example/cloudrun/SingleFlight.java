@@ -0,0 +1,51 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudrun;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// Shares one call between the identical requests that are in flight at the same time. Nothing is
+// kept once the call completes.
+class SingleFlight<K, V> {
+  private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  CompletableFuture<V> call(K key, Supplier<CompletableFuture<V>> call) {
+    CompletableFuture<V> created = new CompletableFuture<>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+    if (existing != null) {
+      return existing;
+    }
+    created.whenComplete((result, e) -> inFlight.remove(key, created));
+    try {
+      call.get()
+          .whenComplete(
+              (result, e) -> {
+                if (e != null) {
+                  created.completeExceptionally(e);
+                } else {
+                  created.complete(result);
+                }
+              });
+    } catch (RuntimeException e) {
+      created.completeExceptionally(e);
+    }
+    return created;
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudrun;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.auth.oauth2.IdToken;
+import com.google.auth.oauth2.IdTokenProvider;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Tests {@link RenderController} against a local stub of the renderer service. */
+class RenderControllerUpstreamTests {
+
+  private final AtomicInteger upstreamCalls = new AtomicInteger();
+  private final AtomicInteger tokensIssued = new AtomicInteger();
+  private final Set<String> authorizations = ConcurrentHashMap.newKeySet();
+  private final ExecutorService serverThreads = Executors.newFixedThreadPool(16);
+  private HttpServer server;
+  private String url;
+  private RenderController controller;
+  private final SingleFlight<List<String>, String> renders = new SingleFlight<>();
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext(
+        "/",
+        exchange -> {
+          upstreamCalls.incrementAndGet();
+          authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+          String markdown =
+              new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+          try {
+            // The time the renderer takes to render a document.
+            Thread.sleep(20);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          byte[] html = ("<p>" + markdown + "</p>").getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, html.length);
+          try (OutputStream body = exchange.getResponseBody()) {
+            body.write(html);
+          }
+        });
+    server.setExecutor(serverThreads);
+    server.start();
+    url = "http://localhost:" + server.getAddress().getPort() + "/";
+    controller = new RenderController(() -> idTokenProvider());
+  }
+
+  @AfterEach
+  public void tearDown() {
+    server.stop(0);
+    serverThreads.shutdown();
+  }
+
+  // Issues unsigned ID tokens that expire in an hour.
+  private IdTokenProvider idTokenProvider() {
+    return (audience, options) -> {
+      tokensIssued.incrementAndGet();
+      long now = System.currentTimeMillis() / 1000;
+      Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+      String header = "{\"alg\":\"RS256\",\"typ\":\"JWT\"}";
+      String payload =
+          String.format("{\"aud\":\"%s\",\"iat\":%d,\"exp\":%d}", audience, now, now + 3600);
+      return IdToken.create(
+          encoder.encodeToString(header.getBytes(StandardCharsets.UTF_8))
+              + "."
+              + encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8))
+              + "."
+              + encoder.encodeToString("signature".getBytes(StandardCharsets.UTF_8)));
+    };
+  }
+
+  // Renders the Markdown as the /render endpoint does.
+  private CompletableFuture<String> render(String markdown) {
+    return renders.call(
+        List.of(url, markdown), () -> controller.makeAuthenticatedRequest(url, markdown));
+  }
+
+  @Test
+  public void reusesIdToken() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      String markdown = "**" + i + "**";
+      assertEquals(
+          "<p>" + markdown + "</p>",
+          controller.makeAuthenticatedRequest(url, markdown).get(5, TimeUnit.SECONDS));
+    }
+
+    assertEquals(1, tokensIssued.get());
+    assertEquals(20, upstreamCalls.get());
+    assertEquals(1, authorizations.size());
+    assertTrue(authorizations.iterator().next().startsWith("Bearer ey"));
+  }
+
+  @Test
+  public void collapsesIdenticalConcurrentRenders() throws Exception {
+    List<CompletableFuture<String>> results = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      results.add(render("# Same document"));
+    }
+    for (CompletableFuture<String> render : results) {
+      assertEquals("<p># Same document</p>", render.get(5, TimeUnit.SECONDS));
+    }
+
+    assertEquals(1, upstreamCalls.get());
+
+    // Renders that are no longer in flight call the renderer again.
+    render("# Same document").get(5, TimeUnit.SECONDS);
+    assertEquals(2, upstreamCalls.get());
+  }
+
+  @Test
+  public void rendersConcurrentTypingSessions() throws Exception {
+    // Each session types a document of its own, and renders it after every keystroke.
+    int sessions = 8;
+    int keystrokes = 40;
+    ExecutorService typists = Executors.newFixedThreadPool(sessions);
+    List<Future<Integer>> rendered = new ArrayList<>();
+    for (int s = 0; s < sessions; s++) {
+      String text = "Session " + s + " types some *Markdown* text.";
+      rendered.add(
+          typists.submit(
+              () -> {
+                for (int k = 0; k < keystrokes; k++) {
+                  String markdown = text.substring(0, 1 + k % text.length());
+                  assertEquals("<p>" + markdown + "</p>", render(markdown).get(5, TimeUnit.SECONDS));
+                }
+                return keystrokes;
+              }));
+    }
+    int total = 0;
+    for (Future<Integer> session : rendered) {
+      total += session.get();
+    }
+    typists.shutdown();
+
+    assertEquals(1, tokensIssued.get());
+    assertEquals(sessions * keystrokes, total);
+  }
+}
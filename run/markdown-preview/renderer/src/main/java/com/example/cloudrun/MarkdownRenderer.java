@@ -0,0 +1,124 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudrun;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.commonmark.Extension;
+import org.commonmark.ext.gfm.strikethrough.StrikethroughExtension;
+import org.commonmark.ext.gfm.tables.TablesExtension;
+import org.commonmark.parser.Parser;
+import org.commonmark.renderer.html.HtmlRenderer;
+import org.owasp.html.PolicyFactory;
+import org.owasp.html.Sanitizers;
+
+/**
+ * Converts Markdown to sanitized HTML.
+ *
+ * <p>The parser, renderer and sanitizer policy are thread-safe, so they are built once and shared
+ * by all requests. The sanitized HTML of recent documents is kept in a least recently used
+ * cache keyed by the SHA-256 hash of the Markdown, since editors send the same document again and
+ * again. The cache holds at most {@code maxCachedChars} characters of HTML.
+ */
+class MarkdownRenderer {
+
+  // Set up HTML renderer
+  // https://github.com/atlassian/commonmark-java#extensions
+  private static final List<Extension> EXTENSIONS =
+      Arrays.asList(TablesExtension.create(), StrikethroughExtension.create());
+
+  // Use prepackaged policies to sanitize HTML. Cusomized and tighter standards
+  // are recommended.
+  private static final PolicyFactory POLICY =
+      Sanitizers.FORMATTING
+          .and(Sanitizers.BLOCKS)
+          .and(Sanitizers.LINKS)
+          .and(Sanitizers.IMAGES)
+          .and(Sanitizers.TABLES);
+
+  private final Parser parser = Parser.builder().extensions(EXTENSIONS).build();
+  private final HtmlRenderer renderer = HtmlRenderer.builder().extensions(EXTENSIONS).build();
+  private final long maxCachedChars;
+  private final LinkedHashMap<String, String> cache = new LinkedHashMap<>(16, 0.75f, true);
+  private long cachedChars;
+  private long hits;
+  private long misses;
+
+  MarkdownRenderer(long maxCachedChars) {
+    this.maxCachedChars = maxCachedChars;
+  }
+
+  /** Returns the sanitized HTML of a Markdown document. */
+  String render(String markdown) {
+    String key = hash(markdown);
+    synchronized (this) {
+      String cached = cache.get(key);
+      if (cached != null) {
+        hits++;
+        return cached;
+      }
+      misses++;
+    }
+    // Render into a buffer sized for the document, then sanitize it once.
+    StringBuilder converted = new StringBuilder(markdown.length() + markdown.length() / 4);
+    renderer.render(parser.parse(markdown), converted);
+    String safeHtml = POLICY.sanitize(converted.toString());
+    put(key, safeHtml);
+    return safeHtml;
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getMisses() {
+    return misses;
+  }
+
+  private synchronized void put(String key, String html) {
+    // Documents larger than a quarter of the cache would evict too much of it.
+    if (html.length() > maxCachedChars / 4) {
+      return;
+    }
+    String previous = cache.put(key, html);
+    if (previous != null) {
+      cachedChars -= previous.length();
+    }
+    cachedChars += html.length();
+    for (Iterator<String> it = cache.values().iterator(); cachedChars > maxCachedChars; ) {
+      cachedChars -= it.next().length();
+      it.remove();
+    }
+  }
+
+  private static String hash(String markdown) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return Base64.getEncoder()
+          .encodeToString(digest.digest(markdown.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform supports SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudrun;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+class MarkdownRendererTest {
+
+  @Test
+  public void rendersTablesAndStrikethrough() {
+    MarkdownRenderer renderer = new MarkdownRenderer(1024);
+
+    assertEquals(
+        "<table><thead><tr><th>a</th></tr></thead><tbody><tr><td>b</td></tr></tbody></table>",
+        renderer.render("| a |\n| - |\n| b |").replace("\n", ""));
+    assertEquals("<p><del>gone</del></p>\n", renderer.render("~~gone~~"));
+  }
+
+  @Test
+  public void cachesRepeatedDocuments() {
+    MarkdownRenderer renderer = new MarkdownRenderer(1024);
+
+    String first = renderer.render("# Title\n\n**strong text**");
+    for (int i = 0; i < 10; i++) {
+      assertSame(first, renderer.render("# Title\n\n**strong text**"));
+    }
+    renderer.render("# Title\n\n**strong text!**");
+
+    assertEquals(2, renderer.getMisses());
+    assertEquals(10, renderer.getHits());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedDocuments() {
+    // The HTML of each document is 36 characters long: there is room for four of them.
+    MarkdownRenderer renderer = new MarkdownRenderer(150);
+
+    for (int i = 1; i <= 4; i++) {
+      renderer.render("document " + i + " .................");
+    }
+    renderer.render("document 1 .................");
+    renderer.render("document 5 .................");
+    // Document 2 was the least recently used, so it was evicted.
+    renderer.render("document 1 .................");
+    renderer.render("document 2 .................");
+
+    assertEquals(6, renderer.getMisses());
+    assertEquals(2, renderer.getHits());
+  }
+}
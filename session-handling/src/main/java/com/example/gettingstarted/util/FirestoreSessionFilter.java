@@ -16,23 +16,17 @@
 package com.example.gettingstarted.util;
 
 import com.example.gettingstarted.actions.HelloWorldServlet;
-import com.google.cloud.firestore.CollectionReference;
-import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.FirestoreOptions;
-import com.google.cloud.firestore.QueryDocumentSnapshot;
-import com.google.cloud.firestore.QuerySnapshot;
-import com.google.common.collect.Maps;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.SecureRandom;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -50,29 +44,26 @@ import javax.servlet.http.HttpSession;
     filterName = "FirestoreSessionFilter ",
     urlPatterns = {""})
 public class FirestoreSessionFilter implements Filter {
-  private static final SimpleDateFormat dtf = new SimpleDateFormat("yyyyMMddHHmmssSSS");
   private static final Logger logger = Logger.getLogger(HelloWorldServlet.class.getName());
   private static Firestore firestore;
-  private static CollectionReference sessions;
+  private static FirestoreSessionStore sessions;
 
   // [START firestore_sessions_handling_init]
   @Override
   public void init(FilterConfig config) throws ServletException {
-    // Initialize local copy of datastore session variables.
+    // Initialize local copy of datastore session variables. Sessions are read from Firestore
+    // at most every 30 seconds per instance, and changes are written every second.
     firestore = FirestoreOptions.getDefaultInstance().getService();
-    sessions = firestore.collection("sessions");
+    sessions =
+        new FirestoreSessionStore(
+            firestore.collection("sessions"),
+            TimeUnit.SECONDS.toMillis(30),
+            TimeUnit.SECONDS.toMillis(1),
+            TimeUnit.HOURS.toMillis(1));
 
     try {
-      // Delete all sessions unmodified for over two days.
-      Calendar cal = Calendar.getInstance();
-      cal.setTime(new Date());
-      cal.add(Calendar.HOUR, -48);
-      Date twoDaysAgo = Calendar.getInstance().getTime();
-      QuerySnapshot sessionDocs =
-          sessions.whereLessThan("lastModified", dtf.format(twoDaysAgo)).get().get();
-      for (QueryDocumentSnapshot snapshot : sessionDocs.getDocuments()) {
-        snapshot.getReference().delete();
-      }
+      // Delete all sessions unmodified for over two days, in batches.
+      sessions.deleteExpired(TimeUnit.HOURS.toMillis(48));
     } catch (InterruptedException | ExecutionException e) {
       throw new ServletException("Exception initializing FirestoreSessionFilter.", e);
     }
@@ -96,8 +87,8 @@ public class FirestoreSessionFilter implements Filter {
     // identifier.
     String sessionId = getCookieValue(req, "bookshelfSessionId");
     if (sessionId.equals("")) {
-      String sessionNum = new BigInteger(130, new SecureRandom()).toString(32);
-      Cookie session = new Cookie("bookshelfSessionId", sessionNum);
+      sessionId = new BigInteger(130, new SecureRandom()).toString(32);
+      Cookie session = new Cookie("bookshelfSessionId", sessionId);
       session.setPath("/");
       resp.addCookie(session);
     }
@@ -126,11 +117,21 @@ public class FirestoreSessionFilter implements Filter {
       sessionMap.put(attrName, session.getAttribute(attrName));
     }
 
+    // Only the variables that changed are written, in the background.
     logger.info("Saving data to " + sessionId + " with views: " + session.getAttribute("views"));
-    firestore.runTransaction((ob) -> sessions.document(sessionId).set(sessionMap));
+    sessions.save(sessionId, sessionMap);
   }
   // [END firestore_sessions_handling_filter]
 
+  @Override
+  public void destroy() {
+    try {
+      sessions.close();
+    } catch (ExecutionException | InterruptedException e) {
+      logger.log(Level.WARNING, "Exception saving session variables.", e);
+    }
+  }
+
   private String getCookieValue(HttpServletRequest req, String cookieName) {
     Cookie[] cookies = req.getCookies();
     if (cookies != null) {
@@ -153,23 +154,13 @@ public class FirestoreSessionFilter implements Filter {
    */
   private Map<String, Object> loadSessionVariables(HttpServletRequest req)
       throws ExecutionException, InterruptedException {
-    Map<String, Object> datastoreMap = new HashMap<>();
     String sessionId = getCookieValue(req, "bookshelfSessionId");
     if (sessionId.equals("")) {
-      return datastoreMap;
+      return new HashMap<>();
     }
 
-    return firestore
-        .runTransaction(
-            (ob) -> {
-              DocumentSnapshot session = sessions.document(sessionId).get().get();
-              Map<String, Object> data = session.getData();
-              if (data == null) {
-                data = Maps.newHashMap();
-              }
-              return data;
-            })
-        .get();
+    // Served from memory unless the session was not read recently.
+    return sessions.load(sessionId);
   }
   // [END firestore_sessions_load_session_variables]
 }
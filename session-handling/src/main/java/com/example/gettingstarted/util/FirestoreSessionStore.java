@@ -0,0 +1,354 @@
+/* Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.gettingstarted.util;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores session variables in Firestore, with a local cache in front of it.
+ *
+ * <p>A session is read from Firestore at most once per {@code cacheTtlMillis}; other reads are
+ * served from memory. Saving a session only writes the variables that changed since it was
+ * loaded, and nothing at all if none did. Changed variables are not written right away: they are
+ * merged with the other changes of the same session, and all pending changes are committed in
+ * batches every {@code flushIntervalMillis}. Each session document also holds the time it was
+ * last written, which is touched at most once per {@code touchIntervalMillis} for sessions that
+ * are read but not changed, so that active sessions are not deleted as expired.
+ *
+ * <p>Each instance of the app has its own cache, so another instance can read a session up to
+ * {@code cacheTtlMillis} old.
+ */
+public class FirestoreSessionStore implements AutoCloseable {
+  static final String LAST_MODIFIED = "lastModified";
+  // A batched write holds at most 500 operations.
+  static final int MAX_BATCH_SIZE = 500;
+
+  private static final Logger logger = Logger.getLogger(FirestoreSessionStore.class.getName());
+  private static final DateTimeFormatter LAST_MODIFIED_FORMAT =
+      DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS").withZone(ZoneId.systemDefault());
+
+  /** Reads and writes the session documents. */
+  interface Backend {
+    /** Returns the variables of a session, or null if it does not exist. */
+    Map<String, Object> read(String sessionId) throws ExecutionException, InterruptedException;
+
+    /** Merges the given fields into each session document, in at most one batch per call. */
+    void write(Map<String, Map<String, Object>> updates)
+        throws ExecutionException, InterruptedException;
+
+    /** Deletes at most {@code limit} sessions last modified before the given time. */
+    int deleteModifiedBefore(String lastModified, int limit)
+        throws ExecutionException, InterruptedException;
+  }
+
+  private final Backend backend;
+  private final long cacheTtlMillis;
+  private final long touchIntervalMillis;
+  private final LongSupplier clock;
+  private final Map<String, CachedSession> cache = new ConcurrentHashMap<>();
+  // The fields to write per session, with FieldValue.delete() for removed variables.
+  private final Map<String, Map<String, Object>> pending = new HashMap<>();
+  private final ScheduledExecutorService flusher =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "session-flush");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /**
+   * Creates a store of the sessions in a Firestore collection.
+   *
+   * @param sessions the collection of the session documents
+   * @param cacheTtlMillis how long a session read from Firestore is served from memory
+   * @param flushIntervalMillis how often pending changes are written to Firestore
+   * @param touchIntervalMillis how often the last modified time of an unchanged session is written
+   */
+  public FirestoreSessionStore(
+      CollectionReference sessions,
+      long cacheTtlMillis,
+      long flushIntervalMillis,
+      long touchIntervalMillis) {
+    this(
+        new FirestoreBackend(sessions),
+        cacheTtlMillis,
+        flushIntervalMillis,
+        touchIntervalMillis,
+        System::currentTimeMillis);
+  }
+
+  FirestoreSessionStore(
+      Backend backend,
+      long cacheTtlMillis,
+      long flushIntervalMillis,
+      long touchIntervalMillis,
+      LongSupplier clock) {
+    this.backend = backend;
+    this.cacheTtlMillis = cacheTtlMillis;
+    this.touchIntervalMillis = touchIntervalMillis;
+    this.clock = clock;
+    if (flushIntervalMillis > 0) {
+      flusher.scheduleWithFixedDelay(
+          this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Returns the variables of a session, which are empty for a new session. The map must not be
+   * modified.
+   */
+  public Map<String, Object> load(String sessionId)
+      throws ExecutionException, InterruptedException {
+    long now = clock.getAsLong();
+    CachedSession cached = cache.get(sessionId);
+    if (cached != null && now - cached.loadedAt <= cacheTtlMillis) {
+      return cached.variables;
+    }
+    synchronized (this) {
+      // Changes that are not written yet are newer than the document.
+      if (cached != null && pending.containsKey(sessionId)) {
+        return cached.variables;
+      }
+    }
+    Map<String, Object> data = backend.read(sessionId);
+    long lastWritten = 0;
+    Map<String, Object> variables = new HashMap<>();
+    if (data != null) {
+      variables.putAll(data);
+      Object lastModified = variables.remove(LAST_MODIFIED);
+      if (lastModified != null) {
+        lastWritten = parseLastModified(lastModified.toString());
+      }
+    }
+    synchronized (this) {
+      // Do not replace the changes saved while the document was read.
+      if (pending.containsKey(sessionId)) {
+        return cache.get(sessionId).variables;
+      }
+      cached = new CachedSession(Collections.unmodifiableMap(variables), now, lastWritten);
+      cache.put(sessionId, cached);
+      return cached.variables;
+    }
+  }
+
+  /**
+   * Saves the variables of a session. Only the variables that differ from the ones last loaded or
+   * saved are written, after at most one flush interval.
+   */
+  public void save(String sessionId, Map<String, Object> variables) {
+    long now = clock.getAsLong();
+    CachedSession cached = cache.get(sessionId);
+    Map<String, Object> previous = cached == null ? Collections.emptyMap() : cached.variables;
+    Map<String, Object> changes = new HashMap<>();
+    for (Map.Entry<String, Object> entry : variables.entrySet()) {
+      if (!sameValue(previous.get(entry.getKey()), entry.getValue())) {
+        changes.put(entry.getKey(), entry.getValue());
+      }
+    }
+    for (String name : previous.keySet()) {
+      if (!variables.containsKey(name)) {
+        changes.put(name, FieldValue.delete());
+      }
+    }
+    long lastWritten = cached == null ? 0 : cached.lastWritten;
+    if (changes.isEmpty() && now - lastWritten < touchIntervalMillis) {
+      return;
+    }
+    changes.put(LAST_MODIFIED, LAST_MODIFIED_FORMAT.format(Instant.ofEpochMilli(now)));
+    synchronized (this) {
+      pending.computeIfAbsent(sessionId, id -> new HashMap<>()).putAll(changes);
+      cache.put(
+          sessionId,
+          new CachedSession(
+              Collections.unmodifiableMap(new HashMap<>(variables)),
+              cached == null ? now : cached.loadedAt,
+              now));
+    }
+  }
+
+  /** Writes all the pending changes now. */
+  public void flush() throws ExecutionException, InterruptedException {
+    Map<String, Map<String, Object>> updates;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        return;
+      }
+      updates = new HashMap<>(pending);
+      pending.clear();
+    }
+    List<String> sessionIds = new ArrayList<>(updates.keySet());
+    for (int i = 0; i < sessionIds.size(); i += MAX_BATCH_SIZE) {
+      Map<String, Map<String, Object>> batch = new HashMap<>();
+      int end = Math.min(i + MAX_BATCH_SIZE, sessionIds.size());
+      for (String sessionId : sessionIds.subList(i, end)) {
+        batch.put(sessionId, updates.get(sessionId));
+      }
+      try {
+        backend.write(batch);
+      } catch (ExecutionException | InterruptedException | RuntimeException e) {
+        // Write the changes that were not written with the next flush, under the newer ones.
+        synchronized (this) {
+          for (String sessionId : sessionIds.subList(i, sessionIds.size())) {
+            Map<String, Object> changes = new HashMap<>(updates.get(sessionId));
+            Map<String, Object> newer = pending.get(sessionId);
+            if (newer != null) {
+              changes.putAll(newer);
+            }
+            pending.put(sessionId, changes);
+          }
+        }
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Deletes the sessions that were not modified for the given time, in batches.
+   *
+   * @return the number of sessions deleted
+   */
+  public int deleteExpired(long maxAgeMillis) throws ExecutionException, InterruptedException {
+    long cutoff = clock.getAsLong() - maxAgeMillis;
+    String lastModified = LAST_MODIFIED_FORMAT.format(Instant.ofEpochMilli(cutoff));
+    int deleted = 0;
+    int count;
+    do {
+      count = backend.deleteModifiedBefore(lastModified, MAX_BATCH_SIZE);
+      deleted += count;
+    } while (count == MAX_BATCH_SIZE);
+    cache.values().removeIf(session -> session.lastWritten < cutoff);
+    return deleted;
+  }
+
+  /** Writes the pending changes and stops writing in the background. */
+  @Override
+  public void close() throws ExecutionException, InterruptedException {
+    flusher.shutdown();
+    flusher.awaitTermination(10, TimeUnit.SECONDS);
+    flush();
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+      // Forget the sessions that have to be read again anyway.
+      long now = clock.getAsLong();
+      synchronized (this) {
+        cache.entrySet().removeIf(entry -> now - entry.getValue().loadedAt > cacheTtlMillis
+            && !pending.containsKey(entry.getKey()));
+      }
+    } catch (ExecutionException | RuntimeException e) {
+      logger.log(Level.WARNING, "Exception writing session variables.", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Firestore reads whole numbers as Long, while servlets usually store them as Integer.
+  private static boolean sameValue(Object stored, Object value) {
+    if (stored instanceof Number && value instanceof Number
+        && !(stored instanceof Double) && !(value instanceof Double)
+        && !(stored instanceof Float) && !(value instanceof Float)) {
+      return ((Number) stored).longValue() == ((Number) value).longValue();
+    }
+    return Objects.equals(stored, value);
+  }
+
+  private static long parseLastModified(String lastModified) {
+    try {
+      return Instant.from(LAST_MODIFIED_FORMAT.parse(lastModified)).toEpochMilli();
+    } catch (RuntimeException e) {
+      return 0;
+    }
+  }
+
+  private static class CachedSession {
+    private final Map<String, Object> variables;
+    private final long loadedAt;
+    private final long lastWritten;
+
+    CachedSession(Map<String, Object> variables, long loadedAt, long lastWritten) {
+      this.variables = variables;
+      this.loadedAt = loadedAt;
+      this.lastWritten = lastWritten;
+    }
+  }
+
+  private static class FirestoreBackend implements Backend {
+    private final CollectionReference sessions;
+
+    FirestoreBackend(CollectionReference sessions) {
+      this.sessions = sessions;
+    }
+
+    @Override
+    public Map<String, Object> read(String sessionId)
+        throws ExecutionException, InterruptedException {
+      // A single document read is consistent, so it does not need a transaction.
+      DocumentSnapshot session = sessions.document(sessionId).get().get();
+      return session.getData();
+    }
+
+    @Override
+    public void write(Map<String, Map<String, Object>> updates)
+        throws ExecutionException, InterruptedException {
+      WriteBatch batch = sessions.getFirestore().batch();
+      for (Map.Entry<String, Map<String, Object>> update : updates.entrySet()) {
+        batch.set(sessions.document(update.getKey()), update.getValue(), SetOptions.merge());
+      }
+      batch.commit().get();
+    }
+
+    @Override
+    public int deleteModifiedBefore(String lastModified, int limit)
+        throws ExecutionException, InterruptedException {
+      List<QueryDocumentSnapshot> expired =
+          sessions.whereLessThan(LAST_MODIFIED, lastModified).limit(limit).get().get()
+              .getDocuments();
+      if (expired.isEmpty()) {
+        return 0;
+      }
+      WriteBatch batch = sessions.getFirestore().batch();
+      for (QueryDocumentSnapshot snapshot : expired) {
+        batch.delete(snapshot.getReference());
+      }
+      batch.commit().get();
+      return expired.size();
+    }
+  }
+}
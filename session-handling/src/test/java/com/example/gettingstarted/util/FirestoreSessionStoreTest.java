@@ -0,0 +1,192 @@
+/* Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.gettingstarted.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.firestore.FieldValue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link FirestoreSessionStore}, with a fake Firestore and clock. */
+@RunWith(JUnit4.class)
+public class FirestoreSessionStoreTest {
+  private static final long TTL = TimeUnit.SECONDS.toMillis(30);
+  private static final long TOUCH = TimeUnit.HOURS.toMillis(1);
+
+  private final AtomicLong clock = new AtomicLong(1_700_000_000_000L);
+  private final Map<String, Map<String, Object>> documents = new HashMap<>();
+  private final List<Map<String, Map<String, Object>>> writes = new ArrayList<>();
+  private final LinkedList<Integer> deletions = new LinkedList<>();
+  private int reads;
+  private RuntimeException writeFailure;
+  private FirestoreSessionStore store;
+
+  @Before
+  public void setUp() {
+    FirestoreSessionStore.Backend backend =
+        new FirestoreSessionStore.Backend() {
+          @Override
+          public Map<String, Object> read(String sessionId) {
+            reads++;
+            return documents.get(sessionId);
+          }
+
+          @Override
+          public void write(Map<String, Map<String, Object>> updates) {
+            if (writeFailure != null) {
+              throw writeFailure;
+            }
+            writes.add(updates);
+          }
+
+          @Override
+          public int deleteModifiedBefore(String lastModified, int limit) {
+            return deletions.isEmpty() ? 0 : Math.min(limit, deletions.removeFirst());
+          }
+        };
+    // A flush interval of 0 only writes when flush() is called.
+    store = new FirestoreSessionStore(backend, TTL, 0, TOUCH, clock::get);
+  }
+
+  private static Map<String, Object> variables(Object... namesAndValues) {
+    Map<String, Object> variables = new HashMap<>();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      variables.put((String) namesAndValues[i], namesAndValues[i + 1]);
+    }
+    return variables;
+  }
+
+  @Test
+  public void load_readsFirestoreOncePerTtl() throws Exception {
+    documents.put("abc", variables("views", 3L, "lastModified", "20231114221320000"));
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(variables("views", 3L), store.load("abc"));
+      clock.addAndGet(100);
+    }
+    assertEquals(1, reads);
+
+    clock.addAndGet(TTL);
+    store.load("abc");
+    assertEquals(2, reads);
+  }
+
+  @Test
+  public void save_writesOnlyChangedVariables() throws Exception {
+    documents.put("abc", variables("views", 3L, "greeting", "Hello World"));
+    store.load("abc");
+
+    // Firestore reads the whole numbers that servlets store as Integer as Long.
+    store.save("abc", variables("views", 4, "greeting", "Hello World"));
+    store.flush();
+
+    assertEquals(1, writes.size());
+    Map<String, Object> fields = writes.get(0).get("abc");
+    assertEquals(4, fields.get("views"));
+    assertTrue(fields.containsKey(FirestoreSessionStore.LAST_MODIFIED));
+    assertEquals(2, fields.size());
+  }
+
+  @Test
+  public void save_skipsUnchangedSessions() throws Exception {
+    store.save("abc", variables("views", 1));
+    store.flush();
+    writes.clear();
+
+    clock.addAndGet(1000);
+    store.save("abc", variables("views", 1));
+    store.flush();
+    assertEquals(0, writes.size());
+
+    // The last modified time of an unchanged session is written once per touch interval.
+    clock.addAndGet(TOUCH);
+    store.save("abc", variables("views", 1));
+    store.flush();
+    assertEquals(1, writes.size());
+    assertEquals(1, writes.get(0).get("abc").size());
+  }
+
+  @Test
+  public void save_coalescesChangesUntilFlush() throws Exception {
+    for (int i = 1; i <= 10; i++) {
+      store.save("abc", variables("views", i, "greeting", "Hola Mundo"));
+      store.save("def", variables("views", i));
+      assertEquals(variables("views", i), store.load("def"));
+    }
+    store.save("abc", variables("views", 11));
+    store.flush();
+
+    assertEquals(1, writes.size());
+    Map<String, Object> fields = writes.get(0).get("abc");
+    assertEquals(11, fields.get("views"));
+    assertEquals(FieldValue.delete(), fields.get("greeting"));
+    assertEquals(10, writes.get(0).get("def").get("views"));
+    assertEquals(0, reads);
+  }
+
+  @Test
+  public void flush_writesBatchesOfAtMost500Sessions() throws Exception {
+    for (int i = 0; i < 1200; i++) {
+      store.save("session" + i, variables("views", 1));
+    }
+    store.flush();
+
+    assertEquals(3, writes.size());
+    assertEquals(500, writes.get(0).size());
+    assertEquals(200, writes.get(2).size());
+  }
+
+  @Test
+  public void flush_keepsChangesThatFailedToWrite() throws Exception {
+    store.save("abc", variables("views", 1, "greeting", "Hello World"));
+    writeFailure = new IllegalStateException("unavailable");
+    assertThrows(IllegalStateException.class, store::flush);
+
+    writeFailure = null;
+    store.save("abc", variables("views", 2, "greeting", "Hello World"));
+    assertEquals(variables("views", 2, "greeting", "Hello World"), store.load("abc"));
+    store.flush();
+
+    // The failed changes are written with the newer ones.
+    assertEquals(1, writes.size());
+    Map<String, Object> fields = writes.get(0).get("abc");
+    assertEquals(2, fields.get("views"));
+    assertEquals("Hello World", fields.get("greeting"));
+    assertEquals(0, reads);
+  }
+
+  @Test
+  public void deleteExpired_deletesInBatches() throws Exception {
+    deletions.add(500);
+    deletions.add(500);
+    deletions.add(3);
+
+    assertEquals(1003, store.deleteExpired(TimeUnit.HOURS.toMillis(48)));
+    assertTrue(deletions.isEmpty());
+  }
+}
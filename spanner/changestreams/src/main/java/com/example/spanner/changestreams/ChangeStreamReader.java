@@ -0,0 +1,321 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams;
+
+import com.example.spanner.changestreams.PartitionMetadata.State;
+import com.example.spanner.changestreams.model.ChangeStreamRecord;
+import com.example.spanner.changestreams.model.ChildPartition;
+import com.example.spanner.changestreams.model.ChildPartitionsRecord;
+import com.example.spanner.changestreams.model.DataChangeRecord;
+import com.example.spanner.changestreams.model.HeartbeatRecord;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ChangeStreamReader reads all the partitions of a change stream until they end, or until it is
+ * stopped. It:
+ * 1. Executes the initial query, or loads the partitions saved by a previous reader.
+ * 2. Reads every partition on its own thread, passing its data change records to a sink as they
+ *    are received. A sink that blocks stops the partition from reading further.
+ * 3. Starts reading a child partition once all of its parents have been read to the end, which
+ *    covers partitions that are moved, split or merged.
+ * 4. Saves the watermark of every partition at transaction boundaries and heartbeats, so that a
+ *    new reader can resume from there. Records may be delivered more than once after resuming,
+ *    and sinks can deduplicate them by commit timestamp, transaction id and record sequence.
+ */
+public class ChangeStreamReader {
+
+  /** Receives the records of a change stream query. */
+  public interface RecordConsumer {
+    void accept(ChangeStreamRecord record) throws InterruptedException;
+  }
+
+  /**
+   * Executes a change stream query, passing each record to the consumer as it is received. For the
+   * initial query, partitionToken is null.
+   */
+  public interface PartitionQuery {
+    void execute(String partitionToken, Timestamp startTimestamp, Timestamp endTimestamp,
+        RecordConsumer consumer) throws InterruptedException;
+  }
+
+  /**
+   * Receives the data change records of all partitions. It is called concurrently from the thread
+   * of each partition, and may block to slow the partition down.
+   */
+  public interface Sink {
+    void write(String partitionToken, DataChangeRecord record) throws InterruptedException;
+  }
+
+  /**
+   * Returns a query that executes the same change stream query as {@link
+   * ChangeStreamSample#executeChangeStreamQueryAndPrint}, but passes each record to the consumer as
+   * it is received instead of collecting them, so that it can read a change stream without an end
+   * timestamp.
+   *
+   * @param dbClient the client of the database that holds the change stream
+   * @param changeStreamName the name of the change stream
+   * @return the query to construct a reader with
+   */
+  public static PartitionQuery partitionQuery(DatabaseClient dbClient, String changeStreamName) {
+    final String query =
+        String.format("SELECT * FROM READ_%s ("
+          + "start_timestamp => @startTimestamp,"
+          + "end_timestamp => @endTimestamp,"
+          + "partition_token => @partitionToken,"
+          + "heartbeat_milliseconds => @heartbeatMillis"
+          + ")", changeStreamName);
+    final ChangeStreamRecordMapper changeStreamRecordMapper = new ChangeStreamRecordMapper();
+    return (partitionToken, startTimestamp, endTimestamp, consumer) -> {
+      try (ResultSet resultSet =
+          dbClient
+            .singleUse()
+            .executeQuery(
+              Statement.newBuilder(query)
+                .bind("startTimestamp").to(startTimestamp)
+                .bind("endTimestamp").to(endTimestamp)
+                .bind("partitionToken").to(partitionToken)
+                .bind("heartbeatMillis").to(5000)
+                .build())) {
+        while (resultSet.next()) {
+          final List<ChangeStreamRecord> records =
+              changeStreamRecordMapper.toChangeStreamRecords(resultSet.getCurrentRowAsStruct());
+          for (final ChangeStreamRecord record : records) {
+            // Blocks reading further rows while the consumer is busy.
+            consumer.accept(record);
+          }
+        }
+      }
+    };
+  }
+
+  private final PartitionQuery query;
+  private final Sink sink;
+  private final PartitionCheckpointStore checkpointStore;
+  private final Timestamp endTimestamp;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final ConcurrentMap<String, PartitionMetadata> partitions = new ConcurrentHashMap<>();
+  private final AtomicInteger runningPartitions = new AtomicInteger();
+  private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+  /**
+   * Constructs a reader.
+   *
+   * @param query executes the change stream queries
+   * @param sink receives the data change records
+   * @param checkpointStore saves the partition watermarks
+   * @param endTimestamp the timestamp to read the change stream up to, or null to read it until
+   *     {@link #stop()} is called
+   */
+  public ChangeStreamReader(PartitionQuery query, Sink sink,
+      PartitionCheckpointStore checkpointStore, Timestamp endTimestamp) {
+    this.query = query;
+    this.sink = sink;
+    this.checkpointStore = checkpointStore;
+    this.endTimestamp = endTimestamp;
+  }
+
+  /**
+   * Reads the change stream from the given timestamp, or from the saved partitions if there are
+   * any, and blocks until all partitions have been read to the end, {@link #stop()} is called, or
+   * reading a partition fails.
+   *
+   * @param startTimestamp the timestamp to start reading at, if there are no saved partitions
+   */
+  public void run(Timestamp startTimestamp) throws InterruptedException, ExecutionException {
+    // Keeps the reader from completing before the first partitions are scheduled.
+    runningPartitions.incrementAndGet();
+    try {
+      boolean resumed = false;
+      for (PartitionMetadata partition : checkpointStore.load()) {
+        resumed = true;
+        // Partitions that were being read are read again from their watermark.
+        partitions.put(partition.getPartitionToken(), partition.getState() == State.RUNNING
+            ? partition.withState(State.CREATED) : partition);
+      }
+      if (!resumed) {
+        query.execute(null, startTimestamp, endTimestamp, record -> {
+          if (record instanceof ChildPartitionsRecord) {
+            addChildPartitions((ChildPartitionsRecord) record);
+          } else if (record instanceof DataChangeRecord) {
+            throw new IllegalArgumentException("Got unexpected DataChangeRecord from Change "
+                + "Streams initial query");
+          }
+        });
+      }
+      synchronized (this) {
+        scheduleReadyPartitions();
+      }
+    } catch (RuntimeException e) {
+      done.completeExceptionally(e);
+    } finally {
+      partitionDone();
+    }
+    try {
+      done.get();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Stops reading. Partitions that are being read keep their last saved watermark. */
+  public void stop() {
+    done.complete(null);
+    executor.shutdownNow();
+  }
+
+  /**
+   * Returns the lowest watermark of the partitions that have not been read to the end. All records
+   * committed before it have been passed to the sink.
+   *
+   * @return the low watermark, or null if all partitions have been read to the end
+   */
+  public Timestamp getLowWatermark() {
+    Timestamp lowWatermark = null;
+    for (PartitionMetadata partition : partitions.values()) {
+      if (partition.getState() != State.FINISHED
+          && (lowWatermark == null || partition.getWatermark().compareTo(lowWatermark) < 0)) {
+        lowWatermark = partition.getWatermark();
+      }
+    }
+    return lowWatermark;
+  }
+
+  private void readPartition(String partitionToken, Timestamp startTimestamp) {
+    try {
+      query.execute(partitionToken, startTimestamp, endTimestamp,
+          record -> onRecord(partitionToken, record));
+      finishPartition(partitionToken);
+    } catch (Exception e) {
+      done.completeExceptionally(e);
+    } finally {
+      partitionDone();
+    }
+  }
+
+  private void onRecord(String partitionToken, ChangeStreamRecord record)
+      throws InterruptedException {
+    if (record instanceof DataChangeRecord) {
+      DataChangeRecord dataChangeRecord = (DataChangeRecord) record;
+      sink.write(partitionToken, dataChangeRecord);
+      if (dataChangeRecord.isLastRecordInTransactionInPartition()) {
+        checkpoint(partitionToken, dataChangeRecord.getCommitTimestamp());
+      }
+    } else if (record instanceof HeartbeatRecord) {
+      checkpoint(partitionToken, ((HeartbeatRecord) record).getTimestamp());
+    } else if (record instanceof ChildPartitionsRecord) {
+      ChildPartitionsRecord childPartitionsRecord = (ChildPartitionsRecord) record;
+      addChildPartitions(childPartitionsRecord);
+      checkpoint(partitionToken, childPartitionsRecord.getStartTimestamp());
+    } else {
+      // We should never reach here.
+      throw new IllegalArgumentException("Unknown record type " + record.getClass());
+    }
+  }
+
+  private void checkpoint(String partitionToken, Timestamp watermark) {
+    PartitionMetadata partition =
+        partitions.computeIfPresent(partitionToken, (token, p) -> p.withWatermark(watermark));
+    if (partition != null) {
+      checkpointStore.save(partition);
+    }
+  }
+
+  // Registers the children of a partition. A merged partition is returned by each of its parents,
+  // and is only registered the first time.
+  private synchronized void addChildPartitions(ChildPartitionsRecord record) {
+    for (ChildPartition child : record.getChildPartitions()) {
+      if (!partitions.containsKey(child.getToken())) {
+        PartitionMetadata partition = new PartitionMetadata(child.getToken(),
+            child.getParentTokens(), record.getStartTimestamp(), record.getStartTimestamp(),
+            State.CREATED);
+        partitions.put(child.getToken(), partition);
+        checkpointStore.save(partition);
+      }
+    }
+  }
+
+  private synchronized void finishPartition(String partitionToken) {
+    PartitionMetadata partition =
+        partitions.computeIfPresent(partitionToken, (token, p) -> p.withState(State.FINISHED));
+    checkpointStore.save(partition);
+    scheduleReadyPartitions();
+    removeFinishedPartitions();
+  }
+
+  // Starts reading the partitions whose parents have all been read to the end. Parents that are
+  // no longer tracked have been read to the end and removed.
+  private void scheduleReadyPartitions() {
+    for (PartitionMetadata partition : partitions.values()) {
+      if (partition.getState() != State.CREATED || !parentsFinished(partition)) {
+        continue;
+      }
+      PartitionMetadata running = partition.withState(State.RUNNING);
+      partitions.put(running.getPartitionToken(), running);
+      checkpointStore.save(running);
+      runningPartitions.incrementAndGet();
+      executor.execute(
+          () -> readPartition(running.getPartitionToken(), running.getWatermark()));
+    }
+  }
+
+  private boolean parentsFinished(PartitionMetadata partition) {
+    for (String parentToken : partition.getParentTokens()) {
+      PartitionMetadata parent = partitions.get(parentToken);
+      if (parent != null && parent.getState() != State.FINISHED) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Removes the finished partitions that no partition waits for anymore, so that the number of
+  // tracked partitions does not grow with the number of splits and merges.
+  private void removeFinishedPartitions() {
+    Set<String> awaitedTokens = new HashSet<>();
+    for (PartitionMetadata partition : partitions.values()) {
+      if (partition.getState() == State.CREATED) {
+        awaitedTokens.addAll(partition.getParentTokens());
+      }
+    }
+    for (PartitionMetadata partition : partitions.values()) {
+      if (partition.getState() == State.FINISHED
+          && !awaitedTokens.contains(partition.getPartitionToken())) {
+        partitions.remove(partition.getPartitionToken());
+        checkpointStore.delete(partition.getPartitionToken());
+      }
+    }
+  }
+
+  private void partitionDone() {
+    if (runningPartitions.decrementAndGet() == 0) {
+      done.complete(null);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores the {@link PartitionMetadata} of the partitions a {@link ChangeStreamReader} is reading,
+ * so that a new reader can resume from the saved watermarks. Implementations must be thread-safe,
+ * as every partition saves its own watermark from its own thread.
+ */
+public interface PartitionCheckpointStore {
+
+  /**
+   * Loads the partitions saved by a previous reader.
+   *
+   * @return the saved partitions, empty if there are none
+   */
+  Collection<PartitionMetadata> load();
+
+  /**
+   * Saves the metadata of a partition, replacing the metadata previously saved for it.
+   *
+   * @param partition the partition metadata
+   */
+  void save(PartitionMetadata partition);
+
+  /**
+   * Deletes a finished partition that no other partition depends on anymore.
+   *
+   * @param partitionToken the partition token
+   */
+  void delete(String partitionToken);
+
+  /** A checkpoint store that keeps the partitions in memory, for a single reader. */
+  class InMemory implements PartitionCheckpointStore {
+    private final Map<String, PartitionMetadata> partitions = new ConcurrentHashMap<>();
+
+    @Override
+    public Collection<PartitionMetadata> load() {
+      return new ArrayList<>(partitions.values());
+    }
+
+    @Override
+    public void save(PartitionMetadata partition) {
+      partitions.put(partition.getPartitionToken(), partition);
+    }
+
+    @Override
+    public void delete(String partitionToken) {
+      partitions.remove(partitionToken);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams;
+
+import com.google.cloud.Timestamp;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Objects;
+
+/**
+ * The state of a change stream partition tracked by {@link ChangeStreamReader}: where the
+ * partition came from, how far it has been read and whether it is still being read.
+ */
+public class PartitionMetadata implements Serializable {
+
+  /** The lifecycle of a partition. */
+  public enum State {
+    /** The partition is known, but some of its parents have not been read to the end yet. */
+    CREATED,
+    /** The partition is being read. */
+    RUNNING,
+    /** The partition has been read to the end. */
+    FINISHED
+  }
+
+  private final String partitionToken;
+  // This needs to be an implementation (HashSet), instead of the Set interface, for the same
+  // reason as in ChildPartition.
+  private final HashSet<String> parentTokens;
+  private final Timestamp startTimestamp;
+  private final Timestamp watermark;
+  private final State state;
+
+  /**
+   * Constructs the metadata of a partition.
+   *
+   * @param partitionToken the partition token
+   * @param parentTokens the tokens of the partitions this partition originated from, empty for the
+   *     partitions returned by the initial query
+   * @param startTimestamp the timestamp the partition started being valid
+   * @param watermark the timestamp up to which all the records of the partition have been read
+   * @param state the lifecycle state of the partition
+   */
+  public PartitionMetadata(
+      String partitionToken,
+      HashSet<String> parentTokens,
+      Timestamp startTimestamp,
+      Timestamp watermark,
+      State state) {
+    this.partitionToken = partitionToken;
+    this.parentTokens = parentTokens;
+    this.startTimestamp = startTimestamp;
+    this.watermark = watermark;
+    this.state = state;
+  }
+
+  /**
+   * Unique partition identifier, which can be used to perform a change stream query.
+   *
+   * @return the partition token
+   */
+  public String getPartitionToken() {
+    return partitionToken;
+  }
+
+  /**
+   * The tokens of the partitions this partition originated from. A partition is only read once all
+   * of its parents have been read to the end.
+   *
+   * @return a set of parent partition tokens
+   */
+  public HashSet<String> getParentTokens() {
+    return parentTokens;
+  }
+
+  /**
+   * The timestamp the partition started being valid.
+   *
+   * @return the start timestamp of the partition
+   */
+  public Timestamp getStartTimestamp() {
+    return startTimestamp;
+  }
+
+  /**
+   * The timestamp up to which all the records of the partition have been read. Reading the
+   * partition again starts at this timestamp, so records committed at exactly this timestamp may
+   * be delivered twice.
+   *
+   * @return the watermark of the partition
+   */
+  public Timestamp getWatermark() {
+    return watermark;
+  }
+
+  /**
+   * The lifecycle state of the partition.
+   *
+   * @return the state of the partition
+   */
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * Returns a copy of this metadata with the given watermark.
+   *
+   * @param newWatermark the new watermark
+   * @return the updated metadata
+   */
+  public PartitionMetadata withWatermark(Timestamp newWatermark) {
+    return new PartitionMetadata(partitionToken, parentTokens, startTimestamp, newWatermark, state);
+  }
+
+  /**
+   * Returns a copy of this metadata with the given state.
+   *
+   * @param newState the new state
+   * @return the updated metadata
+   */
+  public PartitionMetadata withState(State newState) {
+    return new PartitionMetadata(partitionToken, parentTokens, startTimestamp, watermark, newState);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof PartitionMetadata)) {
+      return false;
+    }
+    PartitionMetadata that = (PartitionMetadata) o;
+    return Objects.equals(partitionToken, that.partitionToken)
+        && Objects.equals(parentTokens, that.parentTokens)
+        && Objects.equals(startTimestamp, that.startTimestamp)
+        && Objects.equals(watermark, that.watermark)
+        && state == that.state;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(partitionToken, parentTokens, startTimestamp, watermark, state);
+  }
+
+  @Override
+  public String toString() {
+    return "PartitionMetadata{"
+        + "partitionToken='"
+        + partitionToken
+        + '\''
+        + ", parentTokens="
+        + parentTokens
+        + ", startTimestamp="
+        + startTimestamp
+        + ", watermark="
+        + watermark
+        + ", state="
+        + state
+        + '}';
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.changestreams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.spanner.changestreams.model.ChangeStreamRecord;
+import com.example.spanner.changestreams.model.ChildPartition;
+import com.example.spanner.changestreams.model.ChildPartitionsRecord;
+import com.example.spanner.changestreams.model.DataChangeRecord;
+import com.example.spanner.changestreams.model.HeartbeatRecord;
+import com.example.spanner.changestreams.model.ModType;
+import com.example.spanner.changestreams.model.ValueCaptureType;
+import com.google.cloud.Timestamp;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for ChangeStreamReader, with partitions that split and merge:
+ * the initial query returns A and B, A splits into C and D, and B and D merge into E.
+ */
+@RunWith(JUnit4.class)
+public class ChangeStreamReaderTest {
+  private static final String INITIAL = "initial";
+
+  private static final Map<String, List<ChangeStreamRecord>> PARTITIONS =
+      ImmutableMap.<String, List<ChangeStreamRecord>>builder()
+          .put(INITIAL, ImmutableList.of(
+              children(0, new ChildPartition("A", new HashSet<>()),
+                  new ChildPartition("B", new HashSet<>()))))
+          .put("A", ImmutableList.of(
+              data(1, "a1"), data(2, "a2"),
+              children(3, new ChildPartition("C", "A"), new ChildPartition("D", "A"))))
+          .put("B", ImmutableList.of(
+              data(1, "b1"), heartbeat(5), data(6, "b6"),
+              children(7, new ChildPartition("E", Sets.newHashSet("B", "D")))))
+          .put("C", ImmutableList.of(data(4, "c4")))
+          .put("D", ImmutableList.of(
+              data(4, "d4"),
+              children(7, new ChildPartition("E", Sets.newHashSet("B", "D")))))
+          .put("E", ImmutableList.of(data(9, "e9")))
+          .build();
+
+  private static Timestamp ts(long seconds) {
+    return Timestamp.ofTimeSecondsAndNanos(seconds, 0);
+  }
+
+  private static ChildPartitionsRecord children(long seconds, ChildPartition... children) {
+    return new ChildPartitionsRecord(ts(seconds), "0", ImmutableList.copyOf(children));
+  }
+
+  private static HeartbeatRecord heartbeat(long seconds) {
+    return new HeartbeatRecord(ts(seconds));
+  }
+
+  private static DataChangeRecord data(long seconds, String transactionId) {
+    return new DataChangeRecord(ts(seconds), transactionId, true, "0", "Singers",
+        Collections.emptyList(), Collections.emptyList(), ModType.INSERT,
+        ValueCaptureType.OLD_AND_NEW_VALUES, 1, 1);
+  }
+
+  private static Timestamp timestampOf(ChangeStreamRecord record) {
+    if (record instanceof DataChangeRecord) {
+      return ((DataChangeRecord) record).getCommitTimestamp();
+    } else if (record instanceof HeartbeatRecord) {
+      return ((HeartbeatRecord) record).getTimestamp();
+    }
+    return ((ChildPartitionsRecord) record).getStartTimestamp();
+  }
+
+  /** Replays the records of each partition from the start timestamp, and logs the queries. */
+  private static class FakeQuery implements ChangeStreamReader.PartitionQuery {
+    final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    final Map<String, Timestamp> startTimestamps = new ConcurrentHashMap<>();
+
+    @Override
+    public void execute(String partitionToken, Timestamp startTimestamp, Timestamp endTimestamp,
+        ChangeStreamReader.RecordConsumer consumer) throws InterruptedException {
+      String token = partitionToken == null ? INITIAL : partitionToken;
+      startTimestamps.put(token, startTimestamp);
+      events.add("start " + token);
+      for (ChangeStreamRecord record : PARTITIONS.get(token)) {
+        if (timestampOf(record).compareTo(startTimestamp) >= 0) {
+          consumer.accept(record);
+        }
+      }
+      events.add("end " + token);
+    }
+  }
+
+  @Test
+  public void run_shouldReadChildPartitionsAfterAllParents() throws Exception {
+    FakeQuery query = new FakeQuery();
+    List<String> transactions = Collections.synchronizedList(new ArrayList<>());
+    PartitionCheckpointStore store = new PartitionCheckpointStore.InMemory();
+    ChangeStreamReader reader = new ChangeStreamReader(
+        query, (token, record) -> transactions.add(record.getServerTransactionId()), store, null);
+
+    reader.run(ts(0));
+
+    assertEquals(
+        Sets.newHashSet("a1", "a2", "b1", "b6", "c4", "d4", "e9"), new HashSet<>(transactions));
+    assertEquals(7, transactions.size());
+    int startE = query.events.indexOf("start E");
+    assertTrue(query.events.toString(), startE > query.events.indexOf("end B"));
+    assertTrue(query.events.toString(), startE > query.events.indexOf("end D"));
+    assertEquals(1, Collections.frequency(query.events, "start E"));
+    assertEquals(ts(7), query.startTimestamps.get("E"));
+    assertNull(reader.getLowWatermark());
+    assertTrue(store.load().isEmpty());
+  }
+
+  @Test
+  public void run_shouldResumeFromSavedWatermarks() throws Exception {
+    PartitionCheckpointStore store = new PartitionCheckpointStore.InMemory();
+    Set<String> transactions = ConcurrentHashMap.newKeySet();
+    ChangeStreamReader failingReader = new ChangeStreamReader(new FakeQuery(), (token, record) -> {
+      if (record.getServerTransactionId().equals("b6")) {
+        throw new IllegalStateException("sink failed");
+      }
+      transactions.add(record.getServerTransactionId());
+    }, store, null);
+    try {
+      failingReader.run(ts(0));
+      fail("Expected the sink failure to stop the reader");
+    } catch (ExecutionException e) {
+      assertEquals("sink failed", e.getCause().getMessage());
+    }
+    assertFalse(store.load().isEmpty());
+
+    FakeQuery query = new FakeQuery();
+    new ChangeStreamReader(
+        query, (token, record) -> transactions.add(record.getServerTransactionId()), store, null)
+        .run(ts(0));
+
+    assertFalse(query.events.contains("start " + INITIAL));
+    // B is read again from its last heartbeat, before the failed record.
+    assertEquals(ts(5), query.startTimestamps.get("B"));
+    assertEquals(Sets.newHashSet("a1", "a2", "b1", "b6", "c4", "d4", "e9"), transactions);
+    assertTrue(store.load().isEmpty());
+  }
+}
@@ -17,24 +17,38 @@
 package com.example.spanner.jdbc;
 
 //[START spanner_jdbc_load_csv]
+import com.google.cloud.ByteArray;
 import com.google.cloud.spanner.Mutation;
 import com.google.cloud.spanner.Mutation.WriteBuilder;
 import com.google.cloud.spanner.Spanner;
 import com.google.cloud.spanner.SpannerOptions;
-import com.google.cloud.spanner.Value;
 import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
 import com.google.spanner.v1.TypeCode;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.Reader;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -48,11 +62,30 @@ class LoadCsvExample {
   static final String EXCEL = "EXCEL";
   static final String POSTGRESQL_CSV = "POSTGRESQL_CSV";
   static final String POSTGRESQL_TEXT = "POSTGRESQL_TEXT";
+  static final Pattern STRING_TYPE = Pattern.compile("(?i)STRING(?:\\((?:MAX|[0-9]+)\\))?");
+  static final Pattern BYTES_TYPE = Pattern.compile("(?i)BYTES(?:\\((?:MAX|[0-9]+)\\))?");
 
   static Boolean hasHeader = false;
   static Connection connection;
   static Map<String, TypeCode> tableColumns = new LinkedHashMap<>();
 
+  // Records are written in chunks that are committed concurrently by a pool of workers.
+  static int workers = 4;
+  static int maxChunkRows = 1000;
+  static long maxChunkBytes = 4L * 1024 * 1024;
+  // File that stores the number of records already committed, used to resume a failed load.
+  static String checkpointFile = null;
+
+  /** Writes a chunk of mutations to Spanner in a single commit **/
+  interface ChunkWriter {
+    void write(List<Mutation> mutations) throws SQLException;
+  }
+
+  /** Sets the value of one column of a mutation from a CSV field **/
+  interface ColumnConverter {
+    void set(WriteBuilder builder, String value);
+  }
+
   static void loadCsv() throws Exception {
     // TODO(developer): Replace these variables before running the sample.
     String projectId = "my-project-id";;
@@ -78,14 +111,20 @@ class LoadCsvExample {
     opt.addOption("n", true, "String Representing Null Value");
     opt.addOption("d", true, "Character Separating Columns");
     opt.addOption("e", true, "Character To Escape");
+    opt.addOption("w", true, "Number Of Chunks Committed Concurrently");
+    opt.addOption("r", true, "Maximum Number Of Rows Per Commit");
+    opt.addOption("b", true, "Maximum Number Of Bytes Per Commit");
+    opt.addOption("c", true, "Checkpoint File Used To Resume A Failed Load");
     CommandLineParser clParser = new DefaultParser();
     CommandLine cmd = clParser.parse(opt, optFlags);
+    setLoadOptions(cmd);
 
+    String connectionUrl =
+        String.format("jdbc:cloudspanner:/projects/%s/instances/%s/databases/%s",
+            projectId, instanceId, databaseId);
     try {
       // Initialize connection to Cloud Spanner
-      connection = DriverManager.getConnection(
-          String.format("jdbc:cloudspanner:/projects/%s/instances/%s/databases/%s",
-              projectId, instanceId, databaseId));
+      connection = DriverManager.getConnection(connectionUrl);
       parseTableColumns(tableName);
 
       try (
@@ -98,7 +137,9 @@ class LoadCsvExample {
         }
 
         // Write CSV record data to Cloud Spanner
-        writeToSpanner(parser, tableName);
+        try (JdbcChunkWriter writer = new JdbcChunkWriter(connectionUrl)) {
+          writeToSpanner(parser, tableName, writer);
+        }
 
       } catch (SQLException e) {
         /* SQLExceptions are thrown when the table name cannot be queried for in the database
@@ -114,9 +155,9 @@ class LoadCsvExample {
 
   /** Return the data type of the column type **/
   static TypeCode parseSpannerDataType(String columnType) {
-    if (columnType.matches("(?i)STRING(?:\\((?:MAX|[0-9]+)\\))?")) {
+    if (STRING_TYPE.matcher(columnType).matches()) {
       return TypeCode.STRING;
-    } else if (columnType.matches("(?i)BYTES(?:\\((?:MAX|[0-9]+)\\))?")) {
+    } else if (BYTES_TYPE.matcher(columnType).matches()) {
       return TypeCode.BYTES;
     } else if (columnType.equalsIgnoreCase("INT64")) {
       return TypeCode.INT64;
@@ -208,74 +249,254 @@ class LoadCsvExample {
     return parseFormat;
   }
 
-  /** Verifies that if file has a header, that the record is mapped to a column header name
-   * and that the record itself is not null **/
-  static boolean validHeaderField(CSVRecord record, String columnName) {
-    return hasHeader && record.isMapped(columnName) && record.get(columnName) != null;
+  /** Initialize chunking, concurrency and checkpoint settings based on option flags **/
+  static void setLoadOptions(CommandLine cmd) {
+    workers = Integer.parseInt(cmd.getOptionValue("w", "4"));
+    maxChunkRows = Integer.parseInt(cmd.getOptionValue("r", "1000"));
+    maxChunkBytes = Long.parseLong(cmd.getOptionValue("b", Long.toString(4L * 1024 * 1024)));
+    if (workers < 1 || maxChunkRows < 1 || maxChunkBytes < 1) {
+      throw new IllegalArgumentException(
+          "Workers, rows and bytes per commit must be positive numbers.");
+    }
+    checkpointFile = cmd.getOptionValue("c");
   }
 
-  /** Verifies that if the file has no header, that the record at the given index is not null **/
-  static boolean validNonHeaderField(CSVRecord record, int index) {
-    return !hasHeader && record.get(index) != null;
+  /** Write CSV file data to Spanner using JDBC Mutation API. Records are streamed into chunks
+   * of at most maxChunkRows rows and maxChunkBytes bytes, which are committed concurrently by
+   * a pool of workers while the file is still being read. **/
+  static void writeToSpanner(CSVParser records, String tableName, ChunkWriter writer)
+      throws IOException, InterruptedException, SQLException {
+    System.out.println("Writing data into table...");
+    RowConverter converter = new RowConverter(
+        tableName, hasHeader ? records.getHeaderNames() : null);
+    Checkpoint checkpoint = new Checkpoint(checkpointFile);
+    long skipRecords = checkpoint.getCommittedRecords();
+    if (skipRecords > 0) {
+      System.out.println("Resuming after record " + skipRecords + ".");
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    // Bounds the number of chunks held in memory to the ones being committed and one queued
+    // chunk per worker.
+    Semaphore chunksInMemory = new Semaphore(2 * workers);
+    AtomicReference<Exception> failure = new AtomicReference<>();
+    List<Mutation> chunk = new ArrayList<>();
+    long chunkBytes = 0;
+    long recordNumber = 0;
+    try {
+      for (CSVRecord record : records) {
+        recordNumber++;
+        if (recordNumber <= skipRecords) {
+          continue;
+        }
+        if (failure.get() != null) {
+          break;
+        }
+        long recordBytes = estimateSize(record);
+        if (!chunk.isEmpty()
+            && (chunk.size() >= maxChunkRows || chunkBytes + recordBytes > maxChunkBytes)) {
+          submitChunk(executor, chunksInMemory, writer, checkpoint, failure, chunk,
+              recordNumber - 1);
+          chunk = new ArrayList<>();
+          chunkBytes = 0;
+        }
+        chunk.add(converter.convert(record));
+        chunkBytes += recordBytes;
+      }
+      if (!chunk.isEmpty() && failure.get() == null) {
+        submitChunk(executor, chunksInMemory, writer, checkpoint, failure, chunk, recordNumber);
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    Exception e = failure.get();
+    if (e != null) {
+      System.out.println("Load stopped after committing " + checkpoint.getCommittedRecords()
+          + " records.");
+      if (e instanceof SQLException) {
+        throw (SQLException) e;
+      }
+      throw new SQLException(e);
+    }
+    checkpoint.delete();
+    System.out.println("Data successfully written into table.");
   }
 
-  /** Write CSV file data to Spanner using JDBC Mutation API **/
-  static void writeToSpanner(Iterable<CSVRecord> records, String tableName)
-      throws SQLException {
-    System.out.println("Writing data into table...");
-    List<Mutation> mutations = new ArrayList<>();
-    for (CSVRecord record : records) {
-      int index = 0;
-      WriteBuilder builder = Mutation.newInsertOrUpdateBuilder(tableName);
-      for (String columnName : tableColumns.keySet()) {
-        // Iterates through columns in order. Assumes in order columns when no headers provided.
-        TypeCode columnType = tableColumns.get(columnName);
-        String recordValue = null;
-        if (validHeaderField(record, columnName)) {
-          recordValue = record.get(columnName).trim();
-        } else if (validNonHeaderField(record, index)) {
-          recordValue = record.get(index).trim();
-          index++;
+  /** Queue a chunk of mutations that ends with the given record number for commit **/
+  static void submitChunk(ExecutorService executor, Semaphore chunksInMemory, ChunkWriter writer,
+      Checkpoint checkpoint, AtomicReference<Exception> failure, List<Mutation> chunk,
+      long lastRecordNumber) throws InterruptedException {
+    long firstRecordNumber = lastRecordNumber - chunk.size() + 1;
+    // Blocks reading the file while all workers are busy and the queue is full.
+    chunksInMemory.acquire();
+    executor.execute(() -> {
+      try {
+        if (failure.get() == null) {
+          writer.write(chunk);
+          checkpoint.committed(firstRecordNumber, lastRecordNumber);
         }
-        if (recordValue != null) {
-          switch (columnType) {
-            case STRING:
-              builder.set(columnName).to(recordValue);
-              break;
-            case BYTES:
-              builder.set(columnName).to(Byte.parseByte(recordValue));
-              break;
-            case INT64:
-              builder.set(columnName).to(Integer.parseInt(recordValue));
-              break;
-            case FLOAT64:
-              builder.set(columnName).to(Float.parseFloat(recordValue));
-              break;
-            case BOOL:
-              builder.set(columnName).to(Boolean.parseBoolean(recordValue));
-              break;
-            case NUMERIC:
-              builder.set(columnName).to(Value.numeric(BigDecimal.valueOf(
-                  Double.parseDouble(recordValue))));
-              break;
-            case DATE:
-              builder.set(columnName).to(com.google.cloud.Date.parseDate(recordValue));
-              break;
-            case TIMESTAMP:
-              builder.set(columnName).to(com.google.cloud.Timestamp.parseTimestamp(recordValue));
-              break;
-            default:
-              System.out.print("Invalid Type. This type is not supported.");
+      } catch (Exception e) {
+        failure.compareAndSet(null, e);
+      } finally {
+        chunksInMemory.release();
+      }
+    });
+  }
+
+  /** Estimate the number of bytes a record adds to a commit **/
+  static long estimateSize(CSVRecord record) {
+    long size = 0;
+    for (String value : record) {
+      if (value != null) {
+        size += value.length();
+      }
+    }
+    return size;
+  }
+
+  /** Return a converter that sets a column of the given type from its CSV representation **/
+  static ColumnConverter columnConverter(String columnName, TypeCode columnType) {
+    switch (columnType) {
+      case STRING:
+        return (builder, value) -> builder.set(columnName).to(value);
+      case BYTES:
+        return (builder, value) -> builder.set(columnName).to(ByteArray.fromBase64(value));
+      case INT64:
+        return (builder, value) -> builder.set(columnName).to(Long.parseLong(value));
+      case FLOAT64:
+        return (builder, value) -> builder.set(columnName).to(Double.parseDouble(value));
+      case BOOL:
+        return (builder, value) -> builder.set(columnName).to(Boolean.parseBoolean(value));
+      case NUMERIC:
+        return (builder, value) -> builder.set(columnName).to(new BigDecimal(value));
+      case DATE:
+        return (builder, value) -> builder.set(columnName).to(
+            com.google.cloud.Date.parseDate(value));
+      case TIMESTAMP:
+        return (builder, value) -> builder.set(columnName).to(
+            com.google.cloud.Timestamp.parseTimestamp(value));
+      default:
+        throw new IllegalArgumentException("Invalid Type. This type is not supported.");
+    }
+  }
+
+  /** Converts CSV records to insert or update mutations. The table columns are bound once per
+   * file to the position of their CSV field and to a converter for their type, so converting a
+   * record is a loop over arrays. **/
+  static class RowConverter {
+    private final String tableName;
+    private final int[] fieldIndexes;
+    private final ColumnConverter[] converters;
+
+    /** Binds each table column to the CSV header with the same name, or to the field at the
+     * same position when the file has no header. Columns missing from the header are not
+     * written. **/
+    RowConverter(String tableName, List<String> csvHeaders) {
+      this.tableName = tableName;
+      List<Integer> indexes = new ArrayList<>();
+      List<ColumnConverter> columnConverters = new ArrayList<>();
+      int position = 0;
+      for (Map.Entry<String, TypeCode> column : tableColumns.entrySet()) {
+        int index = csvHeaders == null ? position : csvHeaders.indexOf(column.getKey());
+        position++;
+        if (index >= 0) {
+          indexes.add(index);
+          columnConverters.add(columnConverter(column.getKey(), column.getValue()));
+        }
+      }
+      fieldIndexes = indexes.stream().mapToInt(Integer::intValue).toArray();
+      converters = columnConverters.toArray(new ColumnConverter[0]);
+    }
+
+    Mutation convert(CSVRecord record) {
+      WriteBuilder builder = Mutation.newInsertOrUpdateBuilder(tableName);
+      int fieldCount = record.size();
+      for (int i = 0; i < fieldIndexes.length; i++) {
+        if (fieldIndexes[i] < fieldCount) {
+          String value = record.get(fieldIndexes[i]);
+          if (value != null) {
+            converters[i].set(builder, value.trim());
           }
         }
       }
-      mutations.add(builder.build());
+      return builder.build();
+    }
+  }
+
+  /** Commits chunks with one JDBC connection per worker thread. Connections to the same
+   * database share the underlying Spanner client and its session pool. **/
+  static class JdbcChunkWriter implements ChunkWriter, AutoCloseable {
+    private final String connectionUrl;
+    private final List<Connection> connections = Collections.synchronizedList(new ArrayList<>());
+    private final ThreadLocal<CloudSpannerJdbcConnection> workerConnection = new ThreadLocal<>();
+
+    JdbcChunkWriter(String connectionUrl) {
+      this.connectionUrl = connectionUrl;
+    }
+
+    @Override
+    public void write(List<Mutation> mutations) throws SQLException {
+      CloudSpannerJdbcConnection spannerConnection = workerConnection.get();
+      if (spannerConnection == null) {
+        Connection workerJdbcConnection = DriverManager.getConnection(connectionUrl);
+        connections.add(workerJdbcConnection);
+        spannerConnection = workerJdbcConnection.unwrap(CloudSpannerJdbcConnection.class);
+        workerConnection.set(spannerConnection);
+      }
+      // Each call commits the mutations in its own transaction in autocommit mode.
+      spannerConnection.write(mutations);
+    }
+
+    @Override
+    public void close() throws SQLException {
+      for (Connection workerJdbcConnection : connections) {
+        workerJdbcConnection.close();
+      }
+    }
+  }
+
+  /** Tracks the number of records at the start of the file that have all been committed.
+   * Chunks may commit out of order, so the count only advances once every earlier chunk has
+   * committed, and it is stored in the checkpoint file, if any, each time it advances. **/
+  static class Checkpoint {
+    private final Path path;
+    private final TreeMap<Long, Long> committedChunks = new TreeMap<>();
+    private long committedRecords;
+
+    Checkpoint(String file) throws IOException {
+      path = file == null ? null : Paths.get(file);
+      if (path != null && Files.exists(path)) {
+        committedRecords = Long.parseLong(
+            new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim());
+      }
+    }
+
+    synchronized long getCommittedRecords() {
+      return committedRecords;
+    }
+
+    synchronized void committed(long firstRecordNumber, long lastRecordNumber)
+        throws IOException {
+      committedChunks.put(firstRecordNumber, lastRecordNumber);
+      long previous = committedRecords;
+      while (!committedChunks.isEmpty() && committedChunks.firstKey() == committedRecords + 1) {
+        committedRecords = committedChunks.pollFirstEntry().getValue();
+      }
+      if (path != null && committedRecords != previous) {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmp, Long.toString(committedRecords).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      }
+    }
+
+    synchronized void delete() throws IOException {
+      if (path != null) {
+        Files.deleteIfExists(path);
+      }
     }
-    CloudSpannerJdbcConnection spannerConnection = connection
-        .unwrap(CloudSpannerJdbcConnection.class);
-    spannerConnection.write(mutations);
-    spannerConnection.close();
-    System.out.println("Data successfully written into table.");
   }
 }
 //[END spanner_jdbc_load_csv]
@@ -346,6 +346,18 @@ public class JdbcExamplesIT {
     assertThat(out).contains("Data successfully written into table.");
   }
 
+  @Test
+  public void loadCsv_withConcurrentChunks_shouldLoadData() throws SQLException {
+    String[] optFlags = {"-h", "true", "-n", "\'nil\'", "-w", "3", "-r", "2"};
+    String out =
+        runExample(
+            () ->
+                LoadCsvExample.loadCsv(
+                    ServiceOptions.getDefaultProjectId(), instanceId, databaseId, "Singers",
+                    "src/test/resources/singers.csv", optFlags));
+    assertThat(out).contains("Data successfully written into table.");
+  }
+
   @Test
   public void partitionedDml_shouldUpdateData() throws SQLException {
     String out =
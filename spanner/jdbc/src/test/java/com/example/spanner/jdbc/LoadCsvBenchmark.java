@@ -0,0 +1,192 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.jdbc;
+
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Mutation.WriteBuilder;
+import com.google.cloud.spanner.Value;
+import com.google.spanner.v1.TypeCode;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the time to parse a synthetic CSV file and convert every record to a mutation with
+ * the precompiled {@link LoadCsvExample.RowConverter}, and with the per-cell column lookups and
+ * type switch that LoadCsvExample used before. The parse benchmark only parses the file, and is
+ * the lower bound of both.
+ *
+ * <p>Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=com.example.spanner.jdbc.LoadCsvBenchmark
+ *
+ * <p>The file has 10M rows by default. Pass a smaller row count to the JMH main class for a
+ * quick run, e.g. {@code -p rows=100000}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+public class LoadCsvBenchmark {
+
+  @Param({"10000000"})
+  public int rows;
+
+  private Path file;
+
+  @Setup
+  public void setup() throws IOException {
+    LoadCsvExample.hasHeader = true;
+    LoadCsvExample.tableColumns.clear();
+    LoadCsvExample.tableColumns.put("SingerId", TypeCode.INT64);
+    LoadCsvExample.tableColumns.put("FirstName", TypeCode.STRING);
+    LoadCsvExample.tableColumns.put("LastName", TypeCode.STRING);
+    LoadCsvExample.tableColumns.put("Revenues", TypeCode.NUMERIC);
+    LoadCsvExample.tableColumns.put("Rating", TypeCode.FLOAT64);
+    LoadCsvExample.tableColumns.put("Active", TypeCode.BOOL);
+    LoadCsvExample.tableColumns.put("BirthDate", TypeCode.DATE);
+
+    file = Files.createTempFile("singers", ".csv");
+    Random random = new Random(42L);
+    try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      out.write("SingerId,FirstName,LastName,Revenues,Rating,Active,BirthDate\n");
+      for (int i = 1; i <= rows; i++) {
+        out.write(String.format("%d,First%d,Last%d,%d.%02d,%.1f,%b,19%02d-%02d-%02d\n",
+            i, random.nextInt(1000), random.nextInt(1000), random.nextInt(1_000_000),
+            random.nextInt(100), random.nextDouble() * 5, random.nextBoolean(),
+            random.nextInt(100), 1 + random.nextInt(12), 1 + random.nextInt(28)));
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  private CSVParser parse() throws IOException {
+    Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+    return CSVParser.parse(in, CSVFormat.DEFAULT.withFirstRecordAsHeader());
+  }
+
+  @Benchmark
+  public void parse(Blackhole blackhole) throws IOException {
+    try (CSVParser parser = parse()) {
+      for (CSVRecord record : parser) {
+        blackhole.consume(record);
+      }
+    }
+  }
+
+  @Benchmark
+  public void compiledConverters(Blackhole blackhole) throws IOException {
+    try (CSVParser parser = parse()) {
+      LoadCsvExample.RowConverter converter =
+          new LoadCsvExample.RowConverter("Singers", parser.getHeaderNames());
+      for (CSVRecord record : parser) {
+        blackhole.consume(converter.convert(record));
+      }
+    }
+  }
+
+  @Benchmark
+  public void perCellSwitch(Blackhole blackhole) throws IOException {
+    try (CSVParser parser = parse()) {
+      for (CSVRecord record : parser) {
+        blackhole.consume(legacyMutation(record, "Singers"));
+      }
+    }
+  }
+
+  // The record conversion LoadCsvExample used before the converters were precompiled.
+  private static Mutation legacyMutation(CSVRecord record, String tableName) {
+    Map<String, TypeCode> tableColumns = LoadCsvExample.tableColumns;
+    int index = 0;
+    WriteBuilder builder = Mutation.newInsertOrUpdateBuilder(tableName);
+    for (String columnName : tableColumns.keySet()) {
+      TypeCode columnType = tableColumns.get(columnName);
+      String recordValue = null;
+      if (LoadCsvExample.hasHeader && record.isMapped(columnName)
+          && record.get(columnName) != null) {
+        recordValue = record.get(columnName).trim();
+      } else if (!LoadCsvExample.hasHeader && record.get(index) != null) {
+        recordValue = record.get(index).trim();
+        index++;
+      }
+      if (recordValue != null) {
+        switch (columnType) {
+          case STRING:
+            builder.set(columnName).to(recordValue);
+            break;
+          case INT64:
+            builder.set(columnName).to(Integer.parseInt(recordValue));
+            break;
+          case FLOAT64:
+            builder.set(columnName).to(Float.parseFloat(recordValue));
+            break;
+          case BOOL:
+            builder.set(columnName).to(Boolean.parseBoolean(recordValue));
+            break;
+          case NUMERIC:
+            builder.set(columnName).to(Value.numeric(BigDecimal.valueOf(
+                Double.parseDouble(recordValue))));
+            break;
+          case DATE:
+            builder.set(columnName).to(com.google.cloud.Date.parseDate(recordValue));
+            break;
+          default:
+            throw new IllegalArgumentException("Unexpected type " + columnType);
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(LoadCsvBenchmark.class.getSimpleName())
+        .build()).run();
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.spanner.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Value;
+import com.google.spanner.v1.TypeCode;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for the record conversion and chunked writes of {@link LoadCsvExample}. */
+@RunWith(JUnit4.class)
+public class LoadCsvExampleTest {
+  private static final int ROWS = 10_000;
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Before
+  public void setUp() {
+    LoadCsvExample.hasHeader = true;
+    LoadCsvExample.tableColumns.clear();
+    LoadCsvExample.tableColumns.put("SingerId", TypeCode.INT64);
+    LoadCsvExample.tableColumns.put("FirstName", TypeCode.STRING);
+    LoadCsvExample.tableColumns.put("LastName", TypeCode.STRING);
+    LoadCsvExample.workers = 4;
+    LoadCsvExample.maxChunkRows = 100;
+    LoadCsvExample.maxChunkBytes = 4L * 1024 * 1024;
+    LoadCsvExample.checkpointFile = null;
+  }
+
+  @After
+  public void tearDown() {
+    LoadCsvExample.hasHeader = false;
+    LoadCsvExample.tableColumns.clear();
+  }
+
+  private static CSVParser singers() throws IOException {
+    StringBuilder csv = new StringBuilder("SingerId,FirstName,LastName\n");
+    for (int i = 1; i <= ROWS; i++) {
+      csv.append(i).append(",First").append(i).append(",Last").append(i).append('\n');
+    }
+    return CSVParser.parse(csv.toString(), CSVFormat.DEFAULT.withFirstRecordAsHeader());
+  }
+
+  private static long singerId(Mutation mutation) {
+    return mutation.asMap().get("SingerId").getInt64();
+  }
+
+  @Test
+  public void writeToSpanner_shouldCommitAllRowsInBoundedChunks() throws Exception {
+    Set<Long> written = ConcurrentHashMap.newKeySet();
+    List<Integer> chunkSizes = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger concurrentWrites = new AtomicInteger();
+    AtomicInteger maxConcurrentWrites = new AtomicInteger();
+    LoadCsvExample.maxChunkBytes = 1000;
+
+    LoadCsvExample.writeToSpanner(singers(), "Singers", mutations -> {
+      maxConcurrentWrites.accumulateAndGet(concurrentWrites.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      chunkSizes.add(mutations.size());
+      for (Mutation mutation : mutations) {
+        written.add(singerId(mutation));
+      }
+      concurrentWrites.decrementAndGet();
+    });
+
+    assertThat(written).hasSize(ROWS);
+    // Every record is about 20 bytes, so the byte limit splits chunks before the row limit.
+    assertThat(Collections.max(chunkSizes)).isLessThan(LoadCsvExample.maxChunkRows);
+    assertThat(maxConcurrentWrites.get()).isAtMost(LoadCsvExample.workers);
+  }
+
+  @Test
+  public void writeToSpanner_shouldResumeAfterLastCommittedChunk() throws Exception {
+    File checkpoint = tempFolder.newFile("singers.checkpoint");
+    checkpoint.delete();
+    LoadCsvExample.checkpointFile = checkpoint.getPath();
+    LoadCsvExample.workers = 1;
+    Set<Long> written = ConcurrentHashMap.newKeySet();
+
+    assertThrows(SQLException.class, () ->
+        LoadCsvExample.writeToSpanner(singers(), "Singers", mutations -> {
+          if (singerId(mutations.get(0)) > 5000) {
+            throw new SQLException("commit failed");
+          }
+          for (Mutation mutation : mutations) {
+            written.add(singerId(mutation));
+          }
+        }));
+    String committed = new String(Files.readAllBytes(checkpoint.toPath()), StandardCharsets.UTF_8);
+    assertThat(committed).isEqualTo("5000");
+
+    List<Long> resumed = Collections.synchronizedList(new ArrayList<>());
+    LoadCsvExample.writeToSpanner(singers(), "Singers", mutations -> {
+      for (Mutation mutation : mutations) {
+        resumed.add(singerId(mutation));
+      }
+    });
+
+    assertThat(Collections.min(resumed)).isEqualTo(5001L);
+    written.addAll(resumed);
+    assertThat(written).hasSize(ROWS);
+    assertThat(checkpoint.exists()).isFalse();
+  }
+
+  @Test
+  public void rowConverter_shouldBindColumnsToHeaderPositions() throws IOException {
+    LoadCsvExample.tableColumns.put("Revenues", TypeCode.NUMERIC);
+    LoadCsvExample.tableColumns.put("Albums", TypeCode.INT64);
+    CSVRecord record = CSVParser.parse(
+        "LastName,Revenues,SingerId,Unknown\nRichards, 104100.00 ,7000000000,x\n",
+        CSVFormat.DEFAULT.withFirstRecordAsHeader()).getRecords().get(0);
+
+    Map<String, Value> values = new LoadCsvExample.RowConverter(
+        "Singers", Arrays.asList("LastName", "Revenues", "SingerId", "Unknown"))
+        .convert(record).asMap();
+
+    assertThat(values).hasSize(3);
+    assertThat(values.get("SingerId").getInt64()).isEqualTo(7000000000L);
+    assertThat(values.get("LastName").getString()).isEqualTo("Richards");
+    assertThat(values.get("Revenues").getNumeric()).isEqualTo(new BigDecimal("104100.00"));
+  }
+
+  @Test
+  public void rowConverter_shouldBindColumnsToFieldPositionsWithoutHeader() throws IOException {
+    LoadCsvExample.tableColumns.put("Picture", TypeCode.BYTES);
+    LoadCsvExample.tableColumns.put("Rating", TypeCode.FLOAT64);
+    CSVRecord record = CSVParser.parse(
+        "1,Marc,nil,AQID,4.5\n", CSVFormat.DEFAULT.withNullString("nil")).getRecords().get(0);
+
+    Map<String, Value> values =
+        new LoadCsvExample.RowConverter("Singers", null).convert(record).asMap();
+
+    assertThat(values.keySet()).containsExactly("SingerId", "FirstName", "Picture", "Rating");
+    assertThat(values.get("Picture").getBytes())
+        .isEqualTo(ByteArray.copyFrom(new byte[] {1, 2, 3}));
+    assertThat(values.get("Rating").getFloat64()).isEqualTo(4.5);
+  }
+}
@@ -19,6 +19,7 @@ package com.google.codelabs;
 import static com.google.cloud.spanner.TransactionRunner.TransactionCallable;
 
 import com.google.api.gax.longrunning.OperationFuture;
+import com.google.cloud.Timestamp;
 import com.google.cloud.spanner.Database;
 import com.google.cloud.spanner.DatabaseAdminClient;
 import com.google.cloud.spanner.DatabaseClient;
@@ -55,6 +56,8 @@ import java.util.concurrent.ThreadLocalRandom;
  * <ul>
  *   <li>Creating a Cloud Spanner database.
  *   <li>Inserting data using a read-write transaction.
+ *   <li>Loading large amounts of data with concurrent blind writes.
+ *   <li>Serving the top scores from an in-memory cache.
  *   <li>Execute SQL queries over data, filtering and ordering by timestamp.
  *   <li>Deleting a Cloud Spanner database.
  * </ul>
@@ -153,6 +156,11 @@ public class App {
   }
 
   static void insertScores(DatabaseClient dbClient) {
+    insertScores(dbClient, null);
+  }
+
+  // Inserts scores, and records them in the cache, if there is one, once they are committed.
+  static void insertScores(DatabaseClient dbClient, LeaderboardCache cache) {
     boolean playerRecordsFound = false;
     ResultSet resultSet =
         dbClient
@@ -161,6 +169,9 @@ public class App {
     while (resultSet.next()) {
       playerRecordsFound = true;
       final long playerId = resultSet.getLong("PlayerId");
+      final String playerName = resultSet.getString("PlayerName");
+      // The scores of the last attempt of the transaction.
+      final List<LeaderboardCache.Entry> scores = new ArrayList<>();
       dbClient
           .readWriteTransaction()
           .run(
@@ -177,6 +188,7 @@ public class App {
                   long start = startDate.toEpochDay();
                   Random r = new Random();
                   List<Statement> stmts = new ArrayList<>();
+                  scores.clear();
                   // Insert 4 score records into the Scores table 
                   // for each player in the Players table.
                   for (int x = 1; x <= 4; x++) {
@@ -202,11 +214,20 @@ public class App {
                         .to(randomInstant.toString())
                         .build();
                     stmts.add(statement);
+                    scores.add(new LeaderboardCache.Entry(playerId, playerName, randomScore,
+                        Timestamp.ofTimeSecondsAndNanos(
+                            randomInstant.getEpochSecond(), randomInstant.getNano())));
                   }
                   transaction.batchUpdate(stmts);
                   return null;
                 }
               });
+      if (cache != null) {
+        for (LeaderboardCache.Entry score : scores) {
+          cache.recordScore(score.getPlayerId(), score.getPlayerName(), score.getScore(),
+              score.getTimestamp());
+        }
+      }
     }
     if (!playerRecordsFound) {
       System.out.println("Parameter 'scores' is invalid since "
@@ -218,6 +239,34 @@ public class App {
     }
   }
 
+  static void load(DatabaseClient dbClient, String[] args) throws InterruptedException {
+    long players = 0;
+    int scoresPerPlayer = 4;
+    int parallelism = 8;
+    long rowsPerSecond = 0;
+    try {
+      players = Long.parseLong(args[3]);
+      if (args.length > 4) {
+        scoresPerPlayer = Integer.parseInt(args[4]);
+      }
+      if (args.length > 5) {
+        parallelism = Integer.parseInt(args[5]);
+      }
+      if (args.length > 6) {
+        rowsPerSecond = Long.parseLong(args[6]);
+      }
+    } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+      System.err.println("load command's 'players', 'scores_per_player', 'parallelism' and "
+          + "'rows_per_second' parameters must be valid integers.");
+      System.exit(1);
+    }
+    // Player ids of the 'insert' command are random numbers from 1,000,000,000, so generated
+    // players start from 1.
+    LeaderboardLoader loader =
+        new LeaderboardLoader(dbClient, 1, players, scoresPerPlayer, parallelism, rowsPerSecond);
+    System.out.println(loader.load());
+  }
+
   static void query(DatabaseClient dbClient) {
     Statement statement = Statement.of(
         "SELECT p.PlayerId, p.PlayerName, s.Score, s.Timestamp "
@@ -274,6 +323,9 @@ public class App {
     System.out.println("Usage:");
     System.out.println("  java -jar leaderboard.jar "
         + "<command> <instance_id> <database_id> [command_option]");
+    System.out.println("  java -jar leaderboard.jar "
+        + "load <instance_id> <database_id> <players> [scores_per_player] [parallelism] "
+        + "[rows_per_second]");
     System.out.println("");
     System.out.println("Examples:");
     System.out.println("  java -jar leaderboard.jar create my-instance example-db");
@@ -284,18 +336,26 @@ public class App {
     System.out.println("  java -jar leaderboard.jar insert my-instance example-db scores");
     System.out.println("      - Insert sample score data into Scores sample Cloud Spanner "
         + "database table.\n");
+    System.out.println("  java -jar leaderboard.jar load my-instance example-db 1000000 100 "
+        + "16 200000");
+    System.out.println("      - Generate 1,000,000 players with 100 scores each, with at most "
+        + "16 concurrent commits and 200,000 rows per second.\n");
     System.out.println("  java -jar leaderboard.jar query my-instance example-db");
     System.out.println("      - Query players with top ten scores of all time.\n");
     System.out.println("  java -jar leaderboard.jar query my-instance example-db 168");
     System.out.println("      - Query players with top ten scores within a timespan "
         + "specified in hours.\n");
+    System.out.println("  java -jar leaderboard.jar loadtest my-instance example-db 30");
+    System.out.println("      - Compare the top ten queries per second with and without an "
+        + "in-memory cache, for 30 seconds each.\n");
     System.out.println("  java -jar leaderboard.jar delete my-instance example-db");
     System.out.println("      - Delete sample Cloud Spanner database.");
     System.exit(1);
   }
 
   public static void main(String[] args) throws Exception {
-    if (!(args.length == 3 || args.length == 4)) {
+    if (!(args.length == 3 || args.length == 4
+        || (args.length >= 4 && args.length <= 7 && "load".equals(args[0])))) {
       printUsageAndExit();
     }
     SpannerOptions options = SpannerOptions.newBuilder().build();
@@ -318,6 +378,9 @@ public class App {
           }
           insert(dbClient, insertType);
           break;
+        case "load":
+          load(dbClient, args);
+          break;
         case "query":
           if (args.length == 4) {
             int timespan = 0;
@@ -332,6 +395,19 @@ public class App {
             query(dbClient);
           }
           break;
+        case "loadtest":
+          int seconds = 30;
+          if (args.length == 4) {
+            try {
+              seconds = Integer.parseInt(args[3]);
+            } catch (NumberFormatException e) {
+              System.err.println("loadtest command's 'seconds' parameter must be a valid "
+                  + "integer.");
+              System.exit(1);
+            }
+          }
+          LeaderboardLoadTest.run(dbClient, seconds, 16);
+          break;
         case "delete":
           delete(dbAdminClient, db);
           break;
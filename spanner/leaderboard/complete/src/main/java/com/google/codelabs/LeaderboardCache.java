@@ -0,0 +1,407 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.codelabs;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the top scores of the leaderboard in memory, for all time and for the last hours, so that
+ * reads do not query the database.
+ *
+ * <p>Each timespan keeps a min-heap of the best scores, which is loaded from the database once,
+ * then updated with the scores recorded through {@link #recordScore}. {@code App.insertScores} and
+ * {@link LeaderboardLoader} record the scores they commit when they are given a cache. Scores
+ * inserted by other processes are only read by {@link #refresh}.
+ *
+ * <p>Scores leave the leaderboards of the last hours as they age, so those keep more scores than
+ * they return. When too few of them are left in the timespan, the leaderboard is loaded again, by
+ * a background check that runs every {@code checkInterval}, or by the next read if the check is
+ * late.
+ */
+public class LeaderboardCache implements AutoCloseable {
+
+  /** The timespan of the all-time leaderboard. */
+  public static final int ALL_TIME = 0;
+
+  // The leaderboards of the last hours keep this many times the number of scores they return.
+  private static final int WINDOW_CAPACITY_FACTOR = 10;
+
+  private static final Comparator<Entry> BY_SCORE =
+      Comparator.comparingLong((Entry entry) -> entry.score)
+          .thenComparing(entry -> entry.timestamp);
+
+  /** Loads the top scores of a timespan from the database. */
+  interface Loader {
+    List<Entry> load(int timespan, int limit);
+  }
+
+  private final Loader loader;
+  private final int size;
+  private final long checkIntervalMillis;
+  private final LongSupplier clock;
+  private final Map<Integer, Board> boards = new HashMap<>();
+  private final ScheduledExecutorService refresher =
+      Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "leaderboard-refresh");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * Creates a cache.
+   *
+   * @param dbClient the client of the leaderboard database
+   * @param size the number of scores returned per leaderboard
+   * @param checkInterval how often the leaderboards of the last hours are checked for scores
+   *     that aged out
+   * @param timespans the timespans in hours, or {@link #ALL_TIME}
+   */
+  public LeaderboardCache(DatabaseClient dbClient, int size, Duration checkInterval,
+      int... timespans) {
+    this((timespan, limit) -> query(dbClient, timespan, limit), size,
+        checkInterval, System::currentTimeMillis, timespans);
+  }
+
+  LeaderboardCache(Loader loader, int size, Duration checkInterval, LongSupplier clock,
+      int... timespans) {
+    this.loader = loader;
+    this.size = size;
+    this.checkIntervalMillis = checkInterval.toMillis();
+    this.clock = clock;
+    for (int timespan : timespans) {
+      boards.put(timespan, new Board(timespan,
+          timespan == ALL_TIME ? size : size * WINDOW_CAPACITY_FACTOR));
+    }
+  }
+
+  /**
+   * Loads all the leaderboards, then reloads the leaderboards of the last hours in the background
+   * when too few of their scores are left in the timespan.
+   */
+  public void start() {
+    refresh();
+    long period = Math.max(1, checkIntervalMillis);
+    refresher.scheduleWithFixedDelay(() -> {
+      try {
+        reloadAgedOut();
+      } catch (RuntimeException e) {
+        // Reads load the leaderboards themselves until a reload succeeds.
+        System.err.println("Error encountered while reloading the leaderboards: " + e);
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /** Loads all the leaderboards from the database, with the scores of other processes. */
+  public void refresh() {
+    for (Board board : boards.values()) {
+      board.load();
+    }
+  }
+
+  // Loads the leaderboards that have too few scores left in their timespan to know the top ones.
+  void reloadAgedOut() {
+    for (Board board : boards.values()) {
+      Snapshot snapshot = board.snapshot;
+      long now = clock.getAsLong();
+      if (snapshot != null && snapshot.top(now) == null) {
+        board.loadIfOlderThan(now);
+      }
+    }
+  }
+
+  /**
+   * Returns the top scores of a timespan, best first.
+   *
+   * @param timespan one of the timespans of the cache, in hours, or {@link #ALL_TIME}
+   */
+  public List<Entry> getTop(int timespan) {
+    Board board = boards.get(timespan);
+    if (board == null) {
+      throw new IllegalArgumentException("Timespan not cached: " + timespan);
+    }
+    Snapshot snapshot = board.snapshot;
+    long now = clock.getAsLong();
+    if (snapshot == null) {
+      // Not loaded yet, unless another read loaded it meanwhile.
+      snapshot = board.loadIfOlderThan(Long.MIN_VALUE);
+    }
+    List<Entry> top = snapshot.top(now);
+    if (top == null) {
+      // Too many scores aged out of the timespan to know the top ones.
+      top = board.loadIfOlderThan(now).top(now);
+    }
+    return top;
+  }
+
+  /**
+   * Adds a score that was inserted into the database to the leaderboards, without querying the
+   * database. Call it once the score is committed.
+   */
+  public void recordScore(long playerId, String playerName, long score, Timestamp timestamp) {
+    Entry entry = new Entry(playerId, playerName, score, timestamp);
+    for (Board board : boards.values()) {
+      board.record(entry);
+    }
+  }
+
+  @Override
+  public void close() {
+    refresher.shutdownNow();
+  }
+
+  static List<Entry> query(DatabaseClient dbClient, int timespan, int limit) {
+    Statement.Builder builder = Statement.newBuilder(
+        "SELECT p.PlayerId, p.PlayerName, s.Score, s.Timestamp "
+            + "FROM Players p "
+            + "JOIN Scores s ON p.PlayerId = s.PlayerId ");
+    if (timespan != ALL_TIME) {
+      builder.append("WHERE s.Timestamp > "
+          + "TIMESTAMP_SUB(CURRENT_TIMESTAMP(), "
+          + "    INTERVAL @Timespan HOUR) ")
+          .bind("Timespan").to(timespan);
+    }
+    Statement statement = builder.append("ORDER BY s.Score DESC LIMIT @Limit")
+        .bind("Limit").to(limit)
+        .build();
+    List<Entry> entries = new ArrayList<>(limit);
+    try (ResultSet resultSet = dbClient.singleUse().executeQuery(statement)) {
+      while (resultSet.next()) {
+        entries.add(new Entry(resultSet.getLong("PlayerId"), resultSet.getString("PlayerName"),
+            resultSet.getLong("Score"), resultSet.getTimestamp("Timestamp")));
+      }
+    }
+    return entries;
+  }
+
+  /** A score of the leaderboard. */
+  public static class Entry {
+    private final long playerId;
+    private final String playerName;
+    private final long score;
+    private final Timestamp timestamp;
+    private String line;
+
+    Entry(long playerId, String playerName, long score, Timestamp timestamp) {
+      this.playerId = playerId;
+      this.playerName = playerName;
+      this.score = score;
+      this.timestamp = timestamp;
+    }
+
+    public long getPlayerId() {
+      return playerId;
+    }
+
+    public String getPlayerName() {
+      return playerName;
+    }
+
+    public long getScore() {
+      return score;
+    }
+
+    public Timestamp getTimestamp() {
+      return timestamp;
+    }
+
+    // A score is identified by the primary key of the Scores table.
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry other = (Entry) o;
+      return playerId == other.playerId && timestamp.equals(other.timestamp);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(playerId, timestamp);
+    }
+
+    /** Returns the line printed by {@code App.query}, which is formatted once. */
+    @Override
+    public String toString() {
+      String line = this.line;
+      if (line == null) {
+        line = String.format("PlayerId: %d  PlayerName: %s  Score: %s  Timestamp: %s",
+            playerId, playerName, String.format("%,d", score),
+            String.valueOf(timestamp).substring(0, 10));
+        this.line = line;
+      }
+      return line;
+    }
+  }
+
+  // The scores of a board when it was published, best first.
+  private class Snapshot {
+    private final int timespan;
+    private final List<Entry> entries;
+    private final long loadedAt;
+    // Whether the board holds all the scores of the timespan, as of the load.
+    private final boolean complete;
+
+    Snapshot(int timespan, List<Entry> entries, long loadedAt, boolean complete) {
+      this.timespan = timespan;
+      this.entries = entries;
+      this.loadedAt = loadedAt;
+      this.complete = complete;
+    }
+
+    // Returns the top scores still in the timespan, or null if they may be missing some.
+    List<Entry> top(long now) {
+      if (timespan == ALL_TIME) {
+        return entries.size() <= size ? entries : entries.subList(0, size);
+      }
+      long after = now - TimeUnit.HOURS.toMillis(timespan);
+      List<Entry> top = new ArrayList<>(size);
+      for (Entry entry : entries) {
+        if (entry.timestamp.toSqlTimestamp().getTime() > after) {
+          top.add(entry);
+          if (top.size() == size) {
+            return Collections.unmodifiableList(top);
+          }
+        }
+      }
+      return complete ? Collections.unmodifiableList(top) : null;
+    }
+  }
+
+  // The scores of one timespan. The heap is only used with the lock of the board held.
+  private class Board {
+    private final int timespan;
+    private final int capacity;
+    private final PriorityQueue<Entry> heap;
+    // The scores recorded before the first load, or since the current load started, which it may
+    // not have read.
+    private final List<Entry> recorded = new ArrayList<>();
+    private final Object loadLock = new Object();
+    private boolean loading;
+    private boolean complete;
+    private volatile Snapshot snapshot;
+
+    Board(int timespan, int capacity) {
+      this.timespan = timespan;
+      this.capacity = capacity;
+      this.heap = new PriorityQueue<>(capacity + 1, BY_SCORE);
+    }
+
+    // Loads the board, unless another thread loaded it after the given time while waiting.
+    Snapshot loadIfOlderThan(long time) {
+      synchronized (loadLock) {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot != null && snapshot.loadedAt > time) {
+          return snapshot;
+        }
+        return load();
+      }
+    }
+
+    // Queries the database without the lock of the board, so that scores can be recorded
+    // meanwhile. Only one load runs at a time.
+    Snapshot load() {
+      synchronized (loadLock) {
+        long loadedAt;
+        synchronized (this) {
+          loadedAt = clock.getAsLong();
+          loading = true;
+        }
+        List<Entry> entries;
+        try {
+          entries = loader.load(timespan, capacity);
+        } catch (RuntimeException e) {
+          synchronized (this) {
+            loading = false;
+            recorded.clear();
+          }
+          throw e;
+        }
+        synchronized (this) {
+          loading = false;
+          heap.clear();
+          heap.addAll(entries);
+          complete = entries.size() < capacity;
+          for (Entry entry : recorded) {
+            add(entry);
+          }
+          recorded.clear();
+          return publish(loadedAt);
+        }
+      }
+    }
+
+    void record(Entry entry) {
+      if (timespan != ALL_TIME && entry.timestamp.toSqlTimestamp().getTime()
+          <= clock.getAsLong() - TimeUnit.HOURS.toMillis(timespan)) {
+        return;
+      }
+      synchronized (this) {
+        if (loading || snapshot == null) {
+          recorded.add(entry);
+        }
+        // Before the first load, the heap lacks the scores of the database, so the score is only
+        // kept for the load to add.
+        if (snapshot != null && add(entry)) {
+          publish(snapshot.loadedAt);
+        }
+      }
+    }
+
+    // Adds a score to the heap if it is one of the best, and returns whether it was.
+    private boolean add(Entry entry) {
+      if (heap.size() == capacity && BY_SCORE.compare(entry, heap.peek()) <= 0) {
+        return false;
+      }
+      for (Iterator<Entry> it = heap.iterator(); it.hasNext(); ) {
+        if (it.next().equals(entry)) {
+          return false;
+        }
+      }
+      heap.add(entry);
+      if (heap.size() > capacity) {
+        heap.poll();
+        // The removed score may be one of the top ones once the others age out.
+        complete = false;
+      }
+      return true;
+    }
+
+    private Snapshot publish(long loadedAt) {
+      List<Entry> entries = new ArrayList<>(heap);
+      entries.sort(BY_SCORE.reversed());
+      snapshot = new Snapshot(timespan, Collections.unmodifiableList(entries), loadedAt, complete);
+      return snapshot;
+    }
+  }
+}
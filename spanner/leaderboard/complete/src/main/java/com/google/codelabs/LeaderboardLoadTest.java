@@ -0,0 +1,106 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.codelabs;
+
+import com.google.cloud.spanner.DatabaseClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Compares the number of leaderboard reads per second when each read queries the database, as
+ * {@code App.query} does, with the reads of a {@link LeaderboardCache}.
+ */
+public class LeaderboardLoadTest {
+
+  static final int[] TIMESPANS = {LeaderboardCache.ALL_TIME, 168, 720};
+
+  /**
+   * Reads the top ten scores of all time, of the last week and of the last 30 days, first from
+   * the database, then from a cache, and prints the reads per second and their latencies.
+   *
+   * @param seconds how long each of the two runs lasts
+   * @param threads the number of threads reading at once
+   */
+  public static void run(DatabaseClient dbClient, int seconds, int threads)
+      throws InterruptedException {
+    System.out.println("Without cache: "
+        + measure(timespan -> LeaderboardCache.query(dbClient, timespan, 10), seconds, threads));
+    try (LeaderboardCache cache =
+        new LeaderboardCache(dbClient, 10, Duration.ofSeconds(10), TIMESPANS)) {
+      cache.start();
+      System.out.println("With cache: " + measure(cache::getTop, seconds, threads));
+    }
+  }
+
+  // Calls read for each timespan in turn on every thread, and returns the results.
+  static String measure(IntFunction<List<LeaderboardCache.Entry>> read, int seconds, int threads)
+      throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    long start = System.nanoTime();
+    long end = start + TimeUnit.SECONDS.toNanos(seconds);
+    List<Future<long[]>> futures = new ArrayList<>(threads);
+    for (int t = 0; t < threads; t++) {
+      futures.add(executor.submit(() -> {
+        long[] latencies = new long[1024];
+        int count = 0;
+        for (long now = System.nanoTime(); now < end; ) {
+          read.apply(TIMESPANS[count % TIMESPANS.length]);
+          long after = System.nanoTime();
+          if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+          }
+          latencies[count++] = after - now;
+          now = after;
+        }
+        return Arrays.copyOf(latencies, count);
+      }));
+    }
+    long[] all = new long[0];
+    try {
+      for (Future<long[]> future : futures) {
+        long[] latencies = future.get();
+        int offset = all.length;
+        all = Arrays.copyOf(all, offset + latencies.length);
+        System.arraycopy(latencies, 0, all, offset, latencies.length);
+      }
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+    Arrays.sort(all);
+    return String.format("%,.0f reads/s, latency p50 %.3f ms, p99 %.3f ms (%,d reads)",
+        all.length / elapsedSeconds, percentile(all, 50), percentile(all, 99), all.length);
+  }
+
+  private static double percentile(long[] sorted, double percentile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+    return sorted[Math.max(0, index)] / 1e6;
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.codelabs;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.SpannerExceptionFactory;
+import com.google.cloud.spanner.Value;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Generates large leaderboards, such as 100 million scores, to benchmark queries.
+ *
+ * <p>Unlike {@code App.insertScores}, which runs a read-write transaction per player, the loader
+ * commits blind writes: {@link Mutation}s that insert or update rows without reading them first.
+ * Each commit holds a range of consecutive players with all their scores, so that the interleaved
+ * rows of a commit are in the same split. Up to {@code parallelism} commits run at once, and
+ * ranges are committed in an order that spreads concurrent commits across the key space. Players
+ * get the ids {@code firstPlayerId} to {@code firstPlayerId + players - 1}, so loading again
+ * updates the same players. Commits can be paced to a target number of rows per second, and the
+ * scores of each commit can be recorded in a {@link LeaderboardCache} once it succeeds.
+ */
+public class LeaderboardLoader {
+
+  // A commit can mutate at most 80,000 cells. Stay well below it, so that commits stay small.
+  static final int MAX_ROWS_PER_COMMIT = 2000;
+  private static final int CELLS_PER_ROW = 3;
+  private static final int MAX_CELLS_PER_COMMIT = 80000;
+
+  private final Consumer<List<Mutation>> writer;
+  private final long firstPlayerId;
+  private final long players;
+  private final int scoresPerPlayer;
+  private final int parallelism;
+  private final long rowsPerSecond;
+  private final int playersPerCommit;
+
+  // The next time a commit may start when commits are paced, in System.nanoTime() units.
+  private long nextCommitNanos;
+
+  /**
+   * Creates a loader.
+   *
+   * @param dbClient the client of the leaderboard database
+   * @param firstPlayerId the id of the first player to write
+   * @param players the number of players to write
+   * @param scoresPerPlayer the number of scores to write for each player
+   * @param parallelism the maximum number of concurrent commits
+   * @param rowsPerSecond the target number of rows written per second, or 0 for no target
+   */
+  public LeaderboardLoader(DatabaseClient dbClient, long firstPlayerId, long players,
+      int scoresPerPlayer, int parallelism, long rowsPerSecond) {
+    // Rows are written with insertOrUpdate, so a commit replayed after a retry does no harm.
+    this(dbClient::writeAtLeastOnce, firstPlayerId, players, scoresPerPlayer, parallelism,
+        rowsPerSecond);
+  }
+
+  LeaderboardLoader(Consumer<List<Mutation>> writer, long firstPlayerId, long players,
+      int scoresPerPlayer, int parallelism, long rowsPerSecond) {
+    if (players <= 0 || scoresPerPlayer < 0 || parallelism <= 0 || rowsPerSecond < 0) {
+      throw new IllegalArgumentException("players and parallelism must be positive, "
+          + "scoresPerPlayer and rowsPerSecond must not be negative");
+    }
+    if ((1L + scoresPerPlayer) * CELLS_PER_ROW > MAX_CELLS_PER_COMMIT) {
+      throw new IllegalArgumentException("scoresPerPlayer must be at most "
+          + (MAX_CELLS_PER_COMMIT / CELLS_PER_ROW - 1));
+    }
+    this.writer = writer;
+    this.firstPlayerId = firstPlayerId;
+    this.players = players;
+    this.scoresPerPlayer = scoresPerPlayer;
+    this.parallelism = parallelism;
+    this.rowsPerSecond = rowsPerSecond;
+    this.playersPerCommit = Math.max(1, MAX_ROWS_PER_COMMIT / (1 + scoresPerPlayer));
+  }
+
+  /** Writes all the players and scores, and returns the throughput and commit latencies. */
+  public Result load() throws InterruptedException {
+    return load(null);
+  }
+
+  /**
+   * Writes all the players and scores, records the scores in the cache as they are committed, and
+   * returns the throughput and commit latencies.
+   *
+   * @param cache the cache that serves the leaderboards, or null
+   */
+  public Result load(LeaderboardCache cache) throws InterruptedException {
+    int commits = (int) ((players + playersPerCommit - 1) / playersPerCommit);
+    long[] latencies = new long[commits];
+    Semaphore inFlight = new Semaphore(parallelism);
+    AtomicBoolean failed = new AtomicBoolean();
+    List<Future<?>> futures = new ArrayList<>(commits);
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    long start = System.nanoTime();
+    nextCommitNanos = start;
+    try {
+      int stride = stride(commits);
+      // Stop submitting commits after a failure, which is thrown below.
+      for (int i = 0; i < commits && !failed.get(); i++) {
+        // Visit every range once, in an order where consecutive commits are far apart.
+        int range = (int) ((long) i * stride % commits);
+        long rows = rows(range);
+        inFlight.acquire();
+        pace(rows);
+        futures.add(executor.submit(() -> {
+          try {
+            List<Mutation> mutations = mutations(range);
+            long commitStart = System.nanoTime();
+            writer.accept(mutations);
+            latencies[range] = System.nanoTime() - commitStart;
+            if (cache != null) {
+              record(cache, mutations);
+            }
+          } catch (RuntimeException e) {
+            failed.set(true);
+            throw e;
+          } finally {
+            inFlight.release();
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw SpannerExceptionFactory.asSpannerException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    long elapsed = System.nanoTime() - start;
+    return new Result(players, players * scoresPerPlayer, elapsed, latencies);
+  }
+
+  // A stride coprime with the number of commits, close to a third of it.
+  private static int stride(int commits) {
+    int stride = Math.max(1, commits / 3);
+    while (gcd(stride, commits) != 1) {
+      stride++;
+    }
+    return stride;
+  }
+
+  private static int gcd(int a, int b) {
+    return b == 0 ? a : gcd(b, a % b);
+  }
+
+  private long rows(int range) {
+    long first = (long) range * playersPerCommit;
+    long count = Math.min(playersPerCommit, players - first);
+    return count * (1 + scoresPerPlayer);
+  }
+
+  // Waits until the rows can be written without going over rowsPerSecond.
+  private void pace(long rows) throws InterruptedException {
+    if (rowsPerSecond == 0) {
+      return;
+    }
+    long wait = nextCommitNanos - System.nanoTime();
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+    nextCommitNanos = Math.max(nextCommitNanos, System.nanoTime())
+        + rows * TimeUnit.SECONDS.toNanos(1) / rowsPerSecond;
+  }
+
+  // The players of a range and their scores, with random scores and times in the past two years.
+  List<Mutation> mutations(int range) {
+    long first = (long) range * playersPerCommit;
+    long last = Math.min(first + playersPerCommit, players);
+    SplittableRandom random = new SplittableRandom(firstPlayerId + first);
+    long end = LocalDate.now().atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+    long start = end - 2 * 365 * 24 * 3600L;
+    List<Mutation> mutations = new ArrayList<>((int) (last - first) * (1 + scoresPerPlayer));
+    for (long player = first; player < last; player++) {
+      long playerId = firstPlayerId + player;
+      mutations.add(Mutation.newInsertOrUpdateBuilder("Players")
+          .set("PlayerId").to(playerId)
+          .set("PlayerName").to("Player " + (player + 1))
+          .build());
+      for (int x = 0; x < scoresPerPlayer; x++) {
+        mutations.add(Mutation.newInsertOrUpdateBuilder("Scores")
+            .set("PlayerId").to(playerId)
+            .set("Score").to(random.nextLong(1000, 1000000))
+            .set("Timestamp").to(Timestamp.ofTimeSecondsAndNanos(
+                random.nextLong(start, end), random.nextInt(1000000) * 1000))
+            .build());
+      }
+    }
+    return mutations;
+  }
+
+  // Records the scores of a commit, which follow their player in the mutations.
+  private static void record(LeaderboardCache cache, List<Mutation> mutations) {
+    String playerName = null;
+    for (Mutation mutation : mutations) {
+      Map<String, Value> row = mutation.asMap();
+      if (mutation.getTable().equals("Players")) {
+        playerName = row.get("PlayerName").getString();
+      } else {
+        cache.recordScore(row.get("PlayerId").getInt64(), playerName,
+            row.get("Score").getInt64(), row.get("Timestamp").getTimestamp());
+      }
+    }
+  }
+
+  /** The number of rows written, the time it took, and the latency of every commit. */
+  public static class Result {
+    private final long players;
+    private final long scores;
+    private final long elapsedNanos;
+    private final long[] sortedLatencies;
+
+    Result(long players, long scores, long elapsedNanos, long[] latencies) {
+      this.players = players;
+      this.scores = scores;
+      this.elapsedNanos = elapsedNanos;
+      this.sortedLatencies = latencies.clone();
+      Arrays.sort(sortedLatencies);
+    }
+
+    public long getRows() {
+      return players + scores;
+    }
+
+    public double getRowsPerSecond() {
+      return getRows() * 1e9 / elapsedNanos;
+    }
+
+    /** Returns the commit latency at a percentile between 0 and 100, in milliseconds. */
+    public double getLatencyMillis(double percentile) {
+      int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+      return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Inserted %,d players and %,d scores in %,d commits in %.1f s "
+              + "(%,.0f rows/s). Commit latency: p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, "
+              + "max %.1f ms",
+          players, scores, sortedLatencies.length, elapsedNanos / 1e9, getRowsPerSecond(),
+          getLatencyMillis(50), getLatencyMillis(90), getLatencyMillis(99),
+          getLatencyMillis(100));
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.codelabs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.cloud.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LeaderboardCache}, with a fake database and clock. */
+@RunWith(JUnit4.class)
+public class LeaderboardCacheTest {
+
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+  private final AtomicLong clock = new AtomicLong(1_700_000_000_000L);
+  private final List<LeaderboardCache.Entry> scores = new ArrayList<>();
+  private final AtomicInteger loads = new AtomicInteger();
+  private LeaderboardCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new LeaderboardCache(this::load, 3, Duration.ofSeconds(10), clock::get,
+        LeaderboardCache.ALL_TIME, 168);
+  }
+
+  @After
+  public void tearDown() {
+    cache.close();
+  }
+
+  // The query of the leaderboard, on the scores of the fake database.
+  private synchronized List<LeaderboardCache.Entry> load(int timespan, int limit) {
+    loads.incrementAndGet();
+    long after = clock.get() - timespan * HOUR;
+    return scores.stream()
+        .filter(entry -> timespan == LeaderboardCache.ALL_TIME
+            || entry.getTimestamp().toSqlTimestamp().getTime() > after)
+        .sorted(Comparator.comparingLong(LeaderboardCache.Entry::getScore).reversed())
+        .limit(limit)
+        .collect(Collectors.toList());
+  }
+
+  private synchronized LeaderboardCache.Entry insert(long playerId, long score, long hoursAgo) {
+    LeaderboardCache.Entry entry = new LeaderboardCache.Entry(playerId, "Player " + playerId,
+        score, Timestamp.ofTimeMicroseconds((clock.get() - hoursAgo * HOUR) * 1000));
+    scores.add(entry);
+    return entry;
+  }
+
+  private static List<Long> scores(List<LeaderboardCache.Entry> entries) {
+    return entries.stream().map(LeaderboardCache.Entry::getScore).collect(Collectors.toList());
+  }
+
+  @Test
+  public void getTop_shouldReadTopScoresFromMemory() {
+    for (int i = 1; i <= 10; i++) {
+      insert(i, i * 100, i * 24);
+    }
+    cache.refresh();
+    int loadsAfterRefresh = loads.get();
+
+    for (int i = 0; i < 1000; i++) {
+      assertThat(scores(cache.getTop(LeaderboardCache.ALL_TIME)))
+          .containsExactly(1000L, 900L, 800L).inOrder();
+      // Only the scores of the first 6 days are in the last 168 hours.
+      assertThat(scores(cache.getTop(168))).containsExactly(600L, 500L, 400L).inOrder();
+    }
+    assertThat(loads.get()).isEqualTo(loadsAfterRefresh);
+    assertThat(cache.getTop(LeaderboardCache.ALL_TIME).get(0).toString())
+        .startsWith("PlayerId: 10  PlayerName: Player 10  Score: 1,000  Timestamp: ");
+  }
+
+  @Test
+  public void recordScore_shouldUpdateLeaderboardsWithoutQuery() {
+    insert(1, 100, 1);
+    insert(2, 200, 1);
+    insert(3, 300, 1);
+    cache.refresh();
+    int loadsAfterRefresh = loads.get();
+
+    LeaderboardCache.Entry best = insert(4, 1000, 0);
+    cache.recordScore(4, "Player 4", 1000, best.getTimestamp());
+    // Recording the same score again does not add it twice.
+    cache.recordScore(4, "Player 4", 1000, best.getTimestamp());
+    LeaderboardCache.Entry old = insert(5, 500, 200);
+    cache.recordScore(5, "Player 5", 500, old.getTimestamp());
+
+    assertThat(scores(cache.getTop(LeaderboardCache.ALL_TIME)))
+        .containsExactly(1000L, 500L, 300L).inOrder();
+    assertThat(scores(cache.getTop(168))).containsExactly(1000L, 300L, 200L).inOrder();
+    assertThat(loads.get()).isEqualTo(loadsAfterRefresh);
+  }
+
+  @Test
+  public void recordScore_shouldWaitForFirstLoadBeforeStart() {
+    insert(1, 100, 1);
+    insert(2, 200, 1);
+    insert(3, 300, 1);
+    // A score that the query does not return yet.
+    cache.recordScore(4, "Player 4", 1000, Timestamp.ofTimeMicroseconds(clock.get() * 1000));
+    assertThat(loads.get()).isEqualTo(0);
+
+    assertThat(scores(cache.getTop(LeaderboardCache.ALL_TIME)))
+        .containsExactly(1000L, 300L, 200L).inOrder();
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void getTop_shouldNotReloadWhileScoresAreInTimespan() {
+    insert(1, 100, 1);
+    cache.refresh();
+    int loadsAfterRefresh = loads.get();
+    // Inserted by another process, so only a refresh can read it.
+    insert(2, 200, 1);
+    clock.addAndGet(HOUR);
+    cache.reloadAgedOut();
+
+    assertThat(scores(cache.getTop(LeaderboardCache.ALL_TIME))).containsExactly(100L);
+    assertThat(scores(cache.getTop(168))).containsExactly(100L);
+    assertThat(loads.get()).isEqualTo(loadsAfterRefresh);
+
+    cache.refresh();
+    assertThat(scores(cache.getTop(LeaderboardCache.ALL_TIME)))
+        .containsExactly(200L, 100L).inOrder();
+  }
+
+  @Test
+  public void reloadAgedOut_shouldOnlyReloadBoardsMissingScores() {
+    // More scores than the 30 kept for the last 168 hours.
+    for (int i = 1; i <= 40; i++) {
+      insert(i, i <= 12 ? i : 1000 + i, i <= 12 ? 1 : 160);
+    }
+    cache.refresh();
+    int loadsAfterRefresh = loads.get();
+
+    // The 28 best scores leave the timespan, and the cache only kept 2 of the others.
+    clock.addAndGet(9 * HOUR);
+    cache.reloadAgedOut();
+    assertThat(loads.get()).isEqualTo(loadsAfterRefresh + 1);
+
+    assertThat(scores(cache.getTop(168))).containsExactly(12L, 11L, 10L).inOrder();
+    assertThat(scores(cache.getTop(LeaderboardCache.ALL_TIME)))
+        .containsExactly(1040L, 1039L, 1038L).inOrder();
+    assertThat(loads.get()).isEqualTo(loadsAfterRefresh + 1);
+  }
+
+  @Test
+  public void getTop_shouldReloadWhenScoresAgeOut() {
+    cache = new LeaderboardCache(this::load, 3, Duration.ofSeconds(10), clock::get, 168);
+    // More scores than the 30 kept for the last 168 hours.
+    for (int i = 1; i <= 40; i++) {
+      insert(i, i <= 12 ? i : 1000 + i, i <= 12 ? 1 : 160);
+    }
+    cache.refresh();
+    assertThat(scores(cache.getTop(168))).containsExactly(1040L, 1039L, 1038L).inOrder();
+    assertThat(loads.get()).isEqualTo(1);
+
+    // The 28 best scores leave the timespan, and the cache only kept 2 of the others. A reload
+    // finds the scores it did not keep.
+    clock.addAndGet(9 * HOUR);
+    assertThat(scores(cache.getTop(168))).containsExactly(12L, 11L, 10L).inOrder();
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void recordScore_shouldKeepScoresRecordedDuringLoad() throws Exception {
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch recorded = new CountDownLatch(1);
+    LeaderboardCache slowCache = new LeaderboardCache((timespan, limit) -> {
+      // Read the database, then wait for a score to be recorded before returning.
+      List<LeaderboardCache.Entry> entries = load(timespan, limit);
+      loading.countDown();
+      try {
+        recorded.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return entries;
+    }, 3, Duration.ofSeconds(10), clock::get, LeaderboardCache.ALL_TIME);
+    insert(1, 100, 1);
+    Thread refresh = new Thread(slowCache::refresh);
+    refresh.start();
+    loading.await();
+
+    LeaderboardCache.Entry entry = insert(2, 200, 0);
+    slowCache.recordScore(2, "Player 2", 200, entry.getTimestamp());
+    recorded.countDown();
+    refresh.join();
+
+    assertThat(scores(slowCache.getTop(LeaderboardCache.ALL_TIME)))
+        .containsExactly(200L, 100L).inOrder();
+    slowCache.close();
+  }
+
+  @Test
+  public void getTop_shouldRejectTimespansNotCached() {
+    cache.refresh();
+    assertThrows(IllegalArgumentException.class, () -> cache.getTop(720));
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.codelabs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.cloud.spanner.ErrorCode;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.SpannerException;
+import com.google.cloud.spanner.SpannerExceptionFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LeaderboardLoader}, with a fake database. */
+@RunWith(JUnit4.class)
+public class LeaderboardLoaderTest {
+
+  private final ConcurrentLinkedQueue<List<Mutation>> commits = new ConcurrentLinkedQueue<>();
+
+  @Test
+  public void load_shouldWriteEveryPlayerAndScoreOnce() throws Exception {
+    LeaderboardLoader loader = new LeaderboardLoader(commits::add, 1, 10000, 4, 4, 0);
+    LeaderboardLoader.Result result = loader.load();
+
+    Set<Long> playerIds = new HashSet<>();
+    int scores = 0;
+    for (List<Mutation> commit : commits) {
+      assertThat(commit.size()).isAtMost(LeaderboardLoader.MAX_ROWS_PER_COMMIT);
+      long previousPlayerId = 0;
+      for (Mutation mutation : commit) {
+        assertThat(mutation.getOperation()).isEqualTo(Mutation.Op.INSERT_OR_UPDATE);
+        long playerId = mutation.asMap().get("PlayerId").getInt64();
+        if (mutation.getTable().equals("Players")) {
+          assertThat(playerIds.add(playerId)).isTrue();
+          // A commit holds consecutive players.
+          assertThat(previousPlayerId == 0 || playerId == previousPlayerId + 1).isTrue();
+          previousPlayerId = playerId;
+        } else {
+          assertThat(playerId).isEqualTo(previousPlayerId);
+          scores++;
+        }
+      }
+    }
+    assertThat(playerIds).hasSize(10000);
+    assertThat(playerIds).contains(1L);
+    assertThat(playerIds).contains(10000L);
+    assertThat(scores).isEqualTo(40000);
+    assertThat(result.getRows()).isEqualTo(50000);
+    assertThat(commits).hasSize(25);
+  }
+
+  @Test
+  public void load_shouldRecordCommittedScoresInCache() throws Exception {
+    LeaderboardCache cache = new LeaderboardCache((timespan, limit) -> new ArrayList<>(), 3,
+        Duration.ofSeconds(10), System::currentTimeMillis, LeaderboardCache.ALL_TIME);
+    cache.refresh();
+
+    new LeaderboardLoader(commits::add, 1, 1000, 4, 4, 0).load(cache);
+
+    List<Long> best = new ArrayList<>();
+    for (List<Mutation> commit : commits) {
+      for (Mutation mutation : commit) {
+        if (mutation.getTable().equals("Scores")) {
+          best.add(mutation.asMap().get("Score").getInt64());
+        }
+      }
+    }
+    best.sort(Comparator.reverseOrder());
+    List<LeaderboardCache.Entry> top = cache.getTop(LeaderboardCache.ALL_TIME);
+    assertThat(top).hasSize(3);
+    for (int i = 0; i < 3; i++) {
+      assertThat(top.get(i).getScore()).isEqualTo(best.get(i));
+    }
+    assertThat(top.get(0).getPlayerName()).startsWith("Player ");
+    cache.close();
+  }
+
+  @Test
+  public void load_shouldSpreadConsecutiveCommitsAcrossKeys() throws Exception {
+    // With one commit at a time, commits are in submission order.
+    new LeaderboardLoader(commits::add, 1, 10000, 4, 1, 0).load();
+
+    List<Long> firstPlayerIds = new ArrayList<>();
+    for (List<Mutation> commit : commits) {
+      firstPlayerIds.add(commit.get(0).asMap().get("PlayerId").getInt64());
+    }
+    for (int i = 1; i < firstPlayerIds.size(); i++) {
+      assertThat(Math.abs(firstPlayerIds.get(i) - firstPlayerIds.get(i - 1))).isGreaterThan(400L);
+    }
+  }
+
+  @Test
+  public void load_shouldPaceCommitsToRowsPerSecond() throws Exception {
+    // 10 commits of 2000 rows at 100,000 rows per second: the last one starts after 180 ms.
+    long start = System.nanoTime();
+    LeaderboardLoader.Result result =
+        new LeaderboardLoader(commits::add, 1, 4000, 4, 4, 100000).load();
+    long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+    assertThat(elapsedMillis).isAtLeast(180L);
+    assertThat(result.getRowsPerSecond()).isAtMost(120000.0);
+  }
+
+  @Test
+  public void load_shouldStopAndThrowWhenCommitFails() {
+    AtomicInteger attempts = new AtomicInteger();
+    LeaderboardLoader loader = new LeaderboardLoader(mutations -> {
+      attempts.incrementAndGet();
+      throw SpannerExceptionFactory.newSpannerException(ErrorCode.UNAVAILABLE, "unavailable");
+    }, 1, 100000, 4, 2, 0);
+
+    assertThrows(SpannerException.class, loader::load);
+    assertThat(attempts.get()).isLessThan(250);
+  }
+
+  @Test
+  public void result_shouldReportLatencyPercentiles() {
+    long[] latencies = new long[100];
+    for (int i = 0; i < 100; i++) {
+      latencies[i] = (100 - i) * 1000000L;
+    }
+    LeaderboardLoader.Result result =
+        new LeaderboardLoader.Result(100, 400, 1000000000L, latencies);
+
+    assertThat(result.getLatencyMillis(50)).isEqualTo(50.0);
+    assertThat(result.getLatencyMillis(99)).isEqualTo(99.0);
+    assertThat(result.getLatencyMillis(100)).isEqualTo(100.0);
+    assertThat(result.getRowsPerSecond()).isEqualTo(500.0);
+    assertThat(result.toString()).contains("p99 99.0 ms");
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.speech;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import java.io.IOException;
+
+/**
+ * A fixed-capacity buffer of audio chunks between one producer, such as a microphone, and one
+ * consumer that sends the chunks to the Speech API.
+ *
+ * <p>All chunks live in a single array allocated up front. The producer reads audio directly into
+ * the next free slot, and the consumer gets each chunk as a {@link ByteString} that wraps its slot
+ * without copying. Besides the chunks that have not been sent yet, the buffer keeps the last
+ * {@code retainedChunks} sent chunks, so that they can be sent again to bridge a stream restart.
+ * The producer never overwrites a chunk that has not been sent or is still retained, so a wrapped
+ * chunk stays valid until {@code retainedChunks} more chunks have been sent.
+ *
+ * <p>When the consumer falls behind and {@code queuedChunks} chunks are waiting to be sent, the
+ * {@link OverflowPolicy} decides whether the producer waits or the new chunk is dropped.
+ */
+public class AudioRingBuffer {
+
+  /** What to do with a new chunk when the buffer is full of chunks that have not been sent. */
+  public enum OverflowPolicy {
+    /** Wait until the consumer takes a chunk. Suited to sources that can be paused, like files. */
+    BLOCK,
+    /**
+     * Read the new chunk and drop it. Suited to live sources like microphones, which lose audio
+     * anyway when they are not read in time.
+     */
+    DROP_NEWEST
+  }
+
+  /** Reads audio into part of an array, like {@code TargetDataLine.read} or InputStream.read. */
+  public interface AudioSource {
+    int read(byte[] buffer, int offset, int length) throws IOException;
+  }
+
+  private final int chunkBytes;
+  private final int queuedChunks;
+  private final int retainedChunks;
+  private final int capacity;
+  private final OverflowPolicy overflowPolicy;
+  private final byte[] audio;
+  private final int[] chunkLengths;
+  private final byte[] droppedChunk;
+
+  // Total number of chunks written and sent. Only the producer updates written, and only the
+  // consumer updates sent.
+  private long written = 0;
+  private long sent = 0;
+  private long dropped = 0;
+  private boolean closed = false;
+
+  /**
+   * Creates a buffer.
+   *
+   * @param chunkBytes the maximum size of a chunk
+   * @param queuedChunks the maximum number of chunks waiting to be sent
+   * @param retainedChunks the number of sent chunks to keep for bridging
+   * @param overflowPolicy what to do when queuedChunks chunks are waiting to be sent
+   */
+  public AudioRingBuffer(
+      int chunkBytes, int queuedChunks, int retainedChunks, OverflowPolicy overflowPolicy) {
+    if (chunkBytes <= 0 || queuedChunks <= 0 || retainedChunks < 0) {
+      throw new IllegalArgumentException("Invalid ring buffer size");
+    }
+    this.chunkBytes = chunkBytes;
+    this.queuedChunks = queuedChunks;
+    this.retainedChunks = retainedChunks;
+    this.capacity = queuedChunks + retainedChunks;
+    this.overflowPolicy = overflowPolicy;
+    this.audio = new byte[capacity * chunkBytes];
+    this.chunkLengths = new int[capacity];
+    this.droppedChunk = new byte[chunkBytes];
+  }
+
+  /**
+   * Reads one chunk from the source into the buffer.
+   *
+   * @return false if the source has no more audio or the buffer is closed, true otherwise
+   */
+  public boolean write(AudioSource source) throws IOException, InterruptedException {
+    long index;
+    boolean full;
+    synchronized (this) {
+      while (!closed && written - sent >= queuedChunks
+          && overflowPolicy == OverflowPolicy.BLOCK) {
+        wait();
+      }
+      if (closed) {
+        return false;
+      }
+      index = written;
+      full = written - sent >= queuedChunks;
+    }
+    if (full) {
+      // The consumer is behind, drain the source without keeping the audio.
+      int length = source.read(droppedChunk, 0, chunkBytes);
+      synchronized (this) {
+        dropped++;
+      }
+      return length >= 0;
+    }
+    // Fewer than queuedChunks chunks are waiting, so the slot holds a chunk older than the
+    // retained ones, and can be filled outside the lock.
+    int slot = (int) (index % capacity);
+    int length = source.read(audio, slot * chunkBytes, chunkBytes);
+    if (length < 0) {
+      return false;
+    }
+    if (length == 0) {
+      return true;
+    }
+    synchronized (this) {
+      chunkLengths[slot] = length;
+      written++;
+      notifyAll();
+    }
+    return true;
+  }
+
+  /**
+   * Waits for the next chunk and returns it without copying it.
+   *
+   * @return the next chunk, or null if the buffer is closed and all chunks have been sent
+   */
+  public synchronized ByteString take() throws InterruptedException {
+    while (sent == written && !closed) {
+      wait();
+    }
+    if (sent == written) {
+      return null;
+    }
+    ByteString chunk = wrap(sent);
+    sent++;
+    notifyAll();
+    return chunk;
+  }
+
+  /**
+   * Returns the next chunk without copying it, or null if no chunk is waiting to be sent. Unlike
+   * {@link #take()}, never waits for the producer.
+   */
+  public synchronized ByteString poll() {
+    if (sent == written) {
+      return null;
+    }
+    ByteString chunk = wrap(sent);
+    sent++;
+    notifyAll();
+    return chunk;
+  }
+
+  /**
+   * Returns true if {@link #write} would not wait for the consumer, because fewer than
+   * {@code queuedChunks} chunks are waiting or the new chunk would be dropped. Returns false once
+   * the buffer is closed.
+   */
+  public synchronized boolean hasRoom() {
+    return !closed
+        && (written - sent < queuedChunks || overflowPolicy == OverflowPolicy.DROP_NEWEST);
+  }
+
+  /** Returns true once the buffer is closed and all its chunks have been sent. */
+  public synchronized boolean isDrained() {
+    return closed && sent == written;
+  }
+
+  /**
+   * Returns a chunk that has been sent and is still retained, without copying it.
+   *
+   * @param index the index of the chunk, between {@link #getOldestRetainedChunk()} and
+   *     {@link #getSentChunks()}
+   */
+  public synchronized ByteString getSentChunk(long index) {
+    if (index < getOldestRetainedChunk() || index >= sent) {
+      throw new IndexOutOfBoundsException("Chunk " + index + " is not retained");
+    }
+    return wrap(index);
+  }
+
+  private ByteString wrap(long index) {
+    int slot = (int) (index % capacity);
+    return UnsafeByteOperations.unsafeWrap(audio, slot * chunkBytes, chunkLengths[slot]);
+  }
+
+  /** Returns the number of chunks taken by the consumer, which is the index of the next one. */
+  public synchronized long getSentChunks() {
+    return sent;
+  }
+
+  /** Returns the index of the oldest sent chunk that can still be sent again. */
+  public synchronized long getOldestRetainedChunk() {
+    return Math.max(0, sent - retainedChunks);
+  }
+
+  /** Returns the number of chunks dropped by the {@link OverflowPolicy#DROP_NEWEST} policy. */
+  public synchronized long getDroppedChunks() {
+    return dropped;
+  }
+
+  /** Stops accepting chunks. The consumer can still take the chunks that have not been sent. */
+  public synchronized void close() {
+    closed = true;
+    notifyAll();
+  }
+}
@@ -28,12 +28,9 @@ import com.google.cloud.speech.v1p1beta1.StreamingRecognitionConfig;
 import com.google.cloud.speech.v1p1beta1.StreamingRecognitionResult;
 import com.google.cloud.speech.v1p1beta1.StreamingRecognizeRequest;
 import com.google.cloud.speech.v1p1beta1.StreamingRecognizeResponse;
-import com.google.protobuf.ByteString;
 import com.google.protobuf.Duration;
+import java.io.IOException;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
@@ -49,14 +46,28 @@ public class InfiniteStreamRecognize {
   public static final String GREEN = "\033[0;32m";
   public static final String YELLOW = "\033[0;33m";
 
-  // Creating shared object
-  private static volatile BlockingQueue<byte[]> sharedQueue = new LinkedBlockingQueue<byte[]>();
   private static TargetDataLine targetDataLine;
   private static int BYTES_PER_BUFFER = 6400; // buffer size in bytes
+  private static final int BYTES_PER_MS = 32; // 16000Hz, 16 bits per sample, 1 channel
+  private static final int MS_PER_BUFFER = BYTES_PER_BUFFER / BYTES_PER_MS;
+  private static final int QUEUE_MS = 5000; // audio buffered while waiting to be sent
+  private static final int BRIDGING_MS = 10000; // audio kept to be resent after a restart
+
+  // Creating shared object. The audio buffers are preallocated, and hold the audio waiting to be
+  // sent and the last BRIDGING_MS of sent audio. The microphone cannot wait, so audio that does
+  // not fit is dropped.
+  private static AudioRingBuffer audioBuffer =
+      new AudioRingBuffer(
+          BYTES_PER_BUFFER,
+          QUEUE_MS / MS_PER_BUFFER,
+          BRIDGING_MS / MS_PER_BUFFER,
+          AudioRingBuffer.OverflowPolicy.DROP_NEWEST);
 
   private static int restartCounter = 0;
-  private static ArrayList<ByteString> audioInput = new ArrayList<ByteString>();
-  private static ArrayList<ByteString> lastAudioInput = new ArrayList<ByteString>();
+  // Index of the first audio buffer sent in the current and the previous stream, bridged audio
+  // excluded.
+  private static long streamStartBuffer = 0;
+  private static long lastStreamStartBuffer = 0;
   private static int resultEndTimeInMS = 0;
   private static int isFinalEndTime = 0;
   private static int finalRequestEndTime = 0;
@@ -64,7 +75,6 @@ public class InfiniteStreamRecognize {
   private static double bridgingOffset = 0;
   private static boolean lastTranscriptWasFinal = false;
   private static StreamController referenceToStreamController;
-  private static ByteString tempByteString;
 
   public static void main(String... args) {
     InfiniteStreamRecognizeOptions options = InfiniteStreamRecognizeOptions.fromFlags(args);
@@ -104,15 +114,11 @@ public class InfiniteStreamRecognize {
         System.out.println(YELLOW);
         System.out.println("Start speaking...Press Ctrl-C to stop");
         targetDataLine.start();
-        byte[] data = new byte[BYTES_PER_BUFFER];
         while (targetDataLine.isOpen()) {
           try {
-            int numBytesRead = targetDataLine.read(data, 0, data.length);
-            if ((numBytesRead <= 0) && (targetDataLine.isOpen())) {
-              continue;
-            }
-            sharedQueue.put(data.clone());
-          } catch (InterruptedException e) {
+            // Reads the microphone audio directly into the ring buffer.
+            audioBuffer.write(targetDataLine::read);
+          } catch (InterruptedException | IOException e) {
             System.out.println("Microphone input buffering interrupted : " + e.getMessage());
           }
         }
@@ -128,14 +134,11 @@ public class InfiniteStreamRecognize {
       responseObserver =
           new ResponseObserver<StreamingRecognizeResponse>() {
 
-            ArrayList<StreamingRecognizeResponse> responses = new ArrayList<>();
-
             public void onStart(StreamController controller) {
               referenceToStreamController = controller;
             }
 
             public void onResponse(StreamingRecognizeResponse response) {
-              responses.add(response);
               StreamingRecognitionResult result = response.getResultsList().get(0);
               Duration resultEndTime = result.getResultEndTime();
               resultEndTimeInMS =
@@ -225,9 +228,8 @@ public class InfiniteStreamRecognize {
             }
             resultEndTimeInMS = 0;
 
-            lastAudioInput = null;
-            lastAudioInput = audioInput;
-            audioInput = new ArrayList<ByteString>();
+            lastStreamStartBuffer = streamStartBuffer;
+            streamStartBuffer = audioBuffer.getSentChunks();
 
             restartCounter++;
 
@@ -251,44 +253,42 @@ public class InfiniteStreamRecognize {
 
           } else {
 
-            if ((newStream) && (lastAudioInput.size() > 0)) {
+            if ((newStream) && (streamStartBuffer > lastStreamStartBuffer)) {
               // if this is the first audio from a new request
               // calculate amount of unfinalized audio from last request
               // resend the audio to the speech client before incoming audio
-              double chunkTime = STREAMING_LIMIT / lastAudioInput.size();
-              // ms length of each chunk in previous request audio arrayList
-              if (chunkTime != 0) {
-                if (bridgingOffset < 0) {
-                  // bridging Offset accounts for time of resent audio
-                  // calculated from last request
-                  bridgingOffset = 0;
-                }
-                if (bridgingOffset > finalRequestEndTime) {
-                  bridgingOffset = finalRequestEndTime;
-                }
-                int chunksFromMs =
-                    (int) Math.floor((finalRequestEndTime - bridgingOffset) / chunkTime);
-                // chunks from MS is number of chunks to resend
-                bridgingOffset =
-                    (int) Math.floor((lastAudioInput.size() - chunksFromMs) * chunkTime);
-                // set bridging offset for next request
-                for (int i = chunksFromMs; i < lastAudioInput.size(); i++) {
-                  request =
-                      StreamingRecognizeRequest.newBuilder()
-                          .setAudioContent(lastAudioInput.get(i))
-                          .build();
-                  clientStream.send(request);
-                }
+              if (bridgingOffset < 0) {
+                // bridging Offset accounts for time of resent audio
+                // calculated from last request
+                bridgingOffset = 0;
+              }
+              if (bridgingOffset > finalRequestEndTime) {
+                bridgingOffset = finalRequestEndTime;
+              }
+              // first buffer after the last final result, limited to the retained buffers
+              long firstBuffer =
+                  Math.max(
+                      lastStreamStartBuffer
+                          + (long) Math.floor((finalRequestEndTime - bridgingOffset)
+                              / MS_PER_BUFFER),
+                      audioBuffer.getOldestRetainedChunk());
+              // set bridging offset for next request
+              bridgingOffset = Math.max(0, streamStartBuffer - firstBuffer) * MS_PER_BUFFER;
+              for (long i = firstBuffer; i < streamStartBuffer; i++) {
+                request =
+                    StreamingRecognizeRequest.newBuilder()
+                        .setAudioContent(audioBuffer.getSentChunk(i))
+                        .build();
+                clientStream.send(request);
               }
               newStream = false;
             }
 
-            tempByteString = ByteString.copyFrom(sharedQueue.take());
-
+            // The audio is sent without copying it out of the ring buffer.
             request =
-                StreamingRecognizeRequest.newBuilder().setAudioContent(tempByteString).build();
-
-            audioInput.add(tempByteString);
+                StreamingRecognizeRequest.newBuilder()
+                    .setAudioContent(audioBuffer.take())
+                    .build();
           }
 
           clientStream.send(request);
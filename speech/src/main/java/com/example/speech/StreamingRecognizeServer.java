@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.speech;
+
+import com.google.cloud.speech.v1p1beta1.RecognitionConfig;
+import com.google.cloud.speech.v1p1beta1.SpeechClient;
+import com.google.cloud.speech.v1p1beta1.StreamingRecognitionConfig;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Transcribes the audio of every connection with its own {@link StreamingSession}. Clients send
+ * LINEAR16 audio at 16000Hz, mono, and receive one line per final transcript.
+ *
+ * <p>The connections are read on a bounded pool of reader threads, and the sessions are pumped on
+ * a few threads, both shared by all connections. Reading a socket blocks until the client sends
+ * audio, so at most {@code READER_THREADS} clients can be waited for at the same time; the other
+ * connections are read once one of those clients sends audio or disconnects.
+ */
+public class StreamingRecognizeServer {
+
+  private static final long STREAMING_LIMIT = 290000; // ~5 minutes
+  private static final int CHUNK_MS = 200;
+  private static final int BRIDGING_MS = 10000;
+  private static final int PUMP_THREADS = 2;
+  private static final int READER_THREADS = 64;
+
+  public static void main(String... args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+    String languageCode = args.length > 1 ? args[1] : "en-US";
+    serve(port, languageCode);
+  }
+
+  /** Accepts connections on the port and transcribes each one until its audio ends. */
+  public static void serve(int port, String languageCode) throws IOException {
+    StreamingRecognitionConfig streamingConfig =
+        StreamingRecognitionConfig.newBuilder()
+            .setConfig(
+                RecognitionConfig.newBuilder()
+                    .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
+                    .setLanguageCode(languageCode)
+                    .setSampleRateHertz(StreamingSession.SAMPLE_RATE_HERTZ)
+                    .build())
+            .setInterimResults(true)
+            .build();
+
+    try (SpeechClient client = SpeechClient.create();
+        StreamingSessionPool pool =
+            new StreamingSessionPool(PUMP_THREADS, READER_THREADS, CHUNK_MS);
+        ServerSocket serverSocket = new ServerSocket(port)) {
+      System.out.printf("Listening on port %d\n", port);
+      int sessionCount = 0;
+      while (true) {
+        Socket socket = serverSocket.accept();
+        PrintWriter out = new PrintWriter(
+            new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+        StreamingSession session =
+            new StreamingSession(
+                "session-" + (++sessionCount),
+                client,
+                streamingConfig,
+                socket.getInputStream()::read,
+                (s, transcript, isFinal, endTimeMillis) -> {
+                  if (isFinal) {
+                    out.printf("%s: %s\n",
+                        InfiniteStreamRecognize.convertMillisToDate(endTimeMillis), transcript);
+                  }
+                },
+                STREAMING_LIMIT,
+                CHUNK_MS,
+                BRIDGING_MS);
+        System.out.printf("%s: connected\n", session.getId());
+        pool.start(session).whenComplete((result, error) -> {
+          System.out.printf("%s: %s\n", session.getId(), error == null ? "done" : error);
+          try {
+            socket.close();
+          } catch (IOException e) {
+            System.out.println(e);
+          }
+        });
+      }
+    }
+  }
+}
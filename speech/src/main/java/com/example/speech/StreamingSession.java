@@ -0,0 +1,319 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.speech;
+
+import com.google.api.gax.rpc.ClientStream;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.StreamController;
+import com.google.cloud.speech.v1p1beta1.SpeechClient;
+import com.google.cloud.speech.v1p1beta1.SpeechRecognitionAlternative;
+import com.google.cloud.speech.v1p1beta1.StreamingRecognitionConfig;
+import com.google.cloud.speech.v1p1beta1.StreamingRecognitionResult;
+import com.google.cloud.speech.v1p1beta1.StreamingRecognizeRequest;
+import com.google.cloud.speech.v1p1beta1.StreamingRecognizeResponse;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Duration;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One infinite streaming recognition, like {@link InfiniteStreamRecognize}, with its state kept
+ * per session so that many sessions can run in the same JVM.
+ *
+ * <p>Audio is read from an {@link AudioRingBuffer.AudioSource}, such as a file or a socket, by
+ * {@link #readAudio()}, which returns once the ring buffer is full, so that a few threads can read
+ * many sessions in turn. The chunks read are queued in the ring buffer and sent one per call to
+ * {@link #pump()}.
+ * Once a stream has received {@code streamingLimitMillis} of
+ * audio, it is closed and a new stream is opened, starting with the audio sent after the last final
+ * result, so that no words are lost at the boundary. Transcripts are reported with their end time
+ * from the start of the session.
+ */
+public class StreamingSession {
+
+  /** The LINEAR16 audio sample rate used by sessions. */
+  public static final int SAMPLE_RATE_HERTZ = 16000;
+  // 16000Hz, 16 bits per sample, 1 channel
+  private static final int BYTES_PER_MS = 32;
+  // The chunks read ahead of the stream. When they are all waiting, the reader stops reading the
+  // source until a chunk is sent.
+  private static final int QUEUED_CHUNKS = 5;
+
+  /** Receives the results of a session. Called from gRPC threads. */
+  public interface Listener {
+    void onTranscript(StreamingSession session, String transcript, boolean isFinal,
+        long endTimeMillis);
+
+    /**
+     * Called when the first response of a new stream is received, with the time since the
+     * previous stream was closed.
+     */
+    default void onRollover(StreamingSession session, long latencyNanos) {}
+  }
+
+  private final String id;
+  private final SpeechClient client;
+  private final StreamingRecognitionConfig streamingConfig;
+  private final AudioRingBuffer.AudioSource source;
+  private final Listener listener;
+  private final long streamingLimitMillis;
+  private final int chunkBytes;
+  private final int msPerChunk;
+  private final AudioRingBuffer audioBuffer;
+  private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+  private ClientStream<StreamingRecognizeRequest> clientStream;
+  private RecognitionStream currentStream;
+  private long streamAudioMillis = 0;
+  private int restartCounter = 0;
+
+  /**
+   * Creates a session.
+   *
+   * @param id identifies the session in logs and listeners
+   * @param client the client used to open the streams, which can be shared by sessions
+   * @param streamingConfig the config sent at the start of every stream
+   * @param source the LINEAR16 audio at {@link #SAMPLE_RATE_HERTZ}
+   * @param listener receives the transcripts
+   * @param streamingLimitMillis the audio duration after which a new stream is opened
+   * @param chunkMillis the duration of the audio sent in each request
+   * @param bridgingMillis the maximum duration of audio resent at the start of a new stream
+   */
+  public StreamingSession(
+      String id,
+      SpeechClient client,
+      StreamingRecognitionConfig streamingConfig,
+      AudioRingBuffer.AudioSource source,
+      Listener listener,
+      long streamingLimitMillis,
+      int chunkMillis,
+      int bridgingMillis) {
+    this.id = id;
+    this.client = client;
+    this.streamingConfig = streamingConfig;
+    this.source = source;
+    this.listener = listener;
+    this.streamingLimitMillis = streamingLimitMillis;
+    this.chunkBytes = chunkMillis * BYTES_PER_MS;
+    this.msPerChunk = chunkMillis;
+    this.audioBuffer = new AudioRingBuffer(chunkBytes, QUEUED_CHUNKS,
+        bridgingMillis / chunkMillis, AudioRingBuffer.OverflowPolicy.BLOCK);
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  /** Returns the number of times a new stream was opened. */
+  public synchronized int getRestartCount() {
+    return restartCounter;
+  }
+
+  /** Completes when the last stream has returned all its results, after the audio ended. */
+  public CompletableFuture<Void> getDone() {
+    return done;
+  }
+
+  /** Returns the number of chunks sent, not counting the chunks sent again after a rollover. */
+  public long getSentChunks() {
+    return audioBuffer.getSentChunks();
+  }
+
+  /** Returns true if the ring buffer has room for the next chunk of the source. */
+  public boolean needsAudio() {
+    return !done.isDone() && audioBuffer.hasRoom();
+  }
+
+  /**
+   * Reads chunks of the source into the ring buffer until the ring buffer is full. Blocks while
+   * the source has no audio, but never waits for room in the ring buffer.
+   *
+   * @return false once the source has ended or the session is done
+   */
+  public boolean readAudio() throws IOException, InterruptedException {
+    while (needsAudio()) {
+      if (!audioBuffer.write(this::readChunk)) {
+        audioBuffer.close();
+        return false;
+      }
+    }
+    return !done.isDone();
+  }
+
+  /**
+   * Sends the next chunk read by {@link #readAudio()}, if there is one, opening a new stream first
+   * when the current one reached the streaming limit. Never waits for the source.
+   *
+   * @return false once all the audio has been sent, or the session is done
+   */
+  public synchronized boolean pump() {
+    if (done.isDone()) {
+      return false;
+    }
+    if (clientStream == null) {
+      openStream(0, System.nanoTime());
+    } else if (streamAudioMillis >= streamingLimitMillis) {
+      rollover();
+    }
+    ByteString chunk = audioBuffer.poll();
+    if (chunk == null) {
+      if (audioBuffer.isDrained()) {
+        clientStream.closeSend();
+        return false;
+      }
+      // The reader has not read the next chunk yet.
+      return true;
+    }
+    clientStream.send(StreamingRecognizeRequest.newBuilder().setAudioContent(chunk).build());
+    streamAudioMillis += msPerChunk;
+    return true;
+  }
+
+  /** Stops the session after a failure outside of the streams. */
+  public synchronized void fail(Throwable t) {
+    if (done.isDone()) {
+      return;
+    }
+    // Stops the reader if it waits for room in the buffer.
+    audioBuffer.close();
+    if (clientStream != null) {
+      currentStream.retired = true;
+      clientStream.closeSendWithError(t instanceof Exception ? (Exception) t : new Exception(t));
+    }
+    done.completeExceptionally(t);
+  }
+
+  // Fills a whole chunk, so that every chunk but the last one lasts msPerChunk.
+  private int readChunk(byte[] buffer, int offset, int length) throws IOException {
+    int read = 0;
+    while (read < length) {
+      int n = source.read(buffer, offset + read, length - read);
+      if (n < 0) {
+        return read == 0 ? -1 : read;
+      }
+      read += n;
+    }
+    return read;
+  }
+
+  private void rollover() {
+    long rolloverStartNanos = System.nanoTime();
+    RecognitionStream previous = currentStream;
+    long lastFinalEndMillis;
+    // Waits for a response being reported, so that no final result of the previous stream is
+    // reported after the audio to resend is chosen.
+    synchronized (previous) {
+      previous.retired = true;
+      lastFinalEndMillis = previous.lastFinalEndMillis;
+    }
+    clientStream.closeSend();
+    previous.cancel();
+
+    // Resend the audio after the last final result, limited to the retained audio.
+    long nextChunk = audioBuffer.getSentChunks();
+    long firstChunk = Math.max(
+        (previous.originMillis + lastFinalEndMillis) / msPerChunk,
+        audioBuffer.getOldestRetainedChunk());
+    firstChunk = Math.min(firstChunk, nextChunk);
+    restartCounter++;
+    openStream(firstChunk, rolloverStartNanos);
+    for (long i = firstChunk; i < nextChunk; i++) {
+      clientStream.send(StreamingRecognizeRequest.newBuilder()
+          .setAudioContent(audioBuffer.getSentChunk(i))
+          .build());
+    }
+    streamAudioMillis = (nextChunk - firstChunk) * msPerChunk;
+  }
+
+  private void openStream(long firstChunk, long openNanos) {
+    currentStream = new RecognitionStream(firstChunk * msPerChunk, openNanos, restartCounter > 0);
+    clientStream = client.streamingRecognizeCallable().splitCall(currentStream);
+    // The first request in a streaming call has to be a config
+    clientStream.send(
+        StreamingRecognizeRequest.newBuilder().setStreamingConfig(streamingConfig).build());
+  }
+
+  // The responses of one stream. originMillis is the session time of the first audio sent on the
+  // stream, which the stream reports result times from.
+  private class RecognitionStream implements ResponseObserver<StreamingRecognizeResponse> {
+    private final long originMillis;
+    private final long openNanos;
+    private final boolean isRollover;
+    private long lastFinalEndMillis = 0;
+    private volatile boolean retired = false;
+    private volatile StreamController controller;
+    private boolean receivedResponse = false;
+
+    RecognitionStream(long originMillis, long openNanos, boolean isRollover) {
+      this.originMillis = originMillis;
+      this.openNanos = openNanos;
+      this.isRollover = isRollover;
+    }
+
+    void cancel() {
+      if (controller != null) {
+        controller.cancel(); // remove Observer
+      }
+    }
+
+    @Override
+    public void onStart(StreamController controller) {
+      this.controller = controller;
+    }
+
+    @Override
+    public synchronized void onResponse(StreamingRecognizeResponse response) {
+      if (retired) {
+        return;
+      }
+      if (!receivedResponse) {
+        receivedResponse = true;
+        if (isRollover) {
+          listener.onRollover(StreamingSession.this, System.nanoTime() - openNanos);
+        }
+      }
+      if (response.getResultsCount() == 0) {
+        return;
+      }
+      StreamingRecognitionResult result = response.getResultsList().get(0);
+      Duration resultEndTime = result.getResultEndTime();
+      long resultEndTimeInMs =
+          (resultEndTime.getSeconds() * 1000) + (resultEndTime.getNanos() / 1000000);
+      if (result.getIsFinal()) {
+        lastFinalEndMillis = resultEndTimeInMs;
+      }
+      SpeechRecognitionAlternative alternative = result.getAlternativesList().get(0);
+      listener.onTranscript(StreamingSession.this, alternative.getTranscript(),
+          result.getIsFinal(), originMillis + resultEndTimeInMs);
+    }
+
+    @Override
+    public void onComplete() {
+      if (!retired) {
+        done.complete(null);
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      // Streams closed by a rollover are cancelled, which is not an error.
+      if (!retired) {
+        done.completeExceptionally(t);
+      }
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.speech;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs many {@link StreamingSession}s. Sessions are pumped on a small scheduled pool shared by all
+ * sessions, which never blocks. A session sends one chunk of audio per interval, which paces it at
+ * the speed of live audio when the interval is the chunk duration. A session whose reader fell
+ * behind catches up on the chunks it missed as soon as they are read.
+ *
+ * <p>Sources are read on a bounded pool of reader threads, also shared by all sessions. A read
+ * returns as soon as the ring buffer of its session is full, and the pump asks for the next one
+ * when it has sent a chunk, so a source that has audio holds a reader thread only while it is
+ * read. A source that blocks holds its reader thread until it has audio: at most {@code
+ * readerThreads} sessions wait for their source at the same time, and the other sessions are not
+ * read until one of those sources has audio or ends.
+ */
+public class StreamingSessionPool implements AutoCloseable {
+  private final ScheduledExecutorService executor;
+  private final ExecutorService readers;
+  private final long pumpIntervalMillis;
+
+  /**
+   * Creates a pool.
+   *
+   * @param threads the number of threads that pump the sessions, shared by all sessions
+   * @param readerThreads the number of threads that read the sources, shared by all sessions,
+   *     which bounds the number of sessions that wait for their source at the same time
+   * @param pumpIntervalMillis the interval between two chunks of a session
+   */
+  public StreamingSessionPool(int threads, int readerThreads, long pumpIntervalMillis) {
+    this.executor = Executors.newScheduledThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "streaming-session");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.readers = Executors.newFixedThreadPool(readerThreads, runnable -> {
+      Thread thread = new Thread(runnable, "streaming-session-reader");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.pumpIntervalMillis = pumpIntervalMillis;
+  }
+
+  /**
+   * Starts sending the audio of a session.
+   *
+   * @return completes when the session has returned all its results
+   */
+  public CompletableFuture<Void> start(StreamingSession session) {
+    // At most one read of a session is queued or running, so its source is read by one thread at
+    // a time.
+    AtomicBoolean reading = new AtomicBoolean();
+    AtomicBoolean sourceEnded = new AtomicBoolean();
+    Runnable read = () -> {
+      try {
+        if (!session.readAudio()) {
+          sourceEnded.set(true);
+        }
+      } catch (Exception e) {
+        sourceEnded.set(true);
+        session.fail(e);
+      } finally {
+        reading.set(false);
+      }
+    };
+    Runnable requestAudio = () -> {
+      if (!sourceEnded.get() && session.needsAudio() && reading.compareAndSet(false, true)) {
+        readers.execute(read);
+      }
+    };
+    requestAudio.run();
+
+    AtomicReference<ScheduledFuture<?>> pumping = new AtomicReference<>();
+    AtomicBoolean finished = new AtomicBoolean();
+    Runnable stopPumping = () -> {
+      ScheduledFuture<?> future = pumping.get();
+      if (future != null) {
+        future.cancel(false);
+      }
+    };
+    session.getDone().whenComplete((result, error) -> {
+      finished.set(true);
+      stopPumping.run();
+    });
+    long startNanos = System.nanoTime();
+    // Runs of a fixed-rate task never overlap, so a session is pumped by one thread at a time.
+    pumping.set(executor.scheduleAtFixedRate(() -> {
+      if (finished.get()) {
+        stopPumping.run();
+        return;
+      }
+      try {
+        long dueChunks =
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) / pumpIntervalMillis + 1;
+        while (session.getSentChunks() < dueChunks) {
+          long sentChunks = session.getSentChunks();
+          if (!session.pump()) {
+            finished.set(true);
+            stopPumping.run();
+            return;
+          }
+          if (session.getSentChunks() == sentChunks) {
+            // The reader has not read the next chunk yet.
+            break;
+          }
+        }
+        requestAudio.run();
+      } catch (Exception e) {
+        finished.set(true);
+        session.fail(e);
+        stopPumping.run();
+      }
+    }, 0, pumpIntervalMillis, TimeUnit.MILLISECONDS));
+    return session.getDone();
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    readers.shutdownNow();
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.speech;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AudioRingBufferTest {
+  private static final int CHUNK_BYTES = 4;
+
+  // Audio made of chunks where every byte is the index of its chunk.
+  private static InputStream audio(int chunks) {
+    byte[] data = new byte[chunks * CHUNK_BYTES];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i / CHUNK_BYTES);
+    }
+    return new ByteArrayInputStream(data);
+  }
+
+  private static ByteString chunk(int index) {
+    return ByteString.copyFrom(new byte[] {
+        (byte) index, (byte) index, (byte) index, (byte) index});
+  }
+
+  @Test
+  public void take_shouldReturnChunksInOrderAndRetainSentChunks() throws Exception {
+    AudioRingBuffer buffer =
+        new AudioRingBuffer(CHUNK_BYTES, 2, 3, AudioRingBuffer.OverflowPolicy.BLOCK);
+    InputStream source = audio(10);
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(buffer.write(source::read)).isTrue();
+      assertThat(buffer.take()).isEqualTo(chunk(i));
+    }
+
+    assertThat(buffer.getSentChunks()).isEqualTo(10);
+    assertThat(buffer.getOldestRetainedChunk()).isEqualTo(7);
+    for (int i = 7; i < 10; i++) {
+      assertThat(buffer.getSentChunk(i)).isEqualTo(chunk(i));
+    }
+    assertThrows(IndexOutOfBoundsException.class, () -> buffer.getSentChunk(6));
+    assertThat(buffer.write(source::read)).isFalse();
+  }
+
+  @Test
+  public void write_shouldDropNewestChunksWhenFull() throws Exception {
+    AudioRingBuffer buffer =
+        new AudioRingBuffer(CHUNK_BYTES, 2, 1, AudioRingBuffer.OverflowPolicy.DROP_NEWEST);
+    InputStream source = audio(4);
+
+    for (int i = 0; i < 4; i++) {
+      buffer.write(source::read);
+    }
+
+    assertThat(buffer.getDroppedChunks()).isEqualTo(2);
+    assertThat(buffer.take()).isEqualTo(chunk(0));
+    assertThat(buffer.take()).isEqualTo(chunk(1));
+  }
+
+  @Test
+  public void write_shouldBlockWhenFull() throws Exception {
+    AudioRingBuffer buffer =
+        new AudioRingBuffer(CHUNK_BYTES, 1, 1, AudioRingBuffer.OverflowPolicy.BLOCK);
+    InputStream source = audio(2);
+    buffer.write(source::read);
+
+    CompletableFuture<Boolean> blockedWrite = CompletableFuture.supplyAsync(() -> {
+      try {
+        return buffer.write(source::read);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    assertThrows(TimeoutException.class, () -> blockedWrite.get(100, TimeUnit.MILLISECONDS));
+
+    assertThat(buffer.take()).isEqualTo(chunk(0));
+    assertThat(blockedWrite.get(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(buffer.take()).isEqualTo(chunk(1));
+    assertThat(buffer.getDroppedChunks()).isEqualTo(0);
+  }
+
+  @Test
+  public void take_shouldReturnNullWhenClosedAndDrained() throws Exception {
+    AudioRingBuffer buffer =
+        new AudioRingBuffer(CHUNK_BYTES, 2, 0, AudioRingBuffer.OverflowPolicy.BLOCK);
+    buffer.write(audio(1)::read);
+    buffer.close();
+
+    assertThat(buffer.take()).isEqualTo(chunk(0));
+    assertThat(buffer.take()).isNull();
+  }
+
+  @Test
+  public void poll_shouldReturnNullWithoutWaitingUntilDrained() throws Exception {
+    AudioRingBuffer buffer =
+        new AudioRingBuffer(CHUNK_BYTES, 2, 1, AudioRingBuffer.OverflowPolicy.BLOCK);
+    InputStream source = audio(1);
+
+    assertThat(buffer.poll()).isNull();
+    buffer.write(source::read);
+    assertThat(buffer.poll()).isEqualTo(chunk(0));
+    assertThat(buffer.poll()).isNull();
+    assertThat(buffer.isDrained()).isFalse();
+
+    assertThat(buffer.write(source::read)).isFalse();
+    buffer.close();
+    assertThat(buffer.isDrained()).isTrue();
+  }
+
+  @Test
+  public void hasRoom_shouldBeFalseWhenFullOrClosed() throws Exception {
+    AudioRingBuffer buffer =
+        new AudioRingBuffer(CHUNK_BYTES, 1, 1, AudioRingBuffer.OverflowPolicy.BLOCK);
+    InputStream source = audio(2);
+
+    assertThat(buffer.hasRoom()).isTrue();
+    buffer.write(source::read);
+    assertThat(buffer.hasRoom()).isFalse();
+    assertThat(buffer.poll()).isEqualTo(chunk(0));
+    assertThat(buffer.hasRoom()).isTrue();
+    buffer.close();
+    assertThat(buffer.hasRoom()).isFalse();
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2024 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.speech;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.cloud.speech.v1p1beta1.RecognitionConfig;
+import com.google.cloud.speech.v1p1beta1.SpeechClient;
+import com.google.cloud.speech.v1p1beta1.SpeechRecognitionAlternative;
+import com.google.cloud.speech.v1p1beta1.SpeechSettings;
+import com.google.cloud.speech.v1p1beta1.StreamingRecognitionConfig;
+import com.google.cloud.speech.v1p1beta1.StreamingRecognitionResult;
+import com.google.cloud.speech.v1p1beta1.StreamingRecognizeRequest;
+import com.google.cloud.speech.v1p1beta1.StreamingRecognizeResponse;
+import com.google.protobuf.Duration;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import java.io.ByteArrayInputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Runs hundreds of sessions against a local fake Speech service. */
+@RunWith(JUnit4.class)
+public class StreamingSessionTest {
+  private static final int SESSIONS = 300;
+  private static final int CHUNK_MS = 100;
+  private static final int CHUNKS = 20;
+  private static final long STREAMING_LIMIT_MS = 500;
+  private static final int BRIDGING_MS = 1000;
+  private static final int BYTES_PER_MS = 32;
+
+  private Server server;
+  private ManagedChannel channel;
+  private SpeechClient client;
+
+  // Answers every audio request with an interim result, every third one with a final result, and
+  // the end of the audio with a final result, timed from the start of the stream.
+  private static StreamObserver<StreamingRecognizeRequest> fakeRecognize(
+      StreamObserver<StreamingRecognizeResponse> responses) {
+    return new StreamObserver<StreamingRecognizeRequest>() {
+      long receivedMs = 0;
+      long finalMs = 0;
+      int chunks = 0;
+
+      void respond(boolean isFinal) {
+        responses.onNext(StreamingRecognizeResponse.newBuilder()
+            .addResults(StreamingRecognitionResult.newBuilder()
+                .setIsFinal(isFinal)
+                .setResultEndTime(Duration.newBuilder()
+                    .setSeconds(receivedMs / 1000)
+                    .setNanos((int) (receivedMs % 1000) * 1000000))
+                .addAlternatives(SpeechRecognitionAlternative.newBuilder()
+                    .setTranscript("up to " + receivedMs)))
+            .build());
+        if (isFinal) {
+          finalMs = receivedMs;
+        }
+      }
+
+      @Override
+      public void onNext(StreamingRecognizeRequest request) {
+        if (request.hasStreamingConfig()) {
+          return;
+        }
+        receivedMs += request.getAudioContent().size() / BYTES_PER_MS;
+        respond(++chunks % 3 == 0);
+      }
+
+      @Override
+      public void onError(Throwable t) {}
+
+      @Override
+      public void onCompleted() {
+        if (finalMs < receivedMs) {
+          respond(true);
+        }
+        responses.onCompleted();
+      }
+    };
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    MethodDescriptor<StreamingRecognizeRequest, StreamingRecognizeResponse> method =
+        MethodDescriptor.<StreamingRecognizeRequest, StreamingRecognizeResponse>newBuilder()
+            .setType(MethodDescriptor.MethodType.BIDI_STREAMING)
+            .setFullMethodName("google.cloud.speech.v1p1beta1.Speech/StreamingRecognize")
+            .setRequestMarshaller(
+                ProtoUtils.marshaller(StreamingRecognizeRequest.getDefaultInstance()))
+            .setResponseMarshaller(
+                ProtoUtils.marshaller(StreamingRecognizeResponse.getDefaultInstance()))
+            .build();
+    String name = InProcessServerBuilder.generateName();
+    server = InProcessServerBuilder.forName(name)
+        .addService(ServerServiceDefinition.builder("google.cloud.speech.v1p1beta1.Speech")
+            .addMethod(method, ServerCalls.asyncBidiStreamingCall(
+                StreamingSessionTest::fakeRecognize))
+            .build())
+        .build()
+        .start();
+    channel = InProcessChannelBuilder.forName(name).build();
+    client = SpeechClient.create(SpeechSettings.newBuilder()
+        .setCredentialsProvider(NoCredentialsProvider.create())
+        .setTransportChannelProvider(
+            FixedTransportChannelProvider.create(GrpcTransportChannel.create(channel)))
+        .build());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    channel.shutdownNow();
+    server.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+  }
+
+  private static StreamingRecognitionConfig config() {
+    return StreamingRecognitionConfig.newBuilder()
+        .setConfig(RecognitionConfig.newBuilder()
+            .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
+            .setLanguageCode("en-US")
+            .setSampleRateHertz(StreamingSession.SAMPLE_RATE_HERTZ))
+        .setInterimResults(true)
+        .build();
+  }
+
+  @Test
+  public void sessions_shouldRollOverAndReportSessionTimes() throws Exception {
+    StreamingRecognitionConfig config = config();
+    Map<String, List<Long>> finalEndTimes = new ConcurrentHashMap<>();
+    List<Long> rolloverLatencies = Collections.synchronizedList(new ArrayList<>());
+    StreamingSession.Listener listener = new StreamingSession.Listener() {
+      @Override
+      public void onTranscript(StreamingSession session, String transcript, boolean isFinal,
+          long endTimeMillis) {
+        if (isFinal) {
+          finalEndTimes.get(session.getId()).add(endTimeMillis);
+        }
+      }
+
+      @Override
+      public void onRollover(StreamingSession session, long latencyNanos) {
+        rolloverLatencies.add(latencyNanos);
+      }
+    };
+
+    List<StreamingSession> sessions = new ArrayList<>();
+    for (int i = 0; i < SESSIONS; i++) {
+      String id = "session-" + i;
+      finalEndTimes.put(id, Collections.synchronizedList(new ArrayList<>()));
+      byte[] audio = new byte[CHUNKS * CHUNK_MS * BYTES_PER_MS];
+      sessions.add(new StreamingSession(id, client, config, new ByteArrayInputStream(audio)::read,
+          listener, STREAMING_LIMIT_MS, CHUNK_MS, BRIDGING_MS));
+    }
+
+    try (StreamingSessionPool pool = new StreamingSessionPool(4, 4, 10)) {
+      List<CompletableFuture<Void>> done = new ArrayList<>();
+      for (StreamingSession session : sessions) {
+        done.add(pool.start(session));
+      }
+      CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).get(2, TimeUnit.MINUTES);
+    }
+
+    long totalAudioMs = CHUNKS * CHUNK_MS;
+    for (StreamingSession session : sessions) {
+      List<Long> endTimes = finalEndTimes.get(session.getId());
+      assertThat(endTimes).isInOrder();
+      assertThat(endTimes.get(endTimes.size() - 1)).isEqualTo(totalAudioMs);
+      assertThat(session.getRestartCount()).isAtLeast((int) (totalAudioMs / STREAMING_LIMIT_MS));
+    }
+    assertThat(rolloverLatencies).isNotEmpty();
+  }
+
+  @Test
+  public void pool_shouldPumpSessionsWhileAnotherSourceBlocks() throws Exception {
+    StreamingSession.Listener listener = (session, transcript, isFinal, endTimeMillis) -> { };
+    CountDownLatch audioArrives = new CountDownLatch(1);
+    // A client that has not sent any audio yet.
+    StreamingSession waiting = new StreamingSession("waiting", client, config(),
+        (buffer, offset, length) -> {
+          try {
+            audioArrives.await();
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+          }
+          return -1;
+        },
+        listener, STREAMING_LIMIT_MS, CHUNK_MS, BRIDGING_MS);
+    StreamingSession sending = new StreamingSession("sending", client, config(),
+        new ByteArrayInputStream(new byte[CHUNKS * CHUNK_MS * BYTES_PER_MS])::read,
+        listener, STREAMING_LIMIT_MS, CHUNK_MS, BRIDGING_MS);
+
+    try (StreamingSessionPool pool = new StreamingSessionPool(1, 2, 10)) {
+      CompletableFuture<Void> waitingDone = pool.start(waiting);
+      pool.start(sending).get(30, TimeUnit.SECONDS);
+
+      assertThat(sending.getSentChunks()).isEqualTo(CHUNKS);
+      assertThat(waitingDone.isDone()).isFalse();
+      audioArrives.countDown();
+      waitingDone.get(30, TimeUnit.SECONDS);
+    }
+  }
+}